@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.aggregators;
+
+import org.apache.giraph.utils.WritableUtils;
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Aggregated value which master sends to workers when aggregator delta
+ * encoding is enabled.  It's written as a flag followed either by the
+ * difference of the value to a base value (see {@link DeltaWritable}), or
+ * by the whole value if there is no base of the same class.
+ *
+ * @param <T> Type of the value
+ */
+public class DeltaAggregatorValue<T extends Writable> implements Writable {
+  /** Value the difference is relative to, null if there is none */
+  private T base;
+  /** Aggregated value */
+  private final T value;
+
+  /**
+   * Constructor
+   *
+   * @param base Value the difference is relative to, null if there is none
+   * @param value Aggregated value, which is read into when reading
+   */
+  public DeltaAggregatorValue(T base, T value) {
+    this.base = base;
+    this.value = value;
+  }
+
+  /**
+   * Get the base value.  After reading, it's a private copy of the value
+   * which the next difference has to be applied to.
+   *
+   * @return Base value, null if there is none
+   */
+  public T getBase() {
+    return base;
+  }
+
+  /**
+   * Get the aggregated value.
+   *
+   * @return Aggregated value
+   */
+  public T getValue() {
+    return value;
+  }
+
+  /**
+   * Check whether the value can be written as the difference to the base.
+   *
+   * @return True iff there is a base of the same class as the value
+   */
+  private boolean hasBase() {
+    return base != null && base.getClass().equals(value.getClass());
+  }
+
+  /**
+   * Copy a value.
+   *
+   * @param from Value to copy from
+   * @param to Value to copy to
+   */
+  private static void copy(Writable from, Writable to) {
+    WritableUtils.readFieldsFromByteArray(
+        WritableUtils.writeToByteArray(from), to);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void write(DataOutput out) throws IOException {
+    if (hasBase()) {
+      out.writeBoolean(true);
+      ((DeltaWritable<T>) value).writeDelta(out, base);
+    } else {
+      out.writeBoolean(false);
+      value.write(out);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    if (in.readBoolean()) {
+      if (!hasBase()) {
+        throw new IllegalStateException("readFields: Received difference " +
+            "without a base value");
+      }
+      ((DeltaWritable<T>) base).readDelta(in);
+      copy(base, value);
+    } else {
+      value.readFields(in);
+      base = (T) WritableUtils.createWritable(value.getClass());
+      copy(value, base);
+    }
+  }
+}
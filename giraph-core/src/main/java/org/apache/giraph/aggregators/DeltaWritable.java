@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.aggregators;
+
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Aggregated value which can be written as the difference to another value
+ * of the same type.  If aggregator delta encoding is enabled, master sends
+ * such values to workers as the difference to the value of the previous
+ * superstep, which pays off for large values that change little between
+ * supersteps.
+ *
+ * @param <T> Type of the value
+ */
+public interface DeltaWritable<T extends Writable> extends Writable {
+  /**
+   * Write the difference of this value to a base value, such that calling
+   * {@link #readDelta(DataInput)} on an equal base value turns it into this
+   * value.
+   *
+   * @param out Output to write to
+   * @param base Base value (not modified)
+   * @throws IOException
+   */
+  void writeDelta(DataOutput out, T base) throws IOException;
+
+  /**
+   * Apply a difference written by {@link #writeDelta(DataOutput, Writable)}
+   * to this value.
+   *
+   * @param in Input to read from
+   * @throws IOException
+   */
+  void readDelta(DataInput in) throws IOException;
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.aggregators.matrix;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import it.unimi.dsi.fastutil.ints.IntIterator;
+
+import org.apache.giraph.aggregators.DeltaWritable;
+
+/**
+ * Base class of the vectors, which only store their non-zero entries.
+ * Vectors are written as their non-zero entries, and their difference to a
+ * base vector as the entries which differ from it, with entries removed
+ * since the base written as zero.  Subclasses only access the entries of
+ * their primitive maps.
+ *
+ * @param <V> Type of the vector
+ */
+public abstract class DeltaVector<V extends DeltaVector<V>>
+    implements DeltaWritable<V> {
+  /**
+   * Initialize the values of the vector. The default value is 0.
+   *
+   * @param size the size of the vector
+   */
+  protected abstract void initialize(int size);
+
+  /**
+   * Iterate over the rows of the entries the vector stores.
+   *
+   * @return Iterator over the rows
+   */
+  protected abstract IntIterator rowIterator();
+
+  /**
+   * Check whether the vector stores an entry.
+   *
+   * @param i the entry
+   * @return True iff the vector stores the entry
+   */
+  protected abstract boolean hasEntry(int i);
+
+  /**
+   * Check whether an entry is zero.
+   *
+   * @param i the entry
+   * @return True iff the entry is zero
+   */
+  protected abstract boolean isZero(int i);
+
+  /**
+   * Check whether an entry is equal to the same entry of another vector.
+   *
+   * @param i the entry
+   * @param other the other vector
+   * @return True iff the entries are equal
+   */
+  protected abstract boolean entryEquals(int i, V other);
+
+  /**
+   * Write the value of an entry.
+   *
+   * @param out Output to write to
+   * @param i the entry
+   * @throws IOException
+   */
+  protected abstract void writeEntry(DataOutput out, int i)
+    throws IOException;
+
+  /**
+   * Read the value of an entry, removing the entry if it's zero.
+   *
+   * @param in Input to read from
+   * @param i the entry
+   * @throws IOException
+   */
+  protected abstract void readEntry(DataInput in, int i) throws IOException;
+
+  /**
+   * Write the entries of this vector which differ from a base vector.  Zero
+   * entries are not stored, so an entry of the base vector which this vector
+   * doesn't have is written as zero.
+   *
+   * @param out Output to write to, or null to only count the entries
+   * @param base Base vector, or null to write all non-zero entries
+   * @return Number of entries written
+   * @throws IOException
+   */
+  private int writeEntries(DataOutput out, V base) throws IOException {
+    int numEntries = 0;
+    IntIterator iterator = rowIterator();
+    while (iterator.hasNext()) {
+      int i = iterator.nextInt();
+      if ((base == null) ? !isZero(i) : !entryEquals(i, base)) {
+        ++numEntries;
+        if (out != null) {
+          out.writeInt(i);
+          writeEntry(out, i);
+        }
+      }
+    }
+    if (base != null) {
+      iterator = base.rowIterator();
+      while (iterator.hasNext()) {
+        int i = iterator.nextInt();
+        if (!base.isZero(i) && !hasEntry(i)) {
+          ++numEntries;
+          if (out != null) {
+            out.writeInt(i);
+            writeEntry(out, i);
+          }
+        }
+      }
+    }
+    return numEntries;
+  }
+
+  /**
+   * Read entries written by {@link #writeEntries(DataOutput, DeltaVector)}.
+   *
+   * @param in Input to read from
+   * @param size Number of entries
+   * @throws IOException
+   */
+  private void readEntries(DataInput in, int size) throws IOException {
+    for (int n = 0; n < size; ++n) {
+      readEntry(in, in.readInt());
+    }
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(writeEntries(null, null));
+    writeEntries(out, null);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int size = in.readInt();
+    initialize(size);
+    readEntries(in, size);
+  }
+
+  @Override
+  public void writeDelta(DataOutput out, V base) throws IOException {
+    out.writeInt(writeEntries(null, base));
+    writeEntries(out, base);
+  }
+
+  @Override
+  public void readDelta(DataInput in) throws IOException {
+    readEntries(in, in.readInt());
+  }
+}
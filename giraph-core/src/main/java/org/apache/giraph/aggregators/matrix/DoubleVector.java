@@ -21,16 +21,16 @@ package org.apache.giraph.aggregators.matrix;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Map.Entry;
 
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
-
-import org.apache.hadoop.io.Writable;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
 /**
  * The double vector holds the values of a particular row.
  */
-public class DoubleVector implements Writable {
+public class DoubleVector extends DeltaVector<DoubleVector> {
   /**
    * The entries of the vector are (key, value) pairs of the form (row, value)
    */
@@ -52,12 +52,8 @@ public class DoubleVector implements Writable {
     initialize(size);
   }
 
-  /**
-   * Initialize the values of the vector. The default value is 0.0
-   *
-   * @param size the size of the vector
-   */
-  private void initialize(int size) {
+  @Override
+  protected void initialize(int size) {
     entries = new Int2DoubleOpenHashMap(size);
     entries.defaultReturnValue(0.0f);
   }
@@ -96,28 +92,46 @@ public class DoubleVector implements Writable {
    * @param other the vector to add.
    */
   void add(DoubleVector other) {
-    for (Entry<Integer, Double> entry : other.entries.entrySet()) {
-      entries.addTo(entry.getKey(), entry.getValue());
+    ObjectIterator<Int2DoubleMap.Entry> iterator =
+        other.entries.int2DoubleEntrySet().fastIterator();
+    while (iterator.hasNext()) {
+      Int2DoubleMap.Entry entry = iterator.next();
+      entries.addTo(entry.getIntKey(), entry.getDoubleValue());
     }
   }
 
   @Override
-  public void write(DataOutput out) throws IOException {
-    out.writeInt(entries.size());
-    for (Entry<Integer, Double> entry : entries.entrySet()) {
-      out.writeInt(entry.getKey());
-      out.writeDouble(entry.getValue());
-    }
+  protected IntIterator rowIterator() {
+    return entries.keySet().iterator();
   }
 
   @Override
-  public void readFields(DataInput in) throws IOException {
-    int size = in.readInt();
-    initialize(size);
-    for (int i = 0; i < size; ++i) {
-      int row = in.readInt();
-      double value = in.readDouble();
-      entries.put(row, value);
+  protected boolean hasEntry(int i) {
+    return entries.containsKey(i);
+  }
+
+  @Override
+  protected boolean isZero(int i) {
+    return entries.get(i) == 0;
+  }
+
+  @Override
+  protected boolean entryEquals(int i, DoubleVector other) {
+    return entries.get(i) == other.entries.get(i);
+  }
+
+  @Override
+  protected void writeEntry(DataOutput out, int i) throws IOException {
+    out.writeDouble(entries.get(i));
+  }
+
+  @Override
+  protected void readEntry(DataInput in, int i) throws IOException {
+    double value = in.readDouble();
+    if (value == 0) {
+      entries.remove(i);
+    } else {
+      entries.put(i, value);
     }
   }
 }
@@ -21,16 +21,16 @@ package org.apache.giraph.aggregators.matrix;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Map.Entry;
 
+import it.unimi.dsi.fastutil.ints.Int2FloatMap;
 import it.unimi.dsi.fastutil.ints.Int2FloatOpenHashMap;
-
-import org.apache.hadoop.io.Writable;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
 /**
  * The float vector holds the values of a particular row.
  */
-public class FloatVector implements Writable {
+public class FloatVector extends DeltaVector<FloatVector> {
   /**
    * The entries of the vector are (key, value) pairs of the form (row, value)
    */
@@ -52,12 +52,8 @@ public class FloatVector implements Writable {
     initialize(size);
   }
 
-  /**
-   * Initialize the values of the vector. The default value is 0.0
-   *
-   * @param size the size of the vector
-   */
-  private void initialize(int size) {
+  @Override
+  protected void initialize(int size) {
     entries = new Int2FloatOpenHashMap(size);
     entries.defaultReturnValue(0.0f);
   }
@@ -96,28 +92,46 @@ public class FloatVector implements Writable {
    * @param other the vector to add.
    */
   void add(FloatVector other) {
-    for (Entry<Integer, Float> entry : other.entries.entrySet()) {
-      entries.addTo(entry.getKey(), entry.getValue());
+    ObjectIterator<Int2FloatMap.Entry> iterator =
+        other.entries.int2FloatEntrySet().fastIterator();
+    while (iterator.hasNext()) {
+      Int2FloatMap.Entry entry = iterator.next();
+      entries.addTo(entry.getIntKey(), entry.getFloatValue());
     }
   }
 
   @Override
-  public void write(DataOutput out) throws IOException {
-    out.writeInt(entries.size());
-    for (Entry<Integer, Float> entry : entries.entrySet()) {
-      out.writeInt(entry.getKey());
-      out.writeFloat(entry.getValue());
-    }
+  protected IntIterator rowIterator() {
+    return entries.keySet().iterator();
   }
 
   @Override
-  public void readFields(DataInput in) throws IOException {
-    int size = in.readInt();
-    initialize(size);
-    for (int i = 0; i < size; ++i) {
-      int row = in.readInt();
-      float value = in.readFloat();
-      entries.put(row, value);
+  protected boolean hasEntry(int i) {
+    return entries.containsKey(i);
+  }
+
+  @Override
+  protected boolean isZero(int i) {
+    return entries.get(i) == 0;
+  }
+
+  @Override
+  protected boolean entryEquals(int i, FloatVector other) {
+    return entries.get(i) == other.entries.get(i);
+  }
+
+  @Override
+  protected void writeEntry(DataOutput out, int i) throws IOException {
+    out.writeFloat(entries.get(i));
+  }
+
+  @Override
+  protected void readEntry(DataInput in, int i) throws IOException {
+    float value = in.readFloat();
+    if (value == 0) {
+      entries.remove(i);
+    } else {
+      entries.put(i, value);
     }
   }
 }
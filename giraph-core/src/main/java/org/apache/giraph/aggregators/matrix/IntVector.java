@@ -21,16 +21,16 @@ package org.apache.giraph.aggregators.matrix;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Map.Entry;
 
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
-
-import org.apache.hadoop.io.Writable;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
 /**
  * The int vector holds the values of a particular row.
  */
-public class IntVector implements Writable {
+public class IntVector extends DeltaVector<IntVector> {
   /**
    * The entries of the vector are (key, value) pairs of the form (row, value)
    */
@@ -52,12 +52,8 @@ public class IntVector implements Writable {
     initialize(size);
   }
 
-  /**
-   * Initialize the values of the vector. The default value is 0.0
-   *
-   * @param size the size of the vector
-   */
-  private void initialize(int size) {
+  @Override
+  protected void initialize(int size) {
     entries = new Int2IntOpenHashMap(size);
     entries.defaultReturnValue(0);
   }
@@ -96,28 +92,46 @@ public class IntVector implements Writable {
    * @param other the vector to add.
    */
   void add(IntVector other) {
-    for (Entry<Integer, Integer> entry : other.entries.entrySet()) {
-      entries.addTo(entry.getKey(), entry.getValue());
+    ObjectIterator<Int2IntMap.Entry> iterator =
+        other.entries.int2IntEntrySet().fastIterator();
+    while (iterator.hasNext()) {
+      Int2IntMap.Entry entry = iterator.next();
+      entries.addTo(entry.getIntKey(), entry.getIntValue());
     }
   }
 
   @Override
-  public void write(DataOutput out) throws IOException {
-    out.writeInt(entries.size());
-    for (Entry<Integer, Integer> entry : entries.entrySet()) {
-      out.writeInt(entry.getKey());
-      out.writeInt(entry.getValue());
-    }
+  protected IntIterator rowIterator() {
+    return entries.keySet().iterator();
   }
 
   @Override
-  public void readFields(DataInput in) throws IOException {
-    int size = in.readInt();
-    initialize(size);
-    for (int i = 0; i < size; ++i) {
-      int row = in.readInt();
-      int value = in.readInt();
-      entries.put(row, value);
+  protected boolean hasEntry(int i) {
+    return entries.containsKey(i);
+  }
+
+  @Override
+  protected boolean isZero(int i) {
+    return entries.get(i) == 0;
+  }
+
+  @Override
+  protected boolean entryEquals(int i, IntVector other) {
+    return entries.get(i) == other.entries.get(i);
+  }
+
+  @Override
+  protected void writeEntry(DataOutput out, int i) throws IOException {
+    out.writeInt(entries.get(i));
+  }
+
+  @Override
+  protected void readEntry(DataInput in, int i) throws IOException {
+    int value = in.readInt();
+    if (value == 0) {
+      entries.remove(i);
+    } else {
+      entries.put(i, value);
     }
   }
 }
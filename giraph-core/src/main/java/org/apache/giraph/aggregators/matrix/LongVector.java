@@ -21,16 +21,16 @@ package org.apache.giraph.aggregators.matrix;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Map.Entry;
 
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
 import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
-
-import org.apache.hadoop.io.Writable;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
 /**
  * The long vector holds the values of a particular row.
  */
-public class LongVector implements Writable {
+public class LongVector extends DeltaVector<LongVector> {
   /**
    * The entries of the vector are (key, value) pairs of the form (row, value)
    */
@@ -52,12 +52,8 @@ public class LongVector implements Writable {
     initialize(size);
   }
 
-  /**
-   * Initialize the values of the vector. The default value is 0.0
-   *
-   * @param size the size of the vector
-   */
-  private void initialize(int size) {
+  @Override
+  protected void initialize(int size) {
     entries = new Int2LongOpenHashMap(size);
     entries.defaultReturnValue(0L);
   }
@@ -96,28 +92,46 @@ public class LongVector implements Writable {
    * @param other the vector to add.
    */
   void add(LongVector other) {
-    for (Entry<Integer, Long> kv : other.entries.entrySet()) {
-      entries.addTo(kv.getKey(), kv.getValue());
+    ObjectIterator<Int2LongMap.Entry> iterator =
+        other.entries.int2LongEntrySet().fastIterator();
+    while (iterator.hasNext()) {
+      Int2LongMap.Entry entry = iterator.next();
+      entries.addTo(entry.getIntKey(), entry.getLongValue());
     }
   }
 
   @Override
-  public void write(DataOutput out) throws IOException {
-    out.writeInt(entries.size());
-    for (Entry<Integer, Long> kv : entries.entrySet()) {
-      out.writeInt(kv.getKey());
-      out.writeLong(kv.getValue());
-    }
+  protected IntIterator rowIterator() {
+    return entries.keySet().iterator();
   }
 
   @Override
-  public void readFields(DataInput in) throws IOException {
-    int size = in.readInt();
-    initialize(size);
-    for (int i = 0; i < size; ++i) {
-      int row = in.readInt();
-      long value = in.readLong();
-      entries.put(row, value);
+  protected boolean hasEntry(int i) {
+    return entries.containsKey(i);
+  }
+
+  @Override
+  protected boolean isZero(int i) {
+    return entries.get(i) == 0;
+  }
+
+  @Override
+  protected boolean entryEquals(int i, LongVector other) {
+    return entries.get(i) == other.entries.get(i);
+  }
+
+  @Override
+  protected void writeEntry(DataOutput out, int i) throws IOException {
+    out.writeLong(entries.get(i));
+  }
+
+  @Override
+  protected void readEntry(DataInput in, int i) throws IOException {
+    long value = in.readLong();
+    if (value == 0) {
+      entries.remove(i);
+    } else {
+      entries.put(i, value);
     }
   }
 }
@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.FloatSumCombiner;
+import org.apache.giraph.comm.messages.InMemoryMessageStoreFactory;
+import org.apache.giraph.comm.messages.MessageStore;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.factories.MessageValueFactory;
+import org.apache.giraph.partition.PartitionStore;
+import org.apache.giraph.partition.SimplePartitionStore;
+import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Lists;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Microbenchmark for adding messages to a message store from several
+ * threads at once, the way netty server threads do when requests arrive.
+ * Uses the vertex id and message types of {@link PageRankComputation}, so
+ * with a combiner the primitive combining store is measured, and without
+ * one the primitive byte array store.  All messages go to the same
+ * partitions, to show how ingestion scales when partitions are hot.
+ */
+public class MessageStoreBenchmark implements Tool {
+  /** Class logger */
+  private static final Logger LOG =
+      Logger.getLogger(MessageStoreBenchmark.class);
+
+  /** Option for the comma-separated list of thread counts to measure */
+  private static final BenchmarkOption THREADS =
+      new BenchmarkOption("t", "threads", true,
+          "Comma-separated list of numbers of threads (default 1,2,4,8)");
+  /** Option for the number of partitions messages are sent to */
+  private static final BenchmarkOption PARTITIONS =
+      new BenchmarkOption("p", "partitions", true,
+          "Number of partitions messages are sent to (default 1)");
+  /** Option for the number of vertices per partition */
+  private static final BenchmarkOption VERTICES =
+      new BenchmarkOption("V", "vertices", true,
+          "Number of vertices per partition (default 100000)");
+  /** Option for the number of requests added by each thread */
+  private static final BenchmarkOption REQUESTS =
+      new BenchmarkOption("r", "requests", true,
+          "Number of requests added by each thread (default 200)");
+  /** Option for the number of messages per request */
+  private static final BenchmarkOption MESSAGES =
+      new BenchmarkOption("m", "messages", true,
+          "Number of messages per request (default 10000)");
+  /** Option for the number of stripes per partition */
+  private static final BenchmarkOption STRIPES =
+      new BenchmarkOption("s", "stripes", true,
+          "Number of stripes per partition (default: number of threads)");
+  /** Option to add messages without a combiner */
+  private static final BenchmarkOption NO_COMBINER =
+      new BenchmarkOption("n", "noCombiner", false,
+          "Add messages without a combiner");
+
+  /** Configuration */
+  private Configuration conf;
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    Options options = new Options();
+    for (BenchmarkOption option : Lists.newArrayList(BenchmarkOption.HELP,
+        THREADS, PARTITIONS, VERTICES, REQUESTS, MESSAGES, STRIPES,
+        NO_COMBINER)) {
+      option.addToOptions(options);
+    }
+    CommandLine cmd = new PosixParser().parse(options, args);
+    if (BenchmarkOption.HELP.optionTurnedOn(cmd)) {
+      new HelpFormatter().printHelp(getClass().getName(), options, true);
+      return 0;
+    }
+    String threads = THREADS.optionTurnedOn(cmd) ?
+        THREADS.getOptionValue(cmd) : "1,2,4,8";
+    int numPartitions = PARTITIONS.getOptionIntValue(cmd, 1);
+    int numVertices = VERTICES.getOptionIntValue(cmd, 100000);
+    int numRequests = REQUESTS.getOptionIntValue(cmd, 200);
+    int numMessages = MESSAGES.getOptionIntValue(cmd, 10000);
+
+    for (String threadsString : threads.split(",")) {
+      int numThreads = Integer.parseInt(threadsString.trim());
+      GiraphConfiguration giraphConf = new GiraphConfiguration(getConf());
+      giraphConf.setComputationClass(PageRankComputation.class);
+      if (!NO_COMBINER.optionTurnedOn(cmd)) {
+        giraphConf.setCombinerClass(FloatSumCombiner.class);
+      }
+      GiraphConstants.MESSAGE_STORE_STRIPES.set(giraphConf,
+          STRIPES.getOptionIntValue(cmd, numThreads));
+      ImmutableClassesGiraphConfiguration<IntWritable, FloatWritable,
+          NullWritable> immutableConf = new ImmutableClassesGiraphConfiguration
+          <IntWritable, FloatWritable, NullWritable>(giraphConf);
+      double seconds = addMessages(immutableConf, numThreads, numPartitions,
+          numVertices, numRequests, numMessages);
+      long totalMessages = (long) numThreads * numRequests * numMessages;
+      LOG.info("run: " + numThreads + " threads added " + totalMessages +
+          " messages in " + String.format("%.3f", seconds) + " s (" +
+          String.format("%.0f", totalMessages / seconds) + " messages/s)");
+    }
+    return 0;
+  }
+
+  /**
+   * Add messages to a new message store from several threads, and measure
+   * the time it takes.
+   *
+   * @param conf Configuration
+   * @param numThreads Number of threads
+   * @param numPartitions Number of partitions
+   * @param numVertices Number of vertices per partition
+   * @param numRequests Number of requests added by each thread
+   * @param numMessages Number of messages per request
+   * @return Number of seconds it took to add all messages
+   * @throws Exception
+   */
+  private static double addMessages(
+      ImmutableClassesGiraphConfiguration<IntWritable, FloatWritable,
+          NullWritable> conf,
+      int numThreads, final int numPartitions, int numVertices,
+      int numRequests, int numMessages) throws Exception {
+    final MessageStore<IntWritable, FloatWritable> messageStore =
+        new InMemoryMessageStoreFactory<IntWritable, FloatWritable>(
+            createService(conf, numPartitions), conf).newStore(
+            conf.<FloatWritable>getIncomingMessageValueFactory());
+
+    // Create the requests up front, so that only adding them is measured
+    Random random = new Random(numThreads);
+    List<Callable<Void>> callables = Lists.newArrayList();
+    for (int t = 0; t < numThreads; ++t) {
+      final List<ByteArrayVertexIdMessages<IntWritable, FloatWritable>>
+          requests = Lists.newArrayListWithCapacity(numRequests);
+      for (int r = 0; r < numRequests; ++r) {
+        ByteArrayVertexIdMessages<IntWritable, FloatWritable> messages =
+            createMessages(conf);
+        int partitionId = r % numPartitions;
+        for (int m = 0; m < numMessages; ++m) {
+          messages.add(new IntWritable(
+              random.nextInt(numVertices) * numPartitions + partitionId),
+              new FloatWritable(1));
+        }
+        requests.add(messages);
+      }
+      callables.add(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          for (int r = 0; r < requests.size(); ++r) {
+            messageStore.addPartitionMessages(r % numPartitions,
+                requests.get(r));
+          }
+          return null;
+        }
+      });
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      long startNanos = System.nanoTime();
+      for (Future<Void> future : executor.invokeAll(callables)) {
+        future.get();
+      }
+      return (System.nanoTime() - startNanos) / 1e9;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Create an empty request.
+   *
+   * @param conf Configuration
+   * @return Request
+   */
+  private static ByteArrayVertexIdMessages<IntWritable, FloatWritable>
+  createMessages(ImmutableClassesGiraphConfiguration<IntWritable,
+      FloatWritable, NullWritable> conf) {
+    MessageValueFactory<FloatWritable> messageValueFactory =
+        conf.getOutgoingMessageValueFactory();
+    ByteArrayVertexIdMessages<IntWritable, FloatWritable> messages =
+        new ByteArrayVertexIdMessages<IntWritable, FloatWritable>(
+            messageValueFactory);
+    messages.setConf(conf);
+    messages.initialize();
+    return messages;
+  }
+
+  /**
+   * Create the part of a worker which message stores use: the partition
+   * store and the mapping from vertex ids to partitions.
+   *
+   * @param conf Configuration
+   * @param numPartitions Number of partitions
+   * @return Worker service
+   */
+  private static CentralizedServiceWorker<IntWritable, ?, ?> createService(
+      ImmutableClassesGiraphConfiguration<IntWritable, FloatWritable,
+          NullWritable> conf, final int numPartitions) {
+    final PartitionStore<IntWritable, FloatWritable, NullWritable>
+        partitionStore = new SimplePartitionStore<IntWritable, FloatWritable,
+            NullWritable>(conf, null);
+    for (int i = 0; i < numPartitions; ++i) {
+      partitionStore.addPartition(conf.createPartition(i, null));
+    }
+    return (CentralizedServiceWorker<IntWritable, ?, ?>) Proxy.newProxyInstance(
+        CentralizedServiceWorker.class.getClassLoader(),
+        new Class<?>[] {CentralizedServiceWorker.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getPartitionStore")) {
+              return partitionStore;
+            } else if (method.getName().equals("getPartitionId")) {
+              return ((IntWritable) args[0]).get() % numPartitions;
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  /**
+   * Execute the benchmark.
+   *
+   * @param args Typically, this is the command line arguments.
+   * @throws Exception Any exception thrown during computation.
+   */
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new MessageStoreBenchmark(), args));
+  }
+}
@@ -168,6 +168,12 @@ public abstract class BspService<I extends WritableComparable,
    * messages, etc.
    */
   public static final String CHECKPOINT_VERTICES_POSTFIX = ".vertices";
+  /**
+   * If at the end of a checkpoint file, indicates the edges of a partition
+   * which were written separately from its vertex values (incremental
+   * checkpoints)
+   */
+  public static final String CHECKPOINT_EDGES_POSTFIX = ".edges";
   /**
    * If at the end of a checkpoint file, indicates metadata and data is valid
    * for the same filenames without .valid
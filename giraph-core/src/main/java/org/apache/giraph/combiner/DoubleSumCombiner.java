@@ -25,13 +25,18 @@ import org.apache.hadoop.io.LongWritable;
  * A combiner that sums double-valued messages
  */
 public class DoubleSumCombiner extends
-    Combiner<LongWritable, DoubleWritable> {
+    Combiner<LongWritable, DoubleWritable> implements DoubleCombiner {
   @Override
   public void combine(LongWritable vertexIndex, DoubleWritable originalMessage,
       DoubleWritable messageToCombine) {
     originalMessage.set(originalMessage.get() + messageToCombine.get());
   }
 
+  @Override
+  public double combine(double originalMessage, double messageToCombine) {
+    return originalMessage + messageToCombine;
+  }
+
   @Override
   public DoubleWritable createInitialMessage() {
     return new DoubleWritable(0);
@@ -25,13 +25,18 @@ import org.apache.hadoop.io.IntWritable;
  * A combiner that sums float-valued messages
  */
 public class FloatSumCombiner extends
-    Combiner<IntWritable, FloatWritable> {
+    Combiner<IntWritable, FloatWritable> implements FloatCombiner {
   @Override
   public void combine(IntWritable vertexIndex, FloatWritable originalMessage,
       FloatWritable messageToCombine) {
     originalMessage.set(originalMessage.get() + messageToCombine.get());
   }
 
+  @Override
+  public float combine(float originalMessage, float messageToCombine) {
+    return originalMessage + messageToCombine;
+  }
+
   @Override
   public FloatWritable createInitialMessage() {
     return new FloatWritable(0);
@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.combiner;
+
+/**
+ * Primitive form of a {@link Combiner} of IntWritable messages.  Message
+ * stores which keep int messages unboxed use it to combine them without
+ * going through Writables.  Implementations must combine the same way as
+ * {@link Combiner#combine}.
+ */
+public interface IntCombiner {
+  /**
+   * Combine two messages.
+   *
+   * @param originalMessage The first message which we want to combine
+   * @param messageToCombine The second message which we want to combine
+   * @return Result of combining the messages
+   */
+  int combine(int originalMessage, int messageToCombine);
+}
@@ -25,7 +25,7 @@ import org.apache.hadoop.io.LongWritable;
  * Combiner which finds the minimum of {@link DoubleWritable}.
  */
 public class MinimumDoubleCombiner extends
-    Combiner<LongWritable, DoubleWritable> {
+    Combiner<LongWritable, DoubleWritable> implements DoubleCombiner {
   @Override
   public void combine(LongWritable vertexIndex, DoubleWritable originalMessage,
       DoubleWritable messageToCombine) {
@@ -34,6 +34,12 @@ public class MinimumDoubleCombiner extends
     }
   }
 
+  @Override
+  public double combine(double originalMessage, double messageToCombine) {
+    return (originalMessage > messageToCombine) ? messageToCombine :
+        originalMessage;
+  }
+
   @Override
   public DoubleWritable createInitialMessage() {
     return new DoubleWritable(Double.MAX_VALUE);
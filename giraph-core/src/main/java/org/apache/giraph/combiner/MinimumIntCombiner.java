@@ -24,7 +24,7 @@ import org.apache.hadoop.io.IntWritable;
  * {@link Combiner} that finds the minimum {@link IntWritable}
  */
 public class MinimumIntCombiner
-    extends Combiner<IntWritable, IntWritable> {
+    extends Combiner<IntWritable, IntWritable> implements IntCombiner {
   @Override
   public void combine(IntWritable vertexIndex, IntWritable originalMessage,
       IntWritable messageToCombine) {
@@ -33,6 +33,12 @@ public class MinimumIntCombiner
     }
   }
 
+  @Override
+  public int combine(int originalMessage, int messageToCombine) {
+    return (originalMessage > messageToCombine) ? messageToCombine :
+        originalMessage;
+  }
+
   @Override
   public IntWritable createInitialMessage() {
     return new IntWritable(Integer.MAX_VALUE);
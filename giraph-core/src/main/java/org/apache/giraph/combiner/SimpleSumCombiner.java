@@ -25,7 +25,7 @@ import org.apache.hadoop.io.LongWritable;
  * Combiner which sums up {@link IntWritable} message values.
  */
 public class SimpleSumCombiner
-    extends Combiner<LongWritable, IntWritable> {
+    extends Combiner<LongWritable, IntWritable> implements IntCombiner {
 
   @Override
   public void combine(LongWritable vertexIndex, IntWritable originalMessage,
@@ -33,6 +33,11 @@ public class SimpleSumCombiner
     originalMessage.set(originalMessage.get() + messageToCombine.get());
   }
 
+  @Override
+  public int combine(int originalMessage, int messageToCombine) {
+    return originalMessage + messageToCombine;
+  }
+
   @Override
   public IntWritable createInitialMessage() {
     return new IntWritable(0);
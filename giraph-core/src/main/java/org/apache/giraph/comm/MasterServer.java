@@ -31,6 +31,13 @@ public interface MasterServer {
    */
   InetSocketAddress getMyAddress();
 
+  /**
+   * Get server data
+   *
+   * @return Server data
+   */
+  MasterServerData getServerData();
+
   /**
    * Shuts down.
    */
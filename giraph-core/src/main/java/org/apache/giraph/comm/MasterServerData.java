@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import org.apache.giraph.master.MasterAggregatorHandler;
+import org.apache.giraph.zk.BspEvent;
+
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Anything that the master server stores: aggregated values sent by
+ * workers, and the reports of workers which finished a superstep when they
+ * are sent over netty instead of being written to ZooKeeper.
+ */
+public class MasterServerData {
+  /** Master aggregator handler */
+  private final MasterAggregatorHandler aggregatorHandler;
+  /** Event signaled when a worker reports that it finished a superstep */
+  private final BspEvent workerFinishedEvent;
+  /**
+   * Reports of finished workers, by the ZooKeeper path of the barrier they
+   * replace and then by task id of the worker
+   */
+  private final ConcurrentMap<String, ConcurrentMap<Integer, byte[]>>
+  finishedWorkerData = Maps.newConcurrentMap();
+
+  /**
+   * Constructor
+   *
+   * @param aggregatorHandler Master aggregator handler
+   * @param workerFinishedEvent Event to signal when a worker reports that it
+   *                            finished a superstep
+   */
+  public MasterServerData(MasterAggregatorHandler aggregatorHandler,
+      BspEvent workerFinishedEvent) {
+    this.aggregatorHandler = aggregatorHandler;
+    this.workerFinishedEvent = workerFinishedEvent;
+  }
+
+  public MasterAggregatorHandler getAggregatorHandler() {
+    return aggregatorHandler;
+  }
+
+  /**
+   * Notify this object that a worker finished a superstep.
+   *
+   * @param barrierPath ZooKeeper path of the barrier
+   * @param taskId Task id of the worker
+   * @param finishedInfo Serialized info about the finished superstep
+   */
+  public void workerFinished(String barrierPath, int taskId,
+      byte[] finishedInfo) {
+    ConcurrentMap<Integer, byte[]> barrierData =
+        finishedWorkerData.get(barrierPath);
+    if (barrierData == null) {
+      ConcurrentMap<Integer, byte[]> newBarrierData = Maps.newConcurrentMap();
+      barrierData = finishedWorkerData.putIfAbsent(barrierPath,
+          newBarrierData);
+      if (barrierData == null) {
+        barrierData = newBarrierData;
+      }
+    }
+    barrierData.put(taskId, finishedInfo);
+    workerFinishedEvent.signal();
+  }
+
+  /**
+   * Get the reports of the workers which finished a superstep so far.
+   *
+   * @param barrierPath ZooKeeper path of the barrier
+   * @return Map from task id of the worker to its report
+   */
+  public Map<Integer, byte[]> getFinishedWorkers(String barrierPath) {
+    Map<Integer, byte[]> barrierData = finishedWorkerData.get(barrierPath);
+    return (barrierData == null) ? Collections.<Integer, byte[]>emptyMap() :
+        Collections.unmodifiableMap(barrierData);
+  }
+
+  /**
+   * Forget the reports of a barrier which is done.
+   *
+   * @param barrierPath ZooKeeper path of the barrier
+   */
+  public void removeFinishedWorkers(String barrierPath) {
+    finishedWorkerData.remove(barrierPath);
+  }
+
+  /**
+   * Forget the reports of all barriers, e.g. when the supersteps they
+   * belong to are redone after a worker failure.
+   */
+  public void clearFinishedWorkers() {
+    finishedWorkerData.clear();
+  }
+}
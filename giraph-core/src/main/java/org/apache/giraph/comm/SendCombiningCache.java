@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import org.apache.giraph.combiner.Combiner;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+/**
+ * Combines outgoing messages per target vertex before they are serialized,
+ * so that at most one message per vertex and flush is sent.  Messages of
+ * each destination partition are kept in a primitive map from vertex id to
+ * combined message, which the owner of the cache empties once it holds
+ * enough vertices.  Only used with {@link IntWritable} and
+ * {@link LongWritable} vertex ids.  Not thread-safe.
+ *
+ * @param <I> Vertex id
+ * @param <M> Message data
+ */
+@SuppressWarnings("unchecked")
+public class SendCombiningCache<I extends WritableComparable,
+    M extends Writable> {
+  /** Message combiner */
+  private final Combiner<I, M> combiner;
+  /** Number of vertices of a partition after which it should be flushed */
+  private final int maxVerticesPerPartition;
+  /** Whether vertex ids are {@link IntWritable}s (otherwise longs) */
+  private final boolean intIds;
+  /** Vertex id reused when handing out combined messages */
+  private final I reusableVertexId;
+  /** Map from partition id to map from vertex id to combined message */
+  private final Int2ObjectOpenHashMap<Long2ObjectOpenHashMap<M>>
+  partitionMessages = new Int2ObjectOpenHashMap<Long2ObjectOpenHashMap<M>>();
+
+  /**
+   * Constructor
+   *
+   * @param conf Configuration
+   * @param maxVerticesPerPartition Number of vertices of a partition after
+   *                                which it should be flushed
+   */
+  public SendCombiningCache(ImmutableClassesGiraphConfiguration<I, ?, ?> conf,
+      int maxVerticesPerPartition) {
+    combiner = conf.createCombiner();
+    this.maxVerticesPerPartition = maxVerticesPerPartition;
+    intIds = conf.getVertexIdClass().equals(IntWritable.class);
+    reusableVertexId = conf.createVertexId();
+  }
+
+  /**
+   * Whether messages can be combined by this cache with a configuration.
+   *
+   * @param conf Configuration
+   * @return True iff there is a combiner and vertex ids are primitive
+   */
+  public static boolean canCombine(
+      ImmutableClassesGiraphConfiguration<?, ?, ?> conf) {
+    return conf.useCombiner() &&
+        (conf.getVertexIdClass().equals(IntWritable.class) ||
+            conf.getVertexIdClass().equals(LongWritable.class));
+  }
+
+  /**
+   * Combine a message with the one cached for its vertex.
+   *
+   * @param partitionId Partition of the vertex
+   * @param vertexId Id of the vertex
+   * @param message Message to combine (not kept by the cache)
+   * @return True iff the partition reached the number of vertices after
+   *         which it should be flushed
+   */
+  public boolean addMessage(int partitionId, I vertexId, M message) {
+    Long2ObjectOpenHashMap<M> messages = partitionMessages.get(partitionId);
+    if (messages == null) {
+      messages = new Long2ObjectOpenHashMap<M>();
+      partitionMessages.put(partitionId, messages);
+    }
+    long key = intIds ? ((IntWritable) vertexId).get() :
+        ((LongWritable) vertexId).get();
+    M combinedMessage = messages.get(key);
+    if (combinedMessage == null) {
+      combinedMessage = combiner.createInitialMessage();
+      messages.put(key, combinedMessage);
+    }
+    combiner.combine(vertexId, combinedMessage, message);
+    return messages.size() >= maxVerticesPerPartition;
+  }
+
+  /**
+   * Get the combined messages of a partition.  Call
+   * {@link #clearPartition(int)} once they were serialized.
+   *
+   * @param partitionId Partition id
+   * @return Map from vertex id to combined message, null if there are none
+   */
+  public Long2ObjectOpenHashMap<M> getPartitionMessages(int partitionId) {
+    Long2ObjectOpenHashMap<M> messages = partitionMessages.get(partitionId);
+    return (messages == null || messages.isEmpty()) ? null : messages;
+  }
+
+  /**
+   * Remove the combined messages of a partition, keeping the map to reuse
+   * its capacity.
+   *
+   * @param partitionId Partition id
+   */
+  public void clearPartition(int partitionId) {
+    Long2ObjectOpenHashMap<M> messages = partitionMessages.get(partitionId);
+    if (messages != null) {
+      messages.clear();
+    }
+  }
+
+  /**
+   * Get the vertex id for a key of a partition map.  The returned object is
+   * reused by the next call.
+   *
+   * @param key Key of a partition map
+   * @return Vertex id
+   */
+  public I getVertexId(long key) {
+    if (intIds) {
+      ((IntWritable) reusableVertexId).set((int) key);
+    } else {
+      ((LongWritable) reusableVertexId).set(key);
+    }
+    return reusableVertexId;
+  }
+}
@@ -18,9 +18,14 @@
 
 package org.apache.giraph.comm;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.messages.DirectMessageStore;
+import org.apache.giraph.comm.messages.MessageStore;
 import org.apache.giraph.comm.netty.NettyWorkerClientRequestProcessor;
 import org.apache.giraph.comm.requests.SendWorkerMessagesRequest;
 import org.apache.giraph.comm.requests.WritableRequest;
@@ -28,6 +33,8 @@ import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.partition.PartitionOwner;
+import org.apache.giraph.time.SystemTime;
+import org.apache.giraph.time.Time;
 import org.apache.giraph.utils.ByteArrayVertexIdMessages;
 import org.apache.giraph.utils.PairList;
 import org.apache.giraph.worker.WorkerInfo;
@@ -35,12 +42,25 @@ import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.log4j.Logger;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
 import static org.apache.giraph.conf.GiraphConstants.ADDITIONAL_MSG_REQUEST_SIZE;
+import static org.apache.giraph.conf.GiraphConstants.DIRECT_LOCAL_MESSAGES;
 import static org.apache.giraph.conf.GiraphConstants.MAX_MSG_REQUEST_SIZE;
+import static org.apache.giraph.conf.GiraphConstants.MSG_FLUSH_INTERVAL_MS;
+import static org.apache.giraph.conf.GiraphConstants.SEND_COMBINING_CACHE;
+import static org.apache.giraph.conf.GiraphConstants.SEND_COMBINING_CACHE_SIZE;
 
 /**
  * Aggregates the messages to be sent to workers so they can be sent
- * in bulk.  Not thread-safe.
+ * in bulk.  The messages of a worker are sent once they fill a request, or
+ * (if a flush interval is set) once the oldest of them was cached for
+ * longer than the interval.  Messages to vertices of this worker are added
+ * to its message store directly if the store allows it.  If enabled,
+ * messages to the same vertex are combined before they are serialized.
+ * Not thread-safe.
  *
  * @param <I> Vertex id
  * @param <M> Message data
@@ -50,6 +70,10 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
   /** Class logger */
   private static final Logger LOG =
       Logger.getLogger(SendMessageCache.class);
+  /** Number of messages sent between checks for stale messages */
+  private static final int STALE_CHECK_MESSAGES = 1024;
+  /** Time class to use */
+  private static final Time TIME = SystemTime.get();
   /** Messages sent during the last superstep */
   protected long totalMsgsSentInSuperstep = 0;
   /** Message bytes sent during the last superstep */
@@ -58,6 +82,23 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
   protected final int maxMessagesSizePerWorker;
   /** NettyWorkerClientRequestProcessor for message sending */
   protected final NettyWorkerClientRequestProcessor<I, ?, ?> clientProcessor;
+  /** Task id of this worker */
+  private final int myTaskId;
+  /** Whether local messages may be added to the message store directly */
+  private final boolean directLocalMessages;
+  /** Combines messages before they are serialized (null if disabled) */
+  private final SendCombiningCache<I, M> combiningCache;
+  /** Nanoseconds messages can stay in the cache, 0 if unlimited */
+  private final long flushIntervalNanos;
+  /**
+   * When the oldest cached message of each worker was added (as of the
+   * last check for stale messages), 0 if none is cached
+   */
+  private final long[] workerOldestMessageNanos;
+  /** Time of the last check for stale messages */
+  private long lastCheckNanos;
+  /** Number of messages sent since the last check for stale messages */
+  private int messagesSinceCheck = 0;
 
   /**
    * Constructor
@@ -75,6 +116,19 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
         ADDITIONAL_MSG_REQUEST_SIZE.get(conf));
     maxMessagesSizePerWorker = maxMsgSize;
     clientProcessor = processor;
+    myTaskId = serviceWorker.getWorkerInfo().getTaskId();
+    directLocalMessages = DIRECT_LOCAL_MESSAGES.get(conf);
+    if (SEND_COMBINING_CACHE.get(conf) &&
+        SendCombiningCache.canCombine(conf)) {
+      combiningCache = new SendCombiningCache<I, M>(conf,
+          SEND_COMBINING_CACHE_SIZE.get(conf));
+    } else {
+      combiningCache = null;
+    }
+    flushIntervalNanos =
+        MSG_FLUSH_INTERVAL_MS.get(conf) * Time.NS_PER_MS;
+    workerOldestMessageNanos = new long[getNumWorkers()];
+    lastCheckNanos = TIME.getNanoseconds();
   }
 
   @Override
@@ -94,6 +148,7 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
    */
   private int addMessage(WorkerInfo workerInfo,
       int partitionId, I destVertexId, M message) {
+    markMessageAdded(workerInfo);
     return addData(workerInfo, partitionId, destVertexId, message);
   }
 
@@ -109,11 +164,63 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
    */
   protected int addMessage(WorkerInfo workerInfo, int partitionId,
       byte[] serializedId, int idSerializerPos, M message) {
+    markMessageAdded(workerInfo);
     return addData(
       workerInfo, partitionId, serializedId,
       idSerializerPos, message);
   }
 
+  /**
+   * Whether messages are combined before they are serialized, in which
+   * case they have to be sent one by one through
+   * {@link #sendMessageRequest(WritableComparable, Writable)}.
+   *
+   * @return True iff messages are combined
+   */
+  protected boolean isCombiningMessages() {
+    return combiningCache != null;
+  }
+
+  /**
+   * Serialize the combined messages of a partition into the cache of its
+   * worker.
+   *
+   * @param workerInfo Worker which owns the partition
+   * @param partitionId Partition id
+   * @return Size of messages for the worker
+   */
+  private int addCombinedMessages(WorkerInfo workerInfo, int partitionId) {
+    Long2ObjectOpenHashMap<M> messages =
+        combiningCache.getPartitionMessages(partitionId);
+    if (messages == null) {
+      return 0;
+    }
+    int workerMessageSize = 0;
+    ObjectIterator<Long2ObjectMap.Entry<M>> iterator =
+        messages.long2ObjectEntrySet().fastIterator();
+    while (iterator.hasNext()) {
+      Long2ObjectMap.Entry<M> entry = iterator.next();
+      workerMessageSize = addData(workerInfo, partitionId,
+          combiningCache.getVertexId(entry.getLongKey()), entry.getValue());
+    }
+    combiningCache.clearPartition(partitionId);
+    return workerMessageSize;
+  }
+
+  /**
+   * Serialize the combined messages of all partitions of a worker.
+   *
+   * @param workerInfo Worker
+   */
+  private void addCombinedWorkerMessages(WorkerInfo workerInfo) {
+    if (combiningCache != null) {
+      List<Integer> partitionIds = getWorkerPartitions().get(workerInfo);
+      for (Integer partitionId : partitionIds) {
+        addCombinedMessages(workerInfo, partitionId);
+      }
+    }
+  }
+
   /**
    * Gets the messages for a worker and removes it from the cache.
    *
@@ -124,6 +231,7 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
    */
   protected PairList<Integer, ByteArrayVertexIdMessages<I, M>>
   removeWorkerMessages(WorkerInfo workerInfo) {
+    workerOldestMessageNanos[workerInfo.getTaskId()] = 0;
     return removeWorkerData(workerInfo);
   }
 
@@ -134,9 +242,94 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
    */
   private PairList<WorkerInfo, PairList<
       Integer, ByteArrayVertexIdMessages<I, M>>> removeAllMessages() {
+    Arrays.fill(workerOldestMessageNanos, 0);
     return removeAllData();
   }
 
+  /**
+   * Remember when the first message for a worker was cached.
+   *
+   * @param workerInfo Worker the message is cached for
+   */
+  private void markMessageAdded(WorkerInfo workerInfo) {
+    if (workerOldestMessageNanos[workerInfo.getTaskId()] == 0) {
+      workerOldestMessageNanos[workerInfo.getTaskId()] = lastCheckNanos;
+    }
+  }
+
+  /**
+   * Add a message for a vertex of this worker to the incoming message
+   * store directly, if the store allows it.
+   *
+   * @param owner Owner of the partition of the vertex
+   * @param destVertexId Id of the vertex
+   * @param message Message to add
+   * @return True iff the message was added, false if it has to be sent
+   */
+  protected boolean addLocalMessage(PartitionOwner owner, I destVertexId,
+      M message) {
+    if (!directLocalMessages ||
+        owner.getWorkerInfo().getTaskId() != myTaskId) {
+      return false;
+    }
+    MessageStore<I, M> messageStore =
+        getServiceWorker().getServerData().getIncomingMessageStore();
+    if (!(messageStore instanceof DirectMessageStore)) {
+      return false;
+    }
+    try {
+      ((DirectMessageStore<I, M>) messageStore).addMessage(
+          owner.getPartitionId(), destVertexId, message);
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "addLocalMessage: Got IOException", e);
+    }
+    return true;
+  }
+
+  /**
+   * Send the messages cached for a worker.
+   *
+   * @param workerInfo Worker to send the messages to
+   */
+  protected void sendWorkerMessages(WorkerInfo workerInfo) {
+    PairList<Integer, ByteArrayVertexIdMessages<I, M>>
+      workerMessages = removeWorkerMessages(workerInfo);
+    WritableRequest writableRequest =
+      new SendWorkerMessagesRequest<I, M>(workerMessages);
+    totalMsgBytesSentInSuperstep += writableRequest.getSerializedSize();
+    clientProcessor.doRequest(workerInfo, writableRequest);
+    // Notify sending
+    getServiceWorker().getGraphTaskManager().notifySentMessages();
+  }
+
+  /**
+   * Every so many messages, send the messages of the workers whose oldest
+   * cached message is older than the flush interval, so that messages
+   * are sent while computing even if requests fill up slowly.
+   */
+  protected void sendStaleMessages() {
+    if (flushIntervalNanos == 0 ||
+        ++messagesSinceCheck < STALE_CHECK_MESSAGES) {
+      return;
+    }
+    messagesSinceCheck = 0;
+    lastCheckNanos = TIME.getNanoseconds();
+    for (WorkerInfo workerInfo : getWorkerPartitions().keySet()) {
+      long oldestNanos = workerOldestMessageNanos[workerInfo.getTaskId()];
+      if (oldestNanos != 0 &&
+          lastCheckNanos - oldestNanos >= flushIntervalNanos) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("sendStaleMessages: Sending messages cached for " +
+              ((lastCheckNanos - oldestNanos) / Time.NS_PER_MS) +
+              " ms to " + workerInfo);
+        }
+        addCombinedWorkerMessages(workerInfo);
+        sendWorkerMessages(workerInfo);
+      }
+    }
+  }
+
   /**
    * Send a message to a target vertex id.
    *
@@ -153,21 +346,27 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
         ") to " + destVertexId + " on worker " + workerInfo);
     }
     ++totalMsgsSentInSuperstep;
-    // Add the message to the cache
-    int workerMessageSize = addMessage(
-      workerInfo, partitionId, destVertexId, message);
+    if (addLocalMessage(owner, destVertexId, message)) {
+      return;
+    }
+    int workerMessageSize = 0;
+    if (combiningCache != null) {
+      // Combine the message, and serialize the partition once it is full
+      markMessageAdded(workerInfo);
+      if (combiningCache.addMessage(partitionId, destVertexId, message)) {
+        workerMessageSize = addCombinedMessages(workerInfo, partitionId);
+      }
+    } else {
+      // Add the message to the cache
+      workerMessageSize = addMessage(
+        workerInfo, partitionId, destVertexId, message);
+    }
     // Send a request if the cache of outgoing message to
     // the remote worker 'workerInfo' is full enough to be flushed
     if (workerMessageSize >= maxMessagesSizePerWorker) {
-      PairList<Integer, ByteArrayVertexIdMessages<I, M>>
-        workerMessages = removeWorkerMessages(workerInfo);
-      WritableRequest writableRequest =
-        new SendWorkerMessagesRequest<I, M>(workerMessages);
-      totalMsgBytesSentInSuperstep += writableRequest.getSerializedSize();
-      clientProcessor.doRequest(workerInfo, writableRequest);
-      // Notify sending
-      getServiceWorker().getGraphTaskManager().notifySentMessages();
+      sendWorkerMessages(workerInfo);
     }
+    sendStaleMessages();
   }
 
   /**
@@ -232,6 +431,9 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
    * Flush the rest of the messages to the workers.
    */
   public void flush() {
+    for (WorkerInfo workerInfo : getWorkerPartitions().keySet()) {
+      addCombinedWorkerMessages(workerInfo);
+    }
     PairList<WorkerInfo, PairList<Integer,
         ByteArrayVertexIdMessages<I, M>>>
     remainingMessageCache = removeAllMessages();
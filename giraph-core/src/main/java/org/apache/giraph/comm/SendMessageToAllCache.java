@@ -24,13 +24,11 @@ import java.util.Iterator;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.comm.netty.NettyWorkerClientRequestProcessor;
-import org.apache.giraph.comm.requests.SendWorkerMessagesRequest;
 import org.apache.giraph.comm.requests.SendWorkerOneToAllMessagesRequest;
 import org.apache.giraph.comm.requests.WritableRequest;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.partition.PartitionOwner;
 import org.apache.giraph.utils.ByteArrayOneToAllMessages;
-import org.apache.giraph.utils.ByteArrayVertexIdMessages;
 import org.apache.giraph.utils.ExtendedDataOutput;
 import org.apache.giraph.utils.PairList;
 import org.apache.giraph.worker.WorkerInfo;
@@ -201,6 +199,11 @@ public class SendMessageToAllCache<I extends WritableComparable,
 
   @Override
   public void sendMessageToAllRequest(Iterator<I> vertexIdIterator, M message) {
+    if (isCombiningMessages()) {
+      // Messages to each target have to be combined separately
+      super.sendMessageToAllRequest(vertexIdIterator, message);
+      return;
+    }
     // This is going to be reused through every message sending
     resetIdSerializers();
     resetIdCounter();
@@ -212,6 +215,10 @@ public class SendMessageToAllCache<I extends WritableComparable,
     while (vertexIdIterator.hasNext()) {
       vertexId = vertexIdIterator.next();
       owner = getServiceWorker().getVertexPartitionOwner(vertexId);
+      if (addLocalMessage(owner, vertexId, message)) {
+        ++totalMsgsSentInSuperstep;
+        continue;
+      }
       workerInfo = owner.getWorkerInfo();
       currentMachineId = workerInfo.getTaskId();
       // Serialize this target vertex id
@@ -249,14 +256,7 @@ public class SendMessageToAllCache<I extends WritableComparable,
         }
         ++totalMsgsSentInSuperstep;
         if (workerMessageSize >= maxMessagesSizePerWorker) {
-          PairList<Integer, ByteArrayVertexIdMessages<I, M>>
-            workerMessages = removeWorkerMessages(workerInfoList[i]);
-          writableRequest =
-            new SendWorkerMessagesRequest<I, M>(workerMessages);
-          totalMsgBytesSentInSuperstep += writableRequest.getSerializedSize();
-          clientProcessor.doRequest(workerInfoList[i], writableRequest);
-          // Notify sending
-          getServiceWorker().getGraphTaskManager().notifySentMessages();
+          sendWorkerMessages(workerInfoList[i]);
         }
       } else if (idCounter[i] > 1) {
         serializedId = idSerializer[i].getByteArray();
@@ -284,6 +284,7 @@ public class SendMessageToAllCache<I extends WritableComparable,
         }
       }
     }
+    sendStaleMessages();
   }
 
   @Override
@@ -30,6 +30,7 @@ import org.apache.giraph.graph.VertexMutations;
 import org.apache.giraph.partition.DiskBackedPartitionStore;
 import org.apache.giraph.partition.PartitionStore;
 import org.apache.giraph.partition.SimplePartitionStore;
+import org.apache.giraph.utils.MemoryController;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -70,8 +71,10 @@ public class ServerData<I extends WritableComparable,
    * Map of partition ids to incoming vertex mutations from other workers.
    * (Synchronized access to values)
    */
-  private final ConcurrentHashMap<I, VertexMutations<I, V, E>>
-  vertexMutations = new ConcurrentHashMap<I, VertexMutations<I, V, E>>();
+  private final ConcurrentHashMap<Integer,
+      ConcurrentHashMap<I, VertexMutations<I, V, E>>> partitionMutations =
+      new ConcurrentHashMap<Integer,
+          ConcurrentHashMap<I, VertexMutations<I, V, E>>>();
   /**
    * Holds aggregtors which current worker owns from current superstep
    */
@@ -97,12 +100,33 @@ public class ServerData<I extends WritableComparable,
       MessageStoreFactory<I, Writable, MessageStore<I, Writable>>
           messageStoreFactory,
       Mapper<?, ?, ?, ?>.Context context) {
+    this(service, conf, messageStoreFactory, context, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param service Service worker
+   * @param conf Configuration
+   * @param messageStoreFactory Factory for message stores
+   * @param context Mapper context
+   * @param memoryController Heap occupancy for an out-of-core partition
+   *                         store (null for static limits)
+   */
+  public ServerData(
+      CentralizedServiceWorker<I, V, E> service,
+      ImmutableClassesGiraphConfiguration<I, V, E> conf,
+      MessageStoreFactory<I, Writable, MessageStore<I, Writable>>
+          messageStoreFactory,
+      Mapper<?, ?, ?, ?>.Context context,
+      MemoryController memoryController) {
     this.serviceWorker = service;
     this.conf = conf;
     this.messageStoreFactory = messageStoreFactory;
     if (GiraphConstants.USE_OUT_OF_CORE_GRAPH.get(conf)) {
       partitionStore =
-          new DiskBackedPartitionStore<I, V, E>(conf, context);
+          new DiskBackedPartitionStore<I, V, E>(conf, context,
+              memoryController);
     } else {
       partitionStore =
           new SimplePartitionStore<I, V, E>(conf, context);
@@ -165,12 +189,35 @@ public class ServerData<I extends WritableComparable,
   }
 
   /**
-   * Get the vertex mutations (synchronize on the values)
+   * Get the vertex mutations by partition id (synchronize on the values)
    *
-   * @return Vertex mutations
+   * @return Vertex mutations by partition id
    */
-  public ConcurrentHashMap<I, VertexMutations<I, V, E>>
-  getVertexMutations() {
+  public ConcurrentHashMap<Integer,
+      ConcurrentHashMap<I, VertexMutations<I, V, E>>> getPartitionMutations() {
+    return partitionMutations;
+  }
+
+  /**
+   * Get the vertex mutations of a partition (synchronize on the values),
+   * creating the map if there is none yet.
+   *
+   * @param partitionId Partition id
+   * @return Vertex mutations of the partition
+   */
+  public ConcurrentHashMap<I, VertexMutations<I, V, E>> getVertexMutations(
+      int partitionId) {
+    ConcurrentHashMap<I, VertexMutations<I, V, E>> vertexMutations =
+        partitionMutations.get(partitionId);
+    if (vertexMutations == null) {
+      ConcurrentHashMap<I, VertexMutations<I, V, E>> newVertexMutations =
+          new ConcurrentHashMap<I, VertexMutations<I, V, E>>();
+      vertexMutations =
+          partitionMutations.putIfAbsent(partitionId, newVertexMutations);
+      if (vertexMutations == null) {
+        vertexMutations = newVertexMutations;
+      }
+    }
     return vertexMutations;
   }
 
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.aggregators;
+
+import org.apache.giraph.worker.WorkerInfo;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Topology of the k-ary trees over workers which aggregators are reduced
+ * and broadcast over.  There is one tree per worker, rooted at that worker
+ * and used for the aggregators it owns.  Each tree numbers the workers
+ * starting from its root, in the order of the worker list, so a worker is
+ * at a different position in each tree and every worker receives values
+ * from about k workers per tree it is an inner node of.
+ */
+public class AggregatorTree {
+  /** Number of children of each inner node */
+  private final int arity;
+  /** All workers, in the same order on every worker */
+  private final List<WorkerInfo> workers;
+  /** Index of this worker in the worker list */
+  private final int myIndex;
+
+  /**
+   * Constructor
+   *
+   * @param arity Number of children of each inner node
+   * @param workers All workers, in the same order on every worker
+   * @param myTaskId Task id of this worker
+   */
+  public AggregatorTree(int arity, List<WorkerInfo> workers, int myTaskId) {
+    if (arity < 1) {
+      throw new IllegalArgumentException(
+          "AggregatorTree: Arity must be positive, got " + arity);
+    }
+    this.arity = arity;
+    this.workers = workers;
+    myIndex = getIndex(myTaskId);
+  }
+
+  /**
+   * Get the index of a worker in the worker list.
+   *
+   * @param taskId Task id of the worker
+   * @return Index of the worker
+   */
+  private int getIndex(int taskId) {
+    for (int i = 0; i < workers.size(); ++i) {
+      if (workers.get(i).getTaskId() == taskId) {
+        return i;
+      }
+    }
+    throw new IllegalStateException("getIndex: Task " + taskId +
+        " is not in the worker list " + workers);
+  }
+
+  /**
+   * Get the position of this worker in the tree of a root, 0 being the root.
+   *
+   * @param root Root of the tree
+   * @return Position of this worker
+   */
+  private int getPosition(WorkerInfo root) {
+    return (myIndex - getIndex(root.getTaskId()) + workers.size()) %
+        workers.size();
+  }
+
+  /**
+   * Get the worker at a position of the tree of a root.
+   *
+   * @param root Root of the tree
+   * @param position Position in the tree
+   * @return Worker at the position
+   */
+  private WorkerInfo getWorker(WorkerInfo root, int position) {
+    return workers.get(
+        (getIndex(root.getTaskId()) + position) % workers.size());
+  }
+
+  /**
+   * Get the parent of this worker in the tree of a root.
+   *
+   * @param root Root of the tree
+   * @return Parent, or null if this worker is the root
+   */
+  public WorkerInfo getParent(WorkerInfo root) {
+    int position = getPosition(root);
+    return (position == 0) ? null : getWorker(root, (position - 1) / arity);
+  }
+
+  /**
+   * Get the children of this worker in the tree of a root.
+   *
+   * @param root Root of the tree
+   * @return Children, empty if this worker is a leaf
+   */
+  public List<WorkerInfo> getChildren(WorkerInfo root) {
+    List<WorkerInfo> children = Lists.newArrayListWithCapacity(arity);
+    long firstChild = (long) getPosition(root) * arity + 1;
+    for (long position = firstChild;
+         position < firstChild + arity && position < workers.size();
+         ++position) {
+      children.add(getWorker(root, (int) position));
+    }
+    return children;
+  }
+
+  /**
+   * Get the depth of this worker in the tree of a root.
+   *
+   * @param root Root of the tree
+   * @return Depth, 0 if this worker is the root
+   */
+  public int getDepth(WorkerInfo root) {
+    int depth = 0;
+    for (int position = getPosition(root); position > 0;
+         position = (position - 1) / arity) {
+      ++depth;
+    }
+    return depth;
+  }
+
+  /**
+   * Get the roots of all trees, ordered by the depth of this worker in
+   * them.  Reducing the trees in which this worker is deepest first, and
+   * broadcasting over the ones in which it is shallowest first, means that
+   * a worker only ever waits for workers which don't wait for it.
+   *
+   * @param deepestFirst Whether to order by decreasing depth
+   * @return Roots of all trees
+   */
+  public List<WorkerInfo> getRootsByDepth(final boolean deepestFirst) {
+    List<WorkerInfo> roots = Lists.newArrayList(workers);
+    Collections.sort(roots, new Comparator<WorkerInfo>() {
+      @Override
+      public int compare(WorkerInfo root1, WorkerInfo root2) {
+        int depth1 = getDepth(root1);
+        int depth2 = getDepth(root2);
+        if (depth1 == depth2) {
+          return 0;
+        }
+        return ((depth1 < depth2) ^ deepestFirst) ? -1 : 1;
+      }
+    });
+    return roots;
+  }
+}
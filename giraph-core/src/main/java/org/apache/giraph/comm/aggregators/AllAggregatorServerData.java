@@ -19,6 +19,9 @@
 package org.apache.giraph.comm.aggregators;
 
 import org.apache.giraph.aggregators.Aggregator;
+import org.apache.giraph.aggregators.DeltaAggregatorValue;
+import org.apache.giraph.aggregators.DeltaWritable;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.master.MasterInfo;
 import org.apache.giraph.utils.TaskIdsPermitsBarrier;
@@ -29,6 +32,8 @@ import org.apache.log4j.Logger;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import java.io.DataInput;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +46,11 @@ import java.util.concurrent.ConcurrentMap;
  * could be distributed later. Also counts the requests so we would know
  * when we are done receiving requests.
  *
+ * When aggregators are broadcast over {@link AggregatorTree}s, the data
+ * received from other workers is kept as well, so that it can be forwarded
+ * to the children of this worker in the tree of its owner.  Forwarded
+ * requests keep the task id of the owner, so they are counted the same way.
+ *
  * Only restriction is that we need to call registerAggregatorClass before
  * calling createAggregatorInitialValue, other than that methods of this class
  * are thread-safe.
@@ -82,6 +92,26 @@ public class AllAggregatorServerData {
    * to know how many requests it has to receive.
    */
   private final TaskIdsPermitsBarrier workersBarrier;
+  /** Whether data received from workers is kept to be forwarded */
+  private final boolean keepWorkerData;
+  /**
+   * Aggregator data which this worker received from other workers, by
+   * owner task id, to be forwarded down aggregator trees. Thread-safe.
+   */
+  private final ConcurrentMap<Integer, List<byte[]>> workerData =
+      Maps.newConcurrentMap();
+  /** Counts the requests with final aggregators of each owner */
+  private final ConcurrentMap<Integer, TaskIdsPermitsBarrier> ownerBarriers =
+      Maps.newConcurrentMap();
+  /** Whether master sends values as the difference to the last ones */
+  private final boolean deltaEncoding;
+  /**
+   * Private copies of the last received values of aggregators which are
+   * delta encoded, so that differences are applied to exactly what master
+   * wrote them against, even if the computation modified its values
+   */
+  private final ConcurrentMap<String, Writable> deltaBaseMap =
+      Maps.newConcurrentMap();
   /** Progressable used to report progress */
   private final Progressable progressable;
   /** Configuration */
@@ -99,6 +129,8 @@ public class AllAggregatorServerData {
     this.conf = conf;
     workersBarrier = new TaskIdsPermitsBarrier(progressable);
     masterBarrier = new TaskIdsPermitsBarrier(progressable);
+    keepWorkerData = GiraphConstants.AGGREGATOR_TREE_ARITY.get(conf) > 0;
+    deltaEncoding = GiraphConstants.AGGREGATOR_DELTA_ENCODING.get(conf);
   }
 
   /**
@@ -117,6 +149,17 @@ public class AllAggregatorServerData {
     progressable.progress();
   }
 
+  /**
+   * Get the class of an aggregator.
+   * registerAggregatorClass needs to be called first.
+   *
+   * @param name Name of the aggregator
+   * @return Class of the aggregator
+   */
+  public Class<Aggregator<Writable>> getAggregatorClass(String name) {
+    return aggregatorClassMap.get(name);
+  }
+
   /**
    * Set the value of aggregator from previous superstep,
    * received by master or worker.
@@ -129,6 +172,31 @@ public class AllAggregatorServerData {
     progressable.progress();
   }
 
+  /**
+   * Read the value of aggregator from previous superstep, as written by
+   * master, and set it.  When delta encoding is enabled, values which
+   * support it are written as the difference to the previous value.
+   * registerAggregatorClass needs to be called first.
+   *
+   * @param name Name of the aggregator
+   * @param input Input to read the value from
+   * @throws IOException
+   */
+  public void readAggregatorValue(String name, DataInput input)
+    throws IOException {
+    Writable value = createAggregatorInitialValue(name);
+    if (!deltaEncoding || !(value instanceof DeltaWritable)) {
+      value.readFields(input);
+      setAggregatorValue(name, value);
+      return;
+    }
+    DeltaAggregatorValue<Writable> deltaValue =
+        new DeltaAggregatorValue<Writable>(deltaBaseMap.get(name), value);
+    deltaValue.readFields(input);
+    deltaBaseMap.put(name, deltaValue.getBase());
+    setAggregatorValue(name, value);
+  }
+
   /**
    * Create initial aggregated value for an aggregator. Used so requests
    * would be able to deserialize data.
@@ -171,11 +239,46 @@ public class AllAggregatorServerData {
   /**
    * Notify this object that an aggregator request from some worker has been
    * received.
+   *
+   * @param aggregatorData Byte request with data received from the worker
+   * @param taskId Task id of the worker which owns the aggregators
    */
-  public void receivedRequestFromWorker() {
+  public void receivedRequestFromWorker(byte[] aggregatorData, int taskId) {
+    if (keepWorkerData) {
+      List<byte[]> ownerData = workerData.get(taskId);
+      if (ownerData == null) {
+        List<byte[]> newOwnerData =
+            Collections.synchronizedList(Lists.<byte[]>newArrayList());
+        ownerData = workerData.putIfAbsent(taskId, newOwnerData);
+        if (ownerData == null) {
+          ownerData = newOwnerData;
+        }
+      }
+      ownerData.add(aggregatorData);
+      getOwnerBarrier(taskId).releaseOnePermit();
+    }
     workersBarrier.releaseOnePermit();
   }
 
+  /**
+   * Get the barrier counting requests with final aggregators of an owner.
+   *
+   * @param taskId Task id of the owner
+   * @return Barrier
+   */
+  private TaskIdsPermitsBarrier getOwnerBarrier(int taskId) {
+    TaskIdsPermitsBarrier barrier = ownerBarriers.get(taskId);
+    if (barrier == null) {
+      TaskIdsPermitsBarrier newBarrier =
+          new TaskIdsPermitsBarrier(progressable);
+      barrier = ownerBarriers.putIfAbsent(taskId, newBarrier);
+      if (barrier == null) {
+        barrier = newBarrier;
+      }
+    }
+    return barrier;
+  }
+
   /**
    * Notify this object about the total number of requests which should
    * arrive from one of the workers.
@@ -184,9 +287,27 @@ public class AllAggregatorServerData {
    * @param taskId Task id of that worker
    */
   public void receivedRequestCountFromWorker(long requestCount, int taskId) {
+    if (keepWorkerData) {
+      getOwnerBarrier(taskId).requirePermits(requestCount, taskId);
+    }
     workersBarrier.requirePermits(requestCount, taskId);
   }
 
+  /**
+   * This function will wait until all aggregator requests with the final
+   * values of an owner have arrived, and return that data afterwards.
+   * Only available when aggregators are broadcast over trees.
+   *
+   * @param taskId Task id of the owner
+   * @return Iterable through data received from the owner
+   */
+  public Iterable<byte[]> getDataFromWorkerWhenReady(int taskId) {
+    getOwnerBarrier(taskId).waitForRequiredPermits(
+        Collections.singleton(taskId));
+    List<byte[]> ownerData = workerData.get(taskId);
+    return (ownerData == null) ? Collections.<byte[]>emptyList() : ownerData;
+  }
+
   /**
    * This function will wait until all aggregator requests from master have
    * arrived, and return that data afterwards.
@@ -243,6 +364,7 @@ public class AllAggregatorServerData {
    */
   public void reset() {
     masterData.clear();
+    workerData.clear();
     if (LOG.isDebugEnabled()) {
       LOG.debug("reset: Ready for next superstep");
     }
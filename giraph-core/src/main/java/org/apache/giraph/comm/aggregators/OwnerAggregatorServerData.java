@@ -56,6 +56,12 @@ import java.util.concurrent.ConcurrentMap;
  * Because of this counting, in step 2. even if worker owns no aggregators,
  * it will still send a message without aggregator data.
  * 4. In the end we reset to prepare for the next superstep.
+ *
+ * When aggregators are reduced over {@link AggregatorTree}s, partial values
+ * arrive from the children of this worker in the tree of each owner
+ * instead, and are counted per owner.  The worker waits for the children
+ * of one tree at a time, adds their values to its own and sends the result
+ * on to its parent.
  */
 public class OwnerAggregatorServerData {
   /** Class logger */
@@ -71,6 +77,18 @@ public class OwnerAggregatorServerData {
    * to know how many requests it has to receive.
    */
   private final TaskIdsPermitsBarrier workersBarrier;
+  /**
+   * Map of partial values received from the children of this worker in
+   * aggregator trees
+   */
+  private final ConcurrentMap<String, Aggregator<Writable>>
+  childAggregatorMap = Maps.newConcurrentMap();
+  /**
+   * Counts the requests from children in the aggregator tree of each owner,
+   * by owner task id
+   */
+  private final ConcurrentMap<Integer, TaskIdsPermitsBarrier>
+  childrenBarriers = Maps.newConcurrentMap();
   /** Progressable used to report progress */
   private final Progressable progressable;
   /** Configuration */
@@ -156,6 +174,102 @@ public class OwnerAggregatorServerData {
     workersBarrier.requirePermits(requestCount, taskId);
   }
 
+  /**
+   * Aggregate partial value which a child in an aggregator tree sent.
+   * Thread-safe.
+   *
+   * @param name Name of the aggregator
+   * @param value Value to aggregate to it
+   * @param aggregatorClass Class of the aggregator
+   */
+  public void aggregateFromChild(String name, Writable value,
+      Class<Aggregator<Writable>> aggregatorClass) {
+    Aggregator<Writable> aggregator = childAggregatorMap.get(name);
+    if (aggregator == null) {
+      Aggregator<Writable> newAggregator =
+          AggregatorUtils.newAggregatorInstance(aggregatorClass, conf);
+      aggregator = childAggregatorMap.putIfAbsent(name, newAggregator);
+      if (aggregator == null) {
+        aggregator = newAggregator;
+      }
+    }
+    synchronized (aggregator) {
+      aggregator.aggregate(value);
+    }
+    progressable.progress();
+  }
+
+  /**
+   * Get the barrier counting requests from children in the tree of an
+   * owner.
+   *
+   * @param ownerTaskId Task id of the owner
+   * @return Barrier
+   */
+  private TaskIdsPermitsBarrier getChildrenBarrier(int ownerTaskId) {
+    TaskIdsPermitsBarrier barrier = childrenBarriers.get(ownerTaskId);
+    if (barrier == null) {
+      TaskIdsPermitsBarrier newBarrier =
+          new TaskIdsPermitsBarrier(progressable);
+      barrier = childrenBarriers.putIfAbsent(ownerTaskId, newBarrier);
+      if (barrier == null) {
+        barrier = newBarrier;
+      }
+    }
+    return barrier;
+  }
+
+  /**
+   * Notify this object that a request from a child in the tree of an owner
+   * has been received. Thread-safe.
+   *
+   * @param ownerTaskId Task id of the owner
+   */
+  public void receivedRequestFromChild(int ownerTaskId) {
+    getChildrenBarrier(ownerTaskId).releaseOnePermit();
+  }
+
+  /**
+   * Notify this object about the total number of requests which should
+   * arrive from a child in the tree of an owner. Thread-safe.
+   *
+   * @param ownerTaskId Task id of the owner
+   * @param requestCount Number of requests which should arrive
+   * @param taskId Task id of the child
+   */
+  public void receivedRequestCountFromChild(int ownerTaskId,
+      long requestCount, int taskId) {
+    getChildrenBarrier(ownerTaskId).requirePermits(requestCount, taskId);
+  }
+
+  /**
+   * Wait until all partial aggregated values from the children in the tree
+   * of an owner are ready and aggregated.  Values can then be read with
+   * {@link #getChildrenAggregatedValue(String)}.
+   *
+   * @param ownerTaskId Task id of the owner
+   * @param childTaskIds Task ids of the children of this worker in the tree
+   */
+  public void waitForChildren(int ownerTaskId, Set<Integer> childTaskIds) {
+    getChildrenBarrier(ownerTaskId).waitForRequiredPermits(childTaskIds);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("waitForChildren: Values for owner " + ownerTaskId +
+          " ready");
+    }
+  }
+
+  /**
+   * Get the partial value of an aggregator which the children in an
+   * aggregator tree sent.
+   *
+   * @param name Name of the aggregator
+   * @return Aggregated value, or null if no child sent the aggregator
+   */
+  public Writable getChildrenAggregatedValue(String name) {
+    Aggregator<Writable> aggregator = childAggregatorMap.get(name);
+    return (aggregator == null) ? null : aggregator.getAggregatedValue();
+  }
+
   /**
    * This function will wait until all partial aggregated values from all
    * workers are ready and aggregated, and return final aggregated values
@@ -188,6 +302,7 @@ public class OwnerAggregatorServerData {
    */
   public void reset() {
     myAggregatorMap.clear();
+    childAggregatorMap.clear();
     if (LOG.isDebugEnabled()) {
       LOG.debug("reset: Ready for next superstep");
     }
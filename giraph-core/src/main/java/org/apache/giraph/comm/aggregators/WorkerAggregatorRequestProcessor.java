@@ -18,9 +18,12 @@
 
 package org.apache.giraph.comm.aggregators;
 
+import org.apache.giraph.worker.WorkerInfo;
 import org.apache.hadoop.io.Writable;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Aggregates worker aggregator requests and sends them off
@@ -61,4 +64,29 @@ public interface WorkerAggregatorRequestProcessor {
    */
   void distributeAggregators(
       Iterable<byte[]> aggregatorDataList) throws IOException;
+
+  /**
+   * Sends partial aggregated values of the aggregators of one owner to the
+   * parent of this worker in the aggregator tree of that owner, followed by
+   * the number of requests it should expect.
+   *
+   * @param ownerTaskId Task id of the worker which owns the aggregators
+   * @param parent Parent of this worker in the tree of the owner
+   * @param aggregatedValues Names and values of the aggregators
+   * @throws IOException
+   */
+  void sendAggregatedValuesToParent(int ownerTaskId, WorkerInfo parent,
+      Iterable<Map.Entry<String, Writable>> aggregatedValues)
+    throws IOException;
+
+  /**
+   * Sends final aggregators of one owner to the children of this worker in
+   * the aggregator tree of that owner
+   *
+   * @param ownerTaskId Task id of the worker which owns the aggregators
+   * @param aggregatorDataList Serialized aggregator data split into chunks
+   * @param children Children of this worker in the tree of the owner
+   */
+  void forwardAggregators(int ownerTaskId, Iterable<byte[]> aggregatorDataList,
+      List<WorkerInfo> children) throws IOException;
 }
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import java.io.IOException;
+
+/**
+ * Message store which messages from vertices of the same worker can be
+ * added to one at a time, without serializing them into a request first.
+ * Thread-safe, like adding partition messages.
+ *
+ * @param <I> Vertex id
+ * @param <M> Message data
+ */
+public interface DirectMessageStore<I extends WritableComparable,
+    M extends Writable> extends MessageStore<I, M> {
+  /**
+   * Add a message for a vertex.  The store must not keep references to
+   * the vertex id or the message, which the caller may reuse.
+   *
+   * @param partitionId Id of the partition the vertex belongs to
+   * @param vertexId Id of the vertex
+   * @param message Message to add
+   * @throws IOException
+   */
+  void addMessage(int partitionId, I vertexId, M message) throws IOException;
+}
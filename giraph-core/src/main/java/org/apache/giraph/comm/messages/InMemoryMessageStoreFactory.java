@@ -21,9 +21,15 @@ package org.apache.giraph.comm.messages;
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.combiner.Combiner;
 import org.apache.giraph.comm.messages.primitives.IntByteArrayMessageStore;
+import org.apache.giraph.comm.messages.primitives.IntDoubleMessageStore;
 import org.apache.giraph.comm.messages.primitives.IntFloatMessageStore;
+import org.apache.giraph.comm.messages.primitives.IntIntMessageStore;
+import org.apache.giraph.comm.messages.primitives.IntLongMessageStore;
 import org.apache.giraph.comm.messages.primitives.LongByteArrayMessageStore;
 import org.apache.giraph.comm.messages.primitives.LongDoubleMessageStore;
+import org.apache.giraph.comm.messages.primitives.LongFloatMessageStore;
+import org.apache.giraph.comm.messages.primitives.LongIntMessageStore;
+import org.apache.giraph.comm.messages.primitives.LongLongMessageStore;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.factories.MessageValueFactory;
 import org.apache.hadoop.io.DoubleWritable;
@@ -38,7 +44,10 @@ import org.apache.log4j.Logger;
  * Message store factory which produces message stores which hold all
  * messages in memory. Depending on whether or not combiner is currently used,
  * this factory creates {@link OneMessagePerVertexStore} or
- * {@link ByteArrayMessagesPerVertexStore}
+ * {@link ByteArrayMessagesPerVertexStore}, or their counterparts backed by
+ * fastutil primitive maps when vertex ids are IntWritable or LongWritable
+ * (and, with a combiner, messages are IntWritable, LongWritable,
+ * FloatWritable or DoubleWritable)
  *
  * @param <I> Vertex id
  * @param <M> Message data
@@ -71,20 +80,9 @@ public class InMemoryMessageStoreFactory<I extends WritableComparable,
     Class<M> messageClass = messageValueFactory.getValueClass();
     MessageStore messageStore;
     if (conf.useCombiner()) {
-      Class<I> vertexIdClass = conf.getVertexIdClass();
-      if (vertexIdClass.equals(IntWritable.class) &&
-          messageClass.equals(FloatWritable.class)) {
-        messageStore = new IntFloatMessageStore(
-            (CentralizedServiceWorker<IntWritable, ?, ?>) service,
-            (Combiner<IntWritable, FloatWritable>)
-                conf.<FloatWritable>createCombiner());
-      } else if (vertexIdClass.equals(LongWritable.class) &&
-          messageClass.equals(DoubleWritable.class)) {
-        messageStore = new LongDoubleMessageStore(
-            (CentralizedServiceWorker<LongWritable, ?, ?>) service,
-            (Combiner<LongWritable, DoubleWritable>)
-                conf.<DoubleWritable>createCombiner());
-      } else {
+      messageStore = newPrimitiveCombinedStore(conf.getVertexIdClass(),
+          messageClass);
+      if (messageStore == null) {
         messageStore = new OneMessagePerVertexStore<I, M>(messageValueFactory,
           service, conf.<M>createCombiner(), conf);
       }
@@ -113,4 +111,62 @@ public class InMemoryMessageStoreFactory<I extends WritableComparable,
     }
     return (MessageStore<I, M>) messageStore;
   }
+
+  /**
+   * Create a message store backed by fastutil primitive maps, if there is
+   * one for the vertex id and message classes, to be used with a combiner.
+   *
+   * @param vertexIdClass Vertex id class
+   * @param messageClass Message class
+   * @return Message store, or null if these classes are not specialized
+   */
+  private MessageStore newPrimitiveCombinedStore(Class<I> vertexIdClass,
+      Class<M> messageClass) {
+    if (vertexIdClass.equals(IntWritable.class)) {
+      CentralizedServiceWorker<IntWritable, ?, ?> intService =
+          (CentralizedServiceWorker<IntWritable, ?, ?>) service;
+      ImmutableClassesGiraphConfiguration<IntWritable, ?, ?> intConf =
+          (ImmutableClassesGiraphConfiguration<IntWritable, ?, ?>) conf;
+      if (messageClass.equals(IntWritable.class)) {
+        return new IntIntMessageStore(intService,
+            (Combiner<IntWritable, IntWritable>)
+                conf.<IntWritable>createCombiner(), intConf);
+      } else if (messageClass.equals(LongWritable.class)) {
+        return new IntLongMessageStore(intService,
+            (Combiner<IntWritable, LongWritable>)
+                conf.<LongWritable>createCombiner(), intConf);
+      } else if (messageClass.equals(FloatWritable.class)) {
+        return new IntFloatMessageStore(intService,
+            (Combiner<IntWritable, FloatWritable>)
+                conf.<FloatWritable>createCombiner(), intConf);
+      } else if (messageClass.equals(DoubleWritable.class)) {
+        return new IntDoubleMessageStore(intService,
+            (Combiner<IntWritable, DoubleWritable>)
+                conf.<DoubleWritable>createCombiner(), intConf);
+      }
+    } else if (vertexIdClass.equals(LongWritable.class)) {
+      CentralizedServiceWorker<LongWritable, ?, ?> longService =
+          (CentralizedServiceWorker<LongWritable, ?, ?>) service;
+      ImmutableClassesGiraphConfiguration<LongWritable, ?, ?> longConf =
+          (ImmutableClassesGiraphConfiguration<LongWritable, ?, ?>) conf;
+      if (messageClass.equals(IntWritable.class)) {
+        return new LongIntMessageStore(longService,
+            (Combiner<LongWritable, IntWritable>)
+                conf.<IntWritable>createCombiner(), longConf);
+      } else if (messageClass.equals(LongWritable.class)) {
+        return new LongLongMessageStore(longService,
+            (Combiner<LongWritable, LongWritable>)
+                conf.<LongWritable>createCombiner(), longConf);
+      } else if (messageClass.equals(FloatWritable.class)) {
+        return new LongFloatMessageStore(longService,
+            (Combiner<LongWritable, FloatWritable>)
+                conf.<FloatWritable>createCombiner(), longConf);
+      } else if (messageClass.equals(DoubleWritable.class)) {
+        return new LongDoubleMessageStore(longService,
+            (Combiner<LongWritable, DoubleWritable>)
+                conf.<DoubleWritable>createCombiner(), longConf);
+      }
+    }
+    return null;
+  }
 }
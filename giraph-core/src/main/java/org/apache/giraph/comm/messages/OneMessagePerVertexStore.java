@@ -23,6 +23,7 @@ import org.apache.giraph.combiner.Combiner;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.factories.MessageValueFactory;
 import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.giraph.utils.WritableUtils;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 
@@ -41,7 +42,8 @@ import java.util.concurrent.ConcurrentMap;
  * @param <M> Message data
  */
 public class OneMessagePerVertexStore<I extends WritableComparable,
-    M extends Writable> extends SimpleMessageStore<I, M, M> {
+    M extends Writable> extends SimpleMessageStore<I, M, M>
+    implements DirectMessageStore<I, M> {
   /** Combiner for messages */
   private final Combiner<I, M> combiner;
 
@@ -90,6 +92,27 @@ public class OneMessagePerVertexStore<I extends WritableComparable,
     }
   }
 
+  @Override
+  public void addMessage(int partitionId, I vertexId, M message)
+    throws IOException {
+    ConcurrentMap<I, M> partitionMap = getOrCreatePartitionMap(partitionId);
+    M currentMessage = partitionMap.get(vertexId);
+    if (currentMessage == null) {
+      M newMessage = combiner.createInitialMessage();
+      // The caller may reuse its vertex id, so the map gets a copy
+      I vertexIdCopy = config.createVertexId();
+      WritableUtils.readFieldsFromByteArray(
+          WritableUtils.writeToByteArray(vertexId), vertexIdCopy);
+      currentMessage = partitionMap.putIfAbsent(vertexIdCopy, newMessage);
+      if (currentMessage == null) {
+        currentMessage = newMessage;
+      }
+    }
+    synchronized (currentMessage) {
+      combiner.combine(vertexId, currentMessage, message);
+    }
+  }
+
   @Override
   protected Iterable<M> getMessagesAsIterable(M message) {
     return Collections.singleton(message);
@@ -25,6 +25,7 @@ import org.apache.giraph.comm.messages.MessageStoreFactory;
 import org.apache.giraph.factories.MessageValueFactory;
 import org.apache.giraph.utils.ByteArrayVertexIdMessages;
 import org.apache.giraph.utils.EmptyIterable;
+import org.apache.giraph.utils.MemoryController;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 
@@ -38,6 +39,12 @@ import java.util.concurrent.ConcurrentMap;
  * Message store which separates data by partitions,
  * and submits them to underlying message store.
  *
+ * The biggest partitions are flushed to disk either when there are more
+ * messages in memory than a fixed number, or, with a
+ * {@link MemoryController}, when the heap is still too full after a garbage
+ * collection.  In both cases partitions are flushed until the limit is
+ * met again.
+ *
  * @param <I> Vertex id
  * @param <V> Vertex data
  * @param <E> Edge data
@@ -58,6 +65,8 @@ public class DiskBackedMessageStore<I extends WritableComparable,
   /** Map from partition id to its message store */
   private final ConcurrentMap<Integer, PartitionDiskBackedMessageStore<I, M>>
   partitionMessageStores;
+  /** Decides from heap occupancy when to flush (null for a fixed limit) */
+  private final MemoryController memoryController;
 
   /**
    * Constructor
@@ -74,9 +83,33 @@ public class DiskBackedMessageStore<I extends WritableComparable,
       int maxNumberOfMessagesInMemory,
       MessageStoreFactory<I, M, PartitionDiskBackedMessageStore<I,
           M>> partitionStoreFactory) {
+    this(messageValueFactory, service, maxNumberOfMessagesInMemory, null,
+        partitionStoreFactory);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param messageValueFactory         Factory for creating message values
+   * @param service                     Service worker
+   * @param maxNumberOfMessagesInMemory Number of messages to keep in memory
+   *                                    (unused with a memory controller)
+   * @param memoryController            Decides when to flush, or null to
+   *                                    use maxNumberOfMessagesInMemory
+   * @param partitionStoreFactory       Factory for creating stores for a
+   *                                    partition
+   */
+  public DiskBackedMessageStore(
+      MessageValueFactory<M> messageValueFactory,
+      CentralizedServiceWorker<I, V, E> service,
+      int maxNumberOfMessagesInMemory,
+      MemoryController memoryController,
+      MessageStoreFactory<I, M, PartitionDiskBackedMessageStore<I,
+          M>> partitionStoreFactory) {
     this.messageValueFactory = messageValueFactory;
     this.service = service;
     this.maxNumberOfMessagesInMemory = maxNumberOfMessagesInMemory;
+    this.memoryController = memoryController;
     this.partitionStoreFactory = partitionStoreFactory;
     partitionMessageStores = Maps.newConcurrentMap();
   }
@@ -160,6 +193,16 @@ public class DiskBackedMessageStore<I extends WritableComparable,
    * @throws IOException
    */
   private void checkMemory() throws IOException {
+    if (memoryController != null) {
+      // The occupancy is measured again after each collection, which the
+      // allocations of flushing trigger
+      while (memoryController.shouldSpill()) {
+        if (!flushOnePartition()) {
+          break;
+        }
+      }
+      return;
+    }
     while (memoryFull()) {
       flushOnePartition();
     }
@@ -182,9 +225,10 @@ public class DiskBackedMessageStore<I extends WritableComparable,
   /**
    * Finds biggest partition and flushes it to the disk
    *
+   * @return False iff there were no messages in memory to flush
    * @throws IOException
    */
-  private void flushOnePartition() throws IOException {
+  private boolean flushOnePartition() throws IOException {
     int maxMessages = 0;
     PartitionDiskBackedMessageStore<I, M> biggestStore = null;
     for (PartitionDiskBackedMessageStore<I, M> messageStore :
@@ -195,9 +239,11 @@ public class DiskBackedMessageStore<I extends WritableComparable,
         biggestStore = messageStore;
       }
     }
-    if (biggestStore != null) {
-      biggestStore.flush();
+    if (biggestStore == null) {
+      return false;
     }
+    biggestStore.flush();
+    return true;
   }
 
   /**
@@ -277,8 +323,35 @@ public class DiskBackedMessageStore<I extends WritableComparable,
       int maxMessagesInMemory,
       MessageStoreFactory<I, M, PartitionDiskBackedMessageStore<I, M>>
           fileStoreFactory) {
+    return newFactory(service, maxMessagesInMemory, null, fileStoreFactory);
+  }
+
+  /**
+   * Create new factory for this message store
+   *
+   * @param service             Service worker
+   * @param maxMessagesInMemory Number of messages to keep in memory
+   *                            (unused with a memory controller)
+   * @param memoryController    Decides when to flush, or null to use
+   *                            maxMessagesInMemory
+   * @param fileStoreFactory    Factory for creating file stores when
+   *                            flushing
+   * @param <I>                 Vertex id
+   * @param <V>                 Vertex data
+   * @param <E>                 Edge data
+   * @param <M>                 Message data
+   * @return Factory
+   */
+  public static <I extends WritableComparable, V extends Writable,
+      E extends Writable, M extends Writable>
+  MessageStoreFactory<I, M, MessageStore<I, M>> newFactory(
+      CentralizedServiceWorker<I, V, E> service,
+      int maxMessagesInMemory,
+      MemoryController memoryController,
+      MessageStoreFactory<I, M, PartitionDiskBackedMessageStore<I, M>>
+          fileStoreFactory) {
     return new Factory<I, V, E, M>(service, maxMessagesInMemory,
-        fileStoreFactory);
+        memoryController, fileStoreFactory);
   }
 
   /**
@@ -296,6 +369,8 @@ public class DiskBackedMessageStore<I extends WritableComparable,
     private final CentralizedServiceWorker<I, V, E> service;
     /** Number of messages to keep in memory */
     private final int maxMessagesInMemory;
+    /** Decides when to flush (null for a fixed limit) */
+    private final MemoryController memoryController;
     /** Factory for creating file stores when flushing */
     private final
     MessageStoreFactory<I, M, PartitionDiskBackedMessageStore<I, M>>
@@ -304,15 +379,18 @@ public class DiskBackedMessageStore<I extends WritableComparable,
     /**
      * @param service             Service worker
      * @param maxMessagesInMemory Number of messages to keep in memory
+     * @param memoryController    Decides when to flush, or null
      * @param fileStoreFactory    Factory for creating file stores when
      *                            flushing
      */
     public Factory(CentralizedServiceWorker<I, V, E> service,
         int maxMessagesInMemory,
+        MemoryController memoryController,
         MessageStoreFactory<I, M, PartitionDiskBackedMessageStore<I, M>>
             fileStoreFactory) {
       this.service = service;
       this.maxMessagesInMemory = maxMessagesInMemory;
+      this.memoryController = memoryController;
       this.fileStoreFactory = fileStoreFactory;
     }
 
@@ -320,7 +398,7 @@ public class DiskBackedMessageStore<I extends WritableComparable,
     public MessageStore<I, M> newStore(
         MessageValueFactory<M> messageValueFactory) {
       return new DiskBackedMessageStore<I, V, E, M>(messageValueFactory,
-          service, maxMessagesInMemory, fileStoreFactory);
+          service, maxMessagesInMemory, memoryController, fileStoreFactory);
     }
   }
 }
@@ -24,8 +24,8 @@ import com.google.common.collect.Maps;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentNavigableMap;
@@ -34,8 +34,10 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.apache.giraph.combiner.Combiner;
 import org.apache.giraph.comm.messages.MessageStoreFactory;
 import org.apache.giraph.comm.messages.MessagesIterable;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.factories.MessageValueFactory;
 import org.apache.giraph.utils.ExtendedDataOutput;
@@ -46,6 +48,13 @@ import org.apache.hadoop.io.WritableComparable;
 /**
  * Message storage with in-memory map of messages and with support for
  * flushing all the messages to the disk. Holds messages for a single partition.
+ * <p/>
+ * Every flush writes a run sorted by vertex id.  The messages of a vertex
+ * are read from all runs side by side, so when vertices are visited in
+ * order each run is read once from start to end, and at most
+ * {@link GiraphConstants#MAX_MESSAGE_RUNS} runs are kept open: when there
+ * are more, they are merged into one.  With a combiner, the messages of a
+ * vertex from all runs are combined into one when they are read.
  *
  * @param <I> Vertex id
  * @param <M> Message data
@@ -67,7 +76,11 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
   /** To keep vertex ids which we have messages for */
   private final Set<I> destinationVertices;
   /** File stores in which we keep flushed messages */
-  private final Collection<SequentialFileMessageStore<I, M>> fileStores;
+  private final List<SequentialFileMessageStore<I, M>> fileStores;
+  /** Maximum number of file stores, more are merged into one */
+  private final int maxFileStores;
+  /** Combiner for messages read from files (null if there is none) */
+  private final Combiner<I, M> combiner;
   /** Factory for creating file stores when flushing */
   private final
   MessageStoreFactory<I, M, SequentialFileMessageStore<I, M>> fileStoreFactory;
@@ -93,6 +106,8 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
     destinationVertices =
         Collections.newSetFromMap(Maps.<I, Boolean>newConcurrentMap());
     fileStores = Lists.newArrayList();
+    maxFileStores = Math.max(1, GiraphConstants.MAX_MESSAGE_RUNS.get(config));
+    combiner = config.useCombiner() ? config.<M>createCombiner() : null;
     this.fileStoreFactory = fileStoreFactory;
   }
 
@@ -156,6 +171,17 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
       combinedIterable = Iterables.concat(combinedIterable,
           fileStore.getVertexMessages(vertexId));
     }
+    if (combiner != null && !fileStores.isEmpty()) {
+      M combinedMessage = combiner.createInitialMessage();
+      boolean hasMessages = false;
+      for (M message : combinedIterable) {
+        combiner.combine(vertexId, combinedMessage, message);
+        hasMessages = true;
+      }
+      if (hasMessages) {
+        combinedIterable = Collections.singleton(combinedMessage);
+      }
+    }
     return combinedIterable;
   }
 
@@ -232,9 +258,29 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
 
     synchronized (fileStores) {
       fileStores.add(fileStore);
+      if (fileStores.size() > maxFileStores) {
+        mergeFileStores();
+      }
     }
   }
 
+  /**
+   * Merges all file stores into one, so that reading does not have to keep
+   * too many files open.
+   *
+   * @throws IOException
+   */
+  private void mergeFileStores() throws IOException {
+    SequentialFileMessageStore<I, M> mergedStore =
+        fileStoreFactory.newStore(messageValueFactory);
+    mergedStore.mergeRuns(fileStores);
+    for (SequentialFileMessageStore<I, M> fileStore : fileStores) {
+      fileStore.clearAll();
+    }
+    fileStores.clear();
+    fileStores.add(mergedStore);
+  }
+
   @Override
   public void write(DataOutput out) throws IOException {
     // write destination vertices
@@ -18,6 +18,7 @@
 
 package org.apache.giraph.comm.messages.out_of_core;
 
+import org.apache.giraph.combiner.Combiner;
 import org.apache.giraph.comm.messages.MessageStoreFactory;
 import org.apache.giraph.comm.messages.MessagesIterable;
 import org.apache.giraph.conf.GiraphConstants;
@@ -31,6 +32,7 @@ import org.apache.log4j.Logger;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.io.CountingOutputStream;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -38,26 +40,40 @@ import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Collection;
+import java.io.RandomAccessFile;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.PriorityQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.apache.giraph.conf.GiraphConstants.MESSAGES_DIRECTORY;
 
 /**
  * Used for writing and reading collection of messages to the disk.
- * {@link SequentialFileMessageStore#addMessages(NavigableMap)}
- * should be called only once with the messages we want to store.
+ * Either {@link SequentialFileMessageStore#addMessages(NavigableMap)} or
+ * {@link SequentialFileMessageStore#mergeRuns(List)} should be called only
+ * once with the messages we want to store.
+ * <p/>
+ * The file is a run sorted by vertex id: for every vertex its id, the
+ * number of its messages, their size in bytes and the messages.  It ends
+ * with a sparse index which keeps the position of every
+ * {@link GiraphConstants#MESSAGES_INDEX_INTERVAL}-th vertex, followed by
+ * the number of vertices, the number of index entries and the position of
+ * the index.  Vertices without a requested id are skipped by their size,
+ * without reading their messages, and the index is used to seek when ids
+ * are requested out of order or far ahead.
  * <p/>
  * It's optimized for retrieving messages in the natural order of vertex ids
- * they are sent to.
+ * they are sent to.  If a combiner is configured, the messages of a vertex
+ * are combined into one when they are written.
  *
  * @param <I> Vertex id
  * @param <M> Message data
@@ -67,6 +83,8 @@ public class SequentialFileMessageStore<I extends WritableComparable,
   /** Class logger */
   private static final Logger LOG =
       Logger.getLogger(SequentialFileMessageStore.class);
+  /** Size of the fixed part at the end of the file */
+  private static final int TRAILER_SIZE = 16;
   /** Message class */
   private final MessageValueFactory<M> messageValueFactory;
   /** File in which we store data */
@@ -75,12 +93,24 @@ public class SequentialFileMessageStore<I extends WritableComparable,
   private final ImmutableClassesGiraphConfiguration<I, ?, ?> config;
   /** Buffer size to use when reading and writing files */
   private final int bufferSize;
+  /** Every how many vertices an index entry is written */
+  private final int indexInterval;
+  /** Combiner applied when writing (null if there is none) */
+  private final Combiner<I, M> combiner;
+  /** Vertex ids of the index entries (null until the index is read) */
+  private List<I> indexVertexIds;
+  /** File positions of the index entries */
+  private long[] indexPositions;
+  /** Number of vertices in the file */
+  private int numVertices;
   /** File input stream */
   private DataInputStream in;
-  /** How many vertices do we have left to read in the file */
-  private int verticesLeft;
+  /** Number of the vertex at the current position of the input stream */
+  private int nextVertex;
   /** Id of currently read vertex */
   private I currentVertexId;
+  /** Id of the last vertex read since the last seek (null if none) */
+  private I previousVertexId;
 
   /**
    * Stores message on the disk.
@@ -100,6 +130,9 @@ public class SequentialFileMessageStore<I extends WritableComparable,
     this.messageValueFactory = messageValueFactory;
     this.config = config;
     this.bufferSize = bufferSize;
+    indexInterval =
+        Math.max(1, GiraphConstants.MESSAGES_INDEX_INTERVAL.get(config));
+    combiner = config.useCombiner() ? config.<M>createCombiner() : null;
     file = new File(fileName);
   }
 
@@ -111,66 +144,84 @@ public class SequentialFileMessageStore<I extends WritableComparable,
    */
   public void addMessages(NavigableMap<I, ExtendedDataOutput> messageMap)
     throws IOException {
-    // Writes messages to its file
-    if (file.exists()) {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("addMessages: Deleting " + file);
-      }
-      if (!file.delete()) {
-        throw new IOException("Failed to delete existing file " + file);
-      }
-    }
-    if (!file.createNewFile()) {
-      throw new IOException("Failed to create file " + file);
-    }
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("addMessages: Creating " + file);
-    }
-
-    DataOutputStream out = null;
-
+    RunWriter writer = new RunWriter();
     try {
-      out = new DataOutputStream(
-          new BufferedOutputStream(new FileOutputStream(file), bufferSize));
-      int destinationVertexIdCount = messageMap.size();
-      out.writeInt(destinationVertexIdCount);
-
       // Dump the vertices and their messages in a sorted order
       for (Map.Entry<I, ExtendedDataOutput> entry : messageMap.entrySet()) {
-        I destinationVertexId = entry.getKey();
-        destinationVertexId.write(out);
         ExtendedDataOutput extendedDataOutput = entry.getValue();
-        Iterable<M> messages = new MessagesIterable<M>(
+        int messageCount = Iterables.size(new MessagesIterable<M>(
             config, messageValueFactory, extendedDataOutput.getByteArray(), 0,
-            extendedDataOutput.getPos());
-        int messageCount = Iterables.size(messages);
-        out.writeInt(messageCount);
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("addMessages: For vertex id " + destinationVertexId +
-              ", messages = " + messageCount + " to file " + file);
+            extendedDataOutput.getPos()));
+        writer.writeVertex(entry.getKey(), messageCount, extendedDataOutput);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Merges sorted runs into this store, reading all of them at once and
+   * always taking the smallest vertex id next (k-way merge).  Only one
+   * vertex of each run is in memory at a time.  The merged runs are not
+   * cleared.
+   *
+   * @param runs Runs to merge
+   * @throws IOException
+   */
+  public void mergeRuns(List<SequentialFileMessageStore<I, M>> runs)
+    throws IOException {
+    PriorityQueue<SequentialFileMessageStore<I, M>> queue =
+        new PriorityQueue<SequentialFileMessageStore<I, M>>(
+            Math.max(1, runs.size()),
+            new Comparator<SequentialFileMessageStore<I, M>>() {
+              @Override
+              public int compare(SequentialFileMessageStore<I, M> run1,
+                  SequentialFileMessageStore<I, M> run2) {
+                return run1.currentVertexId.compareTo(run2.currentVertexId);
+              }
+            });
+    RunWriter writer = new RunWriter();
+    try {
+      for (SequentialFileMessageStore<I, M> run : runs) {
+        run.startReading();
+        if (run.getCurrentVertexId() != null) {
+          queue.add(run);
         }
-        for (M message : messages) {
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("addMessages: Wrote " + message + " to " + file);
+      }
+      ExtendedDataOutput messages = config.createExtendedDataOutput();
+      while (!queue.isEmpty()) {
+        I vertexId = queue.peek().currentVertexId;
+        int messageCount = 0;
+        messages.reset();
+        while (!queue.isEmpty() &&
+            queue.peek().currentVertexId.compareTo(vertexId) == 0) {
+          SequentialFileMessageStore<I, M> run = queue.poll();
+          messageCount += run.copyMessagesForCurrentVertex(messages);
+          if (run.getCurrentVertexId() != null) {
+            queue.add(run);
           }
-          message.write(out);
         }
+        writer.writeVertex(vertexId, messageCount, messages);
       }
     } finally {
-      if (out != null) {
-        out.close();
+      writer.close();
+      for (SequentialFileMessageStore<I, M> run : runs) {
+        run.endReading();
       }
     }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("mergeRuns: Merged " + runs.size() + " runs into " + file);
+    }
   }
 
   /**
-   * Reads messages for a vertex. It will find the messages only if all
-   * previous reads used smaller vertex ids than this one - messages should
-   * be retrieved in increasing order of vertex ids.
+   * Reads messages for a vertex.  Reading is fastest when vertex ids are
+   * requested in increasing order; otherwise the index is used to seek
+   * back to the vertex.
    *
    * @param vertexId Vertex id for which we want to get messages
-   * @return Messages for the selected vertex, or empty list if not used
-   *         correctly
+   * @return Messages for the selected vertex, or empty list if there are
+   *         none
    * @throws IOException
    */
   public Iterable<M> getVertexMessages(I vertexId) throws
@@ -179,13 +230,25 @@ public class SequentialFileMessageStore<I extends WritableComparable,
       LOG.debug("getVertexMessages: Reading for vertex id " + vertexId +
           " (currently " + currentVertexId + ") from " + file);
     }
-    if (in == null) {
-      startReading();
+    if (indexVertexIds == null) {
+      readIndex();
+    }
+    int entry = findIndexEntry(vertexId);
+    if (entry < 0) {
+      // Smaller than all vertex ids in the file
+      return EmptyIterable.get();
+    }
+    if ((in == null && nextVertex < numVertices) ||
+        (long) entry * indexInterval > nextVertex ||
+        (previousVertexId != null &&
+            previousVertexId.compareTo(vertexId) >= 0)) {
+      seek(entry);
     }
 
     I nextVertexId = getCurrentVertexId();
     while (nextVertexId != null && vertexId.compareTo(nextVertexId) > 0) {
-      nextVertexId = getNextVertexId();
+      skipMessagesForCurrentVertex();
+      nextVertexId = getCurrentVertexId();
     }
 
     if (nextVertexId == null || vertexId.compareTo(nextVertexId) < 0) {
@@ -232,7 +295,7 @@ public class SequentialFileMessageStore<I extends WritableComparable,
       for (long position = 0; position < fileLength; position += bufferSize) {
         int bytes = (int) Math.min(bufferSize, fileLength - position);
         in.readFully(buffer, 0, bytes);
-        output.write(buffer);
+        output.write(buffer, 0, bytes);
       }
     } finally {
       output.close();
@@ -240,57 +303,150 @@ public class SequentialFileMessageStore<I extends WritableComparable,
   }
 
   /**
-   * Prepare for reading
+   * Create the file, deleting it first if it already exists.
    *
    * @throws IOException
    */
-  private void startReading() throws IOException {
-    currentVertexId = null;
-    in = new DataInputStream(
-        new BufferedInputStream(new FileInputStream(file), bufferSize));
-    verticesLeft = in.readInt();
+  private void createFile() throws IOException {
+    if (file.exists()) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("createFile: Deleting " + file);
+      }
+      if (!file.delete()) {
+        throw new IOException("Failed to delete existing file " + file);
+      }
+    }
+    if (!file.createNewFile()) {
+      throw new IOException("Failed to create file " + file);
+    }
     if (LOG.isDebugEnabled()) {
-      LOG.debug("startReading: File " + file + " with " +
-          verticesLeft + " vertices left");
+      LOG.debug("createFile: Creating " + file);
     }
   }
 
   /**
-   * Gets current vertex id.
-   * <p/>
-   * If there is a vertex id whose messages haven't been read yet it
-   * will return that vertex id, otherwise it will read and return the next
+   * Read the number of vertices and the sparse index from the end of the
+   * file.
+   *
+   * @throws IOException
+   */
+  private void readIndex() throws IOException {
+    long indexPosition;
+    int numEntries;
+    RandomAccessFile trailer = new RandomAccessFile(file, "r");
+    try {
+      trailer.seek(trailer.length() - TRAILER_SIZE);
+      numVertices = trailer.readInt();
+      numEntries = trailer.readInt();
+      indexPosition = trailer.readLong();
+    } finally {
+      trailer.close();
+    }
+    DataInputStream indexIn = open(indexPosition);
+    try {
+      indexVertexIds = Lists.newArrayListWithCapacity(numEntries);
+      indexPositions = new long[numEntries];
+      for (int i = 0; i < numEntries; ++i) {
+        I vertexId = config.createVertexId();
+        vertexId.readFields(indexIn);
+        indexVertexIds.add(vertexId);
+        indexPositions[i] = indexIn.readLong();
+      }
+    } finally {
+      indexIn.close();
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("readIndex: File " + file + " with " + numVertices +
+          " vertices and " + numEntries + " index entries");
+    }
+  }
+
+  /**
+   * Find the last index entry whose vertex id is not larger than the given
    * one.
    *
-   * @return Current vertex id
+   * @param vertexId Vertex id
+   * @return Number of the index entry, or -1 if all are larger
+   */
+  private int findIndexEntry(I vertexId) {
+    int low = 0;
+    int high = indexVertexIds.size() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (indexVertexIds.get(middle).compareTo(vertexId) <= 0) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return high;
+  }
+
+  /**
+   * Open the file for reading at a position.
+   *
+   * @param position Position in the file
+   * @return Input stream
    * @throws IOException
    */
-  private I getCurrentVertexId() throws IOException {
-    if (currentVertexId != null) {
-      return currentVertexId;
+  private DataInputStream open(long position) throws IOException {
+    FileInputStream fileIn = new FileInputStream(file);
+    fileIn.getChannel().position(position);
+    return new DataInputStream(new BufferedInputStream(fileIn, bufferSize));
+  }
+
+  /**
+   * Prepare for reading from the first vertex
+   *
+   * @throws IOException
+   */
+  private void startReading() throws IOException {
+    if (indexVertexIds == null) {
+      readIndex();
+    }
+    if (indexPositions.length == 0) {
+      endReading();
+      nextVertex = 0;
+      currentVertexId = null;
+      previousVertexId = null;
     } else {
-      return getNextVertexId();
+      seek(0);
     }
   }
 
   /**
-   * Gets next vertex id.
+   * Continue reading from the vertex of an index entry.
+   *
+   * @param entry Number of the index entry
+   * @throws IOException
+   */
+  private void seek(int entry) throws IOException {
+    endReading();
+    in = open(indexPositions[entry]);
+    nextVertex = entry * indexInterval;
+    currentVertexId = null;
+    previousVertexId = null;
+  }
+
+  /**
+   * Gets current vertex id.
    * <p/>
-   * If there is a vertex whose messages haven't been read yet it
-   * will read and skip over its messages to get to the next vertex.
+   * If there is a vertex id whose messages haven't been read yet it
+   * will return that vertex id, otherwise it will read and return the next
+   * one.
    *
-   * @return Next vertex id
+   * @return Current vertex id, or null if all vertices were read
    * @throws IOException
    */
-  private I getNextVertexId() throws IOException {
-    if (currentVertexId != null) {
-      readMessagesForCurrentVertex();
-    }
-    if (verticesLeft == 0) {
-      return null;
+  private I getCurrentVertexId() throws IOException {
+    if (currentVertexId == null && nextVertex < numVertices) {
+      if (in == null) {
+        throw new EOFException("getCurrentVertexId: Reading " + file +
+            " wasn't started");
+      }
+      currentVertexId = config.createVertexId();
+      currentVertexId.readFields(in);
     }
-    currentVertexId = config.createVertexId();
-    currentVertexId.readFields(in);
     return currentVertexId;
   }
 
@@ -300,23 +456,54 @@ public class SequentialFileMessageStore<I extends WritableComparable,
    * @return Messages for current vertex
    * @throws IOException
    */
-  private Collection<M> readMessagesForCurrentVertex() throws IOException {
-    int messagesSize = in.readInt();
-    List<M> messages = Lists.newArrayListWithCapacity(messagesSize);
-    for (int i = 0; i < messagesSize; i++) {
-      M message = messageValueFactory.newInstance();
-      try {
-        message.readFields(in);
-      } catch (IOException e) {
-        throw new IllegalStateException("readMessagesForCurrentVertex: " +
-            "Failed to read message from " + i + " of " +
-            messagesSize + " for vertex id " + currentVertexId + " from " +
-            file, e);
+  private Iterable<M> readMessagesForCurrentVertex() throws IOException {
+    in.readInt();
+    byte[] messages = new byte[in.readInt()];
+    in.readFully(messages);
+    currentVertexDone();
+    return new MessagesIterable<M>(config, messageValueFactory, messages, 0,
+        messages.length);
+  }
+
+  /**
+   * Copies the serialized messages for current vertex.
+   *
+   * @param out Output to append the messages to
+   * @return Number of messages copied
+   * @throws IOException
+   */
+  private int copyMessagesForCurrentVertex(ExtendedDataOutput out)
+    throws IOException {
+    int messageCount = in.readInt();
+    int length = in.readInt();
+    byte[] buffer = new byte[Math.min(length, bufferSize)];
+    while (length > 0) {
+      int bytes = Math.min(length, buffer.length);
+      in.readFully(buffer, 0, bytes);
+      out.write(buffer, 0, bytes);
+      length -= bytes;
+    }
+    currentVertexDone();
+    return messageCount;
+  }
+
+  /**
+   * Skips over the messages for current vertex without reading them.
+   *
+   * @throws IOException
+   */
+  private void skipMessagesForCurrentVertex() throws IOException {
+    in.readInt();
+    int length = in.readInt();
+    while (length > 0) {
+      int skipped = in.skipBytes(length);
+      if (skipped <= 0) {
+        throw new EOFException("skipMessagesForCurrentVertex: Unexpected " +
+            "end of " + file);
       }
-      messages.add(message);
+      length -= skipped;
     }
     currentVertexDone();
-    return messages;
   }
 
   /**
@@ -325,9 +512,10 @@ public class SequentialFileMessageStore<I extends WritableComparable,
    * @throws IOException
    */
   private void currentVertexDone() throws IOException {
+    previousVertexId = currentVertexId;
     currentVertexId = null;
-    verticesLeft--;
-    if (verticesLeft == 0) {
+    nextVertex++;
+    if (nextVertex == numVertices) {
       endReading();
     }
   }
@@ -338,15 +526,103 @@ public class SequentialFileMessageStore<I extends WritableComparable,
    * @throws IOException
    */
   private void endReading() throws IOException {
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("endReading: Stopped reading " + file);
-    }
     if (in != null) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("endReading: Stopped reading " + file);
+      }
       in.close();
       in = null;
     }
   }
 
+  /**
+   * Writes a sorted run with its index to the file of this store.
+   */
+  private class RunWriter {
+    /** Counts the bytes written, for the index */
+    private final CountingOutputStream counter;
+    /** Output stream */
+    private final DataOutputStream out;
+    /** Vertex ids of the index entries */
+    private final List<I> indexIds = Lists.newArrayList();
+    /** File positions of the index entries */
+    private final List<Long> indexOffsets = Lists.newArrayList();
+    /** Holds a combined message while it is written */
+    private final ExtendedDataOutput combined;
+    /** Number of vertices written */
+    private int vertexCount;
+
+    /**
+     * Constructor, creates the file.
+     *
+     * @throws IOException
+     */
+    RunWriter() throws IOException {
+      createFile();
+      counter = new CountingOutputStream(
+          new BufferedOutputStream(new FileOutputStream(file), bufferSize));
+      out = new DataOutputStream(counter);
+      combined = (combiner == null) ? null : config.createExtendedDataOutput();
+    }
+
+    /**
+     * Write the messages of a vertex; vertices have to be written in
+     * increasing order of ids.
+     *
+     * @param vertexId Vertex id
+     * @param messageCount Number of messages
+     * @param messages Serialized messages
+     * @throws IOException
+     */
+    void writeVertex(I vertexId, int messageCount,
+        ExtendedDataOutput messages) throws IOException {
+      if (combiner != null && messageCount > 1) {
+        M message = combiner.createInitialMessage();
+        for (M other : new MessagesIterable<M>(config, messageValueFactory,
+            messages.getByteArray(), 0, messages.getPos())) {
+          combiner.combine(vertexId, message, other);
+        }
+        combined.reset();
+        message.write(combined);
+        messages = combined;
+        messageCount = 1;
+      }
+      if (vertexCount % indexInterval == 0) {
+        indexIds.add(vertexId);
+        indexOffsets.add(counter.getCount());
+      }
+      vertexId.write(out);
+      out.writeInt(messageCount);
+      out.writeInt(messages.getPos());
+      out.write(messages.getByteArray(), 0, messages.getPos());
+      ++vertexCount;
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("writeVertex: For vertex id " + vertexId +
+            ", messages = " + messageCount + " to file " + file);
+      }
+    }
+
+    /**
+     * Write the index and close the file.
+     *
+     * @throws IOException
+     */
+    void close() throws IOException {
+      try {
+        long indexPosition = counter.getCount();
+        for (int i = 0; i < indexIds.size(); ++i) {
+          indexIds.get(i).write(out);
+          out.writeLong(indexOffsets.get(i));
+        }
+        out.writeInt(vertexCount);
+        out.writeInt(indexIds.size());
+        out.writeLong(indexPosition);
+      } finally {
+        out.close();
+      }
+    }
+  }
+
   /**
    * Create new factory for this message store
    *
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages.primitives;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.messages.MessagesIterable;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.factories.MessageValueFactory;
+import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.giraph.utils.EmptyIterable;
+import org.apache.giraph.utils.ExtendedDataOutput;
+import org.apache.giraph.utils.WritableUtils;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Base class of the primitive message stores used without a combiner,
+ * which keep the serialized messages of each vertex in a byte array.
+ *
+ * @param <I> Vertex id
+ * @param <M> Message data
+ * @param <S> Map from vertex id to messages of a stripe
+ */
+public abstract class ByteArrayStripedMessageStore<
+    I extends WritableComparable, M extends Writable,
+    S extends Map<?, ExtendedDataOutput>>
+    extends StripedMessageStore<I, M, S> {
+  /** Message value factory */
+  protected final MessageValueFactory<M> messageValueFactory;
+
+  /**
+   * Constructor
+   *
+   * @param messageValueFactory Factory for creating message values
+   * @param service Service worker
+   * @param config Giraph configuration
+   */
+  public ByteArrayStripedMessageStore(
+      MessageValueFactory<M> messageValueFactory,
+      CentralizedServiceWorker<I, ?, ?> service,
+      ImmutableClassesGiraphConfiguration<I, ?, ?> config) {
+    super(service, config);
+    this.messageValueFactory = messageValueFactory;
+    createPartitionStripes();
+  }
+
+  /**
+   * Get the messages of a vertex.
+   *
+   * @param stripeMap Map of the stripe the vertex belongs to
+   * @param vertexId Id of the vertex
+   * @return Messages, null if the vertex has none
+   */
+  protected abstract ExtendedDataOutput getMessages(S stripeMap, I vertexId);
+
+  /**
+   * Set the messages of a vertex.
+   *
+   * @param stripeMap Map of the stripe the vertex belongs to
+   * @param vertexId Id of the vertex
+   * @param messages Messages
+   */
+  protected abstract void putMessages(S stripeMap, I vertexId,
+      ExtendedDataOutput messages);
+
+  /**
+   * Get the extended data output for a vertex id, creating if necessary.
+   *
+   * @param stripeMap Stripe map to look in
+   * @param vertexId Id of the vertex
+   * @return Extended data output for this vertex id (created if necessary)
+   */
+  private ExtendedDataOutput getExtendedDataOutput(S stripeMap, I vertexId) {
+    ExtendedDataOutput extendedDataOutput = getMessages(stripeMap, vertexId);
+    if (extendedDataOutput == null) {
+      extendedDataOutput = config.createExtendedDataOutput();
+      putMessages(stripeMap, vertexId, extendedDataOutput);
+    }
+    return extendedDataOutput;
+  }
+
+  @Override
+  protected boolean hasMessages(S stripeMap, I vertexId) {
+    return getMessages(stripeMap, vertexId) != null;
+  }
+
+  @Override
+  protected void readMessages(S stripeMap, I vertexId,
+      DataInput in) throws IOException {
+    putMessages(stripeMap, vertexId,
+        WritableUtils.readExtendedDataOutput(in, config));
+  }
+
+  @Override
+  public void addPartitionMessages(int partitionId,
+      ByteArrayVertexIdMessages<I, M> messages) throws IOException {
+    S[] stripes = getStripes(partitionId);
+    ByteArrayVertexIdMessages<I, M>.VertexIdMessageBytesIterator
+        vertexIdMessageBytesIterator =
+        messages.getVertexIdMessageBytesIterator();
+    // Try to copy the message buffer over rather than
+    // doing a deserialization of a message just to know its size.  This
+    // should be more efficient for complex objects where serialization is
+    // expensive.  If this type of iterator is not available, fall back to
+    // deserializing/serializing the messages
+    if (vertexIdMessageBytesIterator != null) {
+      while (vertexIdMessageBytesIterator.hasNext()) {
+        vertexIdMessageBytesIterator.next();
+        I vertexId = vertexIdMessageBytesIterator.getCurrentVertexId();
+        S stripeMap = getStripeMap(stripes, vertexId);
+        synchronized (stripeMap) {
+          vertexIdMessageBytesIterator.writeCurrentMessageBytes(
+              getExtendedDataOutput(stripeMap, vertexId));
+        }
+      }
+    } else {
+      ByteArrayVertexIdMessages<I, M>.VertexIdMessageIterator
+          iterator = messages.getVertexIdMessageIterator();
+      while (iterator.hasNext()) {
+        iterator.next();
+        I vertexId = iterator.getCurrentVertexId();
+        S stripeMap = getStripeMap(stripes, vertexId);
+        synchronized (stripeMap) {
+          iterator.getCurrentMessage().write(
+              getExtendedDataOutput(stripeMap, vertexId));
+        }
+      }
+    }
+  }
+
+  @Override
+  public Iterable<M> getVertexMessages(I vertexId) throws IOException {
+    ExtendedDataOutput extendedDataOutput =
+        getMessages(getStripeMap(vertexId), vertexId);
+    if (extendedDataOutput == null) {
+      return EmptyIterable.get();
+    } else {
+      return new MessagesIterable<M>(config, messageValueFactory,
+          extendedDataOutput.getByteArray(), 0, extendedDataOutput.getPos());
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages.primitives;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.Combiner;
+import org.apache.giraph.comm.messages.DirectMessageStore;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.giraph.utils.EmptyIterable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Base class of the primitive message stores used with a combiner, which
+ * keep a single message per vertex.  Subclasses can combine messages
+ * without going through Writables, e.g. when the combiner sums them, and
+ * otherwise fall back to the generic combiner.
+ *
+ * @param <I> Vertex id
+ * @param <M> Message data
+ * @param <S> Map from vertex id to message of a stripe
+ */
+public abstract class CombiningStripedMessageStore<
+    I extends WritableComparable, M extends Writable, S extends Map<?, ?>>
+    extends StripedMessageStore<I, M, S>
+    implements DirectMessageStore<I, M> {
+  /** Message combiner */
+  protected final Combiner<I, M> combiner;
+  /** Initial message of the combiner, which doesn't change any message */
+  protected final M initialMessage;
+
+  /**
+   * Constructor
+   *
+   * @param service Service worker
+   * @param combiner Message combiner
+   * @param config Giraph configuration
+   */
+  public CombiningStripedMessageStore(
+      CentralizedServiceWorker<I, ?, ?> service,
+      Combiner<I, M> combiner,
+      ImmutableClassesGiraphConfiguration<I, ?, ?> config) {
+    super(service, config);
+    this.combiner = combiner;
+    initialMessage = combiner.createInitialMessage();
+    createPartitionStripes();
+  }
+
+  /**
+   * Combine a message with the message a vertex has without going through
+   * Writables, if the combiner allows it.  The stripe map has to be locked.
+   *
+   * @param stripeMap Map of the stripe the vertex belongs to
+   * @param vertexId Id of the vertex
+   * @param message Message to add
+   * @return False iff the generic combiner has to be used instead
+   */
+  protected abstract boolean combinePrimitive(S stripeMap, I vertexId,
+      M message);
+
+  /**
+   * Get the message of a vertex which has one.
+   *
+   * @param stripeMap Map of the stripe the vertex belongs to
+   * @param vertexId Id of the vertex
+   * @param message Message object to set to the message of the vertex
+   */
+  protected abstract void getMessage(S stripeMap, I vertexId, M message);
+
+  /**
+   * Set the message of a vertex.
+   *
+   * @param stripeMap Map of the stripe the vertex belongs to
+   * @param vertexId Id of the vertex
+   * @param message Message
+   */
+  protected abstract void putMessage(S stripeMap, I vertexId, M message);
+
+  /**
+   * Combine a message with the message a vertex has, if any.  The stripe
+   * map has to be locked.
+   *
+   * @param stripeMap Map of the stripe the vertex belongs to
+   * @param vertexId Id of the vertex
+   * @param message Message to add
+   * @param reusableCurrentMessage Message object used with a generic
+   *                               combiner, created if null
+   */
+  private void combineMessage(S stripeMap, I vertexId, M message,
+      M reusableCurrentMessage) {
+    if (combinePrimitive(stripeMap, vertexId, message)) {
+      return;
+    }
+    if (hasMessages(stripeMap, vertexId)) {
+      if (reusableCurrentMessage == null) {
+        reusableCurrentMessage = combiner.createInitialMessage();
+      }
+      getMessage(stripeMap, vertexId, reusableCurrentMessage);
+      combiner.combine(vertexId, reusableCurrentMessage, message);
+      message = reusableCurrentMessage;
+    }
+    putMessage(stripeMap, vertexId, message);
+  }
+
+  @Override
+  public void addPartitionMessages(int partitionId,
+      ByteArrayVertexIdMessages<I, M> messages) throws IOException {
+    M reusableCurrentMessage = combiner.createInitialMessage();
+    S[] stripes = getStripes(partitionId);
+    ByteArrayVertexIdMessages<I, M>.VertexIdMessageIterator iterator =
+        messages.getVertexIdMessageIterator();
+    while (iterator.hasNext()) {
+      iterator.next();
+      I vertexId = iterator.getCurrentVertexId();
+      S stripeMap = getStripeMap(stripes, vertexId);
+      synchronized (stripeMap) {
+        combineMessage(stripeMap, vertexId, iterator.getCurrentMessage(),
+            reusableCurrentMessage);
+      }
+    }
+  }
+
+  @Override
+  public void addMessage(int partitionId, I vertexId, M message) {
+    S stripeMap = getStripeMap(getStripes(partitionId), vertexId);
+    synchronized (stripeMap) {
+      combineMessage(stripeMap, vertexId, message, null);
+    }
+  }
+
+  @Override
+  public Iterable<M> getVertexMessages(I vertexId) throws IOException {
+    S stripeMap = getStripeMap(vertexId);
+    if (!hasMessages(stripeMap, vertexId)) {
+      return EmptyIterable.get();
+    } else {
+      M message = combiner.createInitialMessage();
+      getMessage(stripeMap, vertexId, message);
+      return Collections.singleton(message);
+    }
+  }
+}
@@ -19,26 +19,18 @@
 package org.apache.giraph.comm.messages.primitives;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
-import org.apache.giraph.comm.messages.MessageStore;
-import org.apache.giraph.comm.messages.MessagesIterable;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.factories.MessageValueFactory;
-import org.apache.giraph.partition.Partition;
-import org.apache.giraph.utils.ByteArrayVertexIdMessages;
-import org.apache.giraph.utils.EmptyIterable;
 import org.apache.giraph.utils.ExtendedDataOutput;
 import org.apache.giraph.utils.WritableUtils;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Writable;
 
-import com.google.common.collect.Lists;
-
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntIterator;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
-import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.List;
@@ -52,17 +44,8 @@ import java.util.List;
  * @param <M> Message type
  */
 public class IntByteArrayMessageStore<M extends Writable>
-    implements MessageStore<IntWritable, M> {
-  /** Message value factory */
-  protected final MessageValueFactory<M> messageValueFactory;
-  /** Map from partition id to map from vertex id to message */
-  private final
-  Int2ObjectOpenHashMap<Int2ObjectOpenHashMap<ExtendedDataOutput>> map;
-  /** Service worker */
-  private final CentralizedServiceWorker<IntWritable, ?, ?> service;
-  /** Giraph configuration */
-  private final ImmutableClassesGiraphConfiguration<IntWritable, ?, ?> config;
-
+    extends ByteArrayStripedMessageStore<IntWritable, M,
+    Int2ObjectOpenHashMap<ExtendedDataOutput>> {
   /**
    * Constructor
    *
@@ -74,161 +57,56 @@ public class IntByteArrayMessageStore<M extends Writable>
       MessageValueFactory<M> messageValueFactory,
       CentralizedServiceWorker<IntWritable, ?, ?> service,
       ImmutableClassesGiraphConfiguration<IntWritable, ?, ?> config) {
-    this.messageValueFactory = messageValueFactory;
-    this.service = service;
-    this.config = config;
-
-    map =
-        new Int2ObjectOpenHashMap<Int2ObjectOpenHashMap<ExtendedDataOutput>>();
-    for (int partitionId : service.getPartitionStore().getPartitionIds()) {
-      Partition<IntWritable, ?, ?> partition =
-          service.getPartitionStore().getPartition(partitionId);
-      Int2ObjectOpenHashMap<ExtendedDataOutput> partitionMap =
-          new Int2ObjectOpenHashMap<ExtendedDataOutput>(
-              (int) partition.getVertexCount());
-      map.put(partitionId, partitionMap);
-    }
-  }
-
-  /**
-   * Get map which holds messages for partition which vertex belongs to.
-   *
-   * @param vertexId Id of the vertex
-   * @return Map which holds messages for partition which vertex belongs to.
-   */
-  private Int2ObjectOpenHashMap<ExtendedDataOutput> getPartitionMap(
-      IntWritable vertexId) {
-    return map.get(service.getPartitionId(vertexId));
-  }
-
-  /**
-   * Get the extended data output for a vertex id, creating if necessary.
-   *
-   * @param partitionMap Partition map to look in
-   * @param vertexId     Id of the vertex
-   * @return Extended data output for this vertex id (created if necessary)
-   */
-  private ExtendedDataOutput getExtendedDataOutput(
-      Int2ObjectOpenHashMap<ExtendedDataOutput> partitionMap,
-      int vertexId) {
-    ExtendedDataOutput extendedDataOutput = partitionMap.get(vertexId);
-    if (extendedDataOutput == null) {
-      extendedDataOutput = config.createExtendedDataOutput();
-      partitionMap.put(vertexId, extendedDataOutput);
-    }
-    return extendedDataOutput;
+    super(messageValueFactory, service, config);
   }
 
   @Override
-  public void addPartitionMessages(int partitionId,
-      ByteArrayVertexIdMessages<IntWritable, M> messages) throws
-      IOException {
-    Int2ObjectOpenHashMap<ExtendedDataOutput> partitionMap =
-        map.get(partitionId);
-    synchronized (partitionMap) {
-      ByteArrayVertexIdMessages<IntWritable, M>.VertexIdMessageBytesIterator
-          vertexIdMessageBytesIterator =
-          messages.getVertexIdMessageBytesIterator();
-      // Try to copy the message buffer over rather than
-      // doing a deserialization of a message just to know its size.  This
-      // should be more efficient for complex objects where serialization is
-      // expensive.  If this type of iterator is not available, fall back to
-      // deserializing/serializing the messages
-      if (vertexIdMessageBytesIterator != null) {
-        while (vertexIdMessageBytesIterator.hasNext()) {
-          vertexIdMessageBytesIterator.next();
-          vertexIdMessageBytesIterator.writeCurrentMessageBytes(
-              getExtendedDataOutput(partitionMap,
-                  vertexIdMessageBytesIterator.getCurrentVertexId().get()));
-        }
-      } else {
-        ByteArrayVertexIdMessages<IntWritable, M>.VertexIdMessageIterator
-            iterator = messages.getVertexIdMessageIterator();
-        while (iterator.hasNext()) {
-          iterator.next();
-          iterator.getCurrentMessage().write(
-              getExtendedDataOutput(partitionMap,
-                  iterator.getCurrentVertexId().get()));
-        }
-      }
-    }
-  }
-
-  @Override
-  public void clearPartition(int partitionId) throws IOException {
-    map.get(partitionId).clear();
+  protected Int2ObjectOpenHashMap<ExtendedDataOutput> createStripeMap(
+      int expectedSize) {
+    return new Int2ObjectOpenHashMap<ExtendedDataOutput>(expectedSize);
   }
 
   @Override
-  public boolean hasMessagesForVertex(IntWritable vertexId) {
-    return getPartitionMap(vertexId).containsKey(vertexId.get());
-  }
-
-  @Override
-  public Iterable<M> getVertexMessages(
-      IntWritable vertexId) throws IOException {
-    ExtendedDataOutput extendedDataOutput =
-        getPartitionMap(vertexId).get(vertexId.get());
-    if (extendedDataOutput == null) {
-      return EmptyIterable.get();
-    } else {
-      return new MessagesIterable<M>(config, messageValueFactory,
-          extendedDataOutput.getByteArray(), 0, extendedDataOutput.getPos());
-    }
+  protected ExtendedDataOutput getMessages(
+      Int2ObjectOpenHashMap<ExtendedDataOutput> stripeMap,
+      IntWritable vertexId) {
+    return stripeMap.get(vertexId.get());
   }
 
   @Override
-  public void clearVertexMessages(IntWritable vertexId) throws IOException {
-    getPartitionMap(vertexId).remove(vertexId.get());
+  protected void putMessages(
+      Int2ObjectOpenHashMap<ExtendedDataOutput> stripeMap,
+      IntWritable vertexId, ExtendedDataOutput messages) {
+    stripeMap.put(vertexId.get(), messages);
   }
 
   @Override
-  public void clearAll() throws IOException {
-    map.clear();
+  protected void removeMessages(
+      Int2ObjectOpenHashMap<ExtendedDataOutput> stripeMap,
+      IntWritable vertexId) {
+    stripeMap.remove(vertexId.get());
   }
 
   @Override
-  public Iterable<IntWritable> getPartitionDestinationVertices(
-      int partitionId) {
-    Int2ObjectOpenHashMap<ExtendedDataOutput> partitionMap =
-        map.get(partitionId);
-    List<IntWritable> vertices =
-        Lists.newArrayListWithCapacity(partitionMap.size());
-    IntIterator iterator = partitionMap.keySet().iterator();
+  protected void addVertexIds(
+      Int2ObjectOpenHashMap<ExtendedDataOutput> stripeMap,
+      List<IntWritable> vertexIds) {
+    IntIterator iterator = stripeMap.keySet().iterator();
     while (iterator.hasNext()) {
-      vertices.add(new IntWritable(iterator.nextInt()));
+      vertexIds.add(new IntWritable(iterator.nextInt()));
     }
-    return vertices;
   }
 
   @Override
-  public void writePartition(DataOutput out,
-      int partitionId) throws IOException {
-    Int2ObjectOpenHashMap<ExtendedDataOutput> partitionMap =
-        map.get(partitionId);
-    out.writeInt(partitionMap.size());
+  protected void writeStripe(
+      Int2ObjectOpenHashMap<ExtendedDataOutput> stripeMap,
+      DataOutput out) throws IOException {
     ObjectIterator<Int2ObjectMap.Entry<ExtendedDataOutput>> iterator =
-        partitionMap.int2ObjectEntrySet().fastIterator();
+        stripeMap.int2ObjectEntrySet().fastIterator();
     while (iterator.hasNext()) {
       Int2ObjectMap.Entry<ExtendedDataOutput> entry = iterator.next();
       out.writeInt(entry.getIntKey());
       WritableUtils.writeExtendedDataOutput(entry.getValue(), out);
     }
   }
-
-  @Override
-  public void readFieldsForPartition(DataInput in,
-      int partitionId) throws IOException {
-    int size = in.readInt();
-    Int2ObjectOpenHashMap<ExtendedDataOutput> partitionMap =
-        new Int2ObjectOpenHashMap<ExtendedDataOutput>(size);
-    while (size-- > 0) {
-      int vertexId = in.readInt();
-      partitionMap.put(vertexId,
-          WritableUtils.readExtendedDataOutput(in, config));
-    }
-    synchronized (map) {
-      map.put(partitionId, partitionMap);
-    }
-  }
 }
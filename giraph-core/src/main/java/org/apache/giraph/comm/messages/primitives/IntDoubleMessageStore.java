@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages.primitives;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.Combiner;
+import org.apache.giraph.combiner.DoubleCombiner;
+import org.apache.giraph.combiner.DoubleSumCombiner;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Special message store to be used when ids are IntWritable and messages
+ * are DoubleWritable and combiner is used.
+ * Uses fastutil primitive maps in order to decrease number of objects and
+ * get better performance.  If the combiner implements {@link DoubleCombiner},
+ * messages are combined without going through Writables.
+ */
+public class IntDoubleMessageStore extends CombiningStripedMessageStore<
+    IntWritable, DoubleWritable, Int2DoubleOpenHashMap> {
+  /** Primitive form of the combiner (null if it has none) */
+  private final DoubleCombiner primitiveCombiner;
+  /** Whether messages are summed, so they can be added in place */
+  private final boolean sumCombiner;
+
+  /**
+   * Constructor
+   *
+   * @param service Service worker
+   * @param combiner Message combiner
+   * @param config Giraph configuration
+   */
+  public IntDoubleMessageStore(
+      CentralizedServiceWorker<IntWritable, ?, ?> service,
+      Combiner<IntWritable, DoubleWritable> combiner,
+      ImmutableClassesGiraphConfiguration<IntWritable, ?, ?> config) {
+    super(service, combiner, config);
+    primitiveCombiner = (combiner instanceof DoubleCombiner) ?
+        (DoubleCombiner) combiner : null;
+    sumCombiner = combiner.getClass().equals(DoubleSumCombiner.class);
+  }
+
+  @Override
+  protected Int2DoubleOpenHashMap createStripeMap(int expectedSize) {
+    Int2DoubleOpenHashMap stripeMap = new Int2DoubleOpenHashMap(expectedSize);
+    stripeMap.defaultReturnValue(initialMessage.get());
+    return stripeMap;
+  }
+
+  @Override
+  protected boolean combinePrimitive(Int2DoubleOpenHashMap stripeMap,
+      IntWritable vertexId, DoubleWritable message) {
+    if (sumCombiner) {
+      stripeMap.addTo(vertexId.get(), message.get());
+    } else if (primitiveCombiner != null) {
+      // Absent vertices get the initial message, and combining with it
+      // gives the new message, which is already in place
+      double currentMessage = stripeMap.put(vertexId.get(), message.get());
+      if (currentMessage != stripeMap.defaultReturnValue()) {
+        stripeMap.put(vertexId.get(),
+            primitiveCombiner.combine(currentMessage, message.get()));
+      }
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  protected boolean hasMessages(Int2DoubleOpenHashMap stripeMap,
+      IntWritable vertexId) {
+    return stripeMap.containsKey(vertexId.get());
+  }
+
+  @Override
+  protected void getMessage(Int2DoubleOpenHashMap stripeMap,
+      IntWritable vertexId, DoubleWritable message) {
+    message.set(stripeMap.get(vertexId.get()));
+  }
+
+  @Override
+  protected void putMessage(Int2DoubleOpenHashMap stripeMap,
+      IntWritable vertexId, DoubleWritable message) {
+    stripeMap.put(vertexId.get(), message.get());
+  }
+
+  @Override
+  protected void removeMessages(Int2DoubleOpenHashMap stripeMap,
+      IntWritable vertexId) {
+    stripeMap.remove(vertexId.get());
+  }
+
+  @Override
+  protected void addVertexIds(Int2DoubleOpenHashMap stripeMap,
+      List<IntWritable> vertexIds) {
+    IntIterator iterator = stripeMap.keySet().iterator();
+    while (iterator.hasNext()) {
+      vertexIds.add(new IntWritable(iterator.nextInt()));
+    }
+  }
+
+  @Override
+  protected void writeStripe(Int2DoubleOpenHashMap stripeMap,
+      DataOutput out) throws IOException {
+    ObjectIterator<Int2DoubleMap.Entry> iterator =
+        stripeMap.int2DoubleEntrySet().fastIterator();
+    while (iterator.hasNext()) {
+      Int2DoubleMap.Entry entry = iterator.next();
+      out.writeInt(entry.getIntKey());
+      out.writeDouble(entry.getDoubleValue());
+    }
+  }
+
+  @Override
+  protected void readMessages(Int2DoubleOpenHashMap stripeMap,
+      IntWritable vertexId, DataInput in) throws IOException {
+    stripeMap.put(vertexId.get(), in.readDouble());
+  }
+}
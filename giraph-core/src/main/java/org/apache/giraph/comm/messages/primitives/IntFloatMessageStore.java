@@ -20,156 +20,117 @@ package org.apache.giraph.comm.messages.primitives;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.combiner.Combiner;
-import org.apache.giraph.comm.messages.MessageStore;
-import org.apache.giraph.partition.Partition;
-import org.apache.giraph.utils.ByteArrayVertexIdMessages;
-import org.apache.giraph.utils.EmptyIterable;
+import org.apache.giraph.combiner.FloatCombiner;
+import org.apache.giraph.combiner.FloatSumCombiner;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.IntWritable;
 
-import com.google.common.collect.Lists;
-
 import it.unimi.dsi.fastutil.ints.Int2FloatMap;
 import it.unimi.dsi.fastutil.ints.Int2FloatOpenHashMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntIterator;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Collections;
 import java.util.List;
 
 /**
  * Special message store to be used when ids are IntWritable and messages
  * are FloatWritable and combiner is used.
  * Uses fastutil primitive maps in order to decrease number of objects and
- * get better performance.
+ * get better performance.  If the combiner implements {@link FloatCombiner},
+ * messages are combined without going through Writables.
  */
-public class IntFloatMessageStore
-    implements MessageStore<IntWritable, FloatWritable> {
-  /** Map from partition id to map from vertex id to message */
-  private final Int2ObjectOpenHashMap<Int2FloatOpenHashMap> map;
-  /** Message combiner */
-  private final Combiner<IntWritable, FloatWritable> combiner;
-  /** Service worker */
-  private final CentralizedServiceWorker<IntWritable, ?, ?> service;
+public class IntFloatMessageStore extends CombiningStripedMessageStore<
+    IntWritable, FloatWritable, Int2FloatOpenHashMap> {
+  /** Primitive form of the combiner (null if it has none) */
+  private final FloatCombiner primitiveCombiner;
+  /** Whether messages are summed, so they can be added in place */
+  private final boolean sumCombiner;
 
   /**
    * Constructor
    *
    * @param service Service worker
    * @param combiner Message combiner
+   * @param config Giraph configuration
    */
   public IntFloatMessageStore(
       CentralizedServiceWorker<IntWritable, ?, ?> service,
-      Combiner<IntWritable, FloatWritable> combiner) {
-    this.service = service;
-    this.combiner = combiner;
-
-    map = new Int2ObjectOpenHashMap<Int2FloatOpenHashMap>();
-    for (int partitionId : service.getPartitionStore().getPartitionIds()) {
-      Partition<IntWritable, ?, ?> partition =
-          service.getPartitionStore().getPartition(partitionId);
-      Int2FloatOpenHashMap partitionMap =
-          new Int2FloatOpenHashMap((int) partition.getVertexCount());
-      map.put(partitionId, partitionMap);
-    }
+      Combiner<IntWritable, FloatWritable> combiner,
+      ImmutableClassesGiraphConfiguration<IntWritable, ?, ?> config) {
+    super(service, combiner, config);
+    primitiveCombiner = (combiner instanceof FloatCombiner) ?
+        (FloatCombiner) combiner : null;
+    sumCombiner = combiner.getClass().equals(FloatSumCombiner.class);
   }
 
-  /**
-   * Get map which holds messages for partition which vertex belongs to.
-   *
-   * @param vertexId Id of the vertex
-   * @return Map which holds messages for partition which vertex belongs to.
-   */
-  private Int2FloatOpenHashMap getPartitionMap(IntWritable vertexId) {
-    return map.get(service.getPartitionId(vertexId));
+  @Override
+  protected Int2FloatOpenHashMap createStripeMap(int expectedSize) {
+    Int2FloatOpenHashMap stripeMap = new Int2FloatOpenHashMap(expectedSize);
+    stripeMap.defaultReturnValue(initialMessage.get());
+    return stripeMap;
   }
 
   @Override
-  public void addPartitionMessages(int partitionId,
-      ByteArrayVertexIdMessages<IntWritable, FloatWritable> messages) throws
-      IOException {
-    IntWritable reusableVertexId = new IntWritable();
-    FloatWritable reusableMessage = new FloatWritable();
-    FloatWritable reusableCurrentMessage = new FloatWritable();
-
-    Int2FloatOpenHashMap partitionMap = map.get(partitionId);
-    synchronized (partitionMap) {
-      ByteArrayVertexIdMessages<IntWritable,
-          FloatWritable>.VertexIdMessageIterator
-          iterator = messages.getVertexIdMessageIterator();
-      while (iterator.hasNext()) {
-        iterator.next();
-        int vertexId = iterator.getCurrentVertexId().get();
-        float message = iterator.getCurrentMessage().get();
-        if (partitionMap.containsKey(vertexId)) {
-          reusableVertexId.set(vertexId);
-          reusableMessage.set(message);
-          reusableCurrentMessage.set(partitionMap.get(vertexId));
-          combiner.combine(reusableVertexId, reusableCurrentMessage,
-              reusableMessage);
-          message = reusableCurrentMessage.get();
-        }
-        partitionMap.put(vertexId, message);
+  protected boolean combinePrimitive(Int2FloatOpenHashMap stripeMap,
+      IntWritable vertexId, FloatWritable message) {
+    if (sumCombiner) {
+      stripeMap.addTo(vertexId.get(), message.get());
+    } else if (primitiveCombiner != null) {
+      // Absent vertices get the initial message, and combining with it
+      // gives the new message, which is already in place
+      float currentMessage = stripeMap.put(vertexId.get(), message.get());
+      if (currentMessage != stripeMap.defaultReturnValue()) {
+        stripeMap.put(vertexId.get(),
+            primitiveCombiner.combine(currentMessage, message.get()));
       }
+    } else {
+      return false;
     }
+    return true;
   }
 
   @Override
-  public void clearPartition(int partitionId) throws IOException {
-    map.get(partitionId).clear();
-  }
-
-  @Override
-  public boolean hasMessagesForVertex(IntWritable vertexId) {
-    return getPartitionMap(vertexId).containsKey(vertexId.get());
+  protected boolean hasMessages(Int2FloatOpenHashMap stripeMap,
+      IntWritable vertexId) {
+    return stripeMap.containsKey(vertexId.get());
   }
 
   @Override
-  public Iterable<FloatWritable> getVertexMessages(
-      IntWritable vertexId) throws IOException {
-    Int2FloatOpenHashMap partitionMap = getPartitionMap(vertexId);
-    if (!partitionMap.containsKey(vertexId.get())) {
-      return EmptyIterable.get();
-    } else {
-      return Collections.singleton(
-          new FloatWritable(partitionMap.get(vertexId.get())));
-    }
+  protected void getMessage(Int2FloatOpenHashMap stripeMap,
+      IntWritable vertexId, FloatWritable message) {
+    message.set(stripeMap.get(vertexId.get()));
   }
 
   @Override
-  public void clearVertexMessages(IntWritable vertexId) throws IOException {
-    getPartitionMap(vertexId).remove(vertexId.get());
+  protected void putMessage(Int2FloatOpenHashMap stripeMap,
+      IntWritable vertexId, FloatWritable message) {
+    stripeMap.put(vertexId.get(), message.get());
   }
 
   @Override
-  public void clearAll() throws IOException {
-    map.clear();
+  protected void removeMessages(Int2FloatOpenHashMap stripeMap,
+      IntWritable vertexId) {
+    stripeMap.remove(vertexId.get());
   }
 
   @Override
-  public Iterable<IntWritable> getPartitionDestinationVertices(
-      int partitionId) {
-    Int2FloatOpenHashMap partitionMap = map.get(partitionId);
-    List<IntWritable> vertices =
-        Lists.newArrayListWithCapacity(partitionMap.size());
-    IntIterator iterator = partitionMap.keySet().iterator();
+  protected void addVertexIds(Int2FloatOpenHashMap stripeMap,
+      List<IntWritable> vertexIds) {
+    IntIterator iterator = stripeMap.keySet().iterator();
     while (iterator.hasNext()) {
-      vertices.add(new IntWritable(iterator.nextInt()));
+      vertexIds.add(new IntWritable(iterator.nextInt()));
     }
-    return vertices;
   }
 
   @Override
-  public void writePartition(DataOutput out,
-      int partitionId) throws IOException {
-    Int2FloatOpenHashMap partitionMap = map.get(partitionId);
-    out.writeInt(partitionMap.size());
+  protected void writeStripe(Int2FloatOpenHashMap stripeMap,
+      DataOutput out) throws IOException {
     ObjectIterator<Int2FloatMap.Entry> iterator =
-        partitionMap.int2FloatEntrySet().fastIterator();
+        stripeMap.int2FloatEntrySet().fastIterator();
     while (iterator.hasNext()) {
       Int2FloatMap.Entry entry = iterator.next();
       out.writeInt(entry.getIntKey());
@@ -178,17 +139,8 @@ public class IntFloatMessageStore
   }
 
   @Override
-  public void readFieldsForPartition(DataInput in,
-      int partitionId) throws IOException {
-    int size = in.readInt();
-    Int2FloatOpenHashMap partitionMap = new Int2FloatOpenHashMap(size);
-    while (size-- > 0) {
-      int vertexId = in.readInt();
-      float message = in.readFloat();
-      partitionMap.put(vertexId, message);
-    }
-    synchronized (map) {
-      map.put(partitionId, partitionMap);
-    }
+  protected void readMessages(Int2FloatOpenHashMap stripeMap,
+      IntWritable vertexId, DataInput in) throws IOException {
+    stripeMap.put(vertexId.get(), in.readFloat());
   }
 }
@@ -20,16 +20,12 @@ package org.apache.giraph.comm.messages.primitives;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.combiner.Combiner;
-import org.apache.giraph.comm.messages.MessageStore;
-import org.apache.giraph.partition.Partition;
-import org.apache.giraph.utils.ByteArrayVertexIdMessages;
-import org.apache.giraph.utils.EmptyIterable;
+import org.apache.giraph.combiner.DoubleCombiner;
+import org.apache.giraph.combiner.DoubleSumCombiner;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.LongWritable;
 
-import com.google.common.collect.Lists;
-
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongIterator;
@@ -38,138 +34,103 @@ import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Collections;
 import java.util.List;
 
 /**
  * Special message store to be used when ids are LongWritable and messages
  * are DoubleWritable and combiner is used.
  * Uses fastutil primitive maps in order to decrease number of objects and
- * get better performance.
+ * get better performance.  If the combiner implements {@link DoubleCombiner},
+ * messages are combined without going through Writables.
  */
-public class LongDoubleMessageStore
-    implements MessageStore<LongWritable, DoubleWritable> {
-  /** Map from partition id to map from vertex id to message */
-  private final Int2ObjectOpenHashMap<Long2DoubleOpenHashMap> map;
-  /** Message combiner */
-  private final Combiner<LongWritable, DoubleWritable> combiner;
-  /** Service worker */
-  private final CentralizedServiceWorker<LongWritable, ?, ?> service;
+public class LongDoubleMessageStore extends CombiningStripedMessageStore<
+    LongWritable, DoubleWritable, Long2DoubleOpenHashMap> {
+  /** Primitive form of the combiner (null if it has none) */
+  private final DoubleCombiner primitiveCombiner;
+  /** Whether messages are summed, so they can be added in place */
+  private final boolean sumCombiner;
 
   /**
    * Constructor
    *
    * @param service Service worker
    * @param combiner Message combiner
+   * @param config Giraph configuration
    */
   public LongDoubleMessageStore(
       CentralizedServiceWorker<LongWritable, ?, ?> service,
-      Combiner<LongWritable, DoubleWritable> combiner) {
-    this.service = service;
-    this.combiner = combiner;
-
-    map = new Int2ObjectOpenHashMap<Long2DoubleOpenHashMap>();
-    for (int partitionId : service.getPartitionStore().getPartitionIds()) {
-      Partition<LongWritable, ?, ?> partition =
-          service.getPartitionStore().getPartition(partitionId);
-      Long2DoubleOpenHashMap partitionMap =
-          new Long2DoubleOpenHashMap((int) partition.getVertexCount());
-      map.put(partitionId, partitionMap);
-    }
+      Combiner<LongWritable, DoubleWritable> combiner,
+      ImmutableClassesGiraphConfiguration<LongWritable, ?, ?> config) {
+    super(service, combiner, config);
+    primitiveCombiner = (combiner instanceof DoubleCombiner) ?
+        (DoubleCombiner) combiner : null;
+    sumCombiner = combiner.getClass().equals(DoubleSumCombiner.class);
   }
 
-  /**
-   * Get map which holds messages for partition which vertex belongs to.
-   *
-   * @param vertexId Id of the vertex
-   * @return Map which holds messages for partition which vertex belongs to.
-   */
-  private Long2DoubleOpenHashMap getPartitionMap(LongWritable vertexId) {
-    return map.get(service.getPartitionId(vertexId));
+  @Override
+  protected Long2DoubleOpenHashMap createStripeMap(int expectedSize) {
+    Long2DoubleOpenHashMap stripeMap = new Long2DoubleOpenHashMap(expectedSize);
+    stripeMap.defaultReturnValue(initialMessage.get());
+    return stripeMap;
   }
 
   @Override
-  public void addPartitionMessages(int partitionId,
-      ByteArrayVertexIdMessages<LongWritable, DoubleWritable> messages) throws
-      IOException {
-    LongWritable reusableVertexId = new LongWritable();
-    DoubleWritable reusableMessage = new DoubleWritable();
-    DoubleWritable reusableCurrentMessage = new DoubleWritable();
-
-    Long2DoubleOpenHashMap partitionMap = map.get(partitionId);
-    synchronized (partitionMap) {
-      ByteArrayVertexIdMessages<LongWritable,
-          DoubleWritable>.VertexIdMessageIterator
-          iterator = messages.getVertexIdMessageIterator();
-      while (iterator.hasNext()) {
-        iterator.next();
-        long vertexId = iterator.getCurrentVertexId().get();
-        double message = iterator.getCurrentMessage().get();
-        if (partitionMap.containsKey(vertexId)) {
-          reusableVertexId.set(vertexId);
-          reusableMessage.set(message);
-          reusableCurrentMessage.set(partitionMap.get(vertexId));
-          combiner.combine(reusableVertexId, reusableCurrentMessage,
-              reusableMessage);
-          message = reusableCurrentMessage.get();
-        }
-        partitionMap.put(vertexId, message);
+  protected boolean combinePrimitive(Long2DoubleOpenHashMap stripeMap,
+      LongWritable vertexId, DoubleWritable message) {
+    if (sumCombiner) {
+      stripeMap.addTo(vertexId.get(), message.get());
+    } else if (primitiveCombiner != null) {
+      // Absent vertices get the initial message, and combining with it
+      // gives the new message, which is already in place
+      double currentMessage = stripeMap.put(vertexId.get(), message.get());
+      if (currentMessage != stripeMap.defaultReturnValue()) {
+        stripeMap.put(vertexId.get(),
+            primitiveCombiner.combine(currentMessage, message.get()));
       }
+    } else {
+      return false;
     }
+    return true;
   }
 
   @Override
-  public void clearPartition(int partitionId) throws IOException {
-    map.get(partitionId).clear();
-  }
-
-  @Override
-  public boolean hasMessagesForVertex(LongWritable vertexId) {
-    return getPartitionMap(vertexId).containsKey(vertexId.get());
+  protected boolean hasMessages(Long2DoubleOpenHashMap stripeMap,
+      LongWritable vertexId) {
+    return stripeMap.containsKey(vertexId.get());
   }
 
   @Override
-  public Iterable<DoubleWritable> getVertexMessages(
-      LongWritable vertexId) throws IOException {
-    Long2DoubleOpenHashMap partitionMap = getPartitionMap(vertexId);
-    if (!partitionMap.containsKey(vertexId.get())) {
-      return EmptyIterable.get();
-    } else {
-      return Collections.singleton(
-          new DoubleWritable(partitionMap.get(vertexId.get())));
-    }
+  protected void getMessage(Long2DoubleOpenHashMap stripeMap,
+      LongWritable vertexId, DoubleWritable message) {
+    message.set(stripeMap.get(vertexId.get()));
   }
 
   @Override
-  public void clearVertexMessages(LongWritable vertexId) throws IOException {
-    getPartitionMap(vertexId).remove(vertexId.get());
+  protected void putMessage(Long2DoubleOpenHashMap stripeMap,
+      LongWritable vertexId, DoubleWritable message) {
+    stripeMap.put(vertexId.get(), message.get());
   }
 
   @Override
-  public void clearAll() throws IOException {
-    map.clear();
+  protected void removeMessages(Long2DoubleOpenHashMap stripeMap,
+      LongWritable vertexId) {
+    stripeMap.remove(vertexId.get());
   }
 
   @Override
-  public Iterable<LongWritable> getPartitionDestinationVertices(
-      int partitionId) {
-    Long2DoubleOpenHashMap partitionMap = map.get(partitionId);
-    List<LongWritable> vertices =
-        Lists.newArrayListWithCapacity(partitionMap.size());
-    LongIterator iterator = partitionMap.keySet().iterator();
+  protected void addVertexIds(Long2DoubleOpenHashMap stripeMap,
+      List<LongWritable> vertexIds) {
+    LongIterator iterator = stripeMap.keySet().iterator();
     while (iterator.hasNext()) {
-      vertices.add(new LongWritable(iterator.nextLong()));
+      vertexIds.add(new LongWritable(iterator.nextLong()));
     }
-    return vertices;
   }
 
   @Override
-  public void writePartition(DataOutput out,
-      int partitionId) throws IOException {
-    Long2DoubleOpenHashMap partitionMap = map.get(partitionId);
-    out.writeInt(partitionMap.size());
+  protected void writeStripe(Long2DoubleOpenHashMap stripeMap,
+      DataOutput out) throws IOException {
     ObjectIterator<Long2DoubleMap.Entry> iterator =
-        partitionMap.long2DoubleEntrySet().fastIterator();
+        stripeMap.long2DoubleEntrySet().fastIterator();
     while (iterator.hasNext()) {
       Long2DoubleMap.Entry entry = iterator.next();
       out.writeLong(entry.getLongKey());
@@ -178,17 +139,8 @@ public class LongDoubleMessageStore
   }
 
   @Override
-  public void readFieldsForPartition(DataInput in,
-      int partitionId) throws IOException {
-    int size = in.readInt();
-    Long2DoubleOpenHashMap partitionMap = new Long2DoubleOpenHashMap(size);
-    while (size-- > 0) {
-      long vertexId = in.readLong();
-      double message = in.readDouble();
-      partitionMap.put(vertexId, message);
-    }
-    synchronized (map) {
-      map.put(partitionId, partitionMap);
-    }
+  protected void readMessages(Long2DoubleOpenHashMap stripeMap,
+      LongWritable vertexId, DataInput in) throws IOException {
+    stripeMap.put(vertexId.get(), in.readDouble());
   }
 }
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages.primitives;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.Combiner;
+import org.apache.giraph.combiner.FloatCombiner;
+import org.apache.giraph.combiner.FloatSumCombiner;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+
+import it.unimi.dsi.fastutil.longs.Long2FloatMap;
+import it.unimi.dsi.fastutil.longs.Long2FloatOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Special message store to be used when ids are LongWritable and messages
+ * are FloatWritable and combiner is used.
+ * Uses fastutil primitive maps in order to decrease number of objects and
+ * get better performance.  If the combiner implements {@link FloatCombiner},
+ * messages are combined without going through Writables.
+ */
+public class LongFloatMessageStore extends CombiningStripedMessageStore<
+    LongWritable, FloatWritable, Long2FloatOpenHashMap> {
+  /** Primitive form of the combiner (null if it has none) */
+  private final FloatCombiner primitiveCombiner;
+  /** Whether messages are summed, so they can be added in place */
+  private final boolean sumCombiner;
+
+  /**
+   * Constructor
+   *
+   * @param service Service worker
+   * @param combiner Message combiner
+   * @param config Giraph configuration
+   */
+  public LongFloatMessageStore(
+      CentralizedServiceWorker<LongWritable, ?, ?> service,
+      Combiner<LongWritable, FloatWritable> combiner,
+      ImmutableClassesGiraphConfiguration<LongWritable, ?, ?> config) {
+    super(service, combiner, config);
+    primitiveCombiner = (combiner instanceof FloatCombiner) ?
+        (FloatCombiner) combiner : null;
+    sumCombiner = combiner.getClass().equals(FloatSumCombiner.class);
+  }
+
+  @Override
+  protected Long2FloatOpenHashMap createStripeMap(int expectedSize) {
+    Long2FloatOpenHashMap stripeMap = new Long2FloatOpenHashMap(expectedSize);
+    stripeMap.defaultReturnValue(initialMessage.get());
+    return stripeMap;
+  }
+
+  @Override
+  protected boolean combinePrimitive(Long2FloatOpenHashMap stripeMap,
+      LongWritable vertexId, FloatWritable message) {
+    if (sumCombiner) {
+      stripeMap.addTo(vertexId.get(), message.get());
+    } else if (primitiveCombiner != null) {
+      // Absent vertices get the initial message, and combining with it
+      // gives the new message, which is already in place
+      float currentMessage = stripeMap.put(vertexId.get(), message.get());
+      if (currentMessage != stripeMap.defaultReturnValue()) {
+        stripeMap.put(vertexId.get(),
+            primitiveCombiner.combine(currentMessage, message.get()));
+      }
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  protected boolean hasMessages(Long2FloatOpenHashMap stripeMap,
+      LongWritable vertexId) {
+    return stripeMap.containsKey(vertexId.get());
+  }
+
+  @Override
+  protected void getMessage(Long2FloatOpenHashMap stripeMap,
+      LongWritable vertexId, FloatWritable message) {
+    message.set(stripeMap.get(vertexId.get()));
+  }
+
+  @Override
+  protected void putMessage(Long2FloatOpenHashMap stripeMap,
+      LongWritable vertexId, FloatWritable message) {
+    stripeMap.put(vertexId.get(), message.get());
+  }
+
+  @Override
+  protected void removeMessages(Long2FloatOpenHashMap stripeMap,
+      LongWritable vertexId) {
+    stripeMap.remove(vertexId.get());
+  }
+
+  @Override
+  protected void addVertexIds(Long2FloatOpenHashMap stripeMap,
+      List<LongWritable> vertexIds) {
+    LongIterator iterator = stripeMap.keySet().iterator();
+    while (iterator.hasNext()) {
+      vertexIds.add(new LongWritable(iterator.nextLong()));
+    }
+  }
+
+  @Override
+  protected void writeStripe(Long2FloatOpenHashMap stripeMap,
+      DataOutput out) throws IOException {
+    ObjectIterator<Long2FloatMap.Entry> iterator =
+        stripeMap.long2FloatEntrySet().fastIterator();
+    while (iterator.hasNext()) {
+      Long2FloatMap.Entry entry = iterator.next();
+      out.writeLong(entry.getLongKey());
+      out.writeFloat(entry.getFloatValue());
+    }
+  }
+
+  @Override
+  protected void readMessages(Long2FloatOpenHashMap stripeMap,
+      LongWritable vertexId, DataInput in) throws IOException {
+    stripeMap.put(vertexId.get(), in.readFloat());
+  }
+}
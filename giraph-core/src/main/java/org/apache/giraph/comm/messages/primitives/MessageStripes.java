@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages.primitives;
+
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+/**
+ * Helpers for primitive message stores which split the messages of each
+ * partition into stripes, so that requests for the same partition can be
+ * added by several threads at once, each locking only the stripe of the
+ * vertex it adds a message to.
+ */
+public class MessageStripes {
+  /** Do not instantiate. */
+  private MessageStripes() { }
+
+  /**
+   * Get the number of stripes to split the messages of a partition into.
+   *
+   * @param conf Configuration
+   * @return Number of stripes, a power of two
+   */
+  public static int getNumStripes(
+      ImmutableClassesGiraphConfiguration<?, ?, ?> conf) {
+    int numStripes = GiraphConstants.MESSAGE_STORE_STRIPES.get(conf);
+    if (numStripes <= 0) {
+      numStripes = conf.getNettyServerExecutionConcurrency();
+    }
+    return HashCommon.nextPowerOfTwo(Math.max(numStripes, 1));
+  }
+
+  /**
+   * Get the stripe a vertex belongs to.  Uses the high half of the hash,
+   * since fastutil maps place keys by the low bits, which would otherwise
+   * be the same for all keys of a stripe.
+   *
+   * @param vertexId Vertex id, or its hash code
+   * @param numStripes Number of stripes, a power of two
+   * @return Index of the stripe
+   */
+  public static int getStripe(long vertexId, int numStripes) {
+    return (int) (HashCommon.murmurHash3(vertexId) >>> 32) &
+        (numStripes - 1);
+  }
+}
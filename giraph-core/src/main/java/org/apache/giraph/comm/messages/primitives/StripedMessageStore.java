@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages.primitives;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.messages.MessageStore;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.partition.Partition;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import com.google.common.collect.Lists;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class of the message stores which keep the messages in fastutil
+ * primitive maps.  The messages of each partition are split into
+ * {@link MessageStripes}, so that several threads can add messages to the
+ * same partition at once, each locking only the stripe of the vertex it
+ * adds a message to.  Subclasses only implement the operations which depend
+ * on the type of the maps.
+ *
+ * @param <I> Vertex id
+ * @param <M> Message data
+ * @param <S> Map from vertex id to messages of a stripe
+ */
+public abstract class StripedMessageStore<I extends WritableComparable,
+    M extends Writable, S extends Map<?, ?>> implements MessageStore<I, M> {
+  /** Service worker */
+  protected final CentralizedServiceWorker<I, ?, ?> service;
+  /** Giraph configuration */
+  protected final ImmutableClassesGiraphConfiguration<I, ?, ?> config;
+  /** Map from partition id to stripes of map from vertex id to messages */
+  private final Int2ObjectOpenHashMap<S[]> map;
+  /** Number of stripes per partition */
+  private final int numStripes;
+
+  /**
+   * Constructor
+   *
+   * @param service Service worker
+   * @param config Giraph configuration
+   */
+  public StripedMessageStore(
+      CentralizedServiceWorker<I, ?, ?> service,
+      ImmutableClassesGiraphConfiguration<I, ?, ?> config) {
+    this.service = service;
+    this.config = config;
+    numStripes = MessageStripes.getNumStripes(config);
+    map = new Int2ObjectOpenHashMap<S[]>();
+  }
+
+  /**
+   * Create the stripes of the partitions the worker has.  Has to be called
+   * by the constructors of the subclasses, once they are able to create the
+   * maps of the stripes.
+   */
+  protected void createPartitionStripes() {
+    for (int partitionId : service.getPartitionStore().getPartitionIds()) {
+      Partition<I, ?, ?> partition =
+          service.getPartitionStore().getPartition(partitionId);
+      map.put(partitionId,
+          createStripes((int) partition.getVertexCount() / numStripes));
+    }
+  }
+
+  /**
+   * Create the map of a stripe.
+   *
+   * @param expectedSize Expected number of vertices in the stripe
+   * @return Empty map
+   */
+  protected abstract S createStripeMap(int expectedSize);
+
+  /**
+   * Check whether a stripe has messages for a vertex.
+   *
+   * @param stripeMap Map of the stripe the vertex belongs to
+   * @param vertexId Id of the vertex
+   * @return True iff the vertex has messages
+   */
+  protected abstract boolean hasMessages(S stripeMap, I vertexId);
+
+  /**
+   * Remove the messages of a vertex from a stripe.
+   *
+   * @param stripeMap Map of the stripe the vertex belongs to
+   * @param vertexId Id of the vertex
+   */
+  protected abstract void removeMessages(S stripeMap, I vertexId);
+
+  /**
+   * Add the ids of the vertices with messages in a stripe to a list.
+   *
+   * @param stripeMap Map of the stripe
+   * @param vertexIds List to add the ids to
+   */
+  protected abstract void addVertexIds(S stripeMap, List<I> vertexIds);
+
+  /**
+   * Write the ids and messages of the vertices of a stripe.
+   *
+   * @param stripeMap Map of the stripe
+   * @param out Data output
+   * @throws IOException
+   */
+  protected abstract void writeStripe(S stripeMap, DataOutput out) throws
+      IOException;
+
+  /**
+   * Read the messages of a vertex, written by {@link #writeStripe}, into a
+   * stripe.
+   *
+   * @param stripeMap Map of the stripe the vertex belongs to
+   * @param vertexId Id of the vertex, already read
+   * @param in Data input
+   * @throws IOException
+   */
+  protected abstract void readMessages(S stripeMap, I vertexId,
+      DataInput in) throws IOException;
+
+  /**
+   * Create the stripes of a partition.
+   *
+   * @param expectedStripeSize Expected number of vertices per stripe
+   * @return Stripes
+   */
+  @SuppressWarnings("unchecked")
+  private S[] createStripes(int expectedStripeSize) {
+    S[] stripes = (S[]) new Map[numStripes];
+    for (int i = 0; i < numStripes; ++i) {
+      stripes[i] = createStripeMap(expectedStripeSize);
+    }
+    return stripes;
+  }
+
+  /**
+   * Get the stripes of a partition.
+   *
+   * @param partitionId Id of the partition
+   * @return Stripes
+   */
+  protected S[] getStripes(int partitionId) {
+    return map.get(partitionId);
+  }
+
+  /**
+   * Get the map of the stripe a vertex belongs to.
+   *
+   * @param stripes Stripes of the partition of the vertex
+   * @param vertexId Id of the vertex
+   * @return Map of the stripe
+   */
+  protected S getStripeMap(S[] stripes, I vertexId) {
+    return stripes[MessageStripes.getStripe(vertexId.hashCode(), numStripes)];
+  }
+
+  /**
+   * Get map which holds messages for the stripe which vertex belongs to.
+   *
+   * @param vertexId Id of the vertex
+   * @return Map which holds messages for the stripe which vertex belongs to.
+   */
+  protected S getStripeMap(I vertexId) {
+    return getStripeMap(getStripes(service.getPartitionId(vertexId)),
+        vertexId);
+  }
+
+  /**
+   * Get the number of vertices with messages in a partition.
+   *
+   * @param stripes Stripes of the partition
+   * @return Number of vertices with messages
+   */
+  private int getPartitionSize(S[] stripes) {
+    int size = 0;
+    for (S stripeMap : stripes) {
+      size += stripeMap.size();
+    }
+    return size;
+  }
+
+  @Override
+  public void clearPartition(int partitionId) throws IOException {
+    for (S stripeMap : getStripes(partitionId)) {
+      stripeMap.clear();
+    }
+  }
+
+  @Override
+  public boolean hasMessagesForVertex(I vertexId) {
+    return hasMessages(getStripeMap(vertexId), vertexId);
+  }
+
+  @Override
+  public void clearVertexMessages(I vertexId) throws IOException {
+    removeMessages(getStripeMap(vertexId), vertexId);
+  }
+
+  @Override
+  public void clearAll() throws IOException {
+    map.clear();
+  }
+
+  @Override
+  public Iterable<I> getPartitionDestinationVertices(int partitionId) {
+    S[] stripes = getStripes(partitionId);
+    List<I> vertices =
+        Lists.newArrayListWithCapacity(getPartitionSize(stripes));
+    for (S stripeMap : stripes) {
+      addVertexIds(stripeMap, vertices);
+    }
+    return vertices;
+  }
+
+  @Override
+  public void writePartition(DataOutput out,
+      int partitionId) throws IOException {
+    S[] stripes = getStripes(partitionId);
+    out.writeInt(getPartitionSize(stripes));
+    for (S stripeMap : stripes) {
+      writeStripe(stripeMap, out);
+    }
+  }
+
+  @Override
+  public void readFieldsForPartition(DataInput in,
+      int partitionId) throws IOException {
+    int size = in.readInt();
+    S[] stripes = createStripes(size / numStripes);
+    I vertexId = config.createVertexId();
+    while (size-- > 0) {
+      vertexId.readFields(in);
+      readMessages(getStripeMap(stripes, vertexId), vertexId, in);
+    }
+    synchronized (map) {
+      map.put(partitionId, stripes);
+    }
+  }
+}
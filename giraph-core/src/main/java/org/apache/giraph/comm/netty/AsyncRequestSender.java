@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.netty;
+
+import org.apache.giraph.comm.requests.WritableRequest;
+import org.apache.hadoop.util.Progressable;
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sends requests from background threads, so that the threads producing
+ * them (i.e. compute threads) don't wait for the network.  Requests are
+ * queued per destination, and each queue is drained by at most one sender
+ * thread at a time, so a destination which is slow to accept requests
+ * keeps only one thread busy while the others keep sending to the rest.
+ * Producers block once too many bytes are queued.  This is thread-safe.
+ */
+public class AsyncRequestSender {
+  /** Class logger */
+  private static final Logger LOG = Logger.getLogger(AsyncRequestSender.class);
+  /** Milliseconds to wait before checking the queues again */
+  private static final int WAIT_MSECS = 1000;
+  /** Client which actually sends the requests */
+  private final NettyClient nettyClient;
+  /** Threads draining the queues */
+  private final ExecutorService senderExecutor;
+  /** Queue of every destination task */
+  private final ConcurrentMap<Integer, DestinationQueue> destinationQueues;
+  /** Maximum bytes of queued requests before producers block */
+  private final long maxQueuedBytes;
+  /** Used to report progress while waiting */
+  private final Progressable progressable;
+  /** Bytes of requests queued or being sent */
+  private long queuedBytes = 0;
+  /** Number of requests queued or being sent */
+  private long queuedRequests = 0;
+  /** First failure of a sender thread */
+  private final AtomicReference<Throwable> failure =
+      new AtomicReference<Throwable>();
+
+  /**
+   * Constructor
+   *
+   * @param nettyClient Client which actually sends the requests
+   * @param numThreads Number of sender threads
+   * @param maxQueuedBytes Maximum bytes of queued requests before producers
+   *                       block
+   * @param progressable Used to report progress while waiting
+   */
+  public AsyncRequestSender(NettyClient nettyClient, int numThreads,
+      long maxQueuedBytes, Progressable progressable) {
+    this.nettyClient = nettyClient;
+    this.maxQueuedBytes = maxQueuedBytes;
+    this.progressable = progressable;
+    senderExecutor = Executors.newFixedThreadPool(numThreads,
+        new ThreadFactoryBuilder().setNameFormat("async-sender-%d")
+            .setDaemon(true).build());
+    destinationQueues =
+        new MapMaker().concurrencyLevel(numThreads).makeMap();
+  }
+
+  /**
+   * Get the size used to account for a request.
+   *
+   * @param request Request
+   * @return Size of the request in bytes, 0 if unknown
+   */
+  private static int getRequestBytes(WritableRequest request) {
+    return Math.max(0, request.getSerializedSize());
+  }
+
+  /**
+   * Queue a request for a destination task.  Blocks while too many bytes
+   * are queued.
+   *
+   * @param destTaskId Destination task id
+   * @param request Request to send
+   */
+  public void sendWritableRequest(int destTaskId, WritableRequest request) {
+    int requestBytes = getRequestBytes(request);
+    synchronized (this) {
+      while (queuedRequests > 0 &&
+          queuedBytes + requestBytes > maxQueuedBytes) {
+        checkFailure();
+        waitForSenders();
+      }
+      checkFailure();
+      queuedBytes += requestBytes;
+      ++queuedRequests;
+    }
+    DestinationQueue queue = destinationQueues.get(destTaskId);
+    if (queue == null) {
+      queue = new DestinationQueue(destTaskId);
+      DestinationQueue oldQueue =
+          destinationQueues.putIfAbsent(destTaskId, queue);
+      if (oldQueue != null) {
+        queue = oldQueue;
+      }
+    }
+    queue.add(request);
+  }
+
+  /**
+   * Wait until every queued request was handed to the client.
+   */
+  public synchronized void waitAllQueued() {
+    while (queuedRequests > 0) {
+      checkFailure();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("waitAllQueued: Waiting for " + queuedRequests +
+            " requests (" + queuedBytes + " bytes)");
+      }
+      waitForSenders();
+    }
+    checkFailure();
+  }
+
+  /**
+   * Wait for the sender threads to make progress (lock must be held).
+   */
+  private void waitForSenders() {
+    try {
+      wait(WAIT_MSECS);
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(
+          "waitForSenders: Got unexpected InterruptedException", e);
+    }
+    progressable.progress();
+  }
+
+  /**
+   * Rethrow the failure of a sender thread, if there was one.
+   */
+  private void checkFailure() {
+    if (failure.get() != null) {
+      throw new IllegalStateException(
+          "checkFailure: Sending a request failed", failure.get());
+    }
+  }
+
+  /**
+   * Called by the sender threads after a request was handed to the client.
+   *
+   * @param requestBytes Size of the request
+   */
+  private synchronized void requestSent(int requestBytes) {
+    queuedBytes -= requestBytes;
+    --queuedRequests;
+    notifyAll();
+  }
+
+  /**
+   * Stop the sender threads.
+   */
+  public void shutdown() {
+    senderExecutor.shutdownNow();
+    try {
+      senderExecutor.awaitTermination(WAIT_MSECS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      LOG.warn("shutdown: Interrupted while stopping sender threads", e);
+    }
+  }
+
+  /**
+   * Requests waiting to be sent to one destination.
+   */
+  private class DestinationQueue implements Runnable {
+    /** Destination task id */
+    private final int taskId;
+    /** Requests to send */
+    private final Queue<WritableRequest> requests =
+        new ConcurrentLinkedQueue<WritableRequest>();
+    /** Whether a sender thread is draining (or about to drain) the queue */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /**
+     * Constructor
+     *
+     * @param taskId Destination task id
+     */
+    DestinationQueue(int taskId) {
+      this.taskId = taskId;
+    }
+
+    /**
+     * Add a request, and have a sender thread drain the queue if none is.
+     *
+     * @param request Request to send
+     */
+    void add(WritableRequest request) {
+      requests.add(request);
+      if (scheduled.compareAndSet(false, true)) {
+        senderExecutor.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        WritableRequest request;
+        while ((request = requests.poll()) != null) {
+          try {
+            nettyClient.sendWritableRequest(taskId, request);
+          } catch (RuntimeException e) {
+            LOG.error("run: Sending request to task " + taskId + " failed", e);
+            failure.compareAndSet(null, e);
+          }
+          requestSent(getRequestBytes(request));
+        }
+        scheduled.set(false);
+        // A request added after the queue looked empty needs a sender too
+        if (requests.isEmpty() || !scheduled.compareAndSet(false, true)) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.netty;
+
+import org.apache.giraph.comm.requests.WritableRequest;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+
+import com.google.common.collect.MapMaker;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client side of credit based flow control.  Every server advertises in
+ * its responses how many bytes of requests it is willing to have open from
+ * this client (its credit).  A request to a server can only be sent if the
+ * open bytes to that server stay within the credit, so a slow server only
+ * holds back the requests going to it.  A single request is always allowed
+ * when nothing is open, so requests bigger than the credit still make
+ * progress.  This is thread-safe.
+ */
+public class CreditFlowControl {
+  /** Credit assumed for servers which didn't respond yet */
+  private final int initialCredit;
+  /** Bytes of open requests for each destination task */
+  private final ConcurrentMap<Integer, AtomicLong> taskOpenBytes;
+  /** Last credit advertised by each destination task */
+  private final ConcurrentMap<Integer, Integer> taskCredit;
+  /** Size assumed for requests which don't know their size */
+  private final int unknownRequestSize;
+
+  /**
+   * Constructor
+   *
+   * @param conf Configuration
+   * @param concurrencyLevel Number of threads expected to update the credit
+   */
+  public CreditFlowControl(ImmutableClassesGiraphConfiguration conf,
+      int concurrencyLevel) {
+    initialCredit = GiraphConstants.NETTY_MAX_CREDIT_BYTES.get(conf);
+    unknownRequestSize =
+        GiraphConstants.NETTY_REQUEST_ENCODER_BUFFER_SIZE.get(conf);
+    taskOpenBytes = new MapMaker().concurrencyLevel(concurrencyLevel).makeMap();
+    taskCredit = new MapMaker().concurrencyLevel(concurrencyLevel).makeMap();
+  }
+
+  /**
+   * Get the number of bytes a request counts against the credit.
+   *
+   * @param request Request
+   * @return Size of the request in bytes
+   */
+  public int getRequestBytes(WritableRequest request) {
+    int size = request.getSerializedSize();
+    return (size == WritableRequest.UNKNOWN_SIZE) ? unknownRequestSize : size;
+  }
+
+  /**
+   * Get the open bytes counter of a destination task.
+   *
+   * @param taskId Destination task id
+   * @return Open bytes counter
+   */
+  private AtomicLong getOpenBytesCounter(int taskId) {
+    AtomicLong openBytes = taskOpenBytes.get(taskId);
+    if (openBytes == null) {
+      openBytes = new AtomicLong();
+      AtomicLong oldOpenBytes = taskOpenBytes.putIfAbsent(taskId, openBytes);
+      if (oldOpenBytes != null) {
+        openBytes = oldOpenBytes;
+      }
+    }
+    return openBytes;
+  }
+
+  /**
+   * Get the credit of a destination task.
+   *
+   * @param taskId Destination task id
+   * @return Credit in bytes
+   */
+  public int getCredit(int taskId) {
+    Integer credit = taskCredit.get(taskId);
+    return (credit == null) ? initialCredit : credit;
+  }
+
+  /**
+   * Try to reserve credit for a request to a destination task.
+   *
+   * @param taskId Destination task id
+   * @param requestBytes Size of the request
+   * @return True iff the request can be sent
+   */
+  public boolean tryAcquire(int taskId, int requestBytes) {
+    AtomicLong openBytes = getOpenBytesCounter(taskId);
+    while (true) {
+      long current = openBytes.get();
+      if (current > 0 && current + requestBytes > getCredit(taskId)) {
+        return false;
+      }
+      if (openBytes.compareAndSet(current, current + requestBytes)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Called when a response arrives from a destination task.
+   *
+   * @param taskId Destination task id
+   * @param requestBytes Size of the completed request, 0 if the response
+   *                     didn't complete an open request
+   * @param credit Credit advertised in the response
+   */
+  public void responseReceived(int taskId, int requestBytes, int credit) {
+    taskCredit.put(taskId, credit);
+    if (requestBytes > 0) {
+      getOpenBytesCounter(taskId).addAndGet(-requestBytes);
+    }
+  }
+
+  /**
+   * Get the bytes of open requests to a destination task.
+   *
+   * @param taskId Destination task id
+   * @return Open bytes
+   */
+  public long getOpenBytes(int taskId) {
+    AtomicLong openBytes = taskOpenBytes.get(taskId);
+    return (openBytes == null) ? 0 : openBytes.get();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("CreditFlowControl(");
+    for (Map.Entry<Integer, AtomicLong> entry : taskOpenBytes.entrySet()) {
+      if (entry.getValue().get() > 0) {
+        sb.append(entry.getKey()).append("=").append(entry.getValue().get())
+            .append("/").append(getCredit(entry.getKey())).append(",");
+      }
+    }
+    return sb.append(")").toString();
+  }
+}
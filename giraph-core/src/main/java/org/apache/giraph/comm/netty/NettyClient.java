@@ -19,7 +19,9 @@
 package org.apache.giraph.comm.netty;
 
 import org.apache.giraph.comm.netty.handler.AddressRequestIdGenerator;
+import org.apache.giraph.comm.netty.compression.CompressionCodec;
 import org.apache.giraph.comm.netty.handler.ClientRequestId;
+import org.apache.giraph.comm.netty.handler.RequestCompressionEncoder;
 import org.apache.giraph.comm.netty.handler.RequestEncoder;
 import org.apache.giraph.comm.netty.handler.RequestInfo;
 import org.apache.giraph.comm.netty.handler.RequestServerHandler;
@@ -34,6 +36,7 @@ import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.graph.TaskInfo;
 import org.apache.giraph.utils.ProgressableUtils;
+import org.apache.giraph.utils.ReflectionUtils;
 import org.apache.giraph.utils.TimedLogger;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.log4j.Logger;
@@ -135,6 +138,8 @@ public class NettyClient {
   private final int channelsPerServer;
   /** Byte counter for this client */
   private final ByteCounter byteCounter = new ByteCounter();
+  /** Compresses requests (null if compression is disabled) */
+  private final RequestCompressionEncoder compressionEncoder;
   /** Send buffer size */
   private final int sendBufferSize;
   /** Receive buffer size */
@@ -143,6 +148,8 @@ public class NettyClient {
   private final boolean limitNumberOfOpenRequests;
   /** Maximum number of requests without confirmation we can have */
   private final int maxNumberOfOpenRequests;
+  /** Credit based flow control (null if not used) */
+  private final CreditFlowControl creditFlowControl;
   /** Maximum number of connection failures */
   private final int maxConnectionFailures;
   /** Maximum number of milliseconds for a request */
@@ -190,9 +197,20 @@ public class NettyClient {
     sendBufferSize = CLIENT_SEND_BUFFER_SIZE.get(conf);
     receiveBufferSize = CLIENT_RECEIVE_BUFFER_SIZE.get(conf);
 
-    limitNumberOfOpenRequests = conf.getBoolean(
-        LIMIT_NUMBER_OF_OPEN_REQUESTS,
-        LIMIT_NUMBER_OF_OPEN_REQUESTS_DEFAULT);
+    maxPoolSize = GiraphConstants.NETTY_CLIENT_THREADS.get(conf);
+
+    if (GiraphConstants.NETTY_CREDIT_FLOW_CONTROL.get(conf)) {
+      creditFlowControl = new CreditFlowControl(conf, maxPoolSize);
+      if (LOG.isInfoEnabled()) {
+        LOG.info("NettyClient: Limit open requests by server credit, " +
+            "ignoring " + LIMIT_NUMBER_OF_OPEN_REQUESTS);
+      }
+    } else {
+      creditFlowControl = null;
+    }
+    limitNumberOfOpenRequests = (creditFlowControl == null) &&
+        conf.getBoolean(LIMIT_NUMBER_OF_OPEN_REQUESTS,
+            LIMIT_NUMBER_OF_OPEN_REQUESTS_DEFAULT);
     if (limitNumberOfOpenRequests) {
       maxNumberOfOpenRequests = conf.getInt(
           MAX_NUMBER_OF_OPEN_REQUESTS,
@@ -207,12 +225,24 @@ public class NettyClient {
 
     maxRequestMilliseconds = MAX_REQUEST_MILLISECONDS.get(conf);
 
+    Class<? extends CompressionCodec> codecClass =
+        GiraphConstants.NETTY_COMPRESSION_CODEC.get(conf);
+    if (codecClass != null) {
+      compressionEncoder = new RequestCompressionEncoder(
+          ReflectionUtils.newInstance(codecClass),
+          GiraphConstants.NETTY_COMPRESSION_THRESHOLD.get(conf));
+      if (LOG.isInfoEnabled()) {
+        LOG.info("NettyClient: Compressing requests with " +
+            codecClass.getSimpleName());
+      }
+    } else {
+      compressionEncoder = null;
+    }
+
     maxConnectionFailures = NETTY_MAX_CONNECTION_FAILURES.get(conf);
 
     waitingRequestMsecs = WAITING_REQUEST_MSECS.get(conf);
 
-    maxPoolSize = GiraphConstants.NETTY_CLIENT_THREADS.get(conf);
-
     maxResolveAddressAttempts = MAX_RESOLVE_ADDRESS_ATTEMPTS.get(conf);
 
     clientRequestIdRequestInfoMap =
@@ -289,7 +319,8 @@ public class NettyClient {
           pipeline.addLast("sasl-client-handler",
               new SaslClientHandler(conf));
           pipeline.addLast("response-handler",
-              new ResponseClientHandler(clientRequestIdRequestInfoMap, conf));
+              new ResponseClientHandler(clientRequestIdRequestInfoMap,
+                  creditFlowControl, conf));
           return pipeline;
         } else {
           LOG.info("Using Netty without authentication.");
@@ -297,10 +328,15 @@ public class NettyClient {
           ChannelPipeline pipeline = pipeline();
           pipeline.addLast("clientByteCounter", byteCounter);
           pipeline.addLast("responseFrameDecoder",
-              new FixedLengthFrameDecoder(RequestServerHandler.RESPONSE_BYTES));
+              new FixedLengthFrameDecoder(
+                  RequestServerHandler.getResponseBytes(conf)));
+          if (compressionEncoder != null) {
+            pipeline.addLast("requestCompressionEncoder", compressionEncoder);
+          }
           pipeline.addLast("requestEncoder", new RequestEncoder(conf));
           pipeline.addLast("responseClientHandler",
-              new ResponseClientHandler(clientRequestIdRequestInfoMap, conf));
+              new ResponseClientHandler(clientRequestIdRequestInfoMap,
+                  creditFlowControl, conf));
           if (executionHandler != null) {
             pipeline.addAfter(handlerBeforeExecutionHandler,
                 "executionHandler", executionHandler);
@@ -637,6 +673,10 @@ public class NettyClient {
     }
 /*end[HADOOP_NON_SECURE]*/
 
+    if (registerRequest && creditFlowControl != null) {
+      waitForCredit(destTaskId, creditFlowControl.getRequestBytes(request));
+    }
+
     Channel channel = getNextChannel(remoteServer);
     RequestInfo newRequestInfo = new RequestInfo(remoteServer, request);
     if (registerRequest) {
@@ -662,6 +702,39 @@ public class NettyClient {
     }
   }
 
+  /**
+   * Wait until the credit of a destination task allows sending a request
+   * to it.  Requests to other tasks are not held back.
+   *
+   * @param destTaskId Destination task id
+   * @param requestBytes Size of the request
+   */
+  private void waitForCredit(int destTaskId, int requestBytes) {
+    while (true) {
+      synchronized (clientRequestIdRequestInfoMap) {
+        if (creditFlowControl.tryAcquire(destTaskId, requestBytes)) {
+          return;
+        }
+        if (LOG.isInfoEnabled() && requestLogger.isPrintable()) {
+          LOG.info("waitForCredit: Waiting to send " + requestBytes +
+              " bytes to task " + destTaskId + ", " +
+              creditFlowControl.getOpenBytes(destTaskId) + " bytes open " +
+              "with credit " + creditFlowControl.getCredit(destTaskId) +
+              ", " + creditFlowControl);
+        }
+        try {
+          clientRequestIdRequestInfoMap.wait(waitingRequestMsecs);
+        } catch (InterruptedException e) {
+          LOG.error("waitForCredit: Got unexpected InterruptedException", e);
+        }
+      }
+      // Make sure that waiting doesn't kill the job
+      context.progress();
+
+      checkRequestsForProblems();
+    }
+  }
+
   /**
    * Ensure all the request sent so far are complete.
    *
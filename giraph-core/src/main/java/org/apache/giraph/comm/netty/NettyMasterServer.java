@@ -22,6 +22,8 @@ import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.bsp.CentralizedServiceMaster;
 import org.apache.giraph.comm.netty.handler.MasterRequestServerHandler;
 import org.apache.giraph.comm.MasterServer;
+import org.apache.giraph.comm.MasterServerData;
+import org.apache.giraph.zk.BspEvent;
 import org.apache.hadoop.util.Progressable;
 
 import java.net.InetSocketAddress;
@@ -32,19 +34,25 @@ import java.net.InetSocketAddress;
 public class NettyMasterServer implements MasterServer {
   /** Netty client that does the actual I/O */
   private final NettyServer nettyServer;
+  /** Data the server stores */
+  private final MasterServerData serverData;
 
   /**
    * Constructor
    *
    * @param conf Hadoop configuration
    * @param service Centralized service
+   * @param workerFinishedEvent Event to signal when a worker reports that it
+   *                            finished a superstep
    * @param progressable Progressable for reporting progress
    */
   public NettyMasterServer(ImmutableClassesGiraphConfiguration conf,
-      CentralizedServiceMaster<?, ?, ?> service,
+      CentralizedServiceMaster<?, ?, ?> service, BspEvent workerFinishedEvent,
       Progressable progressable) {
+    serverData = new MasterServerData(service.getAggregatorHandler(),
+        workerFinishedEvent);
     nettyServer = new NettyServer(conf,
-        new MasterRequestServerHandler.Factory(service.getAggregatorHandler()),
+        new MasterRequestServerHandler.Factory(serverData),
         service.getMasterInfo(), progressable);
     nettyServer.start();
   }
@@ -54,6 +62,11 @@ public class NettyMasterServer implements MasterServer {
     return nettyServer.getMyAddress();
   }
 
+  @Override
+  public MasterServerData getServerData() {
+    return serverData;
+  }
+
   @Override
   public void close() {
     nettyServer.stop();
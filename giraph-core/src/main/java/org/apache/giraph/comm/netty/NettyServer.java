@@ -21,6 +21,8 @@ package org.apache.giraph.comm.netty;
 /*if_not[HADOOP_NON_SECURE]*/
 import org.apache.giraph.comm.netty.handler.AuthorizeServerHandler;
 /*end[HADOOP_NON_SECURE]*/
+import org.apache.giraph.comm.netty.compression.CompressionCodec;
+import org.apache.giraph.comm.netty.handler.RequestCompressionDecoder;
 import org.apache.giraph.comm.netty.handler.RequestDecoder;
 import org.apache.giraph.comm.netty.handler.RequestServerHandler;
 import org.apache.giraph.comm.netty.handler.ResponseEncoder;
@@ -32,6 +34,7 @@ import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.graph.TaskInfo;
 import org.apache.giraph.utils.ProgressableUtils;
+import org.apache.giraph.utils.ReflectionUtils;
 import org.apache.hadoop.util.Progressable;
 import org.apache.log4j.Logger;
 import org.jboss.netty.bootstrap.ServerBootstrap;
@@ -108,6 +111,8 @@ public class NettyServer {
   private ServerBootstrap bootstrap;
   /** Byte counter for this client */
   private final ByteCounter byteCounter = new ByteCounter();
+  /** Decompresses requests (null if compression is disabled) */
+  private final RequestCompressionDecoder compressionDecoder;
   /** Send buffer size */
   private final int sendBufferSize;
   /** Receive buffer size */
@@ -148,6 +153,11 @@ public class NettyServer {
 
     workerRequestReservedMap = new WorkerRequestReservedMap(conf);
 
+    Class<? extends CompressionCodec> codecClass =
+        GiraphConstants.NETTY_COMPRESSION_CODEC.get(conf);
+    compressionDecoder = (codecClass == null) ? null :
+        new RequestCompressionDecoder(ReflectionUtils.newInstance(codecClass));
+
     bossExecutorService = Executors.newCachedThreadPool(
         new ThreadFactoryBuilder().setNameFormat(
             "netty-server-boss-%d").build());
@@ -277,6 +287,9 @@ public class NettyServer {
           pipeline.addLast("requestFrameDecoder",
               new LengthFieldBasedFrameDecoder(
                   1024 * 1024 * 1024, 0, 4, 0, 4));
+          if (compressionDecoder != null) {
+            pipeline.addLast("requestCompressionDecoder", compressionDecoder);
+          }
           pipeline.addLast("requestDecoder",
               new RequestDecoder(conf, byteCounter));
           pipeline.addLast("requestProcessor",
@@ -22,16 +22,21 @@ import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.comm.aggregators.WorkerAggregatorRequestProcessor;
 import org.apache.giraph.comm.WorkerClient;
+import org.apache.giraph.comm.aggregators.AggregatedValueOutputStream;
 import org.apache.giraph.comm.aggregators.AggregatorUtils;
 import org.apache.giraph.comm.aggregators.SendAggregatedValueCache;
 import org.apache.giraph.comm.requests.SendAggregatorsToMasterRequest;
 import org.apache.giraph.comm.requests.SendAggregatorsToWorkerRequest;
+import org.apache.giraph.comm.requests.SendTreeAggregatorsRequest;
 import org.apache.giraph.comm.requests.SendWorkerAggregatorsRequest;
 import org.apache.giraph.worker.WorkerInfo;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.util.Progressable;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Netty implementation of {@link WorkerAggregatorRequestProcessor}
@@ -136,6 +141,59 @@ public class NettyWorkerAggregatorRequestProcessor
     }
   }
 
+  @Override
+  public void sendAggregatedValuesToParent(int ownerTaskId, WorkerInfo parent,
+      Iterable<Map.Entry<String, Writable>> aggregatedValues)
+    throws IOException {
+    AggregatedValueOutputStream aggregatorOutput =
+        new AggregatedValueOutputStream();
+    long requestCount = 0;
+    for (Map.Entry<String, Writable> entry : aggregatedValues) {
+      int currentSize = aggregatorOutput.addAggregator(entry.getKey(),
+          entry.getValue());
+      if (currentSize >= maxBytesPerAggregatorRequest) {
+        sendTreeAggregatorsRequest(ownerTaskId, parent,
+            aggregatorOutput.flush());
+        ++requestCount;
+      }
+      progressable.progress();
+    }
+    // Current number of requests, plus one for the last flush
+    aggregatorOutput.addAggregator(AggregatorUtils.SPECIAL_COUNT_AGGREGATOR,
+        new LongWritable(requestCount + 1));
+    sendTreeAggregatorsRequest(ownerTaskId, parent, aggregatorOutput.flush());
+  }
+
+  /**
+   * Send partial aggregated values to the parent in an aggregator tree.
+   *
+   * @param ownerTaskId Task id of the worker which owns the aggregators
+   * @param parent Parent of this worker in the tree of the owner
+   * @param aggregatorData Serialized aggregator data
+   */
+  private void sendTreeAggregatorsRequest(int ownerTaskId, WorkerInfo parent,
+      byte[] aggregatorData) {
+    workerClient.sendWritableRequest(parent.getTaskId(),
+        new SendTreeAggregatorsRequest(aggregatorData,
+            serviceWorker.getWorkerInfo().getTaskId(), ownerTaskId));
+  }
+
+  @Override
+  public void forwardAggregators(int ownerTaskId,
+      Iterable<byte[]> aggregatorDataList, List<WorkerInfo> children)
+    throws IOException {
+    for (byte[] aggregatorData : aggregatorDataList) {
+      // Keep the owner as the sender, so that receivers count the
+      // requests the same way as when they come from the owner directly
+      SendAggregatorsToWorkerRequest request =
+          new SendAggregatorsToWorkerRequest(aggregatorData, ownerTaskId);
+      for (WorkerInfo child : children) {
+        workerClient.sendWritableRequest(child.getTaskId(), request);
+        progressable.progress();
+      }
+    }
+  }
+
   /**
    * Check if workerInfo describes current worker.
    *
@@ -22,12 +22,14 @@ import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.comm.WorkerClient;
 import org.apache.giraph.comm.requests.RequestType;
 import org.apache.giraph.comm.requests.WritableRequest;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.graph.TaskInfo;
 import org.apache.giraph.metrics.GiraphMetrics;
 import org.apache.giraph.metrics.MetricNames;
 import org.apache.giraph.metrics.ResetSuperstepMetricsObserver;
 import org.apache.giraph.metrics.SuperstepMetricsRegistry;
+import org.apache.giraph.metrics.TimerDesc;
 import org.apache.giraph.partition.PartitionOwner;
 import org.apache.giraph.worker.WorkerInfo;
 import org.apache.hadoop.io.Writable;
@@ -38,6 +40,8 @@ import org.apache.log4j.Logger;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
 
 import java.io.IOException;
 import java.util.List;
@@ -63,10 +67,14 @@ public class NettyWorkerClient<I extends WritableComparable,
   private final NettyClient nettyClient;
   /** Centralized service, needed to get vertex ranges */
   private final CentralizedServiceWorker<I, V, E> service;
+  /** Sends requests in the background (null if requests are sent directly) */
+  private final AsyncRequestSender asyncRequestSender;
 
   // Metrics
   /** Per-superstep, per-request counters */
   private final Map<RequestType, Counter> superstepRequestCounters;
+  /** Per-superstep timer of waiting for all requests */
+  private Timer waitAllRequestsTimer;
 
   /**
    * Only constructor.
@@ -84,11 +92,21 @@ public class NettyWorkerClient<I extends WritableComparable,
     this.conf = configuration;
     this.service = service;
     this.superstepRequestCounters = Maps.newHashMap();
+    if (GiraphConstants.ASYNC_REQUEST_SENDING.get(configuration)) {
+      asyncRequestSender = new AsyncRequestSender(nettyClient,
+          GiraphConstants.ASYNC_SENDER_THREADS.get(configuration),
+          GiraphConstants.ASYNC_SENDER_MAX_QUEUED_BYTES.get(configuration),
+          context);
+    } else {
+      asyncRequestSender = null;
+    }
+    newSuperstep(GiraphMetrics.get().perSuperstep());
     GiraphMetrics.get().addSuperstepResetObserver(this);
   }
 
   @Override
   public void newSuperstep(SuperstepMetricsRegistry metrics) {
+    waitAllRequestsTimer = metrics.getTimer(TimerDesc.WAIT_ALL_REQUESTS);
     superstepRequestCounters.clear();
     superstepRequestCounters.put(RequestType.SEND_VERTEX_REQUEST,
         metrics.getCounter(MetricNames.SEND_VERTEX_REQUESTS));
@@ -140,16 +158,28 @@ public class NettyWorkerClient<I extends WritableComparable,
     if (counter != null) {
       counter.inc();
     }
-    nettyClient.sendWritableRequest(destTaskId, request);
+    if (asyncRequestSender != null) {
+      asyncRequestSender.sendWritableRequest(destTaskId, request);
+    } else {
+      nettyClient.sendWritableRequest(destTaskId, request);
+    }
   }
 
   @Override
   public void waitAllRequests() {
+    TimerContext timerContext = waitAllRequestsTimer.time();
+    if (asyncRequestSender != null) {
+      asyncRequestSender.waitAllQueued();
+    }
     nettyClient.waitAllRequests();
+    timerContext.stop();
   }
 
   @Override
   public void closeConnections() throws IOException {
+    if (asyncRequestSender != null) {
+      asyncRequestSender.shutdown();
+    }
     nettyClient.stop();
   }
 
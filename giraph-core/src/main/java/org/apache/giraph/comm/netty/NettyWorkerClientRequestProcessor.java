@@ -36,16 +36,21 @@ import org.apache.giraph.comm.requests.WorkerRequest;
 import org.apache.giraph.comm.requests.WritableRequest;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.GiraphTransferRegulator;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.graph.VertexMutations;
 import org.apache.giraph.metrics.GiraphMetrics;
 import org.apache.giraph.metrics.MetricNames;
 import org.apache.giraph.metrics.SuperstepMetricsRegistry;
+import org.apache.giraph.partition.BasicPartition;
 import org.apache.giraph.partition.Partition;
 import org.apache.giraph.partition.PartitionOwner;
+import org.apache.giraph.partition.ReusesObjectsPartition;
 import org.apache.giraph.utils.ByteArrayVertexIdEdges;
 import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.giraph.utils.ExtendedDataOutput;
 import org.apache.giraph.utils.PairList;
+import org.apache.giraph.utils.WritableUtils;
 import org.apache.giraph.worker.WorkerInfo;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
@@ -97,6 +102,12 @@ public class NettyWorkerClientRequestProcessor<I extends WritableComparable,
   private final int maxEdgesSizePerWorker;
   /** Maximum number of mutations per partition before sending */
   private final int maxMutationsPerPartition;
+  /** Maximum number of vertices in one request when sending a partition */
+  private final int maxVerticesPerTransfer;
+  /** Maximum number of edges in one request when sending a partition */
+  private final int maxEdgesPerTransfer;
+  /** Mapper context */
+  private final Mapper<?, ?, ?, ?>.Context context;
   /** Giraph configuration */
   private final ImmutableClassesGiraphConfiguration<I, V, E> configuration;
   /** Service worker */
@@ -123,6 +134,7 @@ public class NettyWorkerClientRequestProcessor<I extends WritableComparable,
       CentralizedServiceWorker<I, V, E> serviceWorker) {
     this.workerClient = serviceWorker.getWorkerClient();
     this.configuration = conf;
+    this.context = context;
 
     sendPartitionCache = new SendPartitionCache<I, V, E>(context, conf);
     sendEdgeCache = new SendEdgeCache<I, E>(conf, serviceWorker);
@@ -138,6 +150,12 @@ public class NettyWorkerClientRequestProcessor<I extends WritableComparable,
     }
     maxEdgesSizePerWorker = MAX_EDGE_REQUEST_SIZE.get(conf);
     maxMutationsPerPartition = MAX_MUTATIONS_PER_REQUEST.get(conf);
+    maxVerticesPerTransfer = conf.getInt(
+        GiraphTransferRegulator.MAX_VERTICES_PER_TRANSFER,
+        GiraphTransferRegulator.MAX_VERTICES_PER_TRANSFER_DEFAULT);
+    maxEdgesPerTransfer = conf.getInt(
+        GiraphTransferRegulator.MAX_EDGES_PER_TRANSFER,
+        GiraphTransferRegulator.MAX_EDGES_PER_TRANSFER_DEFAULT);
     this.serviceWorker = serviceWorker;
     this.serverData = serviceWorker.getServerData();
 
@@ -190,13 +208,89 @@ public class NettyWorkerClientRequestProcessor<I extends WritableComparable,
           ", with partition " + partition);
     }
 
-    WritableRequest vertexRequest = new SendVertexRequest<I, V, E>(partition);
-    doRequest(workerInfo, vertexRequest);
+    sendPartitionVertices(workerInfo, partition);
 
     // Messages are stored separately
     if (serviceWorker.getSuperstep() != BspService.INPUT_SUPERSTEP) {
       sendPartitionMessages(workerInfo, partition);
     }
+
+    // The partition was removed from the store to be sent
+    if (partition instanceof BasicPartition) {
+      ((BasicPartition<I, V, E>) partition).freeOffHeapMemory();
+    }
+  }
+
+  /**
+   * Send the vertices of a partition to another worker, split into requests
+   * of at most {@link GiraphTransferRegulator#MAX_VERTICES_PER_TRANSFER}
+   * vertices and {@link GiraphTransferRegulator#MAX_EDGES_PER_TRANSFER}
+   * edges.  Neither side has to serialize the whole partition at once, and
+   * the receiver adds every chunk to its partition store as it arrives.
+   *
+   * @param workerInfo Worker to send the partition to
+   * @param partition Partition whose vertices to send
+   */
+  private void sendPartitionVertices(WorkerInfo workerInfo,
+                                     Partition<I, V, E> partition) {
+    // Such partitions hand out the same vertex object for every vertex
+    boolean copyVertices = partition instanceof ReusesObjectsPartition;
+    Partition<I, V, E> chunk = null;
+    int chunkVertices = 0;
+    long chunkEdges = 0;
+    int numChunks = 0;
+    for (Vertex<I, V, E> vertex : partition) {
+      if (chunk == null) {
+        chunk = configuration.createPartition(partition.getId(), context);
+      }
+      chunk.putVertex(copyVertices ?
+          WritableUtils.cloneVertex(vertex, configuration) : vertex);
+      ++chunkVertices;
+      chunkEdges += vertex.getNumEdges();
+      if (chunkVertices >= maxVerticesPerTransfer ||
+          chunkEdges >= maxEdgesPerTransfer) {
+        sendPartitionChunk(workerInfo, chunk);
+        ++numChunks;
+        chunk = null;
+        chunkVertices = 0;
+        chunkEdges = 0;
+      }
+    }
+    if (chunk != null) {
+      sendPartitionChunk(workerInfo, chunk);
+      ++numChunks;
+    } else if (numChunks == 0) {
+      // Empty partitions still have to be created on the receiver
+      sendPartitionChunk(workerInfo, partition);
+      ++numChunks;
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("sendPartitionVertices: Sent partition " + partition.getId() +
+          " to " + workerInfo + " in " + numChunks + " requests");
+    }
+  }
+
+  /**
+   * Send a chunk of the vertices of a partition.  The chunk is serialized
+   * right away, so its memory can be released before the request is sent.
+   *
+   * @param workerInfo Worker to send the chunk to
+   * @param chunk Partition with some of the vertices of a partition
+   */
+  private void sendPartitionChunk(WorkerInfo workerInfo,
+                                  Partition<I, V, E> chunk) {
+    ExtendedDataOutput serializedChunk =
+        configuration.createExtendedDataOutput();
+    try {
+      chunk.write(serializedChunk);
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "sendPartitionChunk: Got IOException ", e);
+    }
+    if (chunk instanceof BasicPartition) {
+      ((BasicPartition<I, V, E>) chunk).freeOffHeapMemory();
+    }
+    doRequest(workerInfo, new SendVertexRequest<I, V, E>(serializedChunk));
   }
 
   /**
@@ -29,22 +29,29 @@ import org.apache.giraph.comm.messages.out_of_core.PartitionDiskBackedMessageSto
 import org.apache.giraph.comm.messages.out_of_core.SequentialFileMessageStore;
 import org.apache.giraph.comm.netty.handler.WorkerRequestServerHandler;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.DefaultVertexResolver;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.graph.VertexMutations;
 import org.apache.giraph.graph.VertexResolver;
 import org.apache.giraph.partition.Partition;
+import org.apache.giraph.utils.CallableFactory;
+import org.apache.giraph.utils.MemoryController;
+import org.apache.giraph.utils.ProgressableUtils;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.log4j.Logger;
 
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 
 import java.net.InetSocketAddress;
-import java.util.Collection;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static org.apache.giraph.conf.GiraphConstants.MAX_MESSAGES_IN_MEMORY;
 import static org.apache.giraph.conf.GiraphConstants.USE_OUT_OF_CORE_MESSAGES;
@@ -74,6 +81,8 @@ public class NettyWorkerServer<I extends WritableComparable,
   private final ServerData<I, V, E> serverData;
   /** Mapper context */
   private final Mapper<?, ?, ?, ?>.Context context;
+  /** Heap occupancy for the out-of-core stores (null for static limits) */
+  private final MemoryController memoryController;
 
   /**
    * Constructor to start the server.
@@ -88,10 +97,11 @@ public class NettyWorkerServer<I extends WritableComparable,
     this.conf = conf;
     this.service = service;
     this.context = context;
+    memoryController = MemoryController.create(conf);
 
     serverData =
         new ServerData<I, V, E>(service, conf, createMessageStoreFactory(),
-            context);
+            context, memoryController);
 
     nettyServer = new NettyServer(conf,
         new WorkerRequestServerHandler.Factory<I, V, E>(serverData),
@@ -114,7 +124,8 @@ public class NettyWorkerServer<I extends WritableComparable,
       int maxMessagesInMemory = MAX_MESSAGES_IN_MEMORY.get(conf);
       if (LOG.isInfoEnabled()) {
         LOG.info("createMessageStoreFactory: Using DiskBackedMessageStore, " +
-            "maxMessagesInMemory = " + maxMessagesInMemory);
+            "maxMessagesInMemory = " + maxMessagesInMemory +
+            ", memoryController = " + memoryController);
       }
       MessageStoreFactory<I, Writable, SequentialFileMessageStore<I, Writable>>
           fileStoreFactory = SequentialFileMessageStore.newFactory(conf);
@@ -123,7 +134,7 @@ public class NettyWorkerServer<I extends WritableComparable,
           partitionStoreFactory =
           PartitionDiskBackedMessageStore.newFactory(conf, fileStoreFactory);
       return DiskBackedMessageStore.newFactory(service,
-          maxMessagesInMemory, partitionStoreFactory);
+          maxMessagesInMemory, memoryController, partitionStoreFactory);
     }
   }
 
@@ -139,87 +150,142 @@ public class NettyWorkerServer<I extends WritableComparable,
   }
 
   /**
-   * Resolve mutation requests.
+   * Resolve mutation requests, and vertices which don't exist but received
+   * messages.  Partitions are independent, so they are resolved in parallel
+   * by the compute threads.  Only partitions with mutations or messages are
+   * looked at, so that out-of-core partitions aren't loaded needlessly.
+   * The default resolver never creates vertices for messages if
+   * giraph.vertex.resolver.create.on.msgs is false, so then messages are
+   * not looked at either.
    */
   private void resolveMutations() {
-    Multimap<Integer, I> resolveVertexIndices = HashMultimap.create(
-        service.getPartitionStore().getNumPartitions(), 100);
-      // Add any mutated vertex indices to be resolved
-    for (Entry<I, VertexMutations<I, V, E>> e :
-        serverData.getVertexMutations().entrySet()) {
-      I vertexId = e.getKey();
-      Integer partitionId = service.getPartitionId(vertexId);
-      if (!resolveVertexIndices.put(partitionId, vertexId)) {
-        throw new IllegalStateException(
-            "resolveMutations: Already has missing vertex on this " +
-                "worker for " + vertexId);
+    final boolean checkMessages =
+        conf.getResolverCreateVertexOnMessages() ||
+        !DefaultVertexResolver.class.equals(conf.getVertexResolverClass());
+    Set<Integer> partitionIds = Sets.newHashSet();
+    for (Entry<Integer, ConcurrentHashMap<I, VertexMutations<I, V, E>>> e :
+        serverData.getPartitionMutations().entrySet()) {
+      if (!e.getValue().isEmpty()) {
+        partitionIds.add(e.getKey());
       }
     }
-    // Keep track of the vertices which are not here but have received messages
-    for (Integer partitionId : service.getPartitionStore().getPartitionIds()) {
-      Iterable<I> destinations = serverData.getCurrentMessageStore().
-          getPartitionDestinationVertices(partitionId);
-      if (!Iterables.isEmpty(destinations)) {
-        Partition<I, V, E> partition =
-            service.getPartitionStore().getPartition(partitionId);
-        for (I vertexId : destinations) {
-          if (partition.getVertex(vertexId) == null) {
-            if (!resolveVertexIndices.put(partitionId, vertexId)) {
-              throw new IllegalStateException(
-                  "resolveMutations: Already has missing vertex on this " +
-                      "worker for " + vertexId);
-            }
-          }
+    if (checkMessages) {
+      MessageStore<I, Writable> messageStore =
+          serverData.getCurrentMessageStore();
+      for (Integer partitionId :
+          service.getPartitionStore().getPartitionIds()) {
+        if (!Iterables.isEmpty(
+            messageStore.getPartitionDestinationVertices(partitionId))) {
+          partitionIds.add(partitionId);
         }
-        service.getPartitionStore().putPartition(partition);
       }
     }
-    // Resolve all graph mutations
-    VertexResolver<I, V, E> vertexResolver = conf.createVertexResolver();
-    for (Entry<Integer, Collection<I>> e :
-        resolveVertexIndices.asMap().entrySet()) {
-      Partition<I, V, E> partition =
-          service.getPartitionStore().getPartition(e.getKey());
-      for (I vertexIndex : e.getValue()) {
-        Vertex<I, V, E> originalVertex =
-            partition.getVertex(vertexIndex);
-
-        VertexMutations<I, V, E> mutations = null;
-        VertexMutations<I, V, E> vertexMutations =
-            serverData.getVertexMutations().get(vertexIndex);
-        if (vertexMutations != null) {
-          synchronized (vertexMutations) {
-            mutations = vertexMutations.copy();
-          }
-          serverData.getVertexMutations().remove(vertexIndex);
-        }
-        Vertex<I, V, E> vertex = vertexResolver.resolve(
-            vertexIndex, originalVertex, mutations,
-            serverData.getCurrentMessageStore().
-                hasMessagesForVertex(vertexIndex));
-        context.progress();
-
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("resolveMutations: Resolved vertex index " +
-              vertexIndex + " with original vertex " +
-              originalVertex + ", returned vertex " + vertex +
-              " on superstep " + service.getSuperstep() +
-              " with mutations " +
-              mutations);
+    if (!partitionIds.isEmpty()) {
+      final Queue<Integer> partitionIdQueue =
+          new ConcurrentLinkedQueue<Integer>(partitionIds);
+      CallableFactory<Void> callableFactory = new CallableFactory<Void>() {
+        @Override
+        public Callable<Void> newCallable(int callableId) {
+          return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              VertexResolver<I, V, E> vertexResolver =
+                  conf.createVertexResolver();
+              while (true) {
+                Integer partitionId = partitionIdQueue.poll();
+                if (partitionId == null) {
+                  break;
+                }
+                resolvePartitionMutations(partitionId, vertexResolver,
+                    checkMessages);
+              }
+              return null;
+            }
+          };
         }
-        if (vertex != null) {
-          partition.putVertex(vertex);
-        } else if (originalVertex != null) {
-          partition.removeVertex(originalVertex.getId());
+      };
+      ProgressableUtils.getResultsWithNCallables(callableFactory,
+          Math.min(conf.getNumComputeThreads(), partitionIds.size()),
+          "resolve-mutations-%d", context);
+    }
+    for (Entry<Integer, ConcurrentHashMap<I, VertexMutations<I, V, E>>> e :
+        serverData.getPartitionMutations().entrySet()) {
+      if (!e.getValue().isEmpty()) {
+        throw new IllegalStateException("resolveMutations: Illegally " +
+            "still has " + e.getValue().size() + " mutations left " +
+            "for partition " + e.getKey());
+      }
+    }
+  }
+
+  /**
+   * Resolve the mutated vertices of a partition, and the vertices which
+   * received messages but don't exist.
+   *
+   * @param partitionId Partition id
+   * @param vertexResolver Vertex resolver used by the calling thread
+   * @param checkMessages Whether to look for vertices which received
+   *                      messages but don't exist
+   */
+  private void resolvePartitionMutations(Integer partitionId,
+      VertexResolver<I, V, E> vertexResolver, boolean checkMessages) {
+    Partition<I, V, E> partition =
+        service.getPartitionStore().getPartition(partitionId);
+    if (partition == null) {
+      throw new IllegalStateException("resolvePartitionMutations: " +
+          "Received mutations for partition " + partitionId +
+          " which is not on this worker");
+    }
+    ConcurrentHashMap<I, VertexMutations<I, V, E>> vertexMutations =
+        serverData.getPartitionMutations().get(partitionId);
+    Set<I> resolveVertexIds = Sets.newHashSet();
+    if (vertexMutations != null) {
+      resolveVertexIds.addAll(vertexMutations.keySet());
+    }
+    // Keep track of the vertices which are not here but have received
+    // messages
+    if (checkMessages) {
+      for (I vertexId : serverData.getCurrentMessageStore().
+          getPartitionDestinationVertices(partitionId)) {
+        if (partition.getVertex(vertexId) == null) {
+          resolveVertexIds.add(vertexId);
         }
       }
-      service.getPartitionStore().putPartition(partition);
     }
-    if (!serverData.getVertexMutations().isEmpty()) {
-      throw new IllegalStateException("resolveMutations: Illegally " +
-          "still has " + serverData.getVertexMutations().size() +
-          " mutations left.");
+    for (I vertexIndex : resolveVertexIds) {
+      Vertex<I, V, E> originalVertex = partition.getVertex(vertexIndex);
+
+      VertexMutations<I, V, E> mutations = null;
+      if (vertexMutations != null) {
+        VertexMutations<I, V, E> vertexIdMutations =
+            vertexMutations.remove(vertexIndex);
+        if (vertexIdMutations != null) {
+          synchronized (vertexIdMutations) {
+            mutations = vertexIdMutations.copy();
+          }
+        }
+      }
+      Vertex<I, V, E> vertex = vertexResolver.resolve(
+          vertexIndex, originalVertex, mutations,
+          serverData.getCurrentMessageStore().
+              hasMessagesForVertex(vertexIndex));
+      context.progress();
+
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("resolvePartitionMutations: Resolved vertex index " +
+            vertexIndex + " with original vertex " +
+            originalVertex + ", returned vertex " + vertex +
+            " on superstep " + service.getSuperstep() +
+            " with mutations " +
+            mutations);
+      }
+      if (vertex != null) {
+        partition.putVertex(vertex);
+      } else if (originalVertex != null) {
+        partition.removeVertex(originalVertex.getId());
+      }
     }
+    service.getPartitionStore().putPartition(partition);
   }
 
   @Override
@@ -230,5 +296,8 @@ public class NettyWorkerServer<I extends WritableComparable,
   @Override
   public void close() {
     nettyServer.stop();
+    if (memoryController != null) {
+      memoryController.close();
+    }
   }
 }
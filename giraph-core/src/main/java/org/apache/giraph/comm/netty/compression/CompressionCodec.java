@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.netty.compression;
+
+import java.io.IOException;
+
+/**
+ * Compresses and decompresses blocks of bytes, used to compress the
+ * requests sent over the network.  Implementations have to be thread-safe,
+ * since a single instance is used by all channels of a client or server.
+ */
+public interface CompressionCodec {
+  /**
+   * Get the largest size the compressed form of a block can have, so that
+   * the output buffer can be allocated up front.
+   *
+   * @param length Length of the uncompressed block
+   * @return Maximum length of the compressed block
+   */
+  int maxCompressedLength(int length);
+
+  /**
+   * Compress a block.
+   *
+   * @param src Array with the uncompressed block
+   * @param srcOff Offset of the block in src
+   * @param srcLen Length of the block
+   * @param dest Array to write the compressed block to, with at least
+   *             {@link #maxCompressedLength(int)} bytes available
+   * @param destOff Offset in dest to write to
+   * @return Length of the compressed block
+   */
+  int compress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff);
+
+  /**
+   * Decompress a block.
+   *
+   * @param src Array with the compressed block
+   * @param srcOff Offset of the block in src
+   * @param srcLen Length of the compressed block
+   * @param dest Array to write the uncompressed block to
+   * @param destOff Offset in dest to write to
+   * @param destLen Length of the uncompressed block
+   * @throws IOException If the block is corrupt
+   */
+  void decompress(byte[] src, int srcOff, int srcLen, byte[] dest,
+      int destOff, int destLen) throws IOException;
+}
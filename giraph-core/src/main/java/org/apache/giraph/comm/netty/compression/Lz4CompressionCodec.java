@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.netty.compression;
+
+import java.io.IOException;
+
+/**
+ * Fast codec writing the LZ4 block format, implemented in plain Java.
+ * Matches are found with a single hash table lookup, so it doesn't
+ * compress as well as {@link DeflateCompressionCodec}, but it is fast
+ * enough to keep up with the network on serialized ids and messages.
+ * <p/>
+ * A block is a sequence of tokens, each followed by a run of literal bytes
+ * and (except for the last one) a copy of earlier output given by its
+ * distance and length.
+ */
+public class Lz4CompressionCodec implements CompressionCodec {
+  /** Minimum length of a match */
+  private static final int MIN_MATCH = 4;
+  /** Number of bits of the hash table size */
+  private static final int HASH_LOG = 12;
+  /** Maximum distance of a match */
+  private static final int MAX_DISTANCE = 0xFFFF;
+  /** The last bytes of a block are always literals */
+  private static final int LAST_LITERALS = 5;
+  /** The last match has to start this far from the end of the block */
+  private static final int MF_LIMIT = 12;
+  /** Number of bits of the match length in a token */
+  private static final int ML_BITS = 4;
+  /** Mask of the match length in a token */
+  private static final int ML_MASK = (1 << ML_BITS) - 1;
+  /** Mask of the literal length in a token */
+  private static final int RUN_MASK = ML_MASK;
+  /** Misses after which the search step grows by one */
+  private static final int SKIP_TRIGGER = 6;
+
+  @Override
+  public int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  @Override
+  public int compress(byte[] src, int srcOff, int srcLen, byte[] dest,
+      int destOff) {
+    int srcEnd = srcOff + srcLen;
+    int dOff = destOff;
+    int anchor = srcOff;
+    if (srcLen > MF_LIMIT) {
+      int[] hashTable = new int[1 << HASH_LOG];
+      int matchLimit = srcEnd - LAST_LITERALS;
+      int mfLimit = srcEnd - MF_LIMIT;
+      int sOff = srcOff + 1;
+      int searchCount = 1 << SKIP_TRIGGER;
+      while (sOff < mfLimit) {
+        int value = readInt(src, sOff);
+        int h = hash(value);
+        int ref = srcOff + hashTable[h];
+        hashTable[h] = sOff - srcOff;
+        if (sOff - ref > MAX_DISTANCE || readInt(src, ref) != value) {
+          sOff += searchCount++ >>> SKIP_TRIGGER;
+          continue;
+        }
+        searchCount = 1 << SKIP_TRIGGER;
+
+        // Extend the match backwards and forwards
+        while (sOff > anchor && ref > srcOff &&
+            src[sOff - 1] == src[ref - 1]) {
+          --sOff;
+          --ref;
+        }
+        int matchLength = MIN_MATCH;
+        while (sOff + matchLength < matchLimit &&
+            src[sOff + matchLength] == src[ref + matchLength]) {
+          ++matchLength;
+        }
+
+        dOff = writeSequence(src, anchor, sOff - anchor, sOff - ref,
+            matchLength, dest, dOff);
+        sOff += matchLength;
+        anchor = sOff;
+        if (sOff < mfLimit) {
+          hashTable[hash(readInt(src, sOff - 2))] = sOff - 2 - srcOff;
+        }
+      }
+    }
+    dOff = writeSequence(src, anchor, srcEnd - anchor, 0, 0, dest, dOff);
+    return dOff - destOff;
+  }
+
+  @Override
+  public void decompress(byte[] src, int srcOff, int srcLen, byte[] dest,
+      int destOff, int destLen) throws IOException {
+    int sOff = srcOff;
+    int srcEnd = srcOff + srcLen;
+    int dOff = destOff;
+    int destEnd = destOff + destLen;
+    try {
+      while (sOff < srcEnd) {
+        int token = src[sOff++] & 0xFF;
+
+        int literalLength = token >>> ML_BITS;
+        if (literalLength == RUN_MASK) {
+          int b;
+          do {
+            b = src[sOff++] & 0xFF;
+            literalLength += b;
+          } while (b == 0xFF);
+        }
+        if (literalLength > srcEnd - sOff || literalLength > destEnd - dOff) {
+          throw new IOException("decompress: Literals out of bounds");
+        }
+        System.arraycopy(src, sOff, dest, dOff, literalLength);
+        sOff += literalLength;
+        dOff += literalLength;
+        if (sOff == srcEnd) {
+          break;
+        }
+
+        int distance = (src[sOff] & 0xFF) | ((src[sOff + 1] & 0xFF) << 8);
+        sOff += 2;
+        int matchLength = token & ML_MASK;
+        if (matchLength == ML_MASK) {
+          int b;
+          do {
+            b = src[sOff++] & 0xFF;
+            matchLength += b;
+          } while (b == 0xFF);
+        }
+        matchLength += MIN_MATCH;
+        int ref = dOff - distance;
+        if (distance == 0 || ref < destOff ||
+            matchLength > destEnd - dOff) {
+          throw new IOException("decompress: Match out of bounds");
+        }
+        if (distance >= matchLength) {
+          System.arraycopy(dest, ref, dest, dOff, matchLength);
+        } else {
+          // Overlapping copy repeats the last distance bytes
+          for (int i = 0; i < matchLength; ++i) {
+            dest[dOff + i] = dest[ref + i];
+          }
+        }
+        dOff += matchLength;
+      }
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IOException("decompress: Truncated block", e);
+    }
+    if (dOff != destEnd) {
+      throw new IOException("decompress: Expected " + destLen +
+          " bytes, but got " + (dOff - destOff));
+    }
+  }
+
+  /**
+   * Write a token with its literals and match.
+   *
+   * @param src Source array
+   * @param literalOff Offset of the literals in src
+   * @param literalLength Number of literals
+   * @param distance Distance of the match
+   * @param matchLength Length of the match, 0 for the last sequence
+   * @param dest Destination array
+   * @param dOff Offset in dest to write to
+   * @return Offset in dest after the sequence
+   */
+  private static int writeSequence(byte[] src, int literalOff,
+      int literalLength, int distance, int matchLength, byte[] dest,
+      int dOff) {
+    int tokenOff = dOff++;
+    int token;
+    if (literalLength >= RUN_MASK) {
+      token = RUN_MASK << ML_BITS;
+      dOff = writeLength(literalLength - RUN_MASK, dest, dOff);
+    } else {
+      token = literalLength << ML_BITS;
+    }
+    System.arraycopy(src, literalOff, dest, dOff, literalLength);
+    dOff += literalLength;
+    if (matchLength > 0) {
+      dest[dOff++] = (byte) distance;
+      dest[dOff++] = (byte) (distance >>> 8);
+      int length = matchLength - MIN_MATCH;
+      if (length >= ML_MASK) {
+        token |= ML_MASK;
+        dOff = writeLength(length - ML_MASK, dest, dOff);
+      } else {
+        token |= length;
+      }
+    }
+    dest[tokenOff] = (byte) token;
+    return dOff;
+  }
+
+  /**
+   * Write the remainder of a length which didn't fit into a token.
+   *
+   * @param length Remaining length
+   * @param dest Destination array
+   * @param dOff Offset in dest to write to
+   * @return Offset in dest after the length
+   */
+  private static int writeLength(int length, byte[] dest, int dOff) {
+    while (length >= 0xFF) {
+      dest[dOff++] = (byte) 0xFF;
+      length -= 0xFF;
+    }
+    dest[dOff++] = (byte) length;
+    return dOff;
+  }
+
+  /**
+   * Read four bytes as an int.
+   *
+   * @param src Source array
+   * @param off Offset in src
+   * @return Int value
+   */
+  private static int readInt(byte[] src, int off) {
+    return (src[off] & 0xFF) | ((src[off + 1] & 0xFF) << 8) |
+        ((src[off + 2] & 0xFF) << 16) | ((src[off + 3] & 0xFF) << 24);
+  }
+
+  /**
+   * Hash four bytes into the hash table.
+   *
+   * @param value Four bytes as an int
+   * @return Slot in the hash table
+   */
+  private static int hash(int value) {
+    return (value * -1640531535) >>> (32 - HASH_LOG);
+  }
+}
@@ -19,15 +19,15 @@
 package org.apache.giraph.comm.netty.handler;
 
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.comm.MasterServerData;
 import org.apache.giraph.comm.requests.MasterRequest;
-import org.apache.giraph.master.MasterAggregatorHandler;
 import org.apache.giraph.graph.TaskInfo;
 
 /** Handler for requests on master */
 public class MasterRequestServerHandler extends
     RequestServerHandler<MasterRequest> {
-  /** Aggregator handler */
-  private final MasterAggregatorHandler aggregatorHandler;
+  /** Data master server stores */
+  private final MasterServerData serverData;
 
   /**
    * Constructor
@@ -35,36 +35,36 @@ public class MasterRequestServerHandler extends
    * @param workerRequestReservedMap Worker request reservation map
    * @param conf                     Configuration
    * @param myTaskInfo               Current task info
-   * @param aggregatorHandler        Master aggregator handler
+   * @param serverData               Master server data
    */
   public MasterRequestServerHandler(
       WorkerRequestReservedMap workerRequestReservedMap,
       ImmutableClassesGiraphConfiguration conf,
       TaskInfo myTaskInfo,
-      MasterAggregatorHandler aggregatorHandler) {
+      MasterServerData serverData) {
     super(workerRequestReservedMap, conf, myTaskInfo);
-    this.aggregatorHandler = aggregatorHandler;
+    this.serverData = serverData;
   }
 
   @Override
   public void processRequest(MasterRequest request) {
-    request.doRequest(aggregatorHandler);
+    request.doRequest(serverData);
   }
 
   /**
    * Factory for {@link MasterRequestServerHandler}
    */
   public static class Factory implements RequestServerHandler.Factory {
-    /** Master aggregator handler */
-    private final MasterAggregatorHandler aggregatorHandler;
+    /** Master server data */
+    private final MasterServerData serverData;
 
     /**
      * Constructor
      *
-     * @param aggregatorHandler Master aggregator handler
+     * @param serverData Master server data
      */
-    public Factory(MasterAggregatorHandler aggregatorHandler) {
-      this.aggregatorHandler = aggregatorHandler;
+    public Factory(MasterServerData serverData) {
+      this.serverData = serverData;
     }
 
     @Override
@@ -73,7 +73,7 @@ public class MasterRequestServerHandler extends
         ImmutableClassesGiraphConfiguration conf,
         TaskInfo myTaskInfo) {
       return new MasterRequestServerHandler(workerRequestReservedMap, conf,
-          myTaskInfo, aggregatorHandler);
+          myTaskInfo, serverData);
     }
   }
 }
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.netty.handler;
+
+import org.apache.giraph.comm.netty.compression.CompressionCodec;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
+
+/**
+ * Decompresses the requests compressed by
+ * {@link RequestCompressionEncoder}, after their length was stripped by the
+ * frame decoder.  Uncompressed requests are passed on without copying.
+ * <p/>
+ * One instance is shared by all channels of a server.
+ */
+@Sharable
+public class RequestCompressionDecoder extends OneToOneDecoder {
+  /** Codec to decompress with */
+  private final CompressionCodec codec;
+
+  /**
+   * Constructor.
+   *
+   * @param codec Codec to decompress with
+   */
+  public RequestCompressionDecoder(CompressionCodec codec) {
+    this.codec = codec;
+  }
+
+  @Override
+  protected Object decode(ChannelHandlerContext ctx, Channel channel,
+      Object msg) throws Exception {
+    if (!(msg instanceof ChannelBuffer)) {
+      throw new IllegalStateException("decode: Got illegal message " + msg);
+    }
+    ChannelBuffer buffer = (ChannelBuffer) msg;
+    byte flag = buffer.readByte();
+    if (flag == RequestCompressionEncoder.UNCOMPRESSED) {
+      return buffer.slice();
+    } else if (flag != RequestCompressionEncoder.COMPRESSED) {
+      throw new IllegalStateException("decode: Unknown flag " + flag);
+    }
+    int length = buffer.readInt();
+    int compressedLength = buffer.readableBytes();
+    byte[] src;
+    int srcOff;
+    if (buffer.hasArray()) {
+      src = buffer.array();
+      srcOff = buffer.arrayOffset() + buffer.readerIndex();
+    } else {
+      src = new byte[compressedLength];
+      buffer.getBytes(buffer.readerIndex(), src);
+      srcOff = 0;
+    }
+    byte[] decompressed = new byte[length];
+    codec.decompress(src, srcOff, compressedLength, decompressed, 0, length);
+    return ChannelBuffers.wrappedBuffer(decompressed);
+  }
+}
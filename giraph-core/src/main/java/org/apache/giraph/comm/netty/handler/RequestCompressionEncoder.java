@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.netty.handler;
+
+import org.apache.giraph.comm.netty.compression.CompressionCodec;
+import org.apache.giraph.metrics.GiraphMetrics;
+import org.apache.giraph.metrics.MetricNames;
+import org.apache.giraph.metrics.ResetSuperstepMetricsObserver;
+import org.apache.giraph.metrics.SuperstepMetricsRegistry;
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * Compresses the requests encoded by {@link RequestEncoder}.  The length
+ * of a request is followed by a flag which tells whether the rest is
+ * compressed.  A compressed request then has its uncompressed length and
+ * the compressed bytes, while other requests are passed on as they are.
+ * Requests smaller than the threshold, or which don't get smaller, are not
+ * compressed.
+ * <p/>
+ * One instance is shared by all channels of a client.
+ */
+@Sharable
+public class RequestCompressionEncoder extends OneToOneEncoder implements
+    ResetSuperstepMetricsObserver {
+  /** Flag of an uncompressed request */
+  public static final byte UNCOMPRESSED = 0;
+  /** Flag of a compressed request */
+  public static final byte COMPRESSED = 1;
+  /** Class logger */
+  private static final Logger LOG =
+      Logger.getLogger(RequestCompressionEncoder.class);
+  /** Bytes of the length and the flag */
+  private static final int HEADER_SIZE = 5;
+  /** Codec to compress with */
+  private final CompressionCodec codec;
+  /** Requests smaller than this are not compressed */
+  private final int threshold;
+  /** Bytes of requests before compression in the current superstep */
+  private Counter uncompressedBytes;
+  /** Bytes of requests after compression in the current superstep */
+  private Counter compressedBytes;
+
+  /**
+   * Constructor.
+   *
+   * @param codec Codec to compress with
+   * @param threshold Requests smaller than this are not compressed
+   */
+  public RequestCompressionEncoder(CompressionCodec codec, int threshold) {
+    this.codec = codec;
+    this.threshold = threshold;
+    newSuperstep(GiraphMetrics.get().perSuperstep());
+    GiraphMetrics.get().addSuperstepResetObserver(this);
+  }
+
+  @Override
+  public void newSuperstep(SuperstepMetricsRegistry superstepMetrics) {
+    final Counter uncompressed =
+        superstepMetrics.getCounter(MetricNames.UNCOMPRESSED_BYTES);
+    final Counter compressed =
+        superstepMetrics.getCounter(MetricNames.COMPRESSED_BYTES);
+    superstepMetrics.getGauge(MetricNames.COMPRESSION_RATIO,
+        new Gauge<Double>() {
+          @Override
+          public Double value() {
+            return compressed.count() == 0 ? 1.0 :
+                (double) uncompressed.count() / compressed.count();
+          }
+        });
+    uncompressedBytes = uncompressed;
+    compressedBytes = compressed;
+  }
+
+  @Override
+  protected Object encode(ChannelHandlerContext ctx, Channel channel,
+      Object msg) throws Exception {
+    if (!(msg instanceof ChannelBuffer)) {
+      throw new IllegalArgumentException(
+          "encode: Got a message of type " + msg.getClass());
+    }
+    ChannelBuffer buffer = (ChannelBuffer) msg;
+    // Skip the length set by the request encoder
+    int offset = buffer.readerIndex() + 4;
+    int length = buffer.writerIndex() - offset;
+    ChannelBuffer encodedBuffer = null;
+    if (length >= threshold) {
+      encodedBuffer = compress(buffer, offset, length);
+    }
+    if (encodedBuffer == null) {
+      ChannelBuffer header = ChannelBuffers.buffer(HEADER_SIZE);
+      header.writeInt(length + 1);
+      header.writeByte(UNCOMPRESSED);
+      encodedBuffer = ChannelBuffers.wrappedBuffer(header,
+          buffer.slice(offset, length));
+    }
+    uncompressedBytes.inc(length);
+    compressedBytes.inc(encodedBuffer.readableBytes() - HEADER_SIZE);
+    return encodedBuffer;
+  }
+
+  /**
+   * Compress a request.
+   *
+   * @param buffer Buffer with the request
+   * @param offset Index of the request in the buffer
+   * @param length Length of the request
+   * @return Buffer with the compressed request, or null if it didn't get
+   *         smaller
+   */
+  private ChannelBuffer compress(ChannelBuffer buffer, int offset,
+      int length) {
+    byte[] src;
+    int srcOff;
+    if (buffer.hasArray()) {
+      src = buffer.array();
+      srcOff = buffer.arrayOffset() + offset;
+    } else {
+      src = new byte[length];
+      buffer.getBytes(offset, src);
+      srcOff = 0;
+    }
+    ChannelBuffer compressed = ChannelBuffers.buffer(
+        HEADER_SIZE + 4 + codec.maxCompressedLength(length));
+    int compressedLength = codec.compress(src, srcOff, length,
+        compressed.array(), compressed.arrayOffset() + HEADER_SIZE + 4);
+    if (compressedLength + 4 >= length) {
+      return null;
+    }
+    compressed.writeInt(1 + 4 + compressedLength);
+    compressed.writeByte(COMPRESSED);
+    compressed.writeInt(length);
+    compressed.writerIndex(HEADER_SIZE + 4 + compressedLength);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("compress: Compressed " + length + " bytes to " +
+          compressedLength);
+    }
+    return compressed;
+  }
+}
@@ -22,6 +22,7 @@ import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.comm.netty.ByteCounter;
 import org.apache.giraph.comm.requests.RequestType;
 import org.apache.giraph.comm.requests.WritableRequest;
+import org.apache.giraph.utils.ExtendedByteArrayDataInput;
 import org.apache.giraph.utils.ReflectionUtils;
 import org.apache.giraph.time.SystemTime;
 import org.apache.giraph.time.Time;
@@ -33,6 +34,8 @@ import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
 
+import java.io.DataInput;
+
 /**
  * Decodes encoded requests from the client.
  */
@@ -79,9 +82,18 @@ public class RequestDecoder extends OneToOneDecoder {
       startDecodingNanoseconds = TIME.getNanoseconds();
     }
 
-    // Decode the request
+    // Decode the request.  Requests read from a heap buffer can refer to
+    // its bytes instead of copying them (the buffer is garbage collected
+    // once the request was processed).
     ChannelBuffer buffer = (ChannelBuffer) msg;
-    ChannelBufferInputStream inputStream = new ChannelBufferInputStream(buffer);
+    DataInput inputStream;
+    if (buffer.hasArray()) {
+      inputStream = new ExtendedByteArrayDataInput(buffer.array(),
+          buffer.arrayOffset() + buffer.readerIndex(),
+          buffer.readableBytes());
+    } else {
+      inputStream = new ChannelBufferInputStream(buffer);
+    }
     int enumValue = inputStream.readByte();
     RequestType type = RequestType.values()[enumValue];
     Class<? extends WritableRequest> writableRequestClass =
@@ -94,7 +106,7 @@ public class RequestDecoder extends OneToOneDecoder {
       LOG.debug("decode: Client " + writableRequest.getClientId() +
           ", requestId " + writableRequest.getRequestId() +
           ", " +  writableRequest.getType() + ", with size " +
-          buffer.array().length + " took " +
+          buffer.readableBytes() + " took " +
           Times.getNanosSince(TIME, startDecodingNanoseconds) + " ns");
     }
 
@@ -24,6 +24,7 @@ import org.apache.giraph.graph.TaskInfo;
 import org.apache.giraph.time.SystemTime;
 import org.apache.giraph.time.Time;
 import org.apache.giraph.time.Times;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.log4j.Logger;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
@@ -33,6 +34,9 @@ import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 
+import static org.apache.giraph.conf.GiraphConstants.NETTY_CREDIT_FLOW_CONTROL;
+import static org.apache.giraph.conf.GiraphConstants.NETTY_CREDIT_HEAP_FRACTION;
+import static org.apache.giraph.conf.GiraphConstants.NETTY_MAX_CREDIT_BYTES;
 import static org.apache.giraph.conf.GiraphConstants.NETTY_SIMULATE_FIRST_REQUEST_CLOSED;
 
 /**
@@ -42,8 +46,15 @@ import static org.apache.giraph.conf.GiraphConstants.NETTY_SIMULATE_FIRST_REQUES
  */
 public abstract class RequestServerHandler<R> extends
     SimpleChannelUpstreamHandler {
-  /** Number of bytes in the encoded response */
+  /**
+   * Number of bytes in the encoded response: task id, request id and
+   * whether the request was already done
+   */
   public static final int RESPONSE_BYTES = 13;
+  /** Number of bytes of the credit appended with credit flow control */
+  public static final int CREDIT_BYTES = 4;
+  /** Minimum milliseconds between two samples of the free heap */
+  private static final long CREDIT_SAMPLE_INTERVAL_MSECS = 10;
   /** Time class to use */
   private static Time TIME = SystemTime.get();
   /** Class logger */
@@ -57,6 +68,16 @@ public abstract class RequestServerHandler<R> extends
   private final WorkerRequestReservedMap workerRequestReservedMap;
   /** My task info */
   private final TaskInfo myTaskInfo;
+  /** Maximum credit (in bytes) given to a client */
+  private final int maxCreditBytes;
+  /** Fraction of the free heap shared by each client */
+  private final float clientHeapFraction;
+  /** Whether responses carry the credit of the client */
+  private final boolean sendCredit;
+  /** Last computed credit */
+  private volatile int credit;
+  /** Milliseconds when the credit was last computed */
+  private volatile long creditMilliseconds;
   /** Start nanoseconds for the processing time */
   private long startProcessingNanoseconds = -1;
 
@@ -74,6 +95,25 @@ public abstract class RequestServerHandler<R> extends
     this.workerRequestReservedMap = workerRequestReservedMap;
     closeFirstRequest = NETTY_SIMULATE_FIRST_REQUEST_CLOSED.get(conf);
     this.myTaskInfo = myTaskInfo;
+    maxCreditBytes = NETTY_MAX_CREDIT_BYTES.get(conf);
+    clientHeapFraction = NETTY_CREDIT_HEAP_FRACTION.get(conf) /
+        Math.max(1, conf.getMaxWorkers());
+    sendCredit = NETTY_CREDIT_FLOW_CONTROL.get(conf);
+    if (sendCredit) {
+      computeCredit(TIME.getMilliseconds());
+    }
+  }
+
+  /**
+   * Get the number of bytes in the encoded response, which only has the
+   * credit if credit flow control is enabled.
+   *
+   * @param conf Configuration
+   * @return Number of bytes in the response
+   */
+  public static int getResponseBytes(Configuration conf) {
+    return NETTY_CREDIT_FLOW_CONTROL.get(conf) ?
+        RESPONSE_BYTES + CREDIT_BYTES : RESPONSE_BYTES;
   }
 
   @Override
@@ -121,13 +161,48 @@ public abstract class RequestServerHandler<R> extends
     }
 
     // Send the response with the request id
-    ChannelBuffer buffer = ChannelBuffers.directBuffer(RESPONSE_BYTES);
+    ChannelBuffer buffer = ChannelBuffers.directBuffer(
+        sendCredit ? RESPONSE_BYTES + CREDIT_BYTES : RESPONSE_BYTES);
     buffer.writeInt(myTaskInfo.getTaskId());
     buffer.writeLong(writableRequest.getRequestId());
     buffer.writeByte(alreadyDone);
+    if (sendCredit) {
+      buffer.writeInt(getCredit());
+    }
     e.getChannel().write(buffer);
   }
 
+  /**
+   * Get the number of bytes of open requests a client may have to this
+   * server.  Every client can get an equal share of a fraction of the free
+   * heap, so that clients slow down when the heap fills up.  The free heap
+   * is sampled at most every {@link #CREDIT_SAMPLE_INTERVAL_MSECS}
+   * milliseconds.
+   *
+   * @return Credit in bytes
+   */
+  private int getCredit() {
+    long milliseconds = TIME.getMilliseconds();
+    if (milliseconds - creditMilliseconds >= CREDIT_SAMPLE_INTERVAL_MSECS) {
+      computeCredit(milliseconds);
+    }
+    return credit;
+  }
+
+  /**
+   * Compute the credit from the free heap.
+   *
+   * @param milliseconds Current milliseconds
+   */
+  private void computeCredit(long milliseconds) {
+    Runtime runtime = Runtime.getRuntime();
+    long freeBytes = runtime.maxMemory() -
+        (runtime.totalMemory() - runtime.freeMemory());
+    credit = (int) Math.max(0,
+        Math.min(maxCreditBytes, freeBytes * clientHeapFraction));
+    creditMilliseconds = milliseconds;
+  }
+
   /**
    * Set the flag indicating already closed first request
    */
@@ -18,6 +18,7 @@
 
 package org.apache.giraph.comm.netty.handler;
 
+import org.apache.giraph.comm.netty.CreditFlowControl;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.log4j.Logger;
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -47,19 +48,24 @@ public class ResponseClientHandler extends SimpleChannelUpstreamHandler {
   /** Outstanding worker request map */
   private final ConcurrentMap<ClientRequestId, RequestInfo>
   workerIdOutstandingRequestMap;
+  /** Credit based flow control (null if not used) */
+  private final CreditFlowControl creditFlowControl;
 
   /**
    * Constructor.
    *
    * @param workerIdOutstandingRequestMap Map of worker ids to outstanding
    *                                      requests
+   * @param creditFlowControl Credit based flow control, null if not used
    * @param conf Configuration
    */
   public ResponseClientHandler(
       ConcurrentMap<ClientRequestId, RequestInfo>
           workerIdOutstandingRequestMap,
+      CreditFlowControl creditFlowControl,
       Configuration conf) {
     this.workerIdOutstandingRequestMap = workerIdOutstandingRequestMap;
+    this.creditFlowControl = creditFlowControl;
     dropFirstResponse = NETTY_SIMULATE_FIRST_RESPONSE_FAILED.get(conf);
   }
 
@@ -76,10 +82,15 @@ public class ResponseClientHandler extends SimpleChannelUpstreamHandler {
     int senderId = -1;
     long requestId = -1;
     int response = -1;
+    int credit = -1;
     try {
       senderId = inputStream.readInt();
       requestId = inputStream.readLong();
       response = inputStream.readByte();
+      // Servers only send the credit if credit flow control is used
+      if (creditFlowControl != null) {
+        credit = inputStream.readInt();
+      }
       inputStream.close();
     } catch (IOException e) {
       throw new IllegalStateException(
@@ -116,6 +127,10 @@ public class ResponseClientHandler extends SimpleChannelUpstreamHandler {
             " requests");
       }
     }
+    if (creditFlowControl != null) {
+      creditFlowControl.responseReceived(senderId, (requestInfo == null) ? 0 :
+          creditFlowControl.getRequestBytes(requestInfo.getRequest()), credit);
+    }
 
     // Help NettyClient#waitSomeRequests() to finish faster
     synchronized (workerIdOutstandingRequestMap) {
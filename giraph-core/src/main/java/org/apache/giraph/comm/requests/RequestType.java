@@ -56,7 +56,11 @@ public enum RequestType {
   /** Send aggregators from master to worker owners */
   SEND_AGGREGATORS_TO_OWNER_REQUEST(SendAggregatorsToOwnerRequest.class),
   /** Send aggregators from worker owner to other workers */
-  SEND_AGGREGATORS_TO_WORKER_REQUEST(SendAggregatorsToWorkerRequest.class);
+  SEND_AGGREGATORS_TO_WORKER_REQUEST(SendAggregatorsToWorkerRequest.class),
+  /** Send aggregated values to the parent in the tree of their owner */
+  SEND_TREE_AGGREGATORS_REQUEST(SendTreeAggregatorsRequest.class),
+  /** Tell master that a worker finished a superstep */
+  WORKER_FINISHED_SUPERSTEP_REQUEST(WorkerFinishedSuperstepRequest.class);
 
   /** Class of request which this type corresponds to */
   private final Class<? extends WritableRequest> requestClass;
@@ -18,7 +18,7 @@
 
 package org.apache.giraph.comm.requests;
 
-import org.apache.giraph.master.MasterAggregatorHandler;
+import org.apache.giraph.comm.MasterServerData;
 
 import java.io.IOException;
 
@@ -45,9 +45,10 @@ public class SendAggregatorsToMasterRequest extends ByteArrayRequest
   }
 
   @Override
-  public void doRequest(MasterAggregatorHandler aggregatorHandler) {
+  public void doRequest(MasterServerData serverData) {
     try {
-      aggregatorHandler.acceptAggregatedValues(getDataInput());
+      serverData.getAggregatorHandler().acceptAggregatedValues(
+          getDataInput());
     } catch (IOException e) {
       throw new IllegalStateException("doRequest: " +
           "IOException occurred while processing request", e);
@@ -70,10 +70,7 @@ public class SendAggregatorsToOwnerRequest
               AggregatorUtils.getAggregatorClass(aggregatorClassName);
           aggregatorData.registerAggregatorClass(aggregatorName,
               aggregatorClass);
-          Writable aggregatorValue =
-              aggregatorData.createAggregatorInitialValue(aggregatorName);
-          aggregatorValue.readFields(input);
-          aggregatorData.setAggregatorValue(aggregatorName, aggregatorValue);
+          aggregatorData.readAggregatorValue(aggregatorName, input);
           serverData.getOwnerAggregatorData().registerAggregator(
               aggregatorName, aggregatorClass);
         }
@@ -70,17 +70,14 @@ public class SendAggregatorsToWorkerRequest extends
               AggregatorUtils.getAggregatorClass(aggregatorClassName);
           aggregatorData.registerAggregatorClass(aggregatorName,
               aggregatorClass);
-          Writable aggregatorValue =
-              aggregatorData.createAggregatorInitialValue(aggregatorName);
-          aggregatorValue.readFields(input);
-          aggregatorData.setAggregatorValue(aggregatorName, aggregatorValue);
+          aggregatorData.readAggregatorValue(aggregatorName, input);
         }
       }
     } catch (IOException e) {
       throw new IllegalStateException("doRequest: " +
           "IOException occurred while processing request", e);
     }
-    aggregatorData.receivedRequestFromWorker();
+    aggregatorData.receivedRequestFromWorker(getData(), getSenderTaskId());
   }
 
   @Override
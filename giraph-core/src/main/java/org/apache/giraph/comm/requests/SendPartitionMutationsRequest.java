@@ -111,7 +111,7 @@ public class SendPartitionMutationsRequest<I extends WritableComparable,
   @Override
   public void doRequest(ServerData<I, V, E> serverData) {
     ConcurrentHashMap<I, VertexMutations<I, V, E>> vertexMutations =
-      serverData.getVertexMutations();
+      serverData.getVertexMutations(partitionId);
     Histogram verticesInMutationHist = GiraphMetrics.get().perSuperstep()
         .getUniformHistogram(MetricNames.VERTICES_IN_MUTATION_REQUEST);
     verticesInMutationHist.update(vertexMutations.size());
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.requests;
+
+import org.apache.giraph.comm.ServerData;
+import org.apache.giraph.comm.aggregators.AggregatorUtils;
+import org.apache.giraph.comm.aggregators.AllAggregatorServerData;
+import org.apache.giraph.comm.aggregators.OwnerAggregatorServerData;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Request to send partial aggregated values for current superstep to the
+ * parent in the aggregator tree of their owner (values which were computed
+ * by the vertices of the sender and of the workers below it in the tree)
+ */
+public class SendTreeAggregatorsRequest extends
+    ByteArrayWithSenderTaskIdRequest implements WorkerRequest {
+  /** Task id of the worker which owns the aggregators */
+  private int ownerTaskId;
+
+  /**
+   * Constructor
+   *
+   * @param data Serialized aggregator data
+   * @param senderTaskId Sender task id
+   * @param ownerTaskId Task id of the worker which owns the aggregators
+   */
+  public SendTreeAggregatorsRequest(byte[] data, int senderTaskId,
+      int ownerTaskId) {
+    super(data, senderTaskId);
+    this.ownerTaskId = ownerTaskId;
+  }
+
+  /**
+   * Constructor used for reflection only
+   */
+  public SendTreeAggregatorsRequest() {
+  }
+
+  @Override
+  public void doRequest(ServerData serverData) {
+    DataInput input = getDataInput();
+    AllAggregatorServerData allAggregatorData =
+        serverData.getAllAggregatorData();
+    OwnerAggregatorServerData aggregatorData =
+        serverData.getOwnerAggregatorData();
+    try {
+      int numAggregators = input.readInt();
+      for (int i = 0; i < numAggregators; i++) {
+        String aggregatorName = input.readUTF();
+        if (aggregatorName.equals(
+            AggregatorUtils.SPECIAL_COUNT_AGGREGATOR)) {
+          LongWritable count = new LongWritable(0);
+          count.readFields(input);
+          aggregatorData.receivedRequestCountFromChild(ownerTaskId,
+              count.get(), getSenderTaskId());
+        } else {
+          Writable aggregatedValue =
+              allAggregatorData.createAggregatorInitialValue(aggregatorName);
+          aggregatedValue.readFields(input);
+          aggregatorData.aggregateFromChild(aggregatorName, aggregatedValue,
+              allAggregatorData.getAggregatorClass(aggregatorName));
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("doRequest: " +
+          "IOException occurred while processing request", e);
+    }
+    aggregatorData.receivedRequestFromChild(ownerTaskId);
+  }
+
+  @Override
+  void writeRequest(DataOutput output) throws IOException {
+    super.writeRequest(output);
+    output.writeInt(ownerTaskId);
+  }
+
+  @Override
+  void readFieldsRequest(DataInput input) throws IOException {
+    super.readFieldsRequest(input);
+    ownerTaskId = input.readInt();
+  }
+
+  @Override
+  public int getSerializedSize() {
+    return super.getSerializedSize() + 4;
+  }
+
+  @Override
+  public RequestType getType() {
+    return RequestType.SEND_TREE_AGGREGATORS_REQUEST;
+  }
+}
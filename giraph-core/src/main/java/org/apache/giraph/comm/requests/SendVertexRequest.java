@@ -20,6 +20,7 @@ package org.apache.giraph.comm.requests;
 
 import org.apache.giraph.comm.ServerData;
 import org.apache.giraph.partition.Partition;
+import org.apache.giraph.utils.ExtendedDataOutput;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.log4j.Logger;
@@ -44,6 +45,8 @@ public class SendVertexRequest<I extends WritableComparable,
       Logger.getLogger(SendVertexRequest.class);
   /** Partition */
   private Partition<I, V, E> partition;
+  /** Serialized partition to send instead of the partition object */
+  private ExtendedDataOutput serializedPartition;
 
   /**
    * Constructor used for reflection only
@@ -59,6 +62,17 @@ public class SendVertexRequest<I extends WritableComparable,
     this.partition = partition;
   }
 
+  /**
+   * Constructor for sending a partition which was already serialized, so
+   * that the partition object doesn't have to be kept until the request is
+   * sent (and maybe resent).
+   *
+   * @param serializedPartition Output the partition was written to
+   */
+  public SendVertexRequest(ExtendedDataOutput serializedPartition) {
+    this.serializedPartition = serializedPartition;
+  }
+
   @Override
   public void readFieldsRequest(DataInput input) throws IOException {
     partition = getConf().createPartition(-1, null);
@@ -67,7 +81,12 @@ public class SendVertexRequest<I extends WritableComparable,
 
   @Override
   public void writeRequest(DataOutput output) throws IOException {
-    partition.write(output);
+    if (serializedPartition != null) {
+      output.write(serializedPartition.getByteArray(), 0,
+          serializedPartition.getPos());
+    } else {
+      partition.write(output);
+    }
   }
 
   @Override
@@ -82,6 +101,9 @@ public class SendVertexRequest<I extends WritableComparable,
 
   @Override
   public int getSerializedSize() {
+    if (serializedPartition != null) {
+      return super.getSerializedSize() + serializedPartition.getPos();
+    }
     return WritableRequest.UNKNOWN_SIZE;
   }
 }
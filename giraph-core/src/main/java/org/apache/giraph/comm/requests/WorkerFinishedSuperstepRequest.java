@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.requests;
+
+import org.apache.giraph.comm.MasterServerData;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Request with which a worker tells master that it finished a superstep,
+ * sent instead of creating the worker's znode under the finished workers
+ * path.  Carries the same info the znode would hold.
+ */
+public class WorkerFinishedSuperstepRequest extends
+    ByteArrayWithSenderTaskIdRequest implements MasterRequest {
+  /** ZooKeeper path of the barrier this request replaces */
+  private String barrierPath;
+
+  /**
+   * Constructor
+   *
+   * @param barrierPath ZooKeeper path of the barrier
+   * @param data Serialized info about the finished superstep
+   * @param senderTaskId Sender task id
+   */
+  public WorkerFinishedSuperstepRequest(String barrierPath, byte[] data,
+      int senderTaskId) {
+    super(data, senderTaskId);
+    this.barrierPath = barrierPath;
+  }
+
+  /**
+   * Constructor used for reflection only
+   */
+  public WorkerFinishedSuperstepRequest() {
+  }
+
+  @Override
+  public void doRequest(MasterServerData serverData) {
+    serverData.workerFinished(barrierPath, getSenderTaskId(), getData());
+  }
+
+  @Override
+  void writeRequest(DataOutput output) throws IOException {
+    super.writeRequest(output);
+    output.writeUTF(barrierPath);
+  }
+
+  @Override
+  void readFieldsRequest(DataInput input) throws IOException {
+    super.readFieldsRequest(input);
+    barrierPath = input.readUTF();
+  }
+
+  @Override
+  public int getSerializedSize() {
+    // Paths are ASCII, so each character takes one byte after the length
+    return super.getSerializedSize() + 2 + barrierPath.length();
+  }
+
+  @Override
+  public RequestType getType() {
+    return RequestType.WORKER_FINISHED_SUPERSTEP_REQUEST;
+  }
+}
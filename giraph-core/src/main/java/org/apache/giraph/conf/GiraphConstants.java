@@ -20,6 +20,7 @@ package org.apache.giraph.conf;
 import org.apache.giraph.aggregators.AggregatorWriter;
 import org.apache.giraph.aggregators.TextAggregatorWriter;
 import org.apache.giraph.combiner.Combiner;
+import org.apache.giraph.comm.netty.compression.CompressionCodec;
 import org.apache.giraph.edge.ByteArrayEdges;
 import org.apache.giraph.edge.OutEdges;
 import org.apache.giraph.factories.ComputationFactory;
@@ -314,10 +315,34 @@ public interface GiraphConstants {
           TextAggregatorWriter.class, AggregatorWriter.class,
           "AggregatorWriter class - optional");
 
+  /**
+   * Number of children of each worker in the trees which aggregators are
+   * reduced and broadcast over, 0 to send them to and from their owners
+   * directly.
+   */
+  IntConfOption AGGREGATOR_TREE_ARITY =
+      new IntConfOption("giraph.aggregatorTreeArity", 0,
+          "Number of children of each worker in the trees which " +
+          "aggregators are reduced and broadcast over, 0 to send them to " +
+          "and from their owners directly");
+
+  /**
+   * Whether master sends aggregated values which support it as the
+   * difference to the values it sent in the previous superstep
+   */
+  BooleanConfOption AGGREGATOR_DELTA_ENCODING =
+      new BooleanConfOption("giraph.aggregatorDeltaEncoding", false,
+          "Whether master sends aggregated values which support it as the " +
+          "difference to the values it sent in the previous superstep");
+
   /** Partition class - optional */
   ClassConfOption<Partition> PARTITION_CLASS =
       ClassConfOption.create("giraph.partitionClass", SimplePartition.class,
           Partition.class, "Partition class - optional");
+  /** Size of the direct buffers off-heap partitions store vertices in */
+  IntConfOption OFF_HEAP_SLAB_SIZE =
+      new IntConfOption("giraph.offHeapSlabSize", 16 * ONE_KB * ONE_KB,
+          "Size of the direct buffers off-heap partitions store vertices in");
 
   /**
    * Minimum number of simultaneous workers before this job can run (int)
@@ -401,6 +426,17 @@ public interface GiraphConstants {
       new IntConfOption("giraph.zkServerlistPollMsecs", SECONDS.toMillis(3),
           "Polling interval to check for the ZooKeeper server data");
 
+  /**
+   * Whether workers tell master that they finished a superstep over netty,
+   * instead of creating a znode per worker which master watches.  ZooKeeper
+   * is still used to detect failed workers and to announce that the
+   * superstep is finished.
+   */
+  BooleanConfOption NETTY_SUPERSTEP_BARRIER =
+      new BooleanConfOption("giraph.nettySuperstepBarrier", false,
+          "Whether workers tell master that they finished a superstep over " +
+          "netty, instead of through ZooKeeper");
+
   /** Number of nodes (not tasks) to run Zookeeper on */
   IntConfOption ZOOKEEPER_SERVER_COUNT =
       new IntConfOption("giraph.zkServerCount", 1,
@@ -444,6 +480,41 @@ public interface GiraphConstants {
                             false, "Whether or not netty request encoder " +
                                    "should use direct byte buffers");
 
+  /**
+   * Codec used to compress requests (e.g.
+   * org.apache.giraph.comm.netty.compression.Lz4CompressionCodec), none by
+   * default.  Has to be the same on all workers and the master.
+   */
+  ClassConfOption<CompressionCodec> NETTY_COMPRESSION_CODEC =
+      ClassConfOption.create("giraph.nettyCompressionCodec", null,
+          CompressionCodec.class, "Codec used to compress requests, none " +
+          "by default");
+
+  /** Requests smaller than this are sent without compression */
+  IntConfOption NETTY_COMPRESSION_THRESHOLD =
+      new IntConfOption("giraph.nettyCompressionThreshold", 4 * ONE_KB,
+          "Requests smaller than this are sent without compression");
+
+  /**
+   * Whether clients limit the bytes of open requests to each server by the
+   * credit the server advertises in its responses.  Replaces the limit on
+   * the number of open requests.
+   */
+  BooleanConfOption NETTY_CREDIT_FLOW_CONTROL =
+      new BooleanConfOption("giraph.nettyCreditFlowControl", false,
+          "Whether clients limit the bytes of open requests to each server " +
+          "by the credit the server advertises");
+
+  /** Maximum credit (in bytes) a server gives to one client */
+  IntConfOption NETTY_MAX_CREDIT_BYTES =
+      new IntConfOption("giraph.nettyMaxCreditBytes", 32 * ONE_KB * ONE_KB,
+          "Maximum credit (in bytes) a server gives to one client");
+
+  /** Fraction of its free heap a server shares among clients as credit */
+  FloatConfOption NETTY_CREDIT_HEAP_FRACTION =
+      new FloatConfOption("giraph.nettyCreditHeapFraction", 0.5f,
+          "Fraction of its free heap a server shares among clients as credit");
+
   /** Netty client threads */
   IntConfOption NETTY_CLIENT_THREADS =
       new IntConfOption("giraph.nettyClientThreads", 4, "Netty client threads");
@@ -573,6 +644,63 @@ public interface GiraphConstants {
       new IntConfOption("giraph.msgRequestSize", 512 * ONE_KB,
           "Maximum size of messages (in bytes) per peer before flush");
 
+  /**
+   * If positive, messages cached for a worker for longer than this many
+   * milliseconds are sent even if the request isn't full, so that sending
+   * overlaps computation instead of bursting at the end of the superstep.
+   */
+  IntConfOption MSG_FLUSH_INTERVAL_MS =
+      new IntConfOption("giraph.msgFlushIntervalMs", 0,
+          "If positive, messages cached for a worker for longer than this " +
+          "many milliseconds are sent even if the request isn't full");
+
+  /**
+   * Whether messages to vertices of the same worker are added to its
+   * message store directly (if the store supports it), without serializing
+   * them into requests.
+   */
+  BooleanConfOption DIRECT_LOCAL_MESSAGES =
+      new BooleanConfOption("giraph.directLocalMessages", true,
+          "Whether messages to vertices of the same worker are added to " +
+          "its message store directly, if the store supports it");
+
+  /**
+   * Whether workers combine outgoing messages to the same vertex before
+   * serializing them.  Only used with a combiner and int or long vertex ids.
+   */
+  BooleanConfOption SEND_COMBINING_CACHE =
+      new BooleanConfOption("giraph.sendCombiningCache", false,
+          "Whether outgoing messages to the same vertex are combined before " +
+          "they are serialized (needs a combiner and int or long vertex ids)");
+
+  /**
+   * Number of distinct vertices of a partition whose combined messages are
+   * cached before they are serialized.
+   */
+  IntConfOption SEND_COMBINING_CACHE_SIZE =
+      new IntConfOption("giraph.sendCombiningCacheSize", 4096,
+          "Number of distinct vertices of a partition whose combined " +
+          "messages are cached before they are serialized");
+
+  /**
+   * Whether workers send requests from background threads, so that compute
+   * threads don't wait for the network.
+   */
+  BooleanConfOption ASYNC_REQUEST_SENDING =
+      new BooleanConfOption("giraph.asyncRequestSending", false,
+          "Whether workers send requests from background threads");
+
+  /** Number of background threads sending requests */
+  IntConfOption ASYNC_SENDER_THREADS =
+      new IntConfOption("giraph.asyncSenderThreads", 2,
+          "Number of background threads sending requests");
+
+  /** Bytes of requests queued for background sending before callers block */
+  LongConfOption ASYNC_SENDER_MAX_QUEUED_BYTES =
+      new LongConfOption("giraph.asyncSenderMaxQueuedBytes",
+          64L * ONE_KB * ONE_KB, "Bytes of requests queued for background " +
+          "sending before callers block");
+
   /**
    * How much bigger than the average per partition size to make initial per
    * partition buffers.
@@ -615,6 +743,17 @@ public interface GiraphConstants {
           "Use message size encoding (typically better for complex objects, " +
           "not meant for primitive wrapped messages)");
 
+  /**
+   * Sort the entries of message and edge requests by vertex id and send the
+   * ids as variable-length deltas.  Only applies to IntWritable and
+   * LongWritable vertex ids.
+   */
+  BooleanConfOption VERTEX_ID_DELTA_ENCODING =
+      new BooleanConfOption("giraph.vertexIdDeltaEncoding", false,
+          "Sort the entries of message and edge requests by vertex id and " +
+          "send the ids as variable-length deltas (only for IntWritable " +
+          "and LongWritable vertex ids)");
+
   /** Number of channels used per server */
   IntConfOption CHANNELS_PER_SERVER =
       new IntConfOption("giraph.channelsPerServer", 1,
@@ -628,6 +767,52 @@ public interface GiraphConstants {
       new IntConfOption("giraph.numComputeThreads", 1,
           "Number of threads for vertex computation");
 
+  /**
+   * Compute the partitions that were the most expensive in the previous
+   * superstep first, so that a big partition is not left for last
+   */
+  BooleanConfOption COMPUTE_LARGEST_PARTITIONS_FIRST =
+      new BooleanConfOption("giraph.computeLargestPartitionsFirst", true,
+          "Compute the partitions that were the most expensive in the " +
+          "previous superstep first, so that a big partition is not left " +
+          "for last");
+
+  /**
+   * Let compute threads that ran out of partitions steal vertices from
+   * partitions other threads are still computing
+   */
+  BooleanConfOption COMPUTE_PARTITION_STEALING =
+      new BooleanConfOption("giraph.computePartitionStealing", false,
+          "Let compute threads that ran out of partitions steal vertices " +
+          "from partitions other threads are still computing");
+
+  /** Number of vertices taken at a time from a partition shared by threads */
+  IntConfOption COMPUTE_STEALING_CHUNK_SIZE =
+      new IntConfOption("giraph.computeStealingChunkSize", 1000,
+          "Number of vertices taken at a time from a partition shared by " +
+          "threads");
+
+  /**
+   * Keep track of the vertices which are not halted in each partition, so
+   * that a superstep visits only those and the vertices which received
+   * messages instead of the whole partition
+   */
+  BooleanConfOption ACTIVE_VERTEX_ITERATION =
+      new BooleanConfOption("giraph.activeVertexIteration", false,
+          "Keep track of the vertices which are not halted in each " +
+          "partition, so that a superstep visits only those and the " +
+          "vertices which received messages instead of the whole " +
+          "partition (not used with out-of-core messages)");
+
+  /**
+   * Partitions with a larger fraction of active vertices are visited in full
+   * and don't keep track of their active vertices
+   */
+  FloatConfOption ACTIVE_VERTEX_ITERATION_MAX_RATIO =
+      new FloatConfOption("giraph.activeVertexIterationMaxRatio", 0.2f,
+          "Partitions with a larger fraction of active vertices are visited " +
+          "in full and don't keep track of their active vertices");
+
   /** Number of threads for input split loading */
   IntConfOption NUM_INPUT_THREADS =
       new IntConfOption("giraph.numInputThreads", 1,
@@ -706,11 +891,57 @@ public interface GiraphConstants {
       new IntConfOption("giraph.userPartitionCount", -1,
           "Overrides default partition count calculation if not -1");
 
+  /**
+   * Number of sent messages which cost one millisecond, when partitions
+   * are balanced by cost
+   */
+  LongConfOption COST_BALANCE_MESSAGES_PER_MS =
+      new LongConfOption("giraph.costBalanceMessagesPerMs", 1000,
+          "Number of sent messages which cost one millisecond, when " +
+          "partitions are balanced by cost");
+
+  /**
+   * Number of sent message bytes which cost one millisecond, when
+   * partitions are balanced by cost
+   */
+  LongConfOption COST_BALANCE_MESSAGE_BYTES_PER_MS =
+      new LongConfOption("giraph.costBalanceMessageBytesPerMs", 100000,
+          "Number of sent message bytes which cost one millisecond, when " +
+          "partitions are balanced by cost");
+
+  /**
+   * Number of vertices plus edges which can be migrated to another worker
+   * in one millisecond, when partitions are balanced by cost
+   */
+  LongConfOption COST_BALANCE_MIGRATED_ELEMENTS_PER_MS =
+      new LongConfOption("giraph.costBalanceMigratedElementsPerMs", 10000,
+          "Number of vertices plus edges which can be migrated to another " +
+          "worker in one millisecond, when partitions are balanced by cost");
+
+  /**
+   * Number of supersteps over which the time saved by moving a partition
+   * has to pay for its migration, when partitions are balanced by cost
+   */
+  IntConfOption COST_BALANCE_AMORTIZATION_SUPERSTEPS =
+      new IntConfOption("giraph.costBalanceAmortizationSupersteps", 5,
+          "Number of supersteps over which the time saved by moving a " +
+          "partition has to pay for its migration, when partitions are " +
+          "balanced by cost");
+
   /** Vertex key space size for
    * {@link org.apache.giraph.partition.SimpleRangeWorkerPartitioner}
    */
   String PARTITION_VERTEX_KEY_SPACE_SIZE = "giraph.vertexKeySpaceSize";
 
+  /**
+   * Path (may be a glob or directory) of the vertex id to partition mapping
+   * for {@link org.apache.giraph.partition.LongMappedPartitionerFactory}
+   */
+  StrConfOption PARTITION_MAPPING_PATH =
+      new StrConfOption("giraph.partitionMappingPath", "",
+          "Path (may be a glob or directory) of the vertex id to partition " +
+          "mapping used by LongMappedPartitionerFactory");
+
   /** Java opts passed to ZooKeeper startup */
   StrConfOption ZOOKEEPER_JAVA_OPTS =
       new StrConfOption("giraph.zkJavaOpts",
@@ -767,6 +998,35 @@ public interface GiraphConstants {
       new StrConfOption("giraph.checkpointDirectory", "_bsp/_checkpoints/",
           "This directory has/stores the available checkpoint files in HDFS.");
 
+  /** Number of threads which write or read the checkpointed partitions */
+  IntConfOption NUM_CHECKPOINT_IO_THREADS =
+      new IntConfOption("giraph.checkpoint.io.threads", 8,
+          "Number of threads which write or read the checkpointed " +
+          "partitions, every partition is a separate file");
+
+  /**
+   * Hadoop codec used to compress the checkpointed partitions (e.g.
+   * org.apache.hadoop.io.compress.DefaultCodec), none by default.  Restarts
+   * have to use the same codec.
+   */
+  ClassConfOption<org.apache.hadoop.io.compress.CompressionCodec>
+  CHECKPOINT_COMPRESSION_CODEC =
+      ClassConfOption.create("giraph.checkpoint.compression.codec", null,
+          org.apache.hadoop.io.compress.CompressionCodec.class,
+          "Hadoop codec used to compress the checkpointed partitions, none " +
+          "by default");
+
+  /**
+   * Write the edges of a partition only in its first checkpoint, and
+   * afterwards only the vertex values and messages.  Only used when
+   * {@link #STATIC_GRAPH} is set.
+   */
+  BooleanConfOption CHECKPOINT_INCREMENTAL =
+      new BooleanConfOption("giraph.checkpoint.incremental", false,
+          "Write the edges of a partition only in its first checkpoint, and " +
+          "afterwards only the vertex values and messages.  Only used when " +
+          "giraph.isStaticGraph is set");
+
   /**
    * Comma-separated list of directories in the local file system for
    * out-of-core messages.
@@ -776,6 +1036,17 @@ public interface GiraphConstants {
           "Comma-separated list of directories in the local file system for " +
           "out-of-core messages.");
 
+  /**
+   * Number of stripes, each with its own lock, the messages of a partition
+   * are split into by primitive message stores (0 to use the netty server
+   * execution concurrency).  Rounded up to a power of two.
+   */
+  IntConfOption MESSAGE_STORE_STRIPES =
+      new IntConfOption("giraph.messageStoreStripes", 0,
+          "Number of stripes, each with its own lock, the messages of a " +
+          "partition are split into by primitive message stores (0 to use " +
+          "the netty server execution concurrency)");
+
   /** Whether or not to use out-of-core messages */
   BooleanConfOption USE_OUT_OF_CORE_MESSAGES =
       new BooleanConfOption("giraph.useOutOfCoreMessages", false,
@@ -792,6 +1063,22 @@ public interface GiraphConstants {
   IntConfOption MESSAGES_BUFFER_SIZE =
       new IntConfOption("giraph.messagesBufferSize", 8 * ONE_KB,
           "Size of buffer when reading and writing messages out-of-core.");
+  /**
+   * Every how many vertices of an out-of-core message run the vertex id is
+   * kept in the sparse index used for seeking.
+   */
+  IntConfOption MESSAGES_INDEX_INTERVAL =
+      new IntConfOption("giraph.messagesIndexInterval", 128,
+          "Every how many vertices of an out-of-core message run the vertex " +
+          "id is kept in the sparse index used for seeking.");
+  /**
+   * Maximum number of out-of-core message runs of a partition, more runs
+   * are merged into one.
+   */
+  IntConfOption MAX_MESSAGE_RUNS =
+      new IntConfOption("giraph.maxMessageRuns", 8,
+          "Maximum number of out-of-core message runs of a partition, more " +
+          "runs are merged into one.");
 
   /**
    * Comma-separated list of directories in the local filesystem for
@@ -817,6 +1104,52 @@ public interface GiraphConstants {
       new IntConfOption("giraph.maxPartitionsInMemory", 10,
           "Maximum number of partitions to hold in memory for each worker.");
 
+  /**
+   * Maximum size of the partitions to hold in memory (out-of-core graph).
+   * Sizes are estimated from the serialized size of the partitions.
+   */
+  LongConfOption MAX_PARTITION_BYTES_IN_MEMORY =
+      new LongConfOption("giraph.maxPartitionBytesInMemory", 0,
+          "Maximum estimated (serialized) size in bytes of the partitions " +
+          "to hold in memory for each worker.  If positive, it is used " +
+          "instead of giraph.maxPartitionsInMemory.");
+
+  /** Number of threads doing out-of-core partition I/O in the background */
+  IntConfOption NUM_PARTITION_IO_THREADS =
+      new IntConfOption("giraph.numPartitionIOThreads", 1,
+          "Number of background threads which prefetch out-of-core " +
+          "partitions and write evicted partitions to disk.  If 0, all " +
+          "partition I/O is done by the threads requesting partitions.");
+
+  /** Number of partitions to prefetch ahead of the computed one */
+  IntConfOption PARTITION_PREFETCH_DEPTH =
+      new IntConfOption("giraph.partitionPrefetchDepth", 1,
+          "Number of upcoming partitions compute threads ask the " +
+          "out-of-core partition store to prefetch while computing one.");
+
+  /**
+   * Let heap occupancy decide when out-of-core stores spill and reload,
+   * instead of the static limits.
+   */
+  BooleanConfOption ADAPTIVE_OUT_OF_CORE =
+      new BooleanConfOption("giraph.adaptiveOutOfCore", false,
+          "Let heap occupancy after garbage collections decide when the " +
+          "out-of-core graph and messages spill to disk, instead of " +
+          "giraph.maxPartitionsInMemory, giraph.maxPartitionBytesInMemory " +
+          "and giraph.maxMessagesInMemory.");
+
+  /** Heap occupancy above which adaptive out-of-core stores spill */
+  FloatConfOption OUT_OF_CORE_HIGH_HEAP_FRACTION =
+      new FloatConfOption("giraph.outOfCoreHighHeapFraction", 0.8f,
+          "Fraction of the maximum heap which, when still used after a " +
+          "garbage collection, makes adaptive out-of-core stores spill.");
+
+  /** Heap occupancy below which adaptive out-of-core stores reload */
+  FloatConfOption OUT_OF_CORE_LOW_HEAP_FRACTION =
+      new FloatConfOption("giraph.outOfCoreLowHeapFraction", 0.6f,
+          "Fraction of the maximum heap below which adaptive out-of-core " +
+          "stores load data ahead of time.");
+
   /** Keep the zookeeper output for debugging? Default is to remove it. */
   BooleanConfOption KEEP_ZOOKEEPER_DATA =
       new BooleanConfOption("giraph.keepZooKeeperData", false,
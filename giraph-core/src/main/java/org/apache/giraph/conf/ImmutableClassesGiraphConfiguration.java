@@ -65,6 +65,8 @@ import org.apache.giraph.utils.UnsafeByteArrayOutputStream;
 import org.apache.giraph.worker.WorkerContext;
 import org.apache.giraph.worker.WorkerObserver;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
@@ -100,6 +102,8 @@ public class ImmutableClassesGiraphConfiguration<I extends WritableComparable,
    * extended data input/output classes
    */
   private final boolean useUnsafeSerialization;
+  /** Send vertex ids of requests as deltas? Cached for fast access */
+  private final boolean useVertexIdDeltaEncoding;
 
   /**
    * Constructor.  Takes the configuration and then gets the classes out of
@@ -111,6 +115,9 @@ public class ImmutableClassesGiraphConfiguration<I extends WritableComparable,
     super(conf);
     classes = new GiraphClasses<I, V, E>(conf);
     useUnsafeSerialization = USE_UNSAFE_SERIALIZATION.get(this);
+    useVertexIdDeltaEncoding = VERTEX_ID_DELTA_ENCODING.get(this) &&
+        (IntWritable.class.equals(getVertexIdClass()) ||
+            LongWritable.class.equals(getVertexIdClass()));
     valueLanguages = PerGraphTypeEnum.readFromConf(
         GiraphConstants.GRAPH_TYPE_LANGUAGES, conf);
     valueNeedsWrappers = PerGraphTypeBoolean.readFromConf(
@@ -896,6 +903,16 @@ public class ImmutableClassesGiraphConfiguration<I extends WritableComparable,
     return useUnsafeSerialization;
   }
 
+  /**
+   * Sort the entries of message and edge requests and send the vertex ids
+   * as deltas?  Only true for IntWritable and LongWritable vertex ids.
+   *
+   * @return True if vertex ids are delta encoded, false otherwise.
+   */
+  public boolean useVertexIdDeltaEncoding() {
+    return useVertexIdDeltaEncoding;
+  }
+
   /**
    * Create an extended data output (can be subclassed)
    *
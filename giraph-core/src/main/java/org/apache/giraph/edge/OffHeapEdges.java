@@ -0,0 +1,365 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.edge;
+
+import com.google.common.collect.UnmodifiableIterator;
+import org.apache.giraph.utils.OffHeapArena;
+import org.apache.giraph.utils.WritableUtils;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * {@link OutEdges} implementation backed by memory outside of the Java
+ * heap.  Parallel edges are allowed.
+ * Note: the edges are kept in blocks of the {@link OffHeapArena} of the
+ * partition the vertex is in, so small instances don't each take up a
+ * direct buffer.  The partition moves the edges into its arena when the
+ * vertex is put into it (see {@link #moveToArena(OffHeapArena)}), until
+ * then they are kept in a buffer on the heap.  For graphs with many small
+ * vertices, {@link org.apache.giraph.partition.OffHeapPartition} keeps whole
+ * vertices, edges included, off the heap.  Like {@link ByteArrayEdges},
+ * edge removals are expensive.
+ *
+ * @param <I> Vertex id
+ * @param <E> Edge value
+ */
+public class OffHeapEdges<I extends WritableComparable, E extends Writable>
+    extends ConfigurableOutEdges<I, E>
+    implements ReuseObjectsOutEdges<I, E> {
+  /** Size of the chunks edges are copied in from and to data streams */
+  private static final int COPY_BUFFER_SIZE = 4096;
+  /** Arena the edges are kept in (null if they are kept on the heap) */
+  private OffHeapArena arena;
+  /** Address of the block of the arena with the edges */
+  private long blockAddress;
+  /**
+   * Buffer over the block, or on the heap if there is no arena (null if
+   * there never were any edges)
+   */
+  private ByteBuffer serializedEdges;
+  /** Number of bytes used in serializedEdges. */
+  private int serializedEdgesBytesUsed;
+  /** Number of edges. */
+  private int edgeCount;
+
+  @Override
+  public void initialize(Iterable<Edge<I, E>> edges) {
+    initialize();
+    DataOutputStream output = new DataOutputStream(new EdgesOutputStream());
+    for (Edge<I, E> edge : edges) {
+      try {
+        WritableUtils.writeEdge(output, edge);
+      } catch (IOException e) {
+        throw new IllegalStateException("initialize: Failed to serialize " +
+            edge);
+      }
+      ++edgeCount;
+    }
+  }
+
+  @Override
+  public void initialize(int capacity) {
+    // We have no way to know the size in bytes used by a certain
+    // number of edges.
+    initialize();
+  }
+
+  @Override
+  public void initialize() {
+    // Keep the buffer, if any, for the new edges
+    serializedEdgesBytesUsed = 0;
+    edgeCount = 0;
+  }
+
+  @Override
+  public void add(Edge<I, E> edge) {
+    try {
+      WritableUtils.writeEdge(
+          new DataOutputStream(new EdgesOutputStream()), edge);
+    } catch (IOException e) {
+      throw new IllegalStateException("add: Failed to write to the new " +
+          "buffer");
+    }
+    ++edgeCount;
+  }
+
+  @Override
+  public void remove(I targetVertexId) {
+    // Note that this is very expensive (deserializes all edges), the edges
+    // to keep are moved towards the start of the buffer
+    OffHeapEdgeIterator iterator = new OffHeapEdgeIterator();
+    int writePosition = 0;
+    int readPosition = 0;
+    while (iterator.hasNext()) {
+      Edge<I, E> edge = iterator.next();
+      int nextReadPosition = iterator.getPosition();
+      if (edge.getTargetVertexId().equals(targetVertexId)) {
+        --edgeCount;
+      } else {
+        if (writePosition != readPosition) {
+          ByteBuffer source = serializedEdges.duplicate();
+          source.limit(nextReadPosition).position(readPosition);
+          ByteBuffer destination = serializedEdges.duplicate();
+          destination.position(writePosition);
+          destination.put(source);
+        }
+        writePosition += nextReadPosition - readPosition;
+      }
+      readPosition = nextReadPosition;
+    }
+    serializedEdgesBytesUsed = writePosition;
+  }
+
+  @Override
+  public int size() {
+    return edgeCount;
+  }
+
+  /**
+   * Move the edges to a block of another arena, or to the heap.  The block
+   * they were in before is freed.
+   *
+   * @param newArena Arena to keep the edges in, or null to keep them on the
+   *                 heap
+   */
+  public void moveToArena(OffHeapArena newArena) {
+    if (newArena == arena) {
+      return;
+    }
+    OffHeapArena oldArena = arena;
+    long oldAddress = blockAddress;
+    ByteBuffer oldEdges = serializedEdges;
+    arena = newArena;
+    if (oldEdges != null) {
+      replaceBuffer(OffHeapArena.getBlockSize(serializedEdgesBytesUsed));
+      freeBlock(oldArena, oldAddress, oldEdges);
+    }
+  }
+
+  /**
+   * Make sure the buffer has space for more bytes, moving the edges to a
+   * bigger block if needed.
+   *
+   * @param bytes Number of bytes to add
+   */
+  private void ensureCapacity(int bytes) {
+    int capacity = (serializedEdges == null) ? 0 : serializedEdges.capacity();
+    if (serializedEdgesBytesUsed + bytes <= capacity) {
+      return;
+    }
+    OffHeapArena oldArena = arena;
+    long oldAddress = blockAddress;
+    ByteBuffer oldEdges = serializedEdges;
+    replaceBuffer(OffHeapArena.getBlockSize(
+        Math.max(serializedEdgesBytesUsed + bytes, capacity * 2)));
+    freeBlock(oldArena, oldAddress, oldEdges);
+  }
+
+  /**
+   * Copy the edges to a new buffer, a block of the arena if there is one.
+   * The old buffer is left as it is.
+   *
+   * @param capacity Capacity of the new buffer, a block size
+   */
+  private void replaceBuffer(int capacity) {
+    if (arena != null && arena.isReleased()) {
+      // The partition let go of its arena, so the edges can't stay in it
+      arena = null;
+    }
+    ByteBuffer newEdges;
+    if (arena == null) {
+      blockAddress = 0;
+      newEdges = ByteBuffer.allocate(capacity);
+    } else {
+      blockAddress = arena.allocateBlock(capacity);
+      newEdges = arena.getBuffer(blockAddress, capacity);
+    }
+    if (serializedEdgesBytesUsed > 0) {
+      ByteBuffer oldEdges = serializedEdges.duplicate();
+      oldEdges.limit(serializedEdgesBytesUsed).position(0);
+      newEdges.duplicate().put(oldEdges);
+    }
+    serializedEdges = newEdges;
+  }
+
+  /**
+   * Give a block back to its arena.
+   *
+   * @param blockArena Arena of the block (null if the buffer is on the heap)
+   * @param address Address of the block
+   * @param block Buffer over the block (null if there is none)
+   */
+  private static void freeBlock(OffHeapArena blockArena, long address,
+      ByteBuffer block) {
+    if (blockArena != null && block != null) {
+      blockArena.freeBlock(address, block.capacity());
+    }
+  }
+
+  /**
+   * Appends bytes to the end of the edges.
+   */
+  private class EdgesOutputStream extends OutputStream {
+    @Override
+    public void write(int b) {
+      ensureCapacity(1);
+      serializedEdges.put(serializedEdgesBytesUsed++, (byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      ensureCapacity(len);
+      ByteBuffer destination = serializedEdges.duplicate();
+      destination.position(serializedEdgesBytesUsed);
+      destination.put(b, off, len);
+      serializedEdgesBytesUsed += len;
+    }
+  }
+
+  /**
+   * Reads the edges from a position on.
+   */
+  private class EdgesInputStream extends InputStream {
+    /** Edges, positioned at the next byte to read */
+    private final ByteBuffer edges;
+
+    /** Constructor, reads from the start. */
+    EdgesInputStream() {
+      edges = serializedEdges.duplicate();
+      edges.limit(serializedEdgesBytesUsed).position(0);
+    }
+
+    @Override
+    public int read() {
+      return edges.hasRemaining() ? edges.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!edges.hasRemaining()) {
+        return -1;
+      }
+      int bytes = Math.min(len, edges.remaining());
+      edges.get(b, off, bytes);
+      return bytes;
+    }
+
+    @Override
+    public int available() {
+      return edges.remaining();
+    }
+  }
+
+  /**
+   * Iterator that reuses the same Edge object.
+   */
+  private class OffHeapEdgeIterator
+      extends UnmodifiableIterator<Edge<I, E>> {
+    /** Stream the edges are read from (null if there are none) */
+    private final EdgesInputStream edgesInput =
+        (serializedEdgesBytesUsed == 0) ? null : new EdgesInputStream();
+    /** Input for processing the bytes */
+    private final DataInputStream dataInput =
+        (edgesInput == null) ? null : new DataInputStream(edgesInput);
+    /** Representative edge object. */
+    private ReusableEdge<I, E> representativeEdge =
+        getConf().createReusableEdge();
+
+    @Override
+    public boolean hasNext() {
+      return edgesInput != null && edgesInput.available() > 0;
+    }
+
+    @Override
+    public Edge<I, E> next() {
+      try {
+        WritableUtils.readEdge(dataInput, representativeEdge);
+      } catch (IOException e) {
+        throw new IllegalStateException("next: Failed on pos " +
+            getPosition() + " edge " + representativeEdge);
+      }
+      return representativeEdge;
+    }
+
+    /**
+     * Get the position of the next edge in the buffer.
+     *
+     * @return Position in the buffer
+     */
+    int getPosition() {
+      return serializedEdgesBytesUsed - edgesInput.available();
+    }
+  }
+
+  @Override
+  public Iterator<Edge<I, E>> iterator() {
+    return new OffHeapEdgeIterator();
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    initialize();
+    int bytes = in.readInt();
+    if (bytes > 0) {
+      // Only create a new buffer if the old one isn't big enough
+      ensureCapacity(bytes);
+      byte[] copyBuffer = new byte[Math.min(bytes, COPY_BUFFER_SIZE)];
+      ByteBuffer destination = serializedEdges.duplicate();
+      destination.position(0);
+      while (serializedEdgesBytesUsed < bytes) {
+        int length = Math.min(copyBuffer.length,
+            bytes - serializedEdgesBytesUsed);
+        in.readFully(copyBuffer, 0, length);
+        destination.put(copyBuffer, 0, length);
+        serializedEdgesBytesUsed += length;
+      }
+    }
+    edgeCount = in.readInt();
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(serializedEdgesBytesUsed);
+    if (serializedEdgesBytesUsed > 0) {
+      byte[] copyBuffer =
+          new byte[Math.min(serializedEdgesBytesUsed, COPY_BUFFER_SIZE)];
+      ByteBuffer source = serializedEdges.duplicate();
+      source.limit(serializedEdgesBytesUsed).position(0);
+      while (source.hasRemaining()) {
+        int length = Math.min(copyBuffer.length, source.remaining());
+        source.get(copyBuffer, 0, length);
+        out.write(copyBuffer, 0, length);
+      }
+    }
+    out.writeInt(edgeCount);
+  }
+}
@@ -21,6 +21,7 @@ import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.comm.WorkerClientRequestProcessor;
 import org.apache.giraph.comm.messages.MessageStore;
 import org.apache.giraph.comm.netty.NettyWorkerClientRequestProcessor;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.io.SimpleVertexWriter;
 import org.apache.giraph.metrics.GiraphMetrics;
@@ -49,14 +50,14 @@ import com.yammer.metrics.core.TimerContext;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 
 /**
  * Compute as many vertex partitions as possible.  Every thread will has its
  * own instance of WorkerClientRequestProcessor to send requests.  Note that
- * the partition ids are used in the partitionIdQueue rather than the actual
+ * the partition scheduler hands out partition ids rather than the actual
  * partitions since that would cause the partitions to be loaded into memory
  * when using the out-of-core graph partition store.  We should only load on
  * demand.
@@ -78,8 +79,8 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
   private final Mapper<?, ?, ?, ?>.Context context;
   /** Graph state */
   private final GraphState graphState;
-  /** Thread-safe queue of all partition ids */
-  private final BlockingQueue<Integer> partitionIdQueue;
+  /** Thread-safe scheduler handing out the partitions to compute */
+  private final ComputePartitionScheduler<I, V, E> partitionScheduler;
   /** Message store */
   private final MessageStore<I, M1> messageStore;
   /** Configuration */
@@ -92,6 +93,12 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
   private SimpleVertexWriter<I, V, E> vertexWriter;
   /** Get the start time in nanos */
   private final long startNanos = TIME.getNanoseconds();
+  /** Whether to visit only active vertices and vertices with messages */
+  private final boolean activeVertexIteration;
+  /** Maximum fraction of active vertices for which tracking is worth it */
+  private final float maxActiveVertexRatio;
+  /** Number of upcoming partitions to prefetch */
+  private final int prefetchDepth;
 
   // Per-Superstep Metrics
   /** Messages sent */
@@ -100,6 +107,8 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
   private final Counter messageBytesSentCounter;
   /** Timer for single compute() call */
   private final Timer computeOneTimer;
+  /** Timer for flushing the caches after computing */
+  private final Timer computeFlushTimer;
 
   /**
    * Constructor
@@ -107,27 +116,35 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
    * @param context Context
    * @param graphState Current graph state (use to create own graph state)
    * @param messageStore Message store
-   * @param partitionIdQueue Queue of partition ids (thread-safe)
+   * @param partitionScheduler Scheduler of the partitions (thread-safe)
    * @param configuration Configuration
    * @param serviceWorker Service worker
    */
   public ComputeCallable(
       Mapper<?, ?, ?, ?>.Context context, GraphState graphState,
       MessageStore<I, M1> messageStore,
-      BlockingQueue<Integer> partitionIdQueue,
+      ComputePartitionScheduler<I, V, E> partitionScheduler,
       ImmutableClassesGiraphConfiguration<I, V, E> configuration,
       CentralizedServiceWorker<I, V, E> serviceWorker) {
     this.context = context;
     this.configuration = configuration;
-    this.partitionIdQueue = partitionIdQueue;
+    this.partitionScheduler = partitionScheduler;
     this.messageStore = messageStore;
     this.serviceWorker = serviceWorker;
     this.graphState = graphState;
+    // Vertices with out-of-core messages have to be visited in order
+    activeVertexIteration =
+        GiraphConstants.ACTIVE_VERTEX_ITERATION.get(configuration) &&
+        !GiraphConstants.USE_OUT_OF_CORE_MESSAGES.get(configuration);
+    maxActiveVertexRatio =
+        GiraphConstants.ACTIVE_VERTEX_ITERATION_MAX_RATIO.get(configuration);
+    prefetchDepth = GiraphConstants.PARTITION_PREFETCH_DEPTH.get(configuration);
 
     SuperstepMetricsRegistry metrics = GiraphMetrics.get().perSuperstep();
     // Normally we would use ResetSuperstepMetricsObserver but this class is
     // not long-lived, so just instantiating in the constructor is good enough.
     computeOneTimer = metrics.getTimer(TimerDesc.COMPUTE_ONE);
+    computeFlushTimer = metrics.getTimer(TimerDesc.COMPUTE_FLUSH);
     messagesSentCounter = metrics.getCounter(MetricNames.MESSAGES_SENT);
     messageBytesSentCounter =
       metrics.getCounter(MetricNames.MESSAGE_BYTES_SENT);
@@ -146,25 +163,42 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
     vertexWriter = serviceWorker.getSuperstepOutput().getVertexWriter();
 
     List<PartitionStats> partitionStatsList = Lists.newArrayList();
-    while (!partitionIdQueue.isEmpty()) {
-      Integer partitionId = partitionIdQueue.poll();
-      if (partitionId == null) {
-        break;
+    ComputePartitionScheduler.Task<I, V, E> task;
+    while ((task = partitionScheduler.nextTask()) != null) {
+      ComputePartitionScheduler.SharedPartition<I, V, E> sharedPartition =
+          task.getSharedPartition();
+      Partition<I, V, E> partition;
+      Iterator<Vertex<I, V, E>> vertexIterator = null;
+      if (sharedPartition == null) {
+        partition = serviceWorker.getPartitionStore().getPartition(
+            task.getPartitionId());
+        // Let an out-of-core store load the next partitions meanwhile
+        if (prefetchDepth > 0) {
+          serviceWorker.getPartitionStore().prefetchPartitions(
+              partitionScheduler.getNextPartitionIds(prefetchDepth));
+        }
+        vertexIterator = getVertexIterator(partition);
+        sharedPartition =
+            partitionScheduler.trySharePartition(partition, vertexIterator);
+      } else {
+        partition = sharedPartition.getPartition();
       }
 
-      Partition<I, V, E> partition =
-          serviceWorker.getPartitionStore().getPartition(partitionId);
-
       Computation<I, V, E, M1, M2> computation =
           (Computation<I, V, E, M1, M2>) configuration.createComputation();
       computation.initialize(graphState, workerClientRequestProcessor,
           serviceWorker.getGraphTaskManager(), aggregatorUsage, workerContext);
       computation.preSuperstep();
 
+      // Only the last thread computing a shared partition returns it
+      boolean putPartition = true;
       try {
-        PartitionStats partitionStats =
-            computePartition(computation, partition);
-        partitionStatsList.add(partitionStats);
+        long computeStartMillis = TIME.getMilliseconds();
+        PartitionStats partitionStats = (sharedPartition == null) ?
+            computePartition(computation, partition, vertexIterator) :
+            computeSharedPartition(computation, sharedPartition);
+        partitionStats.addComputeMs(
+            TIME.getMilliseconds() - computeStartMillis);
         long partitionMsgs = workerClientRequestProcessor.resetMessageCount();
         partitionStats.addMessagesSentCount(partitionMsgs);
         messagesSentCounter.inc(partitionMsgs);
@@ -172,9 +206,24 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
           workerClientRequestProcessor.resetMessageBytesCount();
         partitionStats.addMessageBytesSentCount(partitionMsgBytes);
         messageBytesSentCounter.inc(partitionMsgBytes);
+        if (sharedPartition != null) {
+          partitionStats = sharedPartition.finish(partitionStats);
+          if (partitionStats == null) {
+            putPartition = false;
+          } else {
+            messageStore.clearPartition(partition.getId());
+          }
+        }
+        if (partitionStats != null) {
+          if (activeVertexIteration) {
+            partitionStats = partition.getActiveVertexTracker().
+                finishSuperstep(partitionStats);
+          }
+          partitionStatsList.add(partitionStats);
+        }
         timedLogger.info("call: Completed " +
             partitionStatsList.size() + " partitions, " +
-            partitionIdQueue.size() + " remaining " +
+            partitionScheduler.getNumPendingPartitions() + " remaining " +
             MemoryUtils.getRuntimeMemoryStats());
       } catch (IOException e) {
         throw new IllegalStateException("call: Caught unexpected IOException," +
@@ -183,7 +232,9 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
         throw new IllegalStateException("call: Caught unexpected " +
             "InterruptedException, failing.", e);
       } finally {
-        serviceWorker.getPartitionStore().putPartition(partition);
+        if (putPartition) {
+          serviceWorker.getPartitionStore().putPartition(partition);
+        }
       }
 
       computation.postSuperstep();
@@ -200,7 +251,9 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
           graphState.getSuperstep() + ".  Flushing started");
     }
     try {
+      TimerContext computeFlushTimerContext = computeFlushTimer.time();
       workerClientRequestProcessor.flush();
+      computeFlushTimerContext.stop();
       // The messages flushed out from the cache is
       // from the last partition processed
       if (partitionStatsList.size() > 0) {
@@ -217,54 +270,119 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
     return partitionStatsList;
   }
 
+  /**
+   * Get the vertices of a partition to visit in this superstep: either all
+   * of them, or only the active ones and the ones which received messages
+   * if the partition keeps track of its active vertices.
+   *
+   * @param partition Partition to compute
+   * @return Iterator over the vertices to visit
+   */
+  private Iterator<Vertex<I, V, E>> getVertexIterator(
+      Partition<I, V, E> partition) {
+    if (activeVertexIteration && partition.getActiveVertexTracker().
+        startSuperstep(maxActiveVertexRatio)) {
+      return partition.getActiveVertexTracker().activeVertexIterator(
+          messageStore.getPartitionDestinationVertices(partition.getId()));
+    }
+    return partition.iterator();
+  }
+
   /**
    * Compute a single partition
    *
    * @param computation Computation to use
    * @param partition Partition to compute
+   * @param vertexIterator Iterator over the vertices to visit
    * @return Partition stats for this computed partition
    */
   private PartitionStats computePartition(
       Computation<I, V, E, M1, M2> computation,
-      Partition<I, V, E> partition) throws IOException, InterruptedException {
+      Partition<I, V, E> partition,
+      Iterator<Vertex<I, V, E>> vertexIterator)
+    throws IOException, InterruptedException {
     PartitionStats partitionStats =
         new PartitionStats(partition.getId(), 0, 0, 0, 0, 0);
     // Make sure this is thread-safe across runs
     synchronized (partition) {
-      for (Vertex<I, V, E> vertex : partition) {
-        Iterable<M1> messages = messageStore.getVertexMessages(vertex.getId());
-        if (vertex.isHalted() && !Iterables.isEmpty(messages)) {
-          vertex.wakeUp();
-        }
-        if (!vertex.isHalted()) {
-          context.progress();
-          TimerContext computeOneTimerContext = computeOneTimer.time();
-          try {
-            computation.compute(vertex, messages);
-          } finally {
-            computeOneTimerContext.stop();
-          }
-          // Need to unwrap the mutated edges (possibly)
-          vertex.unwrapMutableEdges();
-          // Write vertex to superstep output (no-op if it is not used)
-          vertexWriter.writeVertex(vertex);
-          // Need to save the vertex changes (possibly)
-          partition.saveVertex(vertex);
-        }
-        if (vertex.isHalted()) {
-          partitionStats.incrFinishedVertexCount();
-        }
+      while (vertexIterator.hasNext()) {
+        Vertex<I, V, E> vertex = vertexIterator.next();
+        computeVertex(computation, partition, vertex, partitionStats);
         // Remove the messages now that the vertex has finished computation
         messageStore.clearVertexMessages(vertex.getId());
-
-        // Add statistics for this vertex
-        partitionStats.incrVertexCount();
-        partitionStats.addEdgeCount(vertex.getNumEdges());
       }
 
       messageStore.clearPartition(partition.getId());
     }
     return partitionStats;
   }
-}
 
+  /**
+   * Compute chunks of vertices of a partition which other threads may be
+   * computing as well.  Messages are not cleared per vertex, since the
+   * message store of the partition is read concurrently; the last thread
+   * to finish clears the whole partition.
+   *
+   * @param computation Computation to use
+   * @param sharedPartition Partition to take vertices from
+   * @return Partition stats for the vertices computed by this thread
+   */
+  private PartitionStats computeSharedPartition(
+      Computation<I, V, E, M1, M2> computation,
+      ComputePartitionScheduler.SharedPartition<I, V, E> sharedPartition)
+    throws IOException, InterruptedException {
+    Partition<I, V, E> partition = sharedPartition.getPartition();
+    PartitionStats partitionStats =
+        new PartitionStats(partition.getId(), 0, 0, 0, 0, 0);
+    List<Vertex<I, V, E>> chunk = Lists.newArrayList();
+    while (sharedPartition.nextChunk(chunk)) {
+      for (Vertex<I, V, E> vertex : chunk) {
+        computeVertex(computation, partition, vertex, partitionStats);
+      }
+    }
+    return partitionStats;
+  }
+
+  /**
+   * Compute a single vertex, if it is active or has messages
+   *
+   * @param computation Computation to use
+   * @param partition Partition the vertex belongs to
+   * @param vertex Vertex to compute
+   * @param partitionStats Partition stats to update
+   */
+  private void computeVertex(Computation<I, V, E, M1, M2> computation,
+      Partition<I, V, E> partition, Vertex<I, V, E> vertex,
+      PartitionStats partitionStats) throws IOException, InterruptedException {
+    int edgesBefore = vertex.getNumEdges();
+    Iterable<M1> messages = messageStore.getVertexMessages(vertex.getId());
+    if (vertex.isHalted() && !Iterables.isEmpty(messages)) {
+      vertex.wakeUp();
+    }
+    if (!vertex.isHalted()) {
+      context.progress();
+      TimerContext computeOneTimerContext = computeOneTimer.time();
+      try {
+        computation.compute(vertex, messages);
+      } finally {
+        computeOneTimerContext.stop();
+      }
+      // Need to unwrap the mutated edges (possibly)
+      vertex.unwrapMutableEdges();
+      // Write vertex to superstep output (no-op if it is not used)
+      vertexWriter.writeVertex(vertex);
+      // Need to save the vertex changes (possibly)
+      partition.saveVertex(vertex);
+    }
+    if (vertex.isHalted()) {
+      partitionStats.incrFinishedVertexCount();
+    }
+    if (activeVertexIteration) {
+      partition.getActiveVertexTracker().vertexComputed(vertex, edgesBefore);
+    }
+
+    // Add statistics for this vertex
+    partitionStats.incrVertexCount();
+    partitionStats.addEdgeCount(vertex.getNumEdges());
+  }
+}
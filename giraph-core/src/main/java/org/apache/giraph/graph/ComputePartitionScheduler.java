@@ -0,0 +1,350 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.graph;
+
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.partition.Partition;
+import org.apache.giraph.partition.PartitionStats;
+import org.apache.giraph.partition.SimplePartition;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Decides in which order the compute threads of a worker process the
+ * partitions of a superstep.  Partitions are ordered by their cost in the
+ * previous superstep (compute time if it was measured, vertex and edge
+ * counts otherwise) and handed out most expensive first.
+ *
+ * When stealing is enabled, the vertices of a partition can be computed by
+ * several threads: a thread that has no partition left to start joins a
+ * partition another thread is still computing, and both take chunks of its
+ * vertices until none are left.
+ *
+ * @param <I> Vertex id
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ */
+@SuppressWarnings("rawtypes")
+public class ComputePartitionScheduler<I extends WritableComparable,
+    V extends Writable, E extends Writable> {
+  /** Class logger */
+  private static final Logger LOG =
+      Logger.getLogger(ComputePartitionScheduler.class);
+  /** Partitions which no thread started computing yet */
+  private final BlockingQueue<Integer> partitionIdQueue;
+  /** Whether idle threads can steal vertices from shared partitions */
+  private final boolean stealingEnabled;
+  /** Number of vertices a thread takes at a time from a shared partition */
+  private final int chunkSize;
+  /** Partitions which can still be joined by idle threads */
+  private final List<SharedPartition<I, V, E>> sharedPartitions =
+      Lists.newArrayList();
+
+  /**
+   * Constructor
+   *
+   * @param conf Configuration
+   * @param partitionIds Ids of the partitions to compute
+   * @param previousStats Partition stats of the previous superstep (can be
+   *                      empty)
+   */
+  public ComputePartitionScheduler(
+      ImmutableClassesGiraphConfiguration<I, V, E> conf,
+      Iterable<Integer> partitionIds,
+      Iterable<PartitionStats> previousStats) {
+    List<Integer> orderedIds = Lists.newArrayList(partitionIds);
+    if (GiraphConstants.COMPUTE_LARGEST_PARTITIONS_FIRST.get(conf)) {
+      final Map<Integer, Long> costs = estimateCosts(orderedIds,
+          previousStats);
+      Collections.sort(orderedIds, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer id1, Integer id2) {
+          return costs.get(id2).compareTo(costs.get(id1));
+        }
+      });
+    }
+    partitionIdQueue = new LinkedBlockingQueue<Integer>(orderedIds);
+    // Reading messages of one partition from several threads is only safe
+    // when the messages are kept in memory
+    stealingEnabled = GiraphConstants.COMPUTE_PARTITION_STEALING.get(conf) &&
+        !GiraphConstants.USE_OUT_OF_CORE_MESSAGES.get(conf);
+    chunkSize = GiraphConstants.COMPUTE_STEALING_CHUNK_SIZE.get(conf);
+  }
+
+  /**
+   * Estimate the cost of computing each partition from the stats of the
+   * previous superstep.  If compute time was measured it is used, otherwise
+   * the number of vertices and edges is.  Partitions that have no stats
+   * (i.e. first superstep or newly received) get the average cost.
+   *
+   * @param partitionIds Ids of the partitions to compute
+   * @param previousStats Partition stats of the previous superstep
+   * @return Map from partition id to estimated cost
+   */
+  private static Map<Integer, Long> estimateCosts(List<Integer> partitionIds,
+      Iterable<PartitionStats> previousStats) {
+    boolean useComputeTime = false;
+    Map<Integer, PartitionStats> statsMap = Maps.newHashMap();
+    for (PartitionStats stats : previousStats) {
+      statsMap.put(stats.getPartitionId(), stats);
+      useComputeTime |= stats.getComputeMs() > 0;
+    }
+    Map<Integer, Long> costs = Maps.newHashMapWithExpectedSize(
+        partitionIds.size());
+    long totalCost = 0;
+    for (Integer partitionId : partitionIds) {
+      PartitionStats stats = statsMap.get(partitionId);
+      if (stats != null) {
+        long cost = useComputeTime ? stats.getComputeMs() :
+            stats.getVertexCount() + stats.getEdgeCount();
+        costs.put(partitionId, cost);
+        totalCost += cost;
+      }
+    }
+    long averageCost = costs.isEmpty() ? 0 : totalCost / costs.size();
+    for (Integer partitionId : partitionIds) {
+      if (!costs.containsKey(partitionId)) {
+        costs.put(partitionId, averageCost);
+      }
+    }
+    return costs;
+  }
+
+  /**
+   * Get the next piece of work for a compute thread.  Partitions that
+   * haven't been started are handed out first, then (if stealing is
+   * enabled) shared partitions which still have vertices left.
+   *
+   * @return Next task, or null if there is nothing left to compute
+   */
+  public Task<I, V, E> nextTask() {
+    Integer partitionId = partitionIdQueue.poll();
+    if (partitionId != null) {
+      return new Task<I, V, E>(partitionId, null);
+    }
+    if (!stealingEnabled) {
+      return null;
+    }
+    synchronized (sharedPartitions) {
+      Iterator<SharedPartition<I, V, E>> iterator =
+          sharedPartitions.iterator();
+      while (iterator.hasNext()) {
+        SharedPartition<I, V, E> sharedPartition = iterator.next();
+        if (sharedPartition.join()) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("nextTask: Joining partition " +
+                sharedPartition.getPartition().getId());
+          }
+          return new Task<I, V, E>(sharedPartition.getPartition().getId(),
+              sharedPartition);
+        }
+        iterator.remove();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Make a partition which was just started available to idle threads, if
+   * it can be computed by several threads at once.  Only
+   * {@link SimplePartition}s can be shared, since other implementations may
+   * reuse vertex objects during iteration.
+   *
+   * @param partition Partition which the current thread starts computing
+   * @param vertexIterator Iterator over the vertices to compute
+   * @return Shared partition, or null if the partition can't be shared
+   */
+  public SharedPartition<I, V, E> trySharePartition(
+      Partition<I, V, E> partition, Iterator<Vertex<I, V, E>> vertexIterator) {
+    if (!stealingEnabled || !(partition instanceof SimplePartition)) {
+      return null;
+    }
+    SharedPartition<I, V, E> sharedPartition =
+        new SharedPartition<I, V, E>(partition, vertexIterator, chunkSize);
+    synchronized (sharedPartitions) {
+      sharedPartitions.add(sharedPartition);
+    }
+    return sharedPartition;
+  }
+
+  /**
+   * Get the number of partitions which no thread started computing yet.
+   *
+   * @return Number of pending partitions
+   */
+  public int getNumPendingPartitions() {
+    return partitionIdQueue.size();
+  }
+
+  /**
+   * Get the ids of the partitions which will be handed out next.
+   *
+   * @param maxPartitions Maximum number of ids to return
+   * @return Ids of the next pending partitions, in order
+   */
+  public List<Integer> getNextPartitionIds(int maxPartitions) {
+    List<Integer> nextIds = Lists.newArrayListWithCapacity(maxPartitions);
+    Iterator<Integer> iterator = partitionIdQueue.iterator();
+    while (nextIds.size() < maxPartitions && iterator.hasNext()) {
+      nextIds.add(iterator.next());
+    }
+    return nextIds;
+  }
+
+  /**
+   * A piece of work for a compute thread: either a whole partition or a
+   * share of a partition which is already being computed.
+   *
+   * @param <I> Vertex id
+   * @param <V> Vertex value
+   * @param <E> Edge value
+   */
+  public static class Task<I extends WritableComparable,
+      V extends Writable, E extends Writable> {
+    /** Partition id */
+    private final int partitionId;
+    /** Shared partition to join (null if the partition is not started) */
+    private final SharedPartition<I, V, E> sharedPartition;
+
+    /**
+     * Constructor
+     *
+     * @param partitionId Partition id
+     * @param sharedPartition Shared partition to join, or null
+     */
+    Task(int partitionId, SharedPartition<I, V, E> sharedPartition) {
+      this.partitionId = partitionId;
+      this.sharedPartition = sharedPartition;
+    }
+
+    public int getPartitionId() {
+      return partitionId;
+    }
+
+    /**
+     * Get the shared partition this task joins.
+     *
+     * @return Shared partition, or null if the task starts a partition
+     */
+    public SharedPartition<I, V, E> getSharedPartition() {
+      return sharedPartition;
+    }
+  }
+
+  /**
+   * Partition whose vertices are computed by one or more threads.  Threads
+   * take chunks of vertices from a single iterator.  The thread which
+   * finishes last gets the combined stats and is responsible for returning
+   * the partition to the store.
+   *
+   * @param <I> Vertex id
+   * @param <V> Vertex value
+   * @param <E> Edge value
+   */
+  public static class SharedPartition<I extends WritableComparable,
+      V extends Writable, E extends Writable> {
+    /** Partition being computed */
+    private final Partition<I, V, E> partition;
+    /** Iterator over the vertices of the partition */
+    private final Iterator<Vertex<I, V, E>> vertexIterator;
+    /** Number of vertices handed out at a time */
+    private final int chunkSize;
+    /** Stats combined from all finished threads */
+    private final PartitionStats partitionStats;
+    /** Number of threads working on this partition */
+    private int participants = 1;
+    /** Whether all vertices were handed out */
+    private boolean exhausted = false;
+
+    /**
+     * Constructor, the calling thread is the first participant.
+     *
+     * @param partition Partition to share
+     * @param vertexIterator Iterator over the vertices to compute
+     * @param chunkSize Number of vertices handed out at a time
+     */
+    SharedPartition(Partition<I, V, E> partition,
+        Iterator<Vertex<I, V, E>> vertexIterator, int chunkSize) {
+      this.partition = partition;
+      this.vertexIterator = vertexIterator;
+      this.chunkSize = chunkSize;
+      partitionStats = new PartitionStats(partition.getId(), 0, 0, 0, 0, 0);
+    }
+
+    public Partition<I, V, E> getPartition() {
+      return partition;
+    }
+
+    /**
+     * Add a participant, unless all vertices were already handed out.
+     *
+     * @return True iff the calling thread joined the partition
+     */
+    synchronized boolean join() {
+      if (exhausted) {
+        return false;
+      }
+      ++participants;
+      return true;
+    }
+
+    /**
+     * Fill a list with the next chunk of vertices to compute.
+     *
+     * @param chunk List to fill (cleared first)
+     * @return True iff any vertices were added
+     */
+    public synchronized boolean nextChunk(List<Vertex<I, V, E>> chunk) {
+      chunk.clear();
+      while (chunk.size() < chunkSize && vertexIterator.hasNext()) {
+        chunk.add(vertexIterator.next());
+      }
+      if (!vertexIterator.hasNext()) {
+        exhausted = true;
+      }
+      return !chunk.isEmpty();
+    }
+
+    /**
+     * Called by a participant when it has no more vertices to compute.
+     *
+     * @param threadStats Stats of the vertices computed by the thread
+     * @return Combined stats if the calling thread was the last
+     *         participant, null otherwise
+     */
+    public synchronized PartitionStats finish(PartitionStats threadStats) {
+      partitionStats.addPartitionStats(threadStats);
+      --participants;
+      return (participants == 0) ? partitionStats : null;
+    }
+  }
+}
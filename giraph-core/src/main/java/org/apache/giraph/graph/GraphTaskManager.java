@@ -64,8 +64,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
@@ -280,11 +278,16 @@ public class GraphTaskManager<I extends WritableComparable, V extends Writable,
           numThreads + " compute thread(s), originally " +
           numComputeThreads + " thread(s) on superstep " + superstep);
       }
+      // order this superstep's partitions by the previous superstep's stats
+      ComputePartitionScheduler<I, V, E> partitionScheduler =
+          new ComputePartitionScheduler<I, V, E>(conf,
+              serviceWorker.getPartitionStore().getPartitionIds(),
+              partitionStatsList);
       partitionStatsList.clear();
       // execute the current superstep
       if (numPartitions > 0) {
         processGraphPartitions(context, partitionStatsList, graphState,
-          messageStore, numPartitions, numThreads);
+          messageStore, partitionScheduler, numThreads);
       }
       finishedSuperstepStats = completeSuperstepAndCollectStats(
         partitionStatsList, superstepTimerContext);
@@ -703,21 +706,15 @@ public class GraphTaskManager<I extends WritableComparable, V extends Writable,
    * @param partitionStatsList to pick up this superstep's processing stats
    * @param graphState the BSP graph state
    * @param messageStore the messages to be processed in this superstep
-   * @param numPartitions the number of data partitions (vertices) to process
+   * @param partitionScheduler hands out the data partitions to process
    * @param numThreads number of concurrent threads to do processing
    */
   private void processGraphPartitions(final Mapper<?, ?, ?, ?>.Context context,
       List<PartitionStats> partitionStatsList,
       final GraphState graphState,
       final MessageStore<I, Writable> messageStore,
-      int numPartitions,
+      final ComputePartitionScheduler<I, V, E> partitionScheduler,
       int numThreads) {
-    final BlockingQueue<Integer> computePartitionIdQueue =
-      new ArrayBlockingQueue<Integer>(numPartitions);
-    for (Integer partitionId :
-      serviceWorker.getPartitionStore().getPartitionIds()) {
-      computePartitionIdQueue.add(partitionId);
-    }
 
     GiraphTimerContext computeAllTimerContext = computeAll.time();
     timeToFirstMessageTimerContext = timeToFirstMessage.time();
@@ -731,7 +728,7 @@ public class GraphTaskManager<I extends WritableComparable, V extends Writable,
                 context,
                 graphState,
                 messageStore,
-                computePartitionIdQueue,
+                partitionScheduler,
                 conf,
                 serviceWorker);
           }
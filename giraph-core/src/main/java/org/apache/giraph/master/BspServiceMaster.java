@@ -160,6 +160,8 @@ public class BspServiceMaster<I extends WritableComparable,
   private final BspEvent superstepStateChanged;
   /** Master graph partitioner */
   private final MasterGraphPartitioner<I, V, E> masterGraphPartitioner;
+  /** Whether workers report finished supersteps over netty */
+  private final boolean nettySuperstepBarrier;
   /** All the partition stats from the last superstep */
   private final List<PartitionStats> allPartitionStatsList =
       new ArrayList<PartitionStats>();
@@ -213,6 +215,7 @@ public class BspServiceMaster<I extends WritableComparable,
     eventWaitMsecs = conf.getEventWaitMsecs();
     maxSuperstepWaitMsecs = conf.getMaxMasterSuperstepWaitMsecs();
     partitionLongTailMinPrint = PARTITION_LONG_TAIL_MIN_PRINT.get(conf);
+    nettySuperstepBarrier = GiraphConstants.NETTY_SUPERSTEP_BARRIER.get(conf);
     masterGraphPartitioner =
         getGraphPartitionerFactory().createMasterGraphPartitioner();
     if (conf.isJMapHistogramDumpEnabled()) {
@@ -787,12 +790,14 @@ public class BspServiceMaster<I extends WritableComparable,
       DataInputStream metadataStream = fs.open(metadataPath);
       long partitions = metadataStream.readInt();
       for (long i = 0; i < partitions; ++i) {
-        long dataPos = metadataStream.readLong();
         int partitionId = metadataStream.readInt();
+        // Skip the edges file of incremental checkpoints
+        if (metadataStream.readBoolean()) {
+          metadataStream.readUTF();
+        }
         PartitionOwner partitionOwner = idOwnerMap.get(partitionId);
         if (LOG.isInfoEnabled()) {
           LOG.info("prepareSuperstepRestart: File " + metadataPath +
-              " with position " + dataPos +
               ", partition id = " + partitionId +
               " assigned to " + partitionOwner);
         }
@@ -874,8 +879,8 @@ public class BspServiceMaster<I extends WritableComparable,
           masterCompute.setMasterAggregatorUsage(aggregatorHandler);
 
           masterInfo = new MasterInfo();
-          masterServer =
-              new NettyMasterServer(getConfiguration(), this, getContext());
+          masterServer = new NettyMasterServer(getConfiguration(), this,
+              superstepStateChanged, getContext());
           masterInfo.setInetSocketAddress(masterServer.getMyAddress());
           masterInfo.setTaskId(getTaskPartition());
           masterClient =
@@ -909,9 +914,11 @@ public class BspServiceMaster<I extends WritableComparable,
    * Collect and aggregate the worker statistics for a particular superstep.
    *
    * @param superstep Superstep to aggregate on
+   * @param workerInfoList Workers which computed the superstep
    * @return Global statistics aggregated on all worker statistics
    */
-  private GlobalStats aggregateWorkerStats(long superstep) {
+  private GlobalStats aggregateWorkerStats(long superstep,
+      List<WorkerInfo> workerInfoList) {
     ImmutableClassesGiraphConfiguration conf = getConfiguration();
 
     Class<? extends PartitionStats> partitionStatsClass =
@@ -920,29 +927,17 @@ public class BspServiceMaster<I extends WritableComparable,
     // Get the stats from the all the worker selected nodes
     String workerFinishedPath =
         getWorkerFinishedPath(getApplicationAttempt(), superstep);
-    List<String> workerFinishedPathList = null;
-    try {
-      workerFinishedPathList =
-          getZkExt().getChildrenExt(
-              workerFinishedPath, false, false, true);
-    } catch (KeeperException e) {
-      throw new IllegalStateException(
-          "aggregateWorkerStats: KeeperException", e);
-    } catch (InterruptedException e) {
-      throw new IllegalStateException(
-          "aggregateWorkerStats: InterruptedException", e);
-    }
+    Map<String, byte[]> workerFinishedInfoMap =
+        getWorkerFinishedInfo(workerFinishedPath, workerInfoList);
 
     AggregatedMetrics aggregatedMetrics = new AggregatedMetrics();
 
     allPartitionStatsList.clear();
-    for (String finishedPath : workerFinishedPathList) {
-      String hostnamePartitionId = FilenameUtils.getName(finishedPath);
+    for (Map.Entry<String, byte[]> entry : workerFinishedInfoMap.entrySet()) {
+      String hostnamePartitionId = entry.getKey();
       JSONObject workerFinishedInfoObj = null;
       try {
-        byte [] zkData =
-            getZkExt().getData(finishedPath, false, null);
-        workerFinishedInfoObj = new JSONObject(new String(zkData,
+        workerFinishedInfoObj = new JSONObject(new String(entry.getValue(),
             Charset.defaultCharset()));
         List<PartitionStats> statsList =
             WritableUtils.readListFieldsFromByteArray(
@@ -973,12 +968,6 @@ public class BspServiceMaster<I extends WritableComparable,
       } catch (JSONException e) {
         throw new IllegalStateException(
             "aggregateWorkerStats: JSONException", e);
-      } catch (KeeperException e) {
-        throw new IllegalStateException(
-            "aggregateWorkerStats: KeeperException", e);
-      } catch (InterruptedException e) {
-        throw new IllegalStateException(
-            "aggregateWorkerStats: InterruptedException", e);
       } catch (IOException e) {
         throw new IllegalStateException(
             "aggregateWorkerStats: IOException", e);
@@ -993,6 +982,10 @@ public class BspServiceMaster<I extends WritableComparable,
       }
     }
 
+    if (nettySuperstepBarrier) {
+      masterServer.getServerData().removeFinishedWorkers(workerFinishedPath);
+    }
+
     if (LOG.isInfoEnabled()) {
       LOG.info("aggregateWorkerStats: Aggregation found " + globalStats +
           " on superstep = " + getSuperstep());
@@ -1000,6 +993,44 @@ public class BspServiceMaster<I extends WritableComparable,
     return globalStats;
   }
 
+  /**
+   * Get the info which workers wrote when they finished a superstep, either
+   * from their znodes or from the requests they sent to the master server.
+   *
+   * @param workerFinishedPath Path of the finished workers of the superstep
+   * @param workerInfoList Workers which computed the superstep
+   * @return Map from hostname and id of the worker to its info
+   */
+  private Map<String, byte[]> getWorkerFinishedInfo(String workerFinishedPath,
+      List<WorkerInfo> workerInfoList) {
+    Map<String, byte[]> workerFinishedInfoMap = new HashMap<String, byte[]>();
+    if (nettySuperstepBarrier) {
+      Map<Integer, byte[]> finishedWorkers =
+          masterServer.getServerData().getFinishedWorkers(workerFinishedPath);
+      for (WorkerInfo workerInfo : workerInfoList) {
+        byte[] finishedInfo = finishedWorkers.get(workerInfo.getTaskId());
+        if (finishedInfo != null) {
+          workerFinishedInfoMap.put(workerInfo.getHostnameId(), finishedInfo);
+        }
+      }
+      return workerFinishedInfoMap;
+    }
+    try {
+      for (String finishedPath : getZkExt().getChildrenExt(
+          workerFinishedPath, false, false, true)) {
+        workerFinishedInfoMap.put(FilenameUtils.getName(finishedPath),
+            getZkExt().getData(finishedPath, false, null));
+      }
+    } catch (KeeperException e) {
+      throw new IllegalStateException(
+          "getWorkerFinishedInfo: KeeperException", e);
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(
+          "getWorkerFinishedInfo: InterruptedException", e);
+    }
+    return workerFinishedInfoMap;
+  }
+
   /**
    * Write superstep metrics to own file in HDFS
    * @param superstep the current superstep
@@ -1242,6 +1273,8 @@ public class BspServiceMaster<I extends WritableComparable,
       throw new RuntimeException(
           "restartFromCheckpoint: KeeperException", e);
     }
+    // Reports of the failed attempt will never be collected
+    masterServer.getServerData().clearFinishedWorkers();
     setApplicationAttempt(getApplicationAttempt() + 1);
     setCachedSuperstep(checkpoint);
     setRestartedSuperstep(checkpoint);
@@ -1299,26 +1332,31 @@ public class BspServiceMaster<I extends WritableComparable,
    *        hostname and id
    * @param workerInfoList List of the workers to wait for
    * @param event Event to wait on for a chance to be done.
+   * @param reportedOverNetty Whether the workers report to the master
+   *        server instead of creating znodes under the path
    * @return True if barrier was successful, false if there was a worker
    *         failure
    */
   private boolean barrierOnWorkerList(String finishedWorkerPath,
       List<WorkerInfo> workerInfoList,
-      BspEvent event) {
-    try {
-      getZkExt().createOnceExt(finishedWorkerPath,
-          null,
-          Ids.OPEN_ACL_UNSAFE,
-          CreateMode.PERSISTENT,
-          true);
-    } catch (KeeperException e) {
-      throw new IllegalStateException(
-          "barrierOnWorkerList: KeeperException - Couldn't create " +
-              finishedWorkerPath, e);
-    } catch (InterruptedException e) {
-      throw new IllegalStateException(
-          "barrierOnWorkerList: InterruptedException - Couldn't create " +
-              finishedWorkerPath, e);
+      BspEvent event,
+      boolean reportedOverNetty) {
+    if (!reportedOverNetty) {
+      try {
+        getZkExt().createOnceExt(finishedWorkerPath,
+            null,
+            Ids.OPEN_ACL_UNSAFE,
+            CreateMode.PERSISTENT,
+            true);
+      } catch (KeeperException e) {
+        throw new IllegalStateException(
+            "barrierOnWorkerList: KeeperException - Couldn't create " +
+                finishedWorkerPath, e);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(
+            "barrierOnWorkerList: InterruptedException - Couldn't create " +
+                finishedWorkerPath, e);
+      }
     }
     List<String> hostnameIdList =
         new ArrayList<String>(workerInfoList.size());
@@ -1333,20 +1371,25 @@ public class BspServiceMaster<I extends WritableComparable,
     final int taskTimeoutMsec = getContext().getConfiguration().getInt(
         "mapred.task.timeout", defaultTaskTimeoutMsec);
     while (true) {
-      try {
-        finishedHostnameIdList =
-            getZkExt().getChildrenExt(finishedWorkerPath,
-                true,
-                false,
-                false);
-      } catch (KeeperException e) {
-        throw new IllegalStateException(
-            "barrierOnWorkerList: KeeperException - Couldn't get " +
-                "children of " + finishedWorkerPath, e);
-      } catch (InterruptedException e) {
-        throw new IllegalStateException(
-            "barrierOnWorkerList: IllegalException - Couldn't get " +
-                "children of " + finishedWorkerPath, e);
+      if (reportedOverNetty) {
+        finishedHostnameIdList = new ArrayList<String>(getWorkerFinishedInfo(
+            finishedWorkerPath, workerInfoList).keySet());
+      } else {
+        try {
+          finishedHostnameIdList =
+              getZkExt().getChildrenExt(finishedWorkerPath,
+                  true,
+                  false,
+                  false);
+        } catch (KeeperException e) {
+          throw new IllegalStateException(
+              "barrierOnWorkerList: KeeperException - Couldn't get " +
+                  "children of " + finishedWorkerPath, e);
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(
+              "barrierOnWorkerList: IllegalException - Couldn't get " +
+                  "children of " + finishedWorkerPath, e);
+        }
       }
       if (LOG.isDebugEnabled()) {
         LOG.debug("barrierOnWorkerList: Got finished worker list = " +
@@ -1456,7 +1499,7 @@ public class BspServiceMaster<I extends WritableComparable,
     String logPrefix = "coordinate" + inputSplitsType + "InputSplits";
     if (!barrierOnWorkerList(inputSplitPaths.getDonePath(),
         chosenWorkerInfoList,
-        inputSplitEvents.getDoneStateChanged())) {
+        inputSplitEvents.getDoneStateChanged(), false)) {
       throw new IllegalStateException(logPrefix + ": Worker failed during " +
           "input split (currently not supported)");
     }
@@ -1585,7 +1628,7 @@ public class BspServiceMaster<I extends WritableComparable,
       // first wait for all the workers to write their checkpoint data
       if (!barrierOnWorkerList(workerWroteCheckpointPath,
           chosenWorkerInfoList,
-          getWorkerWroteCheckpointEvent())) {
+          getWorkerWroteCheckpointEvent(), false)) {
         return SuperstepState.WORKER_FAILURE;
       }
       try {
@@ -1615,7 +1658,11 @@ public class BspServiceMaster<I extends WritableComparable,
         getWorkerFinishedPath(getApplicationAttempt(), getSuperstep());
     if (!barrierOnWorkerList(finishedWorkerPath,
         chosenWorkerInfoList,
-        getSuperstepStateChangedEvent())) {
+        getSuperstepStateChangedEvent(), nettySuperstepBarrier)) {
+      if (nettySuperstepBarrier) {
+        masterServer.getServerData().removeFinishedWorkers(
+            finishedWorkerPath);
+      }
       return SuperstepState.WORKER_FAILURE;
     }
 
@@ -1628,7 +1675,8 @@ public class BspServiceMaster<I extends WritableComparable,
 
     // If the master is halted or all the vertices voted to halt and there
     // are no more messages in the system, stop the computation
-    GlobalStats globalStats = aggregateWorkerStats(getSuperstep());
+    GlobalStats globalStats =
+        aggregateWorkerStats(getSuperstep(), chosenWorkerInfoList);
     if (masterCompute.isHalted() ||
         (globalStats.getFinishedVertexCount() ==
         globalStats.getVertexCount() &&
@@ -25,8 +25,12 @@ import org.apache.giraph.comm.aggregators.AggregatorUtils;
 import org.apache.giraph.aggregators.Aggregator;
 import org.apache.giraph.aggregators.AggregatorWrapper;
 import org.apache.giraph.aggregators.AggregatorWriter;
+import org.apache.giraph.aggregators.DeltaAggregatorValue;
+import org.apache.giraph.aggregators.DeltaWritable;
 import org.apache.giraph.bsp.BspService;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.utils.MasterLoggingAggregator;
+import org.apache.giraph.utils.WritableUtils;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.util.Progressable;
 import org.apache.log4j.Logger;
@@ -60,6 +64,13 @@ public class MasterAggregatorHandler implements MasterAggregatorUsage,
   private final Progressable progressable;
   /** Giraph configuration */
   private final ImmutableClassesGiraphConfiguration<?, ?, ?> conf;
+  /** Whether values are sent as the difference to the last sent ones */
+  private final boolean deltaEncoding;
+  /**
+   * Copies of the values sent to workers in the previous superstep, which
+   * delta encoded values are written against
+   */
+  private final Map<String, Writable> lastSentValues = Maps.newHashMap();
 
   /**
    * Constructor
@@ -73,6 +84,7 @@ public class MasterAggregatorHandler implements MasterAggregatorUsage,
     this.conf = conf;
     this.progressable = progressable;
     aggregatorWriter = conf.createAggregatorWriter();
+    deltaEncoding = GiraphConstants.AGGREGATOR_DELTA_ENCODING.get(conf);
     MasterLoggingAggregator.registerAggregator(this, conf);
   }
 
@@ -206,9 +218,12 @@ public class MasterAggregatorHandler implements MasterAggregatorUsage,
     try {
       for (Map.Entry<String, AggregatorWrapper<Writable>> entry :
           aggregatorMap.entrySet()) {
+        Writable value = entry.getValue().getPreviousAggregatedValue();
+        if (deltaEncoding && value instanceof DeltaWritable) {
+          value = createDeltaValue(entry.getKey(), value);
+        }
         masterClient.sendAggregator(entry.getKey(),
-            entry.getValue().getAggregatorClass(),
-            entry.getValue().getPreviousAggregatedValue());
+            entry.getValue().getAggregatorClass(), value);
         progressable.progress();
       }
       masterClient.finishSendingAggregatedValues();
@@ -221,6 +236,26 @@ public class MasterAggregatorHandler implements MasterAggregatorUsage,
     }
   }
 
+  /**
+   * Wrap a value so that it's written as the difference to the value sent
+   * in the previous superstep, or whole if there is none of the same class.
+   * Workers read such values with
+   * {@link org.apache.giraph.comm.aggregators.AllAggregatorServerData
+   * #readAggregatorValue}.
+   *
+   * @param name Name of the aggregator
+   * @param value Value to send
+   * @return Value to pass to the master client
+   */
+  private Writable createDeltaValue(String name, Writable value) {
+    Writable base = lastSentValues.get(name);
+    Writable copy = WritableUtils.createWritable(value.getClass());
+    WritableUtils.readFieldsFromByteArray(
+        WritableUtils.writeToByteArray(value), copy);
+    lastSentValues.put(name, copy);
+    return new DeltaAggregatorValue<Writable>(base, value);
+  }
+
   /**
    * Accept aggregated values sent by worker. Every aggregator will be sent
    * only once, by its owner.
@@ -332,6 +367,7 @@ public class MasterAggregatorHandler implements MasterAggregatorUsage,
   @Override
   public void readFields(DataInput in) throws IOException {
     aggregatorMap.clear();
+    lastSentValues.clear();
     int numAggregators = in.readInt();
     try {
       for (int i = 0; i < numAggregators; i++) {
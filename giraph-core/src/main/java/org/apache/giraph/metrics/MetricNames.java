@@ -78,6 +78,12 @@ public interface MetricNames {
   String SENT_BYTES = "sent-bytes";
   /** Number of bytes received in superstep */
   String RECEIVED_BYTES = "received-bytes";
+  /** Number of request bytes before compression in superstep */
+  String UNCOMPRESSED_BYTES = "uncompressed-bytes";
+  /** Number of request bytes after compression in superstep */
+  String COMPRESSED_BYTES = "compressed-bytes";
+  /** Gauge of uncompressed bytes per compressed byte of requests */
+  String COMPRESSION_RATIO = "compression-ratio";
 
   /** PercentGauge of memory free */
   String MEMORY_FREE_PERCENT = "memory-free-pct";
@@ -25,7 +25,14 @@ import java.util.concurrent.TimeUnit;
 public enum TimerDesc {
 
   /** Timer around Vertex#compute() */
-  COMPUTE_ONE("compute-one", TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+  COMPUTE_ONE("compute-one", TimeUnit.MILLISECONDS, TimeUnit.SECONDS),
+
+  /** Timer around flushing the caches of a compute thread */
+  COMPUTE_FLUSH("compute-flush", TimeUnit.MILLISECONDS, TimeUnit.SECONDS),
+
+  /** Timer around waiting for all requests of a worker to complete */
+  WAIT_ALL_REQUESTS("wait-all-requests", TimeUnit.MILLISECONDS,
+      TimeUnit.SECONDS);
 
   /** Name of timer */
   private final String name;
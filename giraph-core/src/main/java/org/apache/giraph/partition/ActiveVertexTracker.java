@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.graph.Vertex;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the vertices of a partition which are not halted, so that a
+ * superstep can visit only those and the vertices which received messages
+ * instead of the whole partition.  Vertex ids are kept in a concurrent set,
+ * since they are not dense enough to be indexed in a bitmap.
+ *
+ * The active vertices are not known at first, and again after the partition
+ * is deserialized or merged with another one.  The next full pass over the
+ * partition then collects them.  Tracking stops as soon as more than a given
+ * fraction of the vertices are active, since the set would only cost memory.
+ *
+ * @param <I> Vertex id
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ */
+@SuppressWarnings("rawtypes")
+public class ActiveVertexTracker<I extends WritableComparable,
+    V extends Writable, E extends Writable> {
+  /** State of the tracking */
+  private enum State {
+    /** Active vertices are not known and are not being collected */
+    UNKNOWN,
+    /** A full pass over the partition is collecting the active vertices */
+    COLLECTING,
+    /** Active vertices are known */
+    TRACKED
+  }
+
+  /** Partition whose vertices are tracked */
+  private final Partition<I, V, E> partition;
+  /** Ids of the vertices which are not halted */
+  private final Set<I> activeIds =
+      Sets.newSetFromMap(Maps.<I, Boolean>newConcurrentMap());
+  /** Number of active vertices found by the current full pass */
+  private final AtomicLong collectedCount = new AtomicLong();
+  /** Change of the number of edges by the vertices computed */
+  private final AtomicLong edgeCountDelta = new AtomicLong();
+  /** Current state */
+  private volatile State state = State.UNKNOWN;
+  /** Maximum number of active vertices worth tracking */
+  private volatile long maxActiveVertices;
+  /** Number of edges in the partition (-1 if unknown) */
+  private long edgeCount = -1;
+  /** Number of active vertices after the last superstep (-1 if unknown) */
+  private long lastActiveCount = -1;
+
+  /**
+   * Constructor
+   *
+   * @param partition Partition whose vertices are tracked
+   */
+  public ActiveVertexTracker(Partition<I, V, E> partition) {
+    this.partition = partition;
+  }
+
+  /**
+   * Prepare for computing a superstep on the partition.
+   *
+   * @param maxActiveRatio Maximum fraction of active vertices for which
+   *                       tracking is worth it
+   * @return True iff only the active vertices and the vertices with
+   *         messages need to be visited
+   */
+  public synchronized boolean startSuperstep(float maxActiveRatio) {
+    edgeCountDelta.set(0);
+    maxActiveVertices = (long) (maxActiveRatio * partition.getVertexCount());
+    if (state == State.TRACKED) {
+      return true;
+    }
+    activeIds.clear();
+    collectedCount.set(0);
+    // Don't collect again while the last full pass found too many
+    state = (lastActiveCount > maxActiveVertices) ? State.UNKNOWN :
+        State.COLLECTING;
+    return false;
+  }
+
+  /**
+   * Get the vertices to visit when the active vertices are tracked: the
+   * vertices active at the start of the superstep, then the vertices which
+   * received messages and were not active.
+   *
+   * @param messageDestinations Ids of the vertices which received messages
+   * @return Iterator over the vertices to visit
+   */
+  public Iterator<Vertex<I, V, E>> activeVertexIterator(
+      Iterable<I> messageDestinations) {
+    Set<I> startActiveIds = Sets.newHashSet(activeIds);
+    final Iterator<I> idIterator = Iterables.concat(startActiveIds,
+        Iterables.filter(messageDestinations,
+            Predicates.not(Predicates.in(startActiveIds)))).iterator();
+    return new AbstractIterator<Vertex<I, V, E>>() {
+      @Override
+      protected Vertex<I, V, E> computeNext() {
+        while (idIterator.hasNext()) {
+          Vertex<I, V, E> vertex = partition.getVertex(idIterator.next());
+          if (vertex != null) {
+            return vertex;
+          }
+        }
+        return endOfData();
+      }
+    };
+  }
+
+  /**
+   * Record the state of a vertex after it was visited.  Thread-safe.
+   *
+   * @param vertex Vertex that was visited
+   * @param edgesBefore Number of edges of the vertex before the visit
+   */
+  public void vertexComputed(Vertex<I, V, E> vertex, int edgesBefore) {
+    switch (state) {
+    case TRACKED:
+      edgeCountDelta.addAndGet(vertex.getNumEdges() - edgesBefore);
+      if (vertex.isHalted()) {
+        activeIds.remove(vertex.getId());
+      } else if (!activeIds.contains(vertex.getId())) {
+        activeIds.add(copyId(vertex.getId()));
+      }
+      break;
+    case COLLECTING:
+      if (!vertex.isHalted()) {
+        if (collectedCount.incrementAndGet() > maxActiveVertices) {
+          state = State.UNKNOWN;
+          activeIds.clear();
+        } else {
+          activeIds.add(copyId(vertex.getId()));
+        }
+      }
+      break;
+    default:
+      break;
+    }
+  }
+
+  /**
+   * Finish the superstep on the partition.  When only the active vertices
+   * were visited, the stats of the whole partition are derived from the
+   * tracked vertices.
+   *
+   * @param visitedStats Stats of the visited vertices
+   * @return Stats of the whole partition
+   */
+  public synchronized PartitionStats finishSuperstep(
+      PartitionStats visitedStats) {
+    switch (state) {
+    case TRACKED:
+      long vertexCount = partition.getVertexCount();
+      edgeCount = (edgeCount < 0) ? partition.getEdgeCount() :
+          edgeCount + edgeCountDelta.get();
+      lastActiveCount = activeIds.size();
+      PartitionStats stats = new PartitionStats(partition.getId(),
+          vertexCount, vertexCount - lastActiveCount, edgeCount,
+          visitedStats.getMessagesSentCount(),
+          visitedStats.getMessageBytesSentCount());
+      stats.addComputeMs(visitedStats.getComputeMs());
+      if (lastActiveCount > maxActiveVertices) {
+        forget();
+      }
+      return stats;
+    case COLLECTING:
+      state = State.TRACKED;
+      edgeCount = visitedStats.getEdgeCount();
+      lastActiveCount = activeIds.size();
+      return visitedStats;
+    default:
+      forget();
+      lastActiveCount = visitedStats.getVertexCount() -
+          visitedStats.getFinishedVertexCount();
+      return visitedStats;
+    }
+  }
+
+  /**
+   * Called when a vertex is put into the partition outside of computation
+   * (i.e. when resolving mutations).
+   *
+   * @param vertex Vertex put into the partition
+   */
+  public synchronized void vertexPut(Vertex<I, V, E> vertex) {
+    if (state == State.TRACKED) {
+      edgeCount = -1;
+      if (vertex.isHalted()) {
+        activeIds.remove(vertex.getId());
+      } else if (!activeIds.contains(vertex.getId())) {
+        activeIds.add(copyId(vertex.getId()));
+      }
+    }
+  }
+
+  /**
+   * Called when a vertex is removed from the partition.
+   *
+   * @param vertexId Id of the removed vertex
+   */
+  public synchronized void vertexRemoved(I vertexId) {
+    if (state == State.TRACKED) {
+      edgeCount = -1;
+      activeIds.remove(vertexId);
+    }
+  }
+
+  /**
+   * Forget the active vertices, i.e. when the partition was deserialized or
+   * other vertices were added in bulk.  The next full pass collects them
+   * again.
+   */
+  public synchronized void reset() {
+    forget();
+    lastActiveCount = -1;
+  }
+
+  /**
+   * Stop tracking the active vertices.
+   */
+  private void forget() {
+    state = State.UNKNOWN;
+    activeIds.clear();
+    edgeCount = -1;
+  }
+
+  /**
+   * Copy a vertex id if the partition reuses vertex objects.
+   *
+   * @param vertexId Vertex id
+   * @return Id which can be kept
+   */
+  private I copyId(I vertexId) {
+    if (partition instanceof ReusesObjectsPartition) {
+      return WritableUtils.clone(vertexId, partition.getConf());
+    }
+    return vertexId;
+  }
+}
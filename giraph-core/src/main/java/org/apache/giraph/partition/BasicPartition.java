@@ -44,6 +44,9 @@ public abstract class BasicPartition<I extends WritableComparable,
   private int id;
   /** Context used to report progress */
   private Progressable progressable;
+  /** Vertices which are not halted */
+  private final ActiveVertexTracker<I, V, E> activeVertexTracker =
+      new ActiveVertexTracker<I, V, E>(this);
 
   @Override
   public void initialize(int partitionId, Progressable progressable) {
@@ -84,6 +87,20 @@ public abstract class BasicPartition<I extends WritableComparable,
     this.progressable = progressable;
   }
 
+  @Override
+  public ActiveVertexTracker<I, V, E> getActiveVertexTracker() {
+    return activeVertexTracker;
+  }
+
+  /**
+   * Release the memory the vertices take up outside of the heap right away,
+   * instead of when the garbage collector finds the partition unreachable.
+   * The partition is empty afterwards.
+   */
+  public void freeOffHeapMemory() {
+    // Nothing is kept outside of the heap by default
+  }
+
   @Override
   public void write(DataOutput output) throws IOException {
     output.writeInt(id);
@@ -92,5 +109,6 @@ public abstract class BasicPartition<I extends WritableComparable,
   @Override
   public void readFields(DataInput input) throws IOException {
     id = input.readInt();
+    activeVertexTracker.reset();
   }
 }
@@ -89,6 +89,7 @@ public class ByteArrayPartition<I extends WritableComparable,
 
   @Override
   public Vertex<I, V, E> putVertex(Vertex<I, V, E> vertex) {
+    getActiveVertexTracker().vertexPut(vertex);
     byte[] vertexData =
         WritableUtils.writeVertexToByteArray(
             vertex, useUnsafeSerialization, getConf());
@@ -104,6 +105,7 @@ public class ByteArrayPartition<I extends WritableComparable,
 
   @Override
   public Vertex<I, V, E> removeVertex(I vertexIndex) {
+    getActiveVertexTracker().vertexRemoved(vertexIndex);
     byte[] vertexBytes = vertexMap.remove(vertexIndex);
     if (vertexBytes == null) {
       return null;
@@ -121,6 +123,7 @@ public class ByteArrayPartition<I extends WritableComparable,
           "of type " + partition.getClass());
     }
 
+    getActiveVertexTracker().reset();
     ByteArrayPartition<I, V, E> byteArrayPartition =
         (ByteArrayPartition<I, V, E>) partition;
     for (Map.Entry<I, byte[]> entry :
@@ -21,6 +21,7 @@ package org.apache.giraph.partition;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.edge.OutEdges;
 import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.utils.MemoryController;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -28,10 +29,14 @@ import org.apache.hadoop.mapreduce.Mapper.Context;
 import org.apache.log4j.Logger;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -43,6 +48,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -53,12 +59,15 @@ import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static org.apache.giraph.conf.GiraphConstants.MAX_PARTITIONS_IN_MEMORY;
+import static org.apache.giraph.conf.GiraphConstants.MAX_PARTITION_BYTES_IN_MEMORY;
+import static org.apache.giraph.conf.GiraphConstants.NUM_PARTITION_IO_THREADS;
 import static org.apache.giraph.conf.GiraphConstants.PARTITIONS_DIRECTORY;
 
 /**
@@ -66,6 +75,21 @@ import static org.apache.giraph.conf.GiraphConstants.PARTITIONS_DIRECTORY;
  * Thread-safe, but expects the caller to synchronized between deletes, adds,
  * puts and gets.
  *
+ * The partitions held in memory are limited either by their number, by
+ * their estimated size, or by the occupancy of the heap (see
+ * {@link MemoryController}).  Sizes are estimated from the average serialized
+ * size of the vertices written to disk so far.  Unless disabled, background
+ * I/O threads write evicted partitions behind the thread which needs the
+ * space, and load the partitions announced by
+ * {@link #prefetchPartitions(Iterable)} before they are requested.
+ *
+ * Partitions are spilled as vertex data and edges, in separate files, so
+ * that the edges of a static graph are written only once.  Unless the graph
+ * is static, a {@link ByteArrayPartition} or {@link OffHeapPartition} is
+ * spilled in its own serialized form instead, the bytes of its vertices as
+ * they are, so that reloading it only copies them out of the file instead
+ * of deserializing every vertex.
+ *
  * @param <I> Vertex id
  * @param <V> Vertex data
  * @param <E> Edge data
@@ -77,6 +101,8 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
   /** Class logger. */
   private static final Logger LOG =
       Logger.getLogger(DiskBackedPartitionStore.class);
+  /** How often to check heap occupancy while waiting for space */
+  private static final long MEMORY_CHECK_INTERVAL_MS = 1000;
   /** States the partition can be found in */
   private enum State { ACTIVE, INACTIVE, LOADING, OFFLOADING, ONDISK };
   /** Global lock to the whole partition */
@@ -121,9 +147,27 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
   private final int maxInMemoryPartitions;
   /** Number of slots used */
   private int inMemoryPartitions;
+  /** Maximum estimated size of the partitions in memory (0 if unlimited) */
+  private final long maxInMemoryBytes;
+  /** Estimated size of the partitions using slots */
+  private long inMemoryBytes;
+  /** Estimated sizes of the partitions using slots */
+  private final Map<Integer, Long> sizes = Maps.newHashMap();
+  /** Number of bytes the size estimate is based on */
+  private long sampledBytes;
+  /** Number of vertices the size estimate is based on */
+  private long sampledVertices;
+  /** Executor for prefetching and writing behind (null if disabled) */
+  private final ExecutorService ioPool;
+  /** Partitions which are queued for prefetching */
+  private final Set<Integer> prefetching = Sets.newHashSet();
+  /** Failure of a background write, which may have lost partition data */
+  private IOException writeFailure;
+  /** Decides from heap occupancy when to spill (null for static limits) */
+  private final MemoryController memoryController;
 
   /**
-   * Constructor
+   * Constructor for a store with static limits
    *
    * @param conf Configuration
    * @param context Context
@@ -131,10 +175,31 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
   public DiskBackedPartitionStore(
       ImmutableClassesGiraphConfiguration<I, V, E> conf,
       Mapper<?, ?, ?, ?>.Context context) {
+    this(conf, context, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param conf Configuration
+   * @param context Context
+   * @param memoryController Decides from heap occupancy when to spill
+   *                         (null for static limits)
+   */
+  public DiskBackedPartitionStore(
+      ImmutableClassesGiraphConfiguration<I, V, E> conf,
+      Mapper<?, ?, ?, ?>.Context context,
+      MemoryController memoryController) {
     this.conf = conf;
     this.context = context;
     // We must be able to hold at least one partition in memory
     maxInMemoryPartitions = Math.max(MAX_PARTITIONS_IN_MEMORY.get(conf), 1);
+    maxInMemoryBytes = Math.max(MAX_PARTITION_BYTES_IN_MEMORY.get(conf), 0);
+    this.memoryController = memoryController;
+    int numIOThreads = NUM_PARTITION_IO_THREADS.get(conf);
+    ioPool = (numIOThreads <= 0) ? null : Executors.newFixedThreadPool(
+        numIOThreads, new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("partition-io-%d").build());
 
     // Take advantage of multiple disks
     String[] userPaths = PARTITIONS_DIRECTORY.getArray(conf);
@@ -145,7 +210,9 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
     }
     if (LOG.isInfoEnabled()) {
       LOG.info("DiskBackedPartitionStore with maxInMemoryPartitions=" +
-          maxInMemoryPartitions + ", isStaticGraph=" + conf.isStaticGraph());
+          maxInMemoryPartitions + ", maxInMemoryBytes=" + maxInMemoryBytes +
+          ", numIOThreads=" + numIOThreads + ", memoryController=" +
+          memoryController + ", isStaticGraph=" + conf.isStaticGraph());
     }
   }
 
@@ -250,8 +317,19 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
 
   @Override
   public void deletePartition(Integer id) {
+    deletePartition(id, false);
+  }
+
+  /**
+   * Delete a partition from the store.
+   *
+   * @param id The partition id
+   * @param keepPartition Whether the caller got the partition to keep it,
+   *                      rather than to release its memory
+   */
+  private void deletePartition(Integer id, boolean keepPartition) {
     try {
-      pool.submit(new DeletePartition(id)).get();
+      pool.submit(new DeletePartition(id, keepPartition)).get();
     } catch (InterruptedException e) {
       throw new IllegalStateException(
           "deletePartition: cannot delete partition " + id, e);
@@ -264,9 +342,9 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
   @Override
   public Partition<I, V, E> removePartition(Integer id) {
     Partition<I, V, E> partition = getPartition(id);
-    // we put it back, so the partition can turn INACTIVE and be deleted.
-    putPartition(partition);
-    deletePartition(id);
+    // The partition stays active, so it can't be offloaded (and released)
+    // before it is deleted
+    deletePartition(id, true);
     return partition;
   }
 
@@ -285,23 +363,52 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
   }
 
   @Override
-  public void shutdown() {
+  public void prefetchPartitions(Iterable<Integer> ids) {
+    if (ioPool == null) {
+      return;
+    }
+    wLock.lock();
     try {
-      pool.shutdown();
-      try {
-        if (!pool.awaitTermination(120, TimeUnit.SECONDS)) {
-          pool.shutdownNow();
+      for (Integer id : ids) {
+        if (states.get(id) == State.ONDISK && prefetching.add(id)) {
+          ioPool.submit(new PrefetchPartition(id));
         }
-      } catch (InterruptedException e) {
-        pool.shutdownNow();
       }
     } finally {
-      for (Integer id : onDisk.values()) {
+      wLock.unlock();
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    try {
+      shutdownExecutor(pool);
+      if (ioPool != null) {
+        shutdownExecutor(ioPool);
+      }
+    } finally {
+      for (Integer id : onDisk.keySet()) {
         deletePartitionFiles(id);
       }
     }
   }
 
+  /**
+   * Shutdown an executor, waiting for the tasks it is running.
+   *
+   * @param executor Executor to shutdown
+   */
+  private static void shutdownExecutor(ExecutorService executor) {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(120, TimeUnit.SECONDS)) {
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+    }
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
@@ -361,6 +468,232 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
     return count;
   }
 
+  /**
+   * Estimate the size of a partition from its number of vertices.  Caller
+   * should hold the global write lock.
+   *
+   * @param numVertices Number of vertices of the partition
+   * @return Estimated size in bytes (0 if sizes are not limited)
+   */
+  private long estimateSize(long numVertices) {
+    if (maxInMemoryBytes == 0 || sampledVertices == 0) {
+      return 0;
+    }
+    return (long) ((double) sampledBytes / sampledVertices * numVertices);
+  }
+
+  /**
+   * Estimate the size of a partition.  If no partition was written to disk
+   * yet, the partition is serialized to measure the size of its vertices.
+   * Caller should hold the global write lock.
+   *
+   * @param partition The partition
+   * @return Estimated size in bytes (0 if sizes are not limited)
+   * @throws IOException
+   */
+  private long estimateSize(Partition<I, V, E> partition) throws IOException {
+    if (maxInMemoryBytes > 0 && sampledVertices == 0 &&
+        partition.getVertexCount() > 0) {
+      CountingOutputStream counter =
+          new CountingOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) { }
+
+            @Override
+            public void write(byte[] b, int off, int len) { }
+          });
+      partition.write(new DataOutputStream(counter));
+      addSizeSample(partition.getVertexCount(), counter.getCount());
+    }
+    return estimateSize(partition.getVertexCount());
+  }
+
+  /**
+   * Add the serialized size of some vertices to the size estimate.  Caller
+   * should hold the global write lock.
+   *
+   * @param numVertices Number of vertices
+   * @param bytes Serialized size of the vertices
+   */
+  private void addSizeSample(long numVertices, long bytes) {
+    sampledVertices += numVertices;
+    sampledBytes += bytes;
+  }
+
+  /**
+   * Whether a partition of the given size can be held in memory without
+   * evicting other partitions.  There is always space for one partition.
+   * Caller should hold the global write lock.
+   *
+   * @param bytes Estimated size of the partition
+   * @return True iff the partition fits
+   */
+  private boolean hasSpace(long bytes) {
+    if (inMemoryPartitions == 0) {
+      return true;
+    }
+    if (memoryController != null) {
+      return !memoryController.shouldSpill();
+    }
+    if (maxInMemoryBytes > 0) {
+      return inMemoryBytes + bytes <= maxInMemoryBytes;
+    }
+    return inMemoryPartitions < maxInMemoryPartitions;
+  }
+
+  /**
+   * Whether a partition of the given size would fit after evicting all the
+   * inactive partitions.  Caller should hold the global write lock.
+   *
+   * @param bytes Estimated size of the partition
+   * @return True iff space can be made without waiting
+   */
+  private boolean canMakeSpace(long bytes) {
+    int remainingPartitions = inMemoryPartitions - inactive.size();
+    if (remainingPartitions == 0) {
+      return true;
+    }
+    if (memoryController != null) {
+      return memoryController.canLoadAhead();
+    }
+    if (maxInMemoryBytes > 0) {
+      long remainingBytes = inMemoryBytes;
+      for (Integer id : inactive.keySet()) {
+        remainingBytes -= sizes.get(id);
+      }
+      return remainingBytes + bytes <= maxInMemoryBytes;
+    }
+    return remainingPartitions < maxInMemoryPartitions;
+  }
+
+  /**
+   * Evict the least recently used inactive partitions until a partition of
+   * the given size fits, waiting for partitions to become inactive if
+   * needed.  When heap occupancy decides, one partition is swapped for the
+   * loaded one, since the heap is measured again only after a collection.
+   * The evicted partitions are OFFLOADING and have to be written with
+   * {@link #writeEvicted(List)}.  Caller should hold the global write lock.
+   *
+   * @param bytes Estimated size of the partition
+   * @return The evicted partitions
+   * @throws InterruptedException
+   */
+  private List<Entry<Integer, Partition<I, V, E>>> makeSpace(long bytes)
+    throws InterruptedException {
+    List<Entry<Integer, Partition<I, V, E>>> evicted = Lists.newArrayList();
+    while (!hasSpace(bytes) &&
+        (memoryController == null || evicted.isEmpty())) {
+      if (inactive.isEmpty()) {
+        if (memoryController == null) {
+          notEmpty.await();
+        } else {
+          // Heap occupancy can also drop without any notification
+          notEmpty.await(MEMORY_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        continue;
+      }
+      evicted.add(evictLRU());
+    }
+    return evicted;
+  }
+
+  /**
+   * Evict the least recently used inactive partition, which then has to be
+   * written with {@link #writeEvicted(List)}.  Caller should hold the global
+   * write lock.
+   *
+   * @return The evicted partition
+   */
+  private Entry<Integer, Partition<I, V, E>> evictLRU() {
+    Iterator<Entry<Integer, Partition<I, V, E>>> i =
+        inactive.entrySet().iterator();
+    Entry<Integer, Partition<I, V, E>> lru = i.next();
+    i.remove();
+    states.put(lru.getKey(), State.OFFLOADING);
+    pending.get(lru.getKey()).signalAll();
+    releaseSlot(lru.getKey());
+    return lru;
+  }
+
+  /**
+   * Release the memory a partition which is not used anymore takes up
+   * outside of the heap, without waiting for the garbage collector.
+   *
+   * @param partition The partition
+   */
+  private static void freeOffHeapMemory(Partition<?, ?, ?> partition) {
+    if (partition instanceof BasicPartition) {
+      ((BasicPartition<?, ?, ?>) partition).freeOffHeapMemory();
+    }
+  }
+
+  /**
+   * Write evicted partitions to disk, in the background if there are I/O
+   * threads.  Caller must not hold the global write lock.
+   *
+   * @param evicted The evicted partitions
+   * @throws IOException
+   */
+  private void writeEvicted(List<Entry<Integer, Partition<I, V, E>>> evicted)
+    throws IOException {
+    for (Entry<Integer, Partition<I, V, E>> lru : evicted) {
+      WritePartition write = new WritePartition(lru.getKey(), lru.getValue());
+      if (ioPool != null) {
+        ioPool.submit(write);
+      } else {
+        write.call();
+      }
+    }
+  }
+
+  /**
+   * Take a slot for a partition.  Caller should hold the global write lock.
+   *
+   * @param id The partition id
+   * @param bytes Estimated size of the partition
+   */
+  private void takeSlot(Integer id, long bytes) {
+    inMemoryPartitions++;
+    inMemoryBytes += bytes;
+    sizes.put(id, bytes);
+  }
+
+  /**
+   * Release the slot of a partition.  Caller should hold the global write
+   * lock.
+   *
+   * @param id The partition id
+   */
+  private void releaseSlot(Integer id) {
+    inMemoryPartitions--;
+    inMemoryBytes -= sizes.remove(id);
+  }
+
+  /**
+   * Update the estimated size of a partition in memory, after vertices
+   * were added or removed.  Caller should hold the global write lock.
+   *
+   * @param partition The partition
+   * @throws IOException
+   */
+  private void updateSize(Partition<I, V, E> partition) throws IOException {
+    long bytes = estimateSize(partition);
+    inMemoryBytes += bytes - sizes.put(partition.getId(), bytes);
+  }
+
+  /**
+   * Throw if a background write failed.  Caller should hold the global
+   * write lock.
+   *
+   * @throws IOException
+   */
+  private void checkWriteFailure() throws IOException {
+    if (writeFailure != null) {
+      throw new IOException("checkWriteFailure: Failed to write a partition",
+          writeFailure);
+    }
+  }
+
   /**
    * Writes vertex data (Id, value and halted state) to stream.
    *
@@ -447,6 +780,10 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
       LOG.debug("loadPartition: loading partition vertices " +
           partition.getId() + " from " + file.getAbsolutePath());
     }
+    if (isSpilledAsIs(partition)) {
+      loadSerializedPartition(partition, file);
+      return partition;
+    }
     DataInputStream inputStream = null;
     try {
       inputStream = new DataInputStream(
@@ -492,13 +829,84 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
     return partition;
   }
 
+  /**
+   * Whether a partition is spilled in its own serialized form rather than
+   * vertex by vertex.  The serialized form holds the edges, so it isn't
+   * used for static graphs, whose edges are written only once.
+   *
+   * @param partition The partition
+   * @return True iff the partition's serialized form is used
+   */
+  private boolean isSpilledAsIs(Partition<?, ?, ?> partition) {
+    return !conf.isStaticGraph() &&
+        (partition instanceof ByteArrayPartition ||
+            partition instanceof OffHeapPartition);
+  }
+
+  /**
+   * Load a partition spilled in its own serialized form, deleting the file
+   * afterwards.  The file holds one serialized partition for every time
+   * vertices were spilled to it.
+   *
+   * @param partition The empty partition to load into
+   * @param file The file of the partition
+   * @throws IOException
+   */
+  private void loadSerializedPartition(Partition<I, V, E> partition,
+      File file) throws IOException {
+    long length = file.length();
+    DataInputStream inputStream = null;
+    try {
+      CountingInputStream countingStream = new CountingInputStream(
+          new BufferedInputStream(new FileInputStream(file)));
+      inputStream = new DataInputStream(countingStream);
+      partition.readFields(inputStream);
+      while (countingStream.getCount() < length) {
+        Partition<I, V, E> appended =
+            conf.createPartition(partition.getId(), context);
+        appended.readFields(inputStream);
+        partition.addPartition(appended);
+      }
+    } finally {
+      if (inputStream != null) {
+        inputStream.close();
+      }
+    }
+    if (!file.delete()) {
+      LOG.error("loadSerializedPartition: Failed to delete file " + file);
+    }
+  }
+
+  /**
+   * Write a partition in its own serialized form.
+   *
+   * @param partition The partition
+   * @param file The file to write to
+   * @param append Whether to append to the file
+   * @throws IOException
+   */
+  private void writeSerializedPartition(Partition<I, V, E> partition,
+      File file, boolean append) throws IOException {
+    DataOutputStream outputStream = null;
+    try {
+      outputStream = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(file, append)));
+      partition.write(outputStream);
+    } finally {
+      if (outputStream != null) {
+        outputStream.close();
+      }
+    }
+  }
+
   /**
    * Write a partition to disk.
    *
    * @param partition The partition to offload
+   * @return Size of the partition on disk
    * @throws IOException
    */
-  private void offloadPartition(Partition<I, V, E> partition)
+  private long offloadPartition(Partition<I, V, E> partition)
     throws IOException {
     File file = new File(getVerticesPath(partition.getId()));
     if (!file.getParentFile().mkdirs()) {
@@ -511,6 +919,10 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
       LOG.debug("offloadPartition: writing partition vertices " +
           partition.getId() + " to " + file.getAbsolutePath());
     }
+    if (isSpilledAsIs(partition)) {
+      writeSerializedPartition(partition, file, false);
+      return file.length();
+    }
     DataOutputStream outputStream = null;
     try {
       outputStream = new DataOutputStream(
@@ -549,6 +961,8 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
         }
       }
     }
+    return new File(getVerticesPath(partition.getId())).length() +
+        file.length();
   }
 
   /**
@@ -564,6 +978,10 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
     Integer count = onDisk.get(id);
     onDisk.put(id, count + (int) partition.getVertexCount());
     File file = new File(getVerticesPath(id));
+    if (isSpilledAsIs(partition)) {
+      writeSerializedPartition(partition, file, true);
+      return;
+    }
     DataOutputStream outputStream = null;
     try {
       outputStream = new DataOutputStream(
@@ -602,7 +1020,8 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
       LOG.error("deletePartitionFiles: Failed to delete file " + file);
     }
     file = new File(getEdgesPath(id));
-    if (!file.delete()) {
+    // Partitions spilled in their serialized form have no edges file
+    if (file.exists() && !file.delete()) {
       LOG.error("deletePartitionFiles: Failed to delete file " + file);
     }
   }
@@ -655,19 +1074,6 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
       this.id = id;
     }
 
-    /**
-     * Removes and returns the last recently used entry.
-     *
-     * @return The last recently used entry.
-     */
-    private Entry<Integer, Partition<I, V, E>> getLRUEntry() {
-      Iterator<Entry<Integer, Partition<I, V, E>>> i =
-          inactive.entrySet().iterator();
-      Entry<Integer, Partition<I, V, E>> lruEntry = i.next();
-      i.remove();
-      return lruEntry;
-    }
-
     @Override
     public Partition<I, V, E> call() throws Exception {
       Partition<I, V, E> partition = null;
@@ -675,47 +1081,31 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
       while (partition == null) {
         wLock.lock();
         try {
+          checkWriteFailure();
           State pState = states.get(id);
           switch (pState) {
           case ONDISK:
-            Entry<Integer, Partition<I, V, E>> lru = null;
             states.put(id, State.LOADING);
             int numVertices = onDisk.remove(id);
+            long bytes = estimateSize(numVertices);
             /*
-             * Wait until we have space in memory or inactive data for a switch
+             * Evict inactive partitions until there is space in memory,
+             * waiting for partitions to become inactive if needed
              */
-            while (inMemoryPartitions >= maxInMemoryPartitions &&
-                inactive.isEmpty()) {
-              notEmpty.await();
-            }
-            /*
-             * we have to make some space first
-             */
-            if (inMemoryPartitions >= maxInMemoryPartitions) {
-              lru = getLRUEntry();
-              states.put(lru.getKey(), State.OFFLOADING);
-              pending.get(lru.getKey()).signalAll();
-            } else { // there is space, just add it to the in-memory partitions
-              inMemoryPartitions++;
-            }
+            List<Entry<Integer, Partition<I, V, E>>> evicted =
+                makeSpace(bytes);
+            takeSlot(id, bytes);
             /*
              * do IO without contention, the threads interested to these
              * partitions will subscribe to the relative Condition.
              */
             wLock.unlock();
-            if (lru != null) {
-              offloadPartition(lru.getValue());
-            }
+            writeEvicted(evicted);
             partition = loadPartition(id, numVertices);
             wLock.lock();
             /*
              * update state and signal the pending threads
              */
-            if (lru != null) {
-              states.put(lru.getKey(), State.ONDISK);
-              onDisk.put(lru.getKey(), (int) lru.getValue().getVertexCount());
-              pending.get(lru.getKey()).signalAll();
-            }
             active.put(id, partition);
             states.put(id, State.ACTIVE);
             pending.get(id).signalAll();
@@ -770,18 +1160,28 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
 
     @Override
     public Void call() throws Exception {
+      List<Entry<Integer, Partition<I, V, E>>> evicted =
+          Collections.emptyList();
       wLock.lock();
       try {
         if (decrementCounter(id) == 0) {
-          inactive.put(id, active.remove(id));
+          Partition<I, V, E> partition = active.remove(id);
+          updateSize(partition);
+          inactive.put(id, partition);
           states.put(id, State.INACTIVE);
           pending.get(id).signalAll();
-          notEmpty.signal();
+          notEmpty.signalAll();
+          // Under memory pressure, spill before anything needs the space
+          if (memoryController != null && inMemoryPartitions > 1 &&
+              memoryController.shouldSpill()) {
+            evicted = Collections.singletonList(evictLRU());
+          }
         }
-        return null;
       } finally {
         wLock.unlock();
       }
+      writeEvicted(evicted);
+      return null;
     }
   }
 
@@ -810,6 +1210,7 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
 
       wLock.lock();
       try {
+        checkWriteFailure();
         if (partitionIds.contains(id)) {
           Partition<I, V, E> existing = null;
           boolean isOOC = false;
@@ -846,24 +1247,30 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
           }
           if (isOOC) {
             addToOOCPartition(partition);
+            freeOffHeapMemory(partition);
           } else {
             existing.addPartition(partition);
+            updateSize(existing);
           }
         } else {
           Condition newC = wLock.newCondition();
           pending.put(id, newC);
           partitionIds.add(id);
-          if (inMemoryPartitions < maxInMemoryPartitions) {
-            inMemoryPartitions++;
+          long bytes = estimateSize(partition);
+          if (hasSpace(bytes)) {
+            takeSlot(id, bytes);
             states.put(id, State.INACTIVE);
             inactive.put(id, partition);
-            notEmpty.signal();
+            notEmpty.signalAll();
           } else {
             states.put(id, State.OFFLOADING);
-            onDisk.put(id, (int) partition.getVertexCount());
+            long numVertices = partition.getVertexCount();
+            onDisk.put(id, (int) numVertices);
             wLock.unlock();
-            offloadPartition(partition);
+            bytes = offloadPartition(partition);
+            freeOffHeapMemory(partition);
             wLock.lock();
+            addSizeSample(numVertices, bytes);
             states.put(id, State.ONDISK);
             newC.signalAll();
           }
@@ -883,14 +1290,19 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
   private class DeletePartition implements Callable<Void> {
     /** Partition id */
     private Integer id;
+    /** Whether the caller keeps the partition, which it got from the store */
+    private boolean keepPartition;
 
     /**
      * Constructor
      *
      * @param id The partition id
+     * @param keepPartition Whether the caller keeps the partition, which it
+     *                      got from the store
      */
-    public DeletePartition(Integer id) {
+    public DeletePartition(Integer id, boolean keepPartition) {
       this.id = id;
+      this.keepPartition = keepPartition;
     }
 
     @Override
@@ -908,13 +1320,24 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
             done = true;
             break;
           case INACTIVE:
-            inactive.remove(id);
-            inMemoryPartitions--;
-            notEmpty.signal();
+            Partition<I, V, E> partition = inactive.remove(id);
+            releaseSlot(id);
+            notEmpty.signalAll();
+            if (!keepPartition) {
+              freeOffHeapMemory(partition);
+            }
             done = true;
             break;
           case ACTIVE:
-            pending.get(id).await();
+            if (keepPartition && counters.get(id) == 1) {
+              // Only the caller, which keeps the partition, still uses it
+              active.remove(id);
+              releaseSlot(id);
+              notEmpty.signalAll();
+              done = true;
+            } else {
+              pending.get(id).await();
+            }
             break;
           case LOADING:
             pending.get(id).await();
@@ -938,6 +1361,138 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
     }
   }
 
+  /**
+   * Task that writes an evicted partition to disk
+   */
+  private class WritePartition implements Callable<Void> {
+    /** Partition id */
+    private Integer id;
+    /** Partition */
+    private Partition<I, V, E> partition;
+
+    /**
+     * Constructor
+     *
+     * @param id The partition id
+     * @param partition The partition
+     */
+    public WritePartition(Integer id, Partition<I, V, E> partition) {
+      this.id = id;
+      this.partition = partition;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      long bytes;
+      long numVertices = partition.getVertexCount();
+      try {
+        bytes = offloadPartition(partition);
+      } catch (IOException e) {
+        LOG.error("call: Failed to write partition " + id, e);
+        /*
+         * keep the partition in memory, the store fails on the next request
+         */
+        wLock.lock();
+        try {
+          writeFailure = e;
+          takeSlot(id, estimateSize(partition.getVertexCount()));
+          inactive.put(id, partition);
+          states.put(id, State.INACTIVE);
+          pending.get(id).signalAll();
+          notEmpty.signalAll();
+        } finally {
+          wLock.unlock();
+        }
+        throw e;
+      }
+      // Nobody else has the evicted partition
+      freeOffHeapMemory(partition);
+      wLock.lock();
+      try {
+        addSizeSample(numVertices, bytes);
+        onDisk.put(id, (int) numVertices);
+        states.put(id, State.ONDISK);
+        pending.get(id).signalAll();
+      } finally {
+        wLock.unlock();
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Task that loads a partition from disk before it is requested, if it
+   * fits in memory after evicting inactive partitions
+   */
+  private class PrefetchPartition implements Callable<Void> {
+    /** Partition id */
+    private Integer id;
+
+    /**
+     * Constructor
+     *
+     * @param id The partition id
+     */
+    public PrefetchPartition(Integer id) {
+      this.id = id;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      int numVertices;
+      List<Entry<Integer, Partition<I, V, E>>> evicted;
+      wLock.lock();
+      try {
+        prefetching.remove(id);
+        if (states.get(id) != State.ONDISK) {
+          return null;
+        }
+        numVertices = onDisk.get(id);
+        long bytes = estimateSize(numVertices);
+        if (!canMakeSpace(bytes)) {
+          return null;
+        }
+        evicted = makeSpace(bytes);
+        states.put(id, State.LOADING);
+        onDisk.remove(id);
+        takeSlot(id, bytes);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(
+            "call: Interrupted while prefetching partition " + id, e);
+      } finally {
+        wLock.unlock();
+      }
+      writeEvicted(evicted);
+      Partition<I, V, E> partition;
+      try {
+        partition = loadPartition(id, numVertices);
+      } catch (IOException e) {
+        LOG.error("call: Failed to prefetch partition " + id, e);
+        wLock.lock();
+        try {
+          releaseSlot(id);
+          onDisk.put(id, numVertices);
+          states.put(id, State.ONDISK);
+          pending.get(id).signalAll();
+          notEmpty.signalAll();
+        } finally {
+          wLock.unlock();
+        }
+        throw e;
+      }
+      wLock.lock();
+      try {
+        inactive.put(id, partition);
+        states.put(id, State.INACTIVE);
+        pending.get(id).signalAll();
+        notEmpty.signalAll();
+      } finally {
+        wLock.unlock();
+      }
+      return null;
+    }
+  }
+
   /**
    * Direct Executor that executes tasks within the calling threads.
    */
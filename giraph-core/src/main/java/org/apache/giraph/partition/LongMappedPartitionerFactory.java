@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Factory for partitioners which place vertices with long ids according to
+ * a precomputed vertex id to partition mapping, so that a partitioning which
+ * keeps neighbors together (e.g. computed by a label propagation job over
+ * the same graph) cuts fewer edges than hashing.
+ *
+ * The mapping is read from {@link GiraphConstants#PARTITION_MAPPING_PATH},
+ * text files where each line is "vertexId partition".  Every worker loads
+ * the whole mapping, vertices which are not in it are hash partitioned.
+ *
+ * @param <V> Vertex value type
+ * @param <E> Edge value type
+ */
+public class LongMappedPartitionerFactory<V extends Writable,
+    E extends Writable>
+    implements GraphPartitionerFactory<LongWritable, V, E> {
+  /** Class logger */
+  private static final Logger LOG =
+      Logger.getLogger(LongMappedPartitionerFactory.class);
+  /** Separator of the vertex id and partition */
+  private static final Pattern SEPARATOR = Pattern.compile("[\t ]+");
+  /** Configuration */
+  private ImmutableClassesGiraphConfiguration conf;
+
+  @Override
+  public MasterGraphPartitioner<LongWritable, V, E>
+  createMasterGraphPartitioner() {
+    return new HashMasterPartitioner<LongWritable, V, E>(conf);
+  }
+
+  @Override
+  public WorkerGraphPartitioner<LongWritable, V, E>
+  createWorkerGraphPartitioner() {
+    try {
+      return new LongMappedWorkerPartitioner<V, E>(loadPartitionMapping(conf));
+    } catch (IOException e) {
+      throw new IllegalStateException("createWorkerGraphPartitioner: " +
+          "Failed to load the partition mapping from " +
+          GiraphConstants.PARTITION_MAPPING_PATH.get(conf), e);
+    }
+  }
+
+  /**
+   * Load the vertex id to partition mapping.
+   *
+   * @param conf Configuration
+   * @return Vertex id to partition mapping, returning -1 for missing ids
+   * @throws IOException
+   */
+  public static Long2IntMap loadPartitionMapping(Configuration conf)
+    throws IOException {
+    String mappingPath = GiraphConstants.PARTITION_MAPPING_PATH.get(conf);
+    if (mappingPath.isEmpty()) {
+      throw new IllegalStateException("loadPartitionMapping: Need to " +
+          "specify " + GiraphConstants.PARTITION_MAPPING_PATH.getKey() +
+          " when using LongMappedPartitionerFactory");
+    }
+    Path path = new Path(mappingPath);
+    FileSystem fs = path.getFileSystem(conf);
+    FileStatus[] matches = fs.globStatus(path);
+    if (matches == null || matches.length == 0) {
+      throw new IllegalStateException("loadPartitionMapping: No files " +
+          "match " + mappingPath);
+    }
+    List<Path> files = new ArrayList<Path>();
+    for (FileStatus match : matches) {
+      if (match.isDir()) {
+        for (FileStatus child : fs.listStatus(match.getPath())) {
+          if (!child.isDir() && !isHidden(child.getPath())) {
+            files.add(child.getPath());
+          }
+        }
+      } else {
+        files.add(match.getPath());
+      }
+    }
+
+    Long2IntOpenHashMap partitionMapping = new Long2IntOpenHashMap();
+    partitionMapping.defaultReturnValue(-1);
+    for (Path file : files) {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(fs.open(file), Charsets.UTF_8));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.isEmpty()) {
+            continue;
+          }
+          String[] tokens = SEPARATOR.split(line);
+          if (tokens.length != 2) {
+            throw new IllegalStateException("loadPartitionMapping: " +
+                "Illegal line '" + line + "' in " + file);
+          }
+          partitionMapping.put(Long.parseLong(tokens[0]),
+              Integer.parseInt(tokens[1]));
+        }
+      } finally {
+        Closeables.closeQuietly(reader);
+      }
+    }
+    partitionMapping.trim();
+    if (LOG.isInfoEnabled()) {
+      LOG.info("loadPartitionMapping: Loaded " + partitionMapping.size() +
+          " vertex partitions from " + files.size() + " files");
+    }
+    return partitionMapping;
+  }
+
+  /**
+   * Check whether a file is hidden (such as _SUCCESS or .crc files).
+   *
+   * @param path File path
+   * @return True if the file should be skipped
+   */
+  private static boolean isHidden(Path path) {
+    String name = path.getName();
+    return name.startsWith("_") || name.startsWith(".");
+  }
+
+  @Override
+  public ImmutableClassesGiraphConfiguration getConf() {
+    return conf;
+  }
+
+  @Override
+  public void setConf(ImmutableClassesGiraphConfiguration conf) {
+    this.conf = conf;
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+
+/**
+ * Worker partitioner which looks up the partition of a vertex in a
+ * precomputed vertex id to partition mapping (e.g. the output of a locality
+ * aware partitioning job).  Vertices missing from the mapping are hash
+ * partitioned.
+ *
+ * @param <V> Vertex value type
+ * @param <E> Edge value type
+ */
+public class LongMappedWorkerPartitioner<V extends Writable,
+    E extends Writable> extends HashWorkerPartitioner<LongWritable, V, E> {
+  /** Vertex id to partition mapping, returns -1 for missing ids */
+  private final Long2IntMap partitionMapping;
+
+  /**
+   * Constructor.
+   *
+   * @param partitionMapping Vertex id to partition mapping, must return a
+   *                         negative value for missing ids
+   */
+  public LongMappedWorkerPartitioner(Long2IntMap partitionMapping) {
+    this.partitionMapping = partitionMapping;
+  }
+
+  @Override
+  public PartitionOwner getPartitionOwner(LongWritable vertexId) {
+    int partition = partitionMapping.get(vertexId.get());
+    if (partition < 0) {
+      return super.getPartitionOwner(vertexId);
+    }
+    // The modulo is just a safeguard in case the mapping was computed for
+    // a different number of partitions
+    return partitionOwnerList.get(partition % partitionOwnerList.size());
+  }
+}
@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.utils.OffHeapArena;
+import org.apache.giraph.utils.WritableUtils;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Partition which keeps its vertices serialized outside of the Java heap,
+ * in the slabs of an {@link OffHeapArena}.  Only the vertex ids and the
+ * addresses of the vertices are on the heap (in primitive maps for
+ * IntWritable and LongWritable ids), so the garbage collector does not have
+ * to trace the vertex values and edges of big graphs.  Vertices
+ * are serialized the same way as in {@link ByteArrayPartition} and copied
+ * into a reused buffer when they are read.  Must guarantee, however, that
+ * only one thread at a time will call getVertex since it is a singleton.
+ * <p/>
+ * A vertex is rewritten in place if it did not grow, otherwise it moves to
+ * new space in the arena.  When more of the arena is wasted than used, the
+ * vertices are copied to a new arena the next time the partition is
+ * iterated over.
+ *
+ * @param <I> Vertex index value
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ */
+public class OffHeapPartition<I extends WritableComparable,
+    V extends Writable, E extends Writable>
+    extends BasicPartition<I, V, E>
+    implements ReusesObjectsPartition<I, V, E> {
+  /**
+   * Size of the header of a record in the arena: the space reserved for the
+   * vertex and the size of the serialized vertex
+   */
+  private static final int HEADER_SIZE = 8;
+  /** Vertex map for this range, from vertex id to address in the arena */
+  private VertexAddressMap<I> vertexMap;
+  /** Memory the vertices are stored in */
+  private OffHeapArena arena;
+  /** Representative vertex */
+  private Vertex<I, V, E> representativeVertex;
+  /** Use unsafe serialization */
+  private boolean useUnsafeSerialization;
+  /** Buffer a vertex is copied into from the arena */
+  private byte[] readBuffer = new byte[0];
+
+  /**
+   * Constructor for reflection.
+   */
+  public OffHeapPartition() { }
+
+  @Override
+  public void initialize(int partitionId, Progressable progressable) {
+    super.initialize(partitionId, progressable);
+    createStorage(0);
+  }
+
+  /**
+   * Create the empty vertex map and arena, releasing the old arena.
+   *
+   * @param expectedVertices Expected number of vertices
+   */
+  private void createStorage(int expectedVertices) {
+    if (arena != null) {
+      arena.release();
+    }
+    vertexMap = VertexAddressMap.create(getConf(), expectedVertices);
+    arena = new OffHeapArena(GiraphConstants.OFF_HEAP_SLAB_SIZE.get(getConf()));
+    representativeVertex = getConf().createVertex();
+    representativeVertex.initialize(
+        getConf().createVertexId(),
+        getConf().createVertexValue(),
+        getConf().createOutEdges());
+    useUnsafeSerialization = getConf().useUnsafeSerialization();
+  }
+
+  /**
+   * Copy a serialized vertex into new space in the arena.
+   *
+   * @param vertexData Serialized vertex
+   * @param size Size of the serialized vertex
+   * @return Address of the vertex
+   */
+  private long store(byte[] vertexData, int size) {
+    long address = arena.allocate(HEADER_SIZE + size);
+    arena.putInt(address, size);
+    arena.putInt(address + 4, size);
+    arena.write(address + HEADER_SIZE, vertexData, 0, size);
+    return address;
+  }
+
+  /**
+   * Serialize a vertex into the arena, in place of an older version of it
+   * if that has enough space.
+   *
+   * @param vertex Vertex to serialize
+   * @param oldAddress Address of the older version, or
+   *                   {@link VertexAddressMap#NO_ADDRESS} if none
+   * @return Address of the vertex
+   */
+  private long store(Vertex<I, V, E> vertex, long oldAddress) {
+    byte[] vertexData = WritableUtils.writeVertexToByteArray(
+        vertex, useUnsafeSerialization, getConf());
+    int size = getSerializedSize(vertexData);
+    if (oldAddress != VertexAddressMap.NO_ADDRESS) {
+      int space = arena.getInt(oldAddress);
+      if (size <= space) {
+        arena.putInt(oldAddress + 4, size);
+        arena.write(oldAddress + HEADER_SIZE, vertexData, 0, size);
+        return oldAddress;
+      }
+      arena.free(HEADER_SIZE + space);
+    }
+    return store(vertexData, size);
+  }
+
+  /**
+   * Get the size of a vertex serialized by
+   * {@link WritableUtils#writeVertexToByteArray}, which is written in its
+   * first four bytes.
+   *
+   * @param vertexData Serialized vertex
+   * @return Size of the serialized vertex
+   */
+  private int getSerializedSize(byte[] vertexData) {
+    try {
+      return getConf().createExtendedDataInput(vertexData, 0, 4).readInt();
+    } catch (IOException e) {
+      throw new IllegalStateException("getSerializedSize: IOException", e);
+    }
+  }
+
+  /**
+   * Copy a serialized vertex from the arena into the read buffer.
+   *
+   * @param address Address of the vertex
+   * @return Size of the serialized vertex
+   */
+  private int load(long address) {
+    int size = arena.getInt(address + 4);
+    if (readBuffer.length < size) {
+      readBuffer = new byte[Math.max(size, readBuffer.length * 2)];
+    }
+    arena.read(address + HEADER_SIZE, readBuffer, 0, size);
+    return size;
+  }
+
+  /**
+   * Deserialize a vertex from the arena into the representative vertex.
+   *
+   * @param address Address of the vertex
+   * @return Representative vertex
+   */
+  private Vertex<I, V, E> loadVertex(long address) {
+    load(address);
+    WritableUtils.reinitializeVertexFromByteArray(
+        readBuffer, representativeVertex, useUnsafeSerialization, getConf());
+    return representativeVertex;
+  }
+
+  @Override
+  public Vertex<I, V, E> getVertex(I vertexIndex) {
+    long address = vertexMap.get(vertexIndex);
+    if (address == VertexAddressMap.NO_ADDRESS) {
+      return null;
+    }
+    return loadVertex(address);
+  }
+
+  @Override
+  public Vertex<I, V, E> putVertex(Vertex<I, V, E> vertex) {
+    getActiveVertexTracker().vertexPut(vertex);
+    long oldAddress = vertexMap.put(vertex.getId(),
+        store(vertex, VertexAddressMap.NO_ADDRESS));
+    if (oldAddress == VertexAddressMap.NO_ADDRESS) {
+      return null;
+    } else {
+      Vertex<I, V, E> oldVertex = loadVertex(oldAddress);
+      arena.free(HEADER_SIZE + arena.getInt(oldAddress));
+      return oldVertex;
+    }
+  }
+
+  @Override
+  public Vertex<I, V, E> removeVertex(I vertexIndex) {
+    getActiveVertexTracker().vertexRemoved(vertexIndex);
+    long address = vertexMap.remove(vertexIndex);
+    if (address == VertexAddressMap.NO_ADDRESS) {
+      return null;
+    }
+    Vertex<I, V, E> vertex = loadVertex(address);
+    arena.free(HEADER_SIZE + arena.getInt(address));
+    return vertex;
+  }
+
+  @Override
+  public void freeOffHeapMemory() {
+    vertexMap.clear();
+    arena.release();
+    arena = new OffHeapArena(GiraphConstants.OFF_HEAP_SLAB_SIZE.get(getConf()));
+  }
+
+  /**
+   * Add the vertices of another partition, which is emptied.
+   *
+   * @param partition Partition to add, not used by the caller anymore
+   */
+  @Override
+  public void addPartition(Partition<I, V, E> partition) {
+    // Only work with other OffHeapPartition instances
+    if (!(partition instanceof OffHeapPartition)) {
+      throw new IllegalStateException("addPartition: Cannot add partition " +
+          "of type " + partition.getClass());
+    }
+
+    getActiveVertexTracker().reset();
+    OffHeapPartition<I, V, E> offHeapPartition =
+        (OffHeapPartition<I, V, E>) partition;
+    VertexAddressMap.EntryIterator<I> iterator =
+        offHeapPartition.vertexMap.entryIterator();
+    while (iterator.next()) {
+      int size = offHeapPartition.load(iterator.getAddress());
+      long oldAddress = vertexMap.put(iterator.getVertexId(),
+          store(offHeapPartition.readBuffer, size));
+      if (oldAddress != VertexAddressMap.NO_ADDRESS) {
+        arena.free(HEADER_SIZE + arena.getInt(oldAddress));
+      }
+    }
+    offHeapPartition.freeOffHeapMemory();
+  }
+
+  @Override
+  public long getVertexCount() {
+    return vertexMap.size();
+  }
+
+  @Override
+  public long getEdgeCount() {
+    long edges = 0;
+    VertexAddressMap.EntryIterator<I> iterator = vertexMap.entryIterator();
+    while (iterator.next()) {
+      edges += loadVertex(iterator.getAddress()).getNumEdges();
+    }
+    return edges;
+  }
+
+  @Override
+  public void saveVertex(Vertex<I, V, E> vertex) {
+    // Reuse the old space whenever possible
+    long oldAddress = vertexMap.get(vertex.getId());
+    long address = store(vertex, oldAddress);
+    if (address != oldAddress) {
+      vertexMap.put(vertex.getId(), address);
+    }
+  }
+
+  /**
+   * Get the number of bytes the vertices take up outside of the heap,
+   * including space which is wasted.
+   *
+   * @return Number of bytes allocated off the heap
+   */
+  public long getOffHeapBytes() {
+    return arena.getAllocatedBytes();
+  }
+
+  /**
+   * Copy all vertices to a new arena, if more space is wasted than used.
+   */
+  private void compactIfWasteful() {
+    if (arena.getFreedBytes() <= arena.getUsedBytes()) {
+      return;
+    }
+    OffHeapArena oldArena = arena;
+    arena = new OffHeapArena(GiraphConstants.OFF_HEAP_SLAB_SIZE.get(getConf()));
+    VertexAddressMap.EntryIterator<I> iterator = vertexMap.entryIterator();
+    while (iterator.next()) {
+      progress();
+      long oldAddress = iterator.getAddress();
+      int size = oldArena.getInt(oldAddress + 4);
+      if (readBuffer.length < size) {
+        readBuffer = new byte[Math.max(size, readBuffer.length * 2)];
+      }
+      oldArena.read(oldAddress + HEADER_SIZE, readBuffer, 0, size);
+      iterator.setAddress(store(readBuffer, size));
+    }
+    oldArena.release();
+  }
+
+  @Override
+  public void write(DataOutput output) throws IOException {
+    super.write(output);
+    output.writeInt(vertexMap.size());
+    VertexAddressMap.EntryIterator<I> iterator = vertexMap.entryIterator();
+    while (iterator.next()) {
+      progress();
+      iterator.getVertexId().write(output);
+      // Same format as ByteArrayPartition: the size, then the vertex data
+      // (which starts with the size again)
+      int vertexDataSize = load(iterator.getAddress());
+      output.writeInt(vertexDataSize);
+      output.write(readBuffer, 0, vertexDataSize);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput input) throws IOException {
+    super.readFields(input);
+    int size = input.readInt();
+    createStorage(size);
+    for (int i = 0; i < size; ++i) {
+      progress();
+      I vertexId = getConf().createVertexId();
+      vertexId.readFields(input);
+      int vertexDataSize = input.readInt();
+      if (readBuffer.length < vertexDataSize) {
+        readBuffer = new byte[Math.max(vertexDataSize, readBuffer.length * 2)];
+      }
+      input.readFully(readBuffer, 0, vertexDataSize);
+      if (vertexMap.put(vertexId, store(readBuffer, vertexDataSize)) !=
+          VertexAddressMap.NO_ADDRESS) {
+        throw new IllegalStateException("readFields: Already saw vertex " +
+            vertexId);
+      }
+    }
+  }
+
+  @Override
+  public Iterator<Vertex<I, V, E>> iterator() {
+    compactIfWasteful();
+    return new RepresentativeVertexIterator();
+  }
+
+  /**
+   * Iterator that deserializes a vertex from the arena on the fly, using
+   * the same representative vertex object.
+   */
+  private class RepresentativeVertexIterator implements
+      Iterator<Vertex<I, V, E>> {
+    /** Iterator to the vertex addresses */
+    private final VertexAddressMap.EntryIterator<I> entryIterator =
+        vertexMap.entryIterator();
+    /** Whether the entry iterator is at a vertex which wasn't returned */
+    private boolean hasNextEntry = entryIterator.next();
+
+    @Override
+    public boolean hasNext() {
+      return hasNextEntry;
+    }
+
+    @Override
+    public Vertex<I, V, E> next() {
+      if (!hasNextEntry) {
+        throw new NoSuchElementException("next: No more vertices");
+      }
+      long address = entryIterator.getAddress();
+      hasNextEntry = entryIterator.next();
+      return loadVertex(address);
+    }
+
+    @Override
+    public void remove() {
+      throw new IllegalAccessError("remove: This method is not supported.");
+    }
+  }
+}
@@ -122,4 +122,12 @@ public interface Partition<I extends WritableComparable,
    * @param vertex Vertex to save
    */
   void saveVertex(Vertex<I, V, E> vertex);
+
+  /**
+   * Get the tracker of the vertices which are not halted, used to visit only
+   * the vertices which need to be computed.
+   *
+   * @return Active vertex tracker
+   */
+  ActiveVertexTracker<I, V, E> getActiveVertexTracker();
 }
@@ -18,6 +18,7 @@
 
 package org.apache.giraph.partition;
 
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.worker.WorkerInfo;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.log4j.Logger;
@@ -30,6 +31,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
@@ -51,6 +53,12 @@ public class PartitionBalancer {
   /** Rebalance across supersteps by vertices */
   public static final String VERTICES_BALANCE_ALGORITHM =
     "vertices";
+  /**
+   * Rebalance across supersteps by measured compute time and sent messages,
+   * moving partitions only when it pays off
+   */
+  public static final String COST_BALANCE_ALGORITHM =
+    "cost";
   /** Class logger */
   private static Logger LOG = Logger.getLogger(PartitionBalancer.class);
 
@@ -227,7 +235,7 @@ public class PartitionBalancer {
       balanceValue = BalanceValue.EDGES;
     } else if (balanceAlgorithm.equals(VERTICES_BALANCE_ALGORITHM)) {
       balanceValue = BalanceValue.VERTICES;
-    } else {
+    } else if (!balanceAlgorithm.equals(COST_BALANCE_ALGORITHM)) {
       throw new IllegalArgumentException(
           "balancePartitionsAcrossWorkers: Illegal balance " +
               "algorithm - " + balanceAlgorithm);
@@ -267,6 +275,11 @@ public class PartitionBalancer {
               partitionOwners.size() + " and should match.");
     }
 
+    if (balanceAlgorithm.equals(COST_BALANCE_ALGORITHM)) {
+      return balancePartitionsByCost(conf, partitionOwners, ownerStatsMap,
+          availableWorkerInfos);
+    }
+
     List<WorkerInfoAssignments> workerInfoAssignmentsList =
         new ArrayList<WorkerInfoAssignments>(availableWorkerInfos.size());
     for (WorkerInfo workerInfo : availableWorkerInfos) {
@@ -300,6 +313,217 @@ public class PartitionBalancer {
     return partitionOwnerList;
   }
 
+  /**
+   * Estimate how many milliseconds a partition costs per superstep, from
+   * its measured compute time and the messages it sent.
+   *
+   * @param conf Configuration
+   * @param partitionStats Stats of the partition
+   * @return Estimated cost in milliseconds
+   */
+  private static double getPartitionCost(Configuration conf,
+      PartitionStats partitionStats) {
+    long messagesPerMs =
+        Math.max(1, GiraphConstants.COST_BALANCE_MESSAGES_PER_MS.get(conf));
+    long messageBytesPerMs = Math.max(1,
+        GiraphConstants.COST_BALANCE_MESSAGE_BYTES_PER_MS.get(conf));
+    return partitionStats.getComputeMs() +
+        (double) partitionStats.getMessagesSentCount() / messagesPerMs +
+        (double) partitionStats.getMessageBytesSentCount() / messageBytesPerMs;
+  }
+
+  /**
+   * Estimate how many milliseconds moving a partition to another worker
+   * costs, from its number of vertices and edges.
+   *
+   * @param conf Configuration
+   * @param partitionStats Stats of the partition
+   * @return Estimated migration cost in milliseconds
+   */
+  private static double getMigrationCost(Configuration conf,
+      PartitionStats partitionStats) {
+    return (double) (partitionStats.getVertexCount() +
+        partitionStats.getEdgeCount()) /
+        Math.max(1,
+            GiraphConstants.COST_BALANCE_MIGRATED_ELEMENTS_PER_MS.get(conf));
+  }
+
+  /**
+   * Total cost of the partitions assigned to a worker.
+   */
+  private static class WorkerCost implements Comparable<WorkerCost> {
+    /** Worker info */
+    private final WorkerInfo workerInfo;
+    /** Partitions currently assigned to the worker */
+    private final List<PartitionOwner> partitionOwners =
+        new ArrayList<PartitionOwner>();
+    /** Total cost of the assigned partitions */
+    private double cost = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param workerInfo Worker info
+     */
+    public WorkerCost(WorkerInfo workerInfo) {
+      this.workerInfo = workerInfo;
+    }
+
+    /**
+     * Add a partition to this worker.
+     *
+     * @param partitionOwner Partition owner
+     * @param partitionCost Cost of the partition
+     */
+    public void add(PartitionOwner partitionOwner, double partitionCost) {
+      partitionOwners.add(partitionOwner);
+      cost += partitionCost;
+    }
+
+    /**
+     * Remove a partition from this worker.
+     *
+     * @param partitionOwner Partition owner
+     * @param partitionCost Cost of the partition
+     */
+    public void remove(PartitionOwner partitionOwner, double partitionCost) {
+      partitionOwners.remove(partitionOwner);
+      cost -= partitionCost;
+    }
+
+    @Override
+    public int compareTo(WorkerCost other) {
+      return Double.compare(cost, other.cost);
+    }
+  }
+
+  /**
+   * Move a partition to another worker.  The previous worker info is the
+   * worker which had the partition before balancing started, or null if
+   * the partition ends up there again.
+   *
+   * @param partitionOwner Partition owner to move
+   * @param partitionCost Cost of the partition
+   * @param from Worker the partition is assigned to (null if none)
+   * @param to Worker to move the partition to
+   * @param originalWorkerInfo Worker which had the partition before
+   */
+  private static void movePartition(PartitionOwner partitionOwner,
+      double partitionCost, WorkerCost from, WorkerCost to,
+      WorkerInfo originalWorkerInfo) {
+    if (from != null) {
+      from.remove(partitionOwner, partitionCost);
+    }
+    to.add(partitionOwner, partitionCost);
+    partitionOwner.setWorkerInfo(to.workerInfo);
+    partitionOwner.setPreviousWorkerInfo(
+        to.workerInfo.equals(originalWorkerInfo) ? null : originalWorkerInfo);
+  }
+
+  /**
+   * Balance the partitions by their cost, starting from the current
+   * assignment.  Partitions of workers which are no longer available are
+   * given to the cheapest workers first.  Then partitions are moved one at
+   * a time from the most expensive worker (which determines how long a
+   * superstep takes) to the cheapest one, as long as the time saved over
+   * {@link GiraphConstants#COST_BALANCE_AMORTIZATION_SUPERSTEPS} supersteps
+   * is larger than the cost of migrating the partition.
+   *
+   * @param conf Configuration
+   * @param partitionOwners All the owners of all partitions
+   * @param ownerStatsMap Map of owners to stats
+   * @param availableWorkerInfos All the available workers
+   * @return Balanced partition owners
+   */
+  private static Collection<PartitionOwner> balancePartitionsByCost(
+      Configuration conf,
+      Collection<PartitionOwner> partitionOwners,
+      Map<PartitionOwner, PartitionStats> ownerStatsMap,
+      Collection<WorkerInfo> availableWorkerInfos) {
+    int amortizationSupersteps =
+        GiraphConstants.COST_BALANCE_AMORTIZATION_SUPERSTEPS.get(conf);
+    Map<WorkerInfo, WorkerCost> workerCostMap =
+        new LinkedHashMap<WorkerInfo, WorkerCost>();
+    for (WorkerInfo workerInfo : availableWorkerInfos) {
+      workerCostMap.put(workerInfo, new WorkerCost(workerInfo));
+    }
+    final Map<PartitionOwner, Double> partitionCostMap =
+        new HashMap<PartitionOwner, Double>();
+    Map<PartitionOwner, WorkerInfo> originalWorkerMap =
+        new HashMap<PartitionOwner, WorkerInfo>();
+    List<PartitionOwner> orphanedOwners = new ArrayList<PartitionOwner>();
+    for (PartitionOwner partitionOwner : partitionOwners) {
+      partitionCostMap.put(partitionOwner,
+          getPartitionCost(conf, ownerStatsMap.get(partitionOwner)));
+      originalWorkerMap.put(partitionOwner, partitionOwner.getWorkerInfo());
+      partitionOwner.setPreviousWorkerInfo(null);
+      WorkerCost workerCost =
+          workerCostMap.get(partitionOwner.getWorkerInfo());
+      if (workerCost == null) {
+        orphanedOwners.add(partitionOwner);
+      } else {
+        workerCost.add(partitionOwner, partitionCostMap.get(partitionOwner));
+      }
+    }
+
+    // Partitions of lost workers have to move, most expensive first
+    Collections.sort(orphanedOwners, new Comparator<PartitionOwner>() {
+      @Override
+      public int compare(PartitionOwner owner1, PartitionOwner owner2) {
+        return partitionCostMap.get(owner2).compareTo(
+            partitionCostMap.get(owner1));
+      }
+    });
+    for (PartitionOwner partitionOwner : orphanedOwners) {
+      movePartition(partitionOwner, partitionCostMap.get(partitionOwner),
+          null, Collections.min(workerCostMap.values()),
+          originalWorkerMap.get(partitionOwner));
+    }
+
+    // Move the partition which shortens the superstep the most, while
+    // that pays for its migration
+    int moves = 0;
+    while (workerCostMap.size() > 1 && moves < partitionOwners.size()) {
+      WorkerCost maxWorker = Collections.max(workerCostMap.values());
+      WorkerCost minWorker = Collections.min(workerCostMap.values());
+      double otherMaxCost = 0;
+      for (WorkerCost workerCost : workerCostMap.values()) {
+        if (workerCost != maxWorker && workerCost != minWorker) {
+          otherMaxCost = Math.max(otherMaxCost, workerCost.cost);
+        }
+      }
+      PartitionOwner bestOwner = null;
+      double bestBenefit = 0;
+      for (PartitionOwner partitionOwner : maxWorker.partitionOwners) {
+        double partitionCost = partitionCostMap.get(partitionOwner);
+        double newMaxCost = Math.max(otherMaxCost, Math.max(
+            maxWorker.cost - partitionCost, minWorker.cost + partitionCost));
+        double benefit = (maxWorker.cost - newMaxCost) *
+            amortizationSupersteps -
+            getMigrationCost(conf, ownerStatsMap.get(partitionOwner));
+        if (benefit > bestBenefit) {
+          bestOwner = partitionOwner;
+          bestBenefit = benefit;
+        }
+      }
+      if (bestOwner == null) {
+        break;
+      }
+      if (LOG.isInfoEnabled()) {
+        LOG.info("balancePartitionsByCost: Moving partition " +
+            bestOwner.getPartitionId() + " with cost " +
+            partitionCostMap.get(bestOwner) + " ms from " +
+            maxWorker.workerInfo + " (" + maxWorker.cost + " ms) to " +
+            minWorker.workerInfo + " (" + minWorker.cost + " ms)");
+      }
+      movePartition(bestOwner, partitionCostMap.get(bestOwner), maxWorker,
+          minWorker, originalWorkerMap.get(bestOwner));
+      ++moves;
+    }
+
+    return partitionOwners;
+  }
+
   /**
    * Helper function to update partition owners and determine which
    * partitions need to be sent from a specific worker.
@@ -40,6 +40,8 @@ public class PartitionStats implements Writable {
   private long messagesSentCount = 0;
   /** Message byetes sent from this partition */
   private long messageBytesSentCount = 0;
+  /** Milliseconds spent computing this partition */
+  private long computeMs = 0;
 
   /**
    * Default constructor for reflection.
@@ -174,6 +176,39 @@ public class PartitionStats implements Writable {
     return messageBytesSentCount;
   }
 
+  /**
+   * Add milliseconds to the compute time.
+   *
+   * @param computeMs Milliseconds spent computing to add.
+   */
+  public void addComputeMs(long computeMs) {
+    this.computeMs += computeMs;
+  }
+
+  /**
+   * Get the time spent computing this partition.
+   *
+   * @return Compute time in milliseconds.
+   */
+  public long getComputeMs() {
+    return computeMs;
+  }
+
+  /**
+   * Add the counts of another set of stats to this one.  Used to combine
+   * the stats of a partition that was computed in several pieces.
+   *
+   * @param other Stats to add
+   */
+  public void addPartitionStats(PartitionStats other) {
+    vertexCount += other.getVertexCount();
+    finishedVertexCount += other.getFinishedVertexCount();
+    edgeCount += other.getEdgeCount();
+    messagesSentCount += other.getMessagesSentCount();
+    messageBytesSentCount += other.getMessageBytesSentCount();
+    computeMs += other.getComputeMs();
+  }
+
   @Override
   public void readFields(DataInput input) throws IOException {
     partitionId = input.readInt();
@@ -182,6 +217,7 @@ public class PartitionStats implements Writable {
     edgeCount = input.readLong();
     messagesSentCount = input.readLong();
     messageBytesSentCount = input.readLong();
+    computeMs = input.readLong();
   }
 
   @Override
@@ -192,6 +228,7 @@ public class PartitionStats implements Writable {
     output.writeLong(edgeCount);
     output.writeLong(messagesSentCount);
     output.writeLong(messageBytesSentCount);
+    output.writeLong(computeMs);
   }
 
   @Override
@@ -199,6 +236,6 @@ public class PartitionStats implements Writable {
     return "(id=" + partitionId + ",vtx=" + vertexCount + ",finVtx=" +
         finishedVertexCount + ",edges=" + edgeCount + ",msgsSent=" +
         messagesSentCount + ",msgBytesSent=" +
-          messageBytesSentCount + ")";
+          messageBytesSentCount + ",computeMs=" + computeMs + ")";
   }
 }
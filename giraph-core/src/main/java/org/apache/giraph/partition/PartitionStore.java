@@ -104,6 +104,16 @@ public abstract class PartitionStore<I extends WritableComparable,
     return getNumPartitions() == 0;
   }
 
+  /**
+   * Hint that the given partitions will be requested soon, so that stores
+   * which keep partitions out of core can start loading them.  Does nothing
+   * by default.
+   *
+   * @param partitionIds Ids of the partitions, in the order they will be
+   *                     requested
+   */
+  public void prefetchPartitions(Iterable<Integer> partitionIds) { }
+
   /**
    * Called at the end of the computation.
    */
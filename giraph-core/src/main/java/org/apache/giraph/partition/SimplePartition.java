@@ -18,7 +18,10 @@
 
 package org.apache.giraph.partition;
 
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.edge.OffHeapEdges;
 import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.utils.OffHeapArena;
 import org.apache.giraph.utils.WritableUtils;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
@@ -37,7 +40,8 @@ import static org.apache.giraph.conf.GiraphConstants.USE_OUT_OF_CORE_MESSAGES;
 
 /**
  * A simple map-based container that stores vertices.  Vertex ids will map to
- * exactly one partition.
+ * exactly one partition.  If the edges are {@link OffHeapEdges}, the
+ * partition keeps them in an arena of its own.
  *
  * @param <I> Vertex id
  * @param <V> Vertex data
@@ -49,6 +53,8 @@ public class SimplePartition<I extends WritableComparable,
     extends BasicPartition<I, V, E> {
   /** Vertex map for this range (keyed by index) */
   private ConcurrentMap<I, Vertex<I, V, E>> vertexMap;
+  /** Arena for the edges of the vertices (null if they aren't off-heap) */
+  private OffHeapArena edgesArena;
 
   /**
    * Constructor for reflection.
@@ -58,11 +64,37 @@ public class SimplePartition<I extends WritableComparable,
   @Override
   public void initialize(int partitionId, Progressable progressable) {
     super.initialize(partitionId, progressable);
+    createStorage();
+  }
+
+  /**
+   * Create the empty vertex map, and the arena for the edges if they are
+   * off-heap, releasing the old arena.
+   */
+  private void createStorage() {
     if (USE_OUT_OF_CORE_MESSAGES.get(getConf())) {
       vertexMap = new ConcurrentSkipListMap<I, Vertex<I, V, E>>();
     } else {
       vertexMap = Maps.newConcurrentMap();
     }
+    if (edgesArena != null) {
+      edgesArena.release();
+    }
+    edgesArena = OffHeapEdges.class.isAssignableFrom(
+        getConf().getOutEdgesClass()) ? new OffHeapArena(
+        GiraphConstants.OFF_HEAP_SLAB_SIZE.get(getConf())) : null;
+  }
+
+  /**
+   * Move the edges of a vertex to an arena, or to the heap.
+   *
+   * @param vertex Vertex
+   * @param arena Arena to keep the edges in, or null to keep them on the heap
+   */
+  private void moveEdges(Vertex<I, V, E> vertex, OffHeapArena arena) {
+    if (vertex != null && vertex.getEdges() instanceof OffHeapEdges) {
+      ((OffHeapEdges) vertex.getEdges()).moveToArena(arena);
+    }
   }
 
   @Override
@@ -72,17 +104,29 @@ public class SimplePartition<I extends WritableComparable,
 
   @Override
   public Vertex<I, V, E> putVertex(Vertex<I, V, E> vertex) {
-    return vertexMap.put(vertex.getId(), vertex);
+    getActiveVertexTracker().vertexPut(vertex);
+    moveEdges(vertex, edgesArena);
+    Vertex<I, V, E> oldVertex = vertexMap.put(vertex.getId(), vertex);
+    if (oldVertex != vertex) {
+      // The replaced vertex may still be used, but not its block of the arena
+      moveEdges(oldVertex, null);
+    }
+    return oldVertex;
   }
 
   @Override
   public Vertex<I, V, E> removeVertex(I vertexIndex) {
-    return vertexMap.remove(vertexIndex);
+    getActiveVertexTracker().vertexRemoved(vertexIndex);
+    Vertex<I, V, E> vertex = vertexMap.remove(vertexIndex);
+    moveEdges(vertex, null);
+    return vertex;
   }
 
   @Override
   public void addPartition(Partition<I, V, E> partition) {
+    getActiveVertexTracker().reset();
     for (Vertex<I, V, E> vertex : partition) {
+      moveEdges(vertex, edgesArena);
       vertexMap.put(vertex.getId(), vertex);
     }
   }
@@ -103,7 +147,19 @@ public class SimplePartition<I extends WritableComparable,
 
   @Override
   public void saveVertex(Vertex<I, V, E> vertex) {
-    // No-op, vertices are stored as Java objects in this partition
+    // Vertices are stored as Java objects in this partition, only edges
+    // which were replaced by the computation have to go to the arena
+    moveEdges(vertex, edgesArena);
+  }
+
+  @Override
+  public void freeOffHeapMemory() {
+    vertexMap.clear();
+    if (edgesArena != null) {
+      edgesArena.release();
+      edgesArena = new OffHeapArena(
+          GiraphConstants.OFF_HEAP_SLAB_SIZE.get(getConf()));
+    }
   }
 
   @Override
@@ -114,16 +170,13 @@ public class SimplePartition<I extends WritableComparable,
   @Override
   public void readFields(DataInput input) throws IOException {
     super.readFields(input);
-    if (USE_OUT_OF_CORE_MESSAGES.get(getConf())) {
-      vertexMap = new ConcurrentSkipListMap<I, Vertex<I, V, E>>();
-    } else {
-      vertexMap = Maps.newConcurrentMap();
-    }
+    createStorage();
     int vertices = input.readInt();
     for (int i = 0; i < vertices; ++i) {
       progress();
       Vertex<I, V, E> vertex =
           WritableUtils.readVertexFromDataInput(input, getConf());
+      moveEdges(vertex, edgesArena);
       if (vertexMap.put(vertex.getId(), vertex) != null) {
         throw new IllegalStateException(
             "readFields: " + this +
@@ -82,7 +82,11 @@ public class SimplePartitionStore<I extends WritableComparable,
 
   @Override
   public void deletePartition(Integer partitionId) {
-    partitions.remove(partitionId);
+    Partition<I, V, E> partition = partitions.remove(partitionId);
+    if (partition instanceof BasicPartition) {
+      // Nobody uses a deleted partition, so its memory can go right away
+      ((BasicPartition<I, V, E>) partition).freeOffHeapMemory();
+    }
   }
 
   @Override
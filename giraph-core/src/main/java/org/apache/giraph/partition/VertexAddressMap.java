@@ -0,0 +1,423 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.WritableComparable;
+
+import com.google.common.collect.MapMaker;
+
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Map from vertex id to the address of the vertex, used by
+ * {@link OffHeapPartition}.  {@link IntWritable} and {@link LongWritable}
+ * ids are kept in fastutil primitive maps, so that there is no boxed key
+ * and address object per vertex.  Single entries can be accessed from
+ * several threads, iteration must not overlap with changes of other
+ * entries.
+ *
+ * @param <I> Vertex id
+ */
+@SuppressWarnings("rawtypes")
+abstract class VertexAddressMap<I extends WritableComparable> {
+  /** Address returned for vertices which are not in the map */
+  static final long NO_ADDRESS = -1;
+
+  /**
+   * Create the map for the vertex id class of the configuration.
+   *
+   * @param conf Configuration
+   * @param expectedVertices Expected number of vertices
+   * @param <I> Vertex id
+   * @return Empty map
+   */
+  @SuppressWarnings("unchecked")
+  static <I extends WritableComparable> VertexAddressMap<I> create(
+      ImmutableClassesGiraphConfiguration<I, ?, ?> conf,
+      int expectedVertices) {
+    Class<I> vertexIdClass = conf.getVertexIdClass();
+    if (vertexIdClass.equals(IntWritable.class)) {
+      return (VertexAddressMap<I>) new IntVertexAddressMap(expectedVertices);
+    } else if (vertexIdClass.equals(LongWritable.class)) {
+      return (VertexAddressMap<I>) new LongVertexAddressMap(expectedVertices);
+    } else {
+      return new GenericVertexAddressMap<I>(
+          conf.getNettyServerExecutionConcurrency(), expectedVertices);
+    }
+  }
+
+  /**
+   * Get the address of a vertex.
+   *
+   * @param vertexId Vertex id
+   * @return Address, or {@link #NO_ADDRESS} if the vertex isn't in the map
+   */
+  abstract long get(I vertexId);
+
+  /**
+   * Set the address of a vertex.
+   *
+   * @param vertexId Vertex id, which is not copied by maps of objects
+   * @param address Address
+   * @return Previous address, or {@link #NO_ADDRESS} if there was none
+   */
+  abstract long put(I vertexId, long address);
+
+  /**
+   * Remove a vertex.
+   *
+   * @param vertexId Vertex id
+   * @return Address of the removed vertex, or {@link #NO_ADDRESS} if there
+   *         was none
+   */
+  abstract long remove(I vertexId);
+
+  /**
+   * Get the number of vertices.
+   *
+   * @return Number of vertices
+   */
+  abstract int size();
+
+  /**
+   * Remove all vertices.
+   */
+  abstract void clear();
+
+  /**
+   * Get an iterator over the vertices.
+   *
+   * @return Iterator
+   */
+  abstract EntryIterator<I> entryIterator();
+
+  /**
+   * Iterator over the vertices of the map, which can change the address of
+   * the current vertex.
+   *
+   * @param <I> Vertex id
+   */
+  interface EntryIterator<I extends WritableComparable> {
+    /**
+     * Move to the next vertex.
+     *
+     * @return False iff there are no more vertices
+     */
+    boolean next();
+
+    /**
+     * Get the id of the current vertex.
+     *
+     * @return Vertex id, may be reused for the next vertex
+     */
+    I getVertexId();
+
+    /**
+     * Get the address of the current vertex.
+     *
+     * @return Address
+     */
+    long getAddress();
+
+    /**
+     * Change the address of the current vertex.
+     *
+     * @param address New address
+     */
+    void setAddress(long address);
+  }
+
+  /**
+   * Map for any vertex id class.
+   *
+   * @param <I> Vertex id
+   */
+  private static class GenericVertexAddressMap<I extends WritableComparable>
+      extends VertexAddressMap<I> {
+    /** Map from id to address */
+    private final ConcurrentMap<I, Long> map;
+
+    /**
+     * Constructor
+     *
+     * @param concurrencyLevel Expected number of threads changing the map
+     * @param expectedVertices Expected number of vertices
+     */
+    GenericVertexAddressMap(int concurrencyLevel, int expectedVertices) {
+      map = new MapMaker().concurrencyLevel(concurrencyLevel)
+          .initialCapacity(expectedVertices).makeMap();
+    }
+
+    /**
+     * Unbox an address.
+     *
+     * @param address Address, or null
+     * @return Address, or {@link #NO_ADDRESS} if null
+     */
+    private static long toAddress(Long address) {
+      return (address == null) ? NO_ADDRESS : address;
+    }
+
+    @Override
+    long get(I vertexId) {
+      return toAddress(map.get(vertexId));
+    }
+
+    @Override
+    long put(I vertexId, long address) {
+      return toAddress(map.put(vertexId, address));
+    }
+
+    @Override
+    long remove(I vertexId) {
+      return toAddress(map.remove(vertexId));
+    }
+
+    @Override
+    int size() {
+      return map.size();
+    }
+
+    @Override
+    void clear() {
+      map.clear();
+    }
+
+    @Override
+    EntryIterator<I> entryIterator() {
+      final Iterator<Map.Entry<I, Long>> iterator = map.entrySet().iterator();
+      return new EntryIterator<I>() {
+        /** Current entry */
+        private Map.Entry<I, Long> entry;
+
+        @Override
+        public boolean next() {
+          entry = iterator.hasNext() ? iterator.next() : null;
+          return entry != null;
+        }
+
+        @Override
+        public I getVertexId() {
+          return entry.getKey();
+        }
+
+        @Override
+        public long getAddress() {
+          return entry.getValue();
+        }
+
+        @Override
+        public void setAddress(long address) {
+          map.put(entry.getKey(), address);
+        }
+      };
+    }
+  }
+
+  /**
+   * Map for {@link IntWritable} ids.
+   */
+  private static class IntVertexAddressMap
+      extends VertexAddressMap<IntWritable> {
+    /** Map from id to address, synchronized on */
+    private final Int2LongOpenHashMap map;
+
+    /**
+     * Constructor
+     *
+     * @param expectedVertices Expected number of vertices
+     */
+    IntVertexAddressMap(int expectedVertices) {
+      map = new Int2LongOpenHashMap(expectedVertices);
+      map.defaultReturnValue(NO_ADDRESS);
+    }
+
+    @Override
+    long get(IntWritable vertexId) {
+      synchronized (map) {
+        return map.get(vertexId.get());
+      }
+    }
+
+    @Override
+    long put(IntWritable vertexId, long address) {
+      synchronized (map) {
+        return map.put(vertexId.get(), address);
+      }
+    }
+
+    @Override
+    long remove(IntWritable vertexId) {
+      synchronized (map) {
+        return map.remove(vertexId.get());
+      }
+    }
+
+    @Override
+    int size() {
+      synchronized (map) {
+        return map.size();
+      }
+    }
+
+    @Override
+    void clear() {
+      synchronized (map) {
+        map.clear();
+      }
+    }
+
+    @Override
+    EntryIterator<IntWritable> entryIterator() {
+      final ObjectIterator<Int2LongMap.Entry> iterator =
+          map.int2LongEntrySet().fastIterator();
+      return new EntryIterator<IntWritable>() {
+        /** Reused id of the current vertex */
+        private final IntWritable vertexId = new IntWritable();
+        /** Current entry */
+        private Int2LongMap.Entry entry;
+
+        @Override
+        public boolean next() {
+          entry = iterator.hasNext() ? iterator.next() : null;
+          if (entry != null) {
+            vertexId.set(entry.getIntKey());
+          }
+          return entry != null;
+        }
+
+        @Override
+        public IntWritable getVertexId() {
+          return vertexId;
+        }
+
+        @Override
+        public long getAddress() {
+          return entry.getLongValue();
+        }
+
+        @Override
+        public void setAddress(long address) {
+          entry.setValue(address);
+        }
+      };
+    }
+  }
+
+  /**
+   * Map for {@link LongWritable} ids.
+   */
+  private static class LongVertexAddressMap
+      extends VertexAddressMap<LongWritable> {
+    /** Map from id to address, synchronized on */
+    private final Long2LongOpenHashMap map;
+
+    /**
+     * Constructor
+     *
+     * @param expectedVertices Expected number of vertices
+     */
+    LongVertexAddressMap(int expectedVertices) {
+      map = new Long2LongOpenHashMap(expectedVertices);
+      map.defaultReturnValue(NO_ADDRESS);
+    }
+
+    @Override
+    long get(LongWritable vertexId) {
+      synchronized (map) {
+        return map.get(vertexId.get());
+      }
+    }
+
+    @Override
+    long put(LongWritable vertexId, long address) {
+      synchronized (map) {
+        return map.put(vertexId.get(), address);
+      }
+    }
+
+    @Override
+    long remove(LongWritable vertexId) {
+      synchronized (map) {
+        return map.remove(vertexId.get());
+      }
+    }
+
+    @Override
+    int size() {
+      synchronized (map) {
+        return map.size();
+      }
+    }
+
+    @Override
+    void clear() {
+      synchronized (map) {
+        map.clear();
+      }
+    }
+
+    @Override
+    EntryIterator<LongWritable> entryIterator() {
+      final ObjectIterator<Long2LongMap.Entry> iterator =
+          map.long2LongEntrySet().fastIterator();
+      return new EntryIterator<LongWritable>() {
+        /** Reused id of the current vertex */
+        private final LongWritable vertexId = new LongWritable();
+        /** Current entry */
+        private Long2LongMap.Entry entry;
+
+        @Override
+        public boolean next() {
+          entry = iterator.hasNext() ? iterator.next() : null;
+          if (entry != null) {
+            vertexId.set(entry.getLongKey());
+          }
+          return entry != null;
+        }
+
+        @Override
+        public LongWritable getVertexId() {
+          return vertexId;
+        }
+
+        @Override
+        public long getAddress() {
+          return entry.getLongValue();
+        }
+
+        @Override
+        public void setAddress(long address) {
+          entry.setValue(address);
+        }
+      };
+    }
+  }
+}
@@ -20,15 +20,33 @@ package org.apache.giraph.utils;
 
 import org.apache.giraph.conf.ImmutableClassesGiraphConfigurable;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.IOException;
 
 /**
  * Stores pairs of vertex id and generic data in a single byte array
+ * <p/>
+ * If {@link ImmutableClassesGiraphConfiguration#useVertexIdDeltaEncoding()}
+ * is set, the pairs are sorted by vertex id when they are written, and each
+ * id is written as the variable-length difference to the previous one
+ * (the first id is zigzag encoded).  The iterators decode such ids
+ * transparently.
+ * <p/>
+ * When read from an {@link ExtendedDataInput} (as requests are, if Netty
+ * hands over a heap buffer), the pairs are not copied but refer to the
+ * bytes of the input, starting at {@link #getOffset()}.  They are copied
+ * only if more pairs are added.
  *
  * @param <I> Vertex id
  * @param <T> Data
@@ -39,6 +57,15 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
   private ExtendedDataOutput extendedDataOutput;
   /** Configuration */
   private ImmutableClassesGiraphConfiguration<I, ?, ?> configuration;
+  /** Offset of every pair, kept only if ids are delta encoded when sent */
+  private IntArrayList entryOffsets;
+  /** Whether the ids in the byte array are delta encoded */
+  private boolean idsDeltaEncoded;
+  /**
+   * Offset of the pairs in the byte array, not zero only if they refer to
+   * the bytes of a received request
+   */
+  private int offset;
 
   /**
    * Create a new data object.
@@ -73,6 +100,7 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
    */
   public void initialize() {
     extendedDataOutput = configuration.createExtendedDataOutput();
+    initializeEntryOffsets();
   }
 
   /**
@@ -83,6 +111,37 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
    */
   public void initialize(int expectedSize) {
     extendedDataOutput = configuration.createExtendedDataOutput(expectedSize);
+    initializeEntryOffsets();
+  }
+
+  /**
+   * Start keeping the offsets of the pairs, if ids will be delta encoded.
+   */
+  private void initializeEntryOffsets() {
+    entryOffsets = configuration.useVertexIdDeltaEncoding() ?
+        new IntArrayList() : null;
+    idsDeltaEncoded = false;
+    offset = 0;
+  }
+
+  /**
+   * Copy the pairs if they refer to the bytes of a received request, so
+   * that more can be added.
+   */
+  private void prepareToAdd() {
+    if (idsDeltaEncoded) {
+      throw new IllegalStateException("prepareToAdd: Can't add to pairs " +
+          "with delta encoded ids");
+    }
+    ExtendedDataOutput copy =
+        configuration.createExtendedDataOutput(getSize() + 64);
+    try {
+      copy.write(getByteArray(), offset, getSize());
+    } catch (IOException e) {
+      throw new IllegalStateException("prepareToAdd: IOException", e);
+    }
+    extendedDataOutput = copy;
+    offset = 0;
   }
 
   /**
@@ -92,6 +151,12 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
    * @param data Data
    */
   public void add(I vertexId, T data) {
+    if (offset != 0 || idsDeltaEncoded) {
+      prepareToAdd();
+    }
+    if (entryOffsets != null) {
+      entryOffsets.add(extendedDataOutput.getPos());
+    }
     try {
       vertexId.write(extendedDataOutput);
       writeData(extendedDataOutput, data);
@@ -108,6 +173,12 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
    * @param data Data
    */
   public void add(byte[] serializedId, int idPos, T data) {
+    if (offset != 0 || idsDeltaEncoded) {
+      prepareToAdd();
+    }
+    if (entryOffsets != null) {
+      entryOffsets.add(extendedDataOutput.getPos());
+    }
     try {
       extendedDataOutput.write(serializedId, 0, idPos);
       writeData(extendedDataOutput, data);
@@ -122,7 +193,7 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
    * @return Bytes used
    */
   public int getSize() {
-    return extendedDataOutput.getPos();
+    return extendedDataOutput.getPos() - offset;
   }
 
   /**
@@ -140,14 +211,24 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
    * @return Whether the list is empty
    */
   public boolean isEmpty() {
-    return extendedDataOutput.getPos() == 0;
+    return getSize() == 0;
   }
 
   /**
    * Clear the list.
    */
   public void clear() {
-    extendedDataOutput.reset();
+    if (offset != 0) {
+      // Don't overwrite the bytes of the received request
+      extendedDataOutput = configuration.createExtendedDataOutput();
+      offset = 0;
+    } else {
+      extendedDataOutput.reset();
+    }
+    idsDeltaEncoded = false;
+    if (entryOffsets != null) {
+      entryOffsets.clear();
+    }
   }
 
   /**
@@ -159,6 +240,15 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
     return extendedDataOutput.getByteArray();
   }
 
+  /**
+   * Get the offset of the pairs in the underlying byte-array.
+   *
+   * @return Offset of the first pair
+   */
+  public int getOffset() {
+    return offset;
+  }
+
   @Override
   public void setConf(ImmutableClassesGiraphConfiguration configuration) {
     this.configuration = configuration;
@@ -171,13 +261,122 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
 
   @Override
   public void write(DataOutput dataOutput) throws IOException {
-    WritableUtils.writeExtendedDataOutput(extendedDataOutput, dataOutput);
+    if (entryOffsets != null && entryOffsets.size() > 1 &&
+        writeDeltaEncoded(dataOutput)) {
+      return;
+    }
+    dataOutput.writeBoolean(idsDeltaEncoded);
+    dataOutput.writeInt(getSize());
+    dataOutput.write(getByteArray(), offset, getSize());
   }
 
   @Override
   public void readFields(DataInput dataInput) throws IOException {
-    extendedDataOutput =
-        WritableUtils.readExtendedDataOutput(dataInput, configuration);
+    idsDeltaEncoded = dataInput.readBoolean();
+    entryOffsets = null;
+    if (dataInput instanceof ExtendedDataInput) {
+      // Refer to the bytes of the input instead of copying them
+      ExtendedDataInput extendedDataInput = (ExtendedDataInput) dataInput;
+      int size = extendedDataInput.readInt();
+      offset = extendedDataInput.getPos();
+      if (extendedDataInput.skipBytes(size) != size) {
+        throw new EOFException("readFields: Failed to skip " + size);
+      }
+      extendedDataOutput = configuration.createExtendedDataOutput(
+          extendedDataInput.getByteArray(), offset + size);
+    } else {
+      offset = 0;
+      extendedDataOutput =
+          WritableUtils.readExtendedDataOutput(dataInput, configuration);
+    }
+  }
+
+  /**
+   * Write the pairs sorted by vertex id, with the ids delta encoded, unless
+   * that isn't smaller than the byte array as it is.  The pairs in memory
+   * are left as they are.
+   *
+   * @param dataOutput Output to write to
+   * @return True iff the pairs were written
+   * @throws IOException
+   */
+  private boolean writeDeltaEncoded(DataOutput dataOutput)
+    throws IOException {
+    int numEntries = entryOffsets.size();
+    int[] offsets = entryOffsets.elements();
+    int idSize = (configuration.getVertexIdClass() == IntWritable.class) ?
+        4 : 8;
+    final long[] ids = new long[numEntries];
+    ExtendedDataInput in = configuration.createExtendedDataInput(
+        getByteArray(), 0, getSize());
+    boolean sorted = true;
+    for (int i = 0; i < numEntries; ++i) {
+      ids[i] = (idSize == 4) ? in.readInt() : in.readLong();
+      sorted &= i == 0 || ids[i - 1] <= ids[i];
+      in.skipBytes(getEntryEnd(i) - offsets[i] - idSize);
+    }
+    int[] order = new int[numEntries];
+    for (int i = 0; i < numEntries; ++i) {
+      order[i] = i;
+    }
+    if (!sorted) {
+      // Stable, so that messages to a vertex keep their order
+      IntArrays.mergeSort(order, new AbstractIntComparator() {
+        @Override
+        public int compare(int entry1, int entry2) {
+          return (ids[entry1] < ids[entry2]) ? -1 :
+              ((ids[entry1] == ids[entry2]) ? 0 : 1);
+        }
+      });
+    }
+
+    int encodedSize = 0;
+    for (int k = 0; k < numEntries; ++k) {
+      encodedSize += WritableUtils.getUnsignedVarLongSize(
+          getIdDelta(ids, order, k)) +
+          getEntryEnd(order[k]) - offsets[order[k]] - idSize;
+    }
+    if (encodedSize >= getSize()) {
+      return false;
+    }
+    dataOutput.writeBoolean(true);
+    dataOutput.writeInt(encodedSize);
+    for (int k = 0; k < numEntries; ++k) {
+      int entry = order[k];
+      WritableUtils.writeUnsignedVarLong(getIdDelta(ids, order, k),
+          dataOutput);
+      dataOutput.write(getByteArray(), offsets[entry] + idSize,
+          getEntryEnd(entry) - offsets[entry] - idSize);
+    }
+    return true;
+  }
+
+  /**
+   * Get the end of a pair in the byte array.
+   *
+   * @param entry Number of the pair
+   * @return Offset after the pair
+   */
+  private int getEntryEnd(int entry) {
+    return (entry + 1 < entryOffsets.size()) ?
+        entryOffsets.getInt(entry + 1) : getSize();
+  }
+
+  /**
+   * Get the encoded id of a pair in sorted order: the zigzag encoded id
+   * for the first pair, and the difference to the previous id otherwise.
+   *
+   * @param ids Vertex ids of the pairs
+   * @param order Numbers of the pairs in sorted order
+   * @param k Position in sorted order
+   * @return Encoded id
+   */
+  private static long getIdDelta(long[] ids, int[] order, int k) {
+    if (k == 0) {
+      long id = ids[order[0]];
+      return (id << 1) ^ (id >> 63);
+    }
+    return ids[order[k]] - ids[order[k - 1]];
   }
 
   /**
@@ -202,10 +401,14 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
   public class VertexIdDataIterator extends VertexIdIterator<I> {
     /** Current data. */
     private T data;
+    /** Previous vertex id, if ids are delta encoded */
+    private long previousId;
+    /** Whether the next vertex id is the first one */
+    private boolean firstId = true;
 
     /** Default constructor. */
     public VertexIdDataIterator() {
-      super(extendedDataOutput, configuration);
+      super(extendedDataOutput, offset, configuration);
     }
 
     @Override
@@ -217,13 +420,37 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
         data = createData();
       }
       try {
-        vertexId.readFields(extendedDataInput);
+        readVertexId();
         readData(extendedDataInput, data);
       } catch (IOException e) {
         throw new IllegalStateException("next: IOException", e);
       }
     }
 
+    /**
+     * Read the next vertex id into the current vertex id object.
+     *
+     * @throws IOException
+     */
+    protected void readVertexId() throws IOException {
+      if (!idsDeltaEncoded) {
+        vertexId.readFields(extendedDataInput);
+        return;
+      }
+      long value = WritableUtils.readUnsignedVarLong(extendedDataInput);
+      if (firstId) {
+        previousId = (value >>> 1) ^ -(value & 1);
+        firstId = false;
+      } else {
+        previousId += value;
+      }
+      if (vertexId instanceof LongWritable) {
+        ((LongWritable) vertexId).set(previousId);
+      } else {
+        ((IntWritable) vertexId).set((int) previousId);
+      }
+    }
+
     /**
      * Get the current data.
      *
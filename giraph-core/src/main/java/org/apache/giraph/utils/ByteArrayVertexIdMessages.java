@@ -130,6 +130,11 @@ public class ByteArrayVertexIdMessages<I extends WritableComparable,
     return new VertexIdMessageBytesIterator();
   }
 
+  @Override
+  public int getSerializedSize() {
+    return 1 + super.getSerializedSize();
+  }
+
   @Override
   public void write(DataOutput dataOutput) throws IOException {
     dataOutput.writeBoolean(useMessageSizeEncoding);
@@ -169,7 +174,7 @@ public class ByteArrayVertexIdMessages<I extends WritableComparable,
       }
 
       try {
-        vertexId.readFields(extendedDataInput);
+        readVertexId();
         messageBytes = extendedDataInput.readInt();
         messageOffset = extendedDataInput.getPos();
         if (extendedDataInput.skipBytes(messageBytes) != messageBytes) {
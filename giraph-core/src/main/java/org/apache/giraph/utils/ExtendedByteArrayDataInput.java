@@ -56,6 +56,11 @@ public class ExtendedByteArrayDataInput extends ByteArrayInputStream
     return pos;
   }
 
+  @Override
+  public byte[] getByteArray() {
+    return buf;
+  }
+
   @Override
   public void readFully(byte[] b) throws IOException {
     dataInput.readFully(b);
@@ -36,4 +36,11 @@ public interface ExtendedDataInput extends DataInput {
    * @return Bytes available
    */
   int available();
+
+  /**
+   * Get the byte array which is read, positions are indices into it.
+   *
+   * @return Byte array
+   */
+  byte[] getByteArray();
 }
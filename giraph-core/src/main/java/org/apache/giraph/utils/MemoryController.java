@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.utils;
+
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Decides when out-of-core stores should spill data to disk or load it
+ * back, from the occupancy of the heap.  Occupancy is taken from the usage
+ * after each garbage collection the JVM notifies, so that garbage which is
+ * about to be collected doesn't count, and is only read again after the
+ * next collection.  Without notifications (or before the first collection)
+ * the current occupancy from {@link MemoryUtils} is polled.
+ *
+ * Collection notifications are a com.sun.management API of JDK 7u4 and
+ * later, so they are looked up by reflection.  The worker owns one
+ * controller for all of its stores and closes it when it is done.
+ */
+public class MemoryController {
+  /** Class logger */
+  private static final Logger LOG = Logger.getLogger(MemoryController.class);
+  /** Type of garbage collection notifications */
+  private static final String GC_NOTIFICATION =
+      "com.sun.management.gc.notification";
+  /** GarbageCollectionNotificationInfo.from(CompositeData) */
+  private static final Method NOTIFICATION_INFO_FROM;
+  /** GarbageCollectionNotificationInfo.getGcInfo() */
+  private static final Method GET_GC_INFO;
+  /** GcInfo.getMemoryUsageAfterGc() */
+  private static final Method GET_MEMORY_USAGE_AFTER_GC;
+
+  static {
+    Method from = null;
+    Method getGcInfo = null;
+    Method getMemoryUsageAfterGc = null;
+    try {
+      Class<?> infoClass = Class.forName(
+          "com.sun.management.GarbageCollectionNotificationInfo");
+      from = infoClass.getMethod("from", CompositeData.class);
+      getGcInfo = infoClass.getMethod("getGcInfo");
+      getMemoryUsageAfterGc = Class.forName("com.sun.management.GcInfo")
+          .getMethod("getMemoryUsageAfterGc");
+    } catch (ClassNotFoundException e) {
+      from = null;
+    } catch (NoSuchMethodException e) {
+      from = null;
+    }
+    NOTIFICATION_INFO_FROM = from;
+    GET_GC_INFO = getGcInfo;
+    GET_MEMORY_USAGE_AFTER_GC = getMemoryUsageAfterGc;
+  }
+
+  /** Occupancy above which stores should spill */
+  private final float highFraction;
+  /** Occupancy below which stores can load data ahead of time */
+  private final float lowFraction;
+  /** Number of garbage collections observed */
+  private final AtomicLong numCollections = new AtomicLong();
+  /** Fraction of the maximum heap used after the last collection */
+  private volatile double usedAfterCollection;
+  /** Names of the memory pools of the heap */
+  private final Set<String> heapPools = Sets.newHashSet();
+  /** Garbage collectors we listen to */
+  private final List<NotificationEmitter> emitters = Lists.newArrayList();
+  /** Listener for the notifications of the garbage collectors */
+  private final NotificationListener listener = new NotificationListener() {
+    @Override
+    public void handleNotification(Notification notification,
+        Object handback) {
+      if (GC_NOTIFICATION.equals(notification.getType())) {
+        collectionEnded((CompositeData) notification.getUserData());
+      }
+    }
+  };
+
+  /**
+   * Constructor
+   *
+   * @param highFraction Occupancy above which stores should spill
+   * @param lowFraction Occupancy below which stores can load data ahead of
+   *                    time
+   */
+  public MemoryController(float highFraction, float lowFraction) {
+    this.highFraction = highFraction;
+    this.lowFraction = lowFraction;
+    if (NOTIFICATION_INFO_FROM == null) {
+      if (LOG.isInfoEnabled()) {
+        LOG.info("MemoryController: Garbage collection notifications are " +
+            "not available, polling the heap occupancy");
+      }
+      return;
+    }
+    for (MemoryPoolMXBean poolBean :
+        ManagementFactory.getMemoryPoolMXBeans()) {
+      if (poolBean.getType() == MemoryType.HEAP) {
+        heapPools.add(poolBean.getName());
+      }
+    }
+    for (GarbageCollectorMXBean gcBean :
+        ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (gcBean instanceof NotificationEmitter) {
+        ((NotificationEmitter) gcBean).addNotificationListener(
+            listener, null, null);
+        emitters.add((NotificationEmitter) gcBean);
+      } else if (LOG.isInfoEnabled()) {
+        LOG.info("MemoryController: " + gcBean.getName() +
+            " doesn't notify collections, using current heap occupancy");
+      }
+    }
+  }
+
+  /**
+   * Create a memory controller if adaptive out-of-core is enabled.
+   *
+   * @param conf Configuration
+   * @return Memory controller, or null if stores should use static limits
+   */
+  public static MemoryController create(
+      ImmutableClassesGiraphConfiguration<?, ?, ?> conf) {
+    if (!GiraphConstants.ADAPTIVE_OUT_OF_CORE.get(conf)) {
+      return null;
+    }
+    return new MemoryController(
+        GiraphConstants.OUT_OF_CORE_HIGH_HEAP_FRACTION.get(conf),
+        GiraphConstants.OUT_OF_CORE_LOW_HEAP_FRACTION.get(conf));
+  }
+
+  /**
+   * Record the heap usage a garbage collection left behind.  The heap may
+   * have been allocated from again since the collection ended, so the
+   * current usage isn't used.
+   *
+   * @param notificationData Data of the collection notification
+   */
+  @SuppressWarnings("unchecked")
+  private void collectionEnded(CompositeData notificationData) {
+    Map<String, MemoryUsage> usageAfterGc;
+    try {
+      Object gcInfo = GET_GC_INFO.invoke(
+          NOTIFICATION_INFO_FROM.invoke(null, notificationData));
+      usageAfterGc = (Map<String, MemoryUsage>)
+          GET_MEMORY_USAGE_AFTER_GC.invoke(gcInfo);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(
+          "collectionEnded: IllegalAccessException", e);
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException(
+          "collectionEnded: InvocationTargetException", e);
+    }
+    long used = 0;
+    for (Map.Entry<String, MemoryUsage> entry : usageAfterGc.entrySet()) {
+      if (heapPools.contains(entry.getKey())) {
+        used += entry.getValue().getUsed();
+      }
+    }
+    usedAfterCollection = (double) used / Runtime.getRuntime().maxMemory();
+    numCollections.incrementAndGet();
+  }
+
+  /**
+   * Stop listening to the garbage collectors.
+   */
+  public void close() {
+    for (NotificationEmitter emitter : emitters) {
+      try {
+        emitter.removeNotificationListener(listener);
+      } catch (ListenerNotFoundException e) {
+        LOG.warn("close: Listener was already removed", e);
+      }
+    }
+    emitters.clear();
+  }
+
+  /**
+   * Get the fraction of the maximum heap which is used, as of the last
+   * garbage collection.
+   *
+   * @return Used fraction of the heap
+   */
+  public double getUsedFraction() {
+    return (numCollections.get() == 0) ? MemoryUtils.usedMemoryFraction() :
+        usedAfterCollection;
+  }
+
+  /**
+   * Whether the heap is so full that stores should spill data.
+   *
+   * @return True iff data should be spilled
+   */
+  public boolean shouldSpill() {
+    return getUsedFraction() > highFraction;
+  }
+
+  /**
+   * Whether the heap has enough room to load data before it is needed.
+   *
+   * @return True iff data can be loaded ahead of time
+   */
+  public boolean canLoadAhead() {
+    return getUsedFraction() < lowFraction;
+  }
+
+  @Override
+  public String toString() {
+    return "MemoryController(usedFraction=" +
+        String.format("%.2f", getUsedFraction()) + ", highFraction=" +
+        highFraction + ", lowFraction=" + lowFraction + ")";
+  }
+}
@@ -64,6 +64,17 @@ public class MemoryUtils {
     return megaBytes(Runtime.getRuntime().freeMemory());
   }
 
+  /**
+   * Get the fraction of the maximum memory which is used, including
+   * garbage which was not collected yet
+   * @return used memory fraction
+   */
+  public static double usedMemoryFraction() {
+    Runtime runtime = Runtime.getRuntime();
+    return (double) (runtime.totalMemory() - runtime.freeMemory()) /
+        runtime.maxMemory();
+  }
+
   /**
    * Initialize metrics tracked by this helper.
    */
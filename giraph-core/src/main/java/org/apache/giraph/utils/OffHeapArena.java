@@ -0,0 +1,307 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.utils;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Memory outside of the Java heap, handed out from large direct buffers
+ * (slabs) by bumping a pointer.  Since the garbage collector only sees the
+ * slabs, not what is stored in them, it can hold any number of records
+ * without slowing down collections.
+ * <p/>
+ * Records are addressed by a long: the number of the slab in the upper
+ * and the offset in the slab in the lower 32 bits.  A record never spans
+ * slabs, records bigger than the slab size get a slab of their own.
+ * The space of records which are not needed anymore is only counted (see
+ * {@link #free(int)}), and owners copy their live records to a new arena
+ * when too much of it is wasted.  Owners which cannot move their records
+ * use blocks instead (see {@link #allocateBlock(int)}), whose sizes are
+ * powers of two and which are reused once freed.
+ * <p/>
+ * An arena is owned by one partition, which releases it when its records
+ * are not needed anymore (see {@link #release()}).  The slabs are only
+ * dropped then, the JVM frees their memory once it collects them, so
+ * buffers over released records stay valid.  Allocation is thread-safe,
+ * and so is reading and writing distinct records from several threads.
+ */
+public class OffHeapArena {
+  /** Size of the smallest block */
+  private static final int MIN_BLOCK_SIZE = 16;
+  /** Size of a slab */
+  private final int slabSize;
+  /** Addresses of the freed blocks, by the log2 of their size */
+  private final LongArrayList[] freeBlocks = new LongArrayList[Integer.SIZE];
+  /** Slabs, replaced by a bigger array when a slab is added */
+  private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+  /** Number of bytes used in the last slab */
+  private int lastSlabUsed;
+  /** Number of bytes in all slabs */
+  private long allocatedBytes;
+  /** Number of bytes which are not used anymore */
+  private long freedBytes;
+  /** Whether the arena was released */
+  private boolean released;
+
+  /**
+   * Constructor
+   *
+   * @param slabSize Size of a slab in bytes
+   */
+  public OffHeapArena(int slabSize) {
+    this.slabSize = slabSize;
+  }
+
+  /**
+   * Allocate space for a record.
+   *
+   * @param size Size of the record in bytes
+   * @return Address of the record
+   */
+  public synchronized long allocate(int size) {
+    if (released) {
+      throw new IllegalStateException("allocate: Arena was released");
+    }
+    ByteBuffer[] currentSlabs = slabs;
+    int lastSlab = currentSlabs.length - 1;
+    if (lastSlab < 0 ||
+        currentSlabs[lastSlab].capacity() - lastSlabUsed < size) {
+      if (lastSlab >= 0) {
+        // The rest of the last slab is never used
+        freedBytes += currentSlabs[lastSlab].capacity() - lastSlabUsed;
+      }
+      int newSlabSize = Math.max(slabSize, size);
+      ByteBuffer[] newSlabs = new ByteBuffer[currentSlabs.length + 1];
+      System.arraycopy(currentSlabs, 0, newSlabs, 0, currentSlabs.length);
+      newSlabs[currentSlabs.length] = ByteBuffer.allocateDirect(newSlabSize);
+      allocatedBytes += newSlabSize;
+      slabs = newSlabs;
+      lastSlab = currentSlabs.length;
+      lastSlabUsed = 0;
+    }
+    long address = ((long) lastSlab << 32) | lastSlabUsed;
+    lastSlabUsed += size;
+    return address;
+  }
+
+  /**
+   * Count the space of a record which is not used anymore.
+   *
+   * @param size Size of the record in bytes
+   */
+  public synchronized void free(int size) {
+    if (released) {
+      return;
+    }
+    freedBytes += size;
+  }
+
+  /**
+   * Get the size of the block {@link #allocateBlock(int)} allocates for a
+   * record.
+   *
+   * @param size Size of the record in bytes
+   * @return Size of the block in bytes
+   */
+  public static int getBlockSize(int size) {
+    return Math.max(MIN_BLOCK_SIZE, HashCommon.nextPowerOfTwo(size));
+  }
+
+  /**
+   * Allocate a block for a record, reusing a freed block of the same size
+   * if there is one.
+   *
+   * @param size Size of the record in bytes
+   * @return Address of the block, which has {@link #getBlockSize(int)}
+   *         bytes
+   */
+  public synchronized long allocateBlock(int size) {
+    if (released) {
+      throw new IllegalStateException("allocateBlock: Arena was released");
+    }
+    int blockSize = getBlockSize(size);
+    LongArrayList blocks =
+        freeBlocks[Integer.numberOfTrailingZeros(blockSize)];
+    if (blocks != null && !blocks.isEmpty()) {
+      freedBytes -= blockSize;
+      return blocks.removeLong(blocks.size() - 1);
+    }
+    return allocate(blockSize);
+  }
+
+  /**
+   * Free a block, so that it can be allocated again.
+   *
+   * @param address Address of the block
+   * @param size Size of the record the block was allocated for
+   */
+  public synchronized void freeBlock(long address, int size) {
+    if (released) {
+      return;
+    }
+    int blockSize = getBlockSize(size);
+    int sizeClass = Integer.numberOfTrailingZeros(blockSize);
+    if (freeBlocks[sizeClass] == null) {
+      freeBlocks[sizeClass] = new LongArrayList();
+    }
+    freeBlocks[sizeClass].add(address);
+    freedBytes += blockSize;
+  }
+
+  /**
+   * Get the slab an address is in.
+   *
+   * @param address Address
+   * @return Slab
+   */
+  private ByteBuffer getSlab(long address) {
+    return slabs[(int) (address >>> 32)];
+  }
+
+  /**
+   * Get the offset of an address in its slab.
+   *
+   * @param address Address
+   * @return Offset in the slab
+   */
+  private static int getOffset(long address) {
+    return (int) address;
+  }
+
+  /**
+   * Write an int.
+   *
+   * @param address Address to write at
+   * @param value Value to write
+   */
+  public void putInt(long address, int value) {
+    getSlab(address).putInt(getOffset(address), value);
+  }
+
+  /**
+   * Read an int.
+   *
+   * @param address Address to read at
+   * @return Value read
+   */
+  public int getInt(long address) {
+    return getSlab(address).getInt(getOffset(address));
+  }
+
+  /**
+   * Copy bytes into the arena.
+   *
+   * @param address Address to write at
+   * @param source Array to copy from
+   * @param offset Offset in the array
+   * @param length Number of bytes to copy
+   */
+  public void write(long address, byte[] source, int offset, int length) {
+    ByteBuffer slab = getSlab(address).duplicate();
+    slab.position(getOffset(address));
+    slab.put(source, offset, length);
+  }
+
+  /**
+   * Get a buffer over a record, which reads and writes the arena directly.
+   *
+   * @param address Address of the record
+   * @param size Size of the record in bytes
+   * @return Buffer with the record, from position 0 to its capacity
+   */
+  public ByteBuffer getBuffer(long address, int size) {
+    ByteBuffer slab = getSlab(address).duplicate();
+    slab.limit(getOffset(address) + size).position(getOffset(address));
+    return slab.slice();
+  }
+
+  /**
+   * Copy bytes out of the arena.
+   *
+   * @param address Address to read at
+   * @param destination Array to copy to
+   * @param offset Offset in the array
+   * @param length Number of bytes to copy
+   */
+  public void read(long address, byte[] destination, int offset,
+      int length) {
+    ByteBuffer slab = getSlab(address).duplicate();
+    slab.position(getOffset(address));
+    slab.get(destination, offset, length);
+  }
+
+  /**
+   * Get the number of bytes in all slabs.
+   *
+   * @return Number of bytes allocated off the heap
+   */
+  public synchronized long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * Get the number of bytes of records which are not used anymore, including
+   * the unused ends of full slabs.
+   *
+   * @return Number of wasted bytes
+   */
+  public synchronized long getFreedBytes() {
+    return freedBytes;
+  }
+
+  /**
+   * Get the number of bytes of records which are still used.
+   *
+   * @return Number of used bytes
+   */
+  public synchronized long getUsedBytes() {
+    long unallocatedBytes = (slabs.length == 0) ? 0 :
+        slabs[slabs.length - 1].capacity() - lastSlabUsed;
+    return allocatedBytes - unallocatedBytes - freedBytes;
+  }
+
+  /**
+   * Whether the arena was released, so that nothing can be allocated from
+   * it anymore.
+   *
+   * @return True iff the arena was released
+   */
+  public synchronized boolean isReleased() {
+    return released;
+  }
+
+  /**
+   * Release all slabs.  Nothing can be allocated from the arena afterwards,
+   * and freeing records of it does nothing.  Buffers from
+   * {@link #getBuffer(long, int)} stay valid, and keep their slab from being
+   * collected.
+   */
+  public synchronized void release() {
+    released = true;
+    Arrays.fill(freeBlocks, null);
+    slabs = new ByteBuffer[0];
+    lastSlabUsed = 0;
+    allocatedBytes = 0;
+    freedBytes = 0;
+  }
+}
@@ -82,7 +82,7 @@ public class UnsafeByteArrayInputStream implements ExtendedDataInput {
   public UnsafeByteArrayInputStream(byte[] buf, int offset, int length) {
     this.buf = buf;
     this.pos = offset;
-    this.bufLength = length;
+    this.bufLength = offset + length;
   }
 
   /**
@@ -103,6 +103,11 @@ public class UnsafeByteArrayInputStream implements ExtendedDataInput {
     return pos;
   }
 
+  @Override
+  public byte[] getByteArray() {
+    return buf;
+  }
+
   /**
    * Check whether there are enough remaining bytes for an operation
    *
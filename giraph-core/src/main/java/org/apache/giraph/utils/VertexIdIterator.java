@@ -43,8 +43,23 @@ public abstract class VertexIdIterator<I extends WritableComparable> {
   public VertexIdIterator(
       ExtendedDataOutput extendedDataOutput,
       ImmutableClassesGiraphConfiguration<I, ?, ?> configuration) {
+    this(extendedDataOutput, 0, configuration);
+  }
+
+  /**
+   * Constructor for data which doesn't start at the beginning of the
+   * output.
+   *
+   * @param extendedDataOutput Extended data output
+   * @param offset Offset of the data in the output
+   * @param configuration Configuration
+   */
+  public VertexIdIterator(
+      ExtendedDataOutput extendedDataOutput, int offset,
+      ImmutableClassesGiraphConfiguration<I, ?, ?> configuration) {
     extendedDataInput = configuration.createExtendedDataInput(
-        extendedDataOutput.getByteArray(), 0, extendedDataOutput.getPos());
+        extendedDataOutput.getByteArray(), offset,
+        extendedDataOutput.getPos() - offset);
   }
 
   /**
@@ -379,6 +379,56 @@ public class WritableUtils {
     return conf.createExtendedDataOutput(buf, size);
   }
 
+  /**
+   * Write a long as an unsigned variable-length number: seven bits per
+   * byte, lowest first, with the high bit set in all but the last byte.
+   *
+   * @param value Value to write
+   * @param out DataOutput to write to
+   */
+  public static void writeUnsignedVarLong(long value, DataOutput out)
+    throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte(((int) value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  /**
+   * Read a long written by {@link #writeUnsignedVarLong(long, DataOutput)}.
+   *
+   * @param in DataInput to read from
+   * @return Value read
+   */
+  public static long readUnsignedVarLong(DataInput in) throws IOException {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = in.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return value;
+  }
+
+  /**
+   * Get the number of bytes
+   * {@link #writeUnsignedVarLong(long, DataOutput)} writes.
+   *
+   * @param value Value
+   * @return Number of bytes
+   */
+  public static int getUnsignedVarLongSize(long value) {
+    int size = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      ++size;
+    }
+    return size;
+  }
+
   /**
    * Write vertex data to byte array with the first 4 bytes as the size of the
    * entire buffer (including the size).
@@ -555,6 +605,32 @@ public class WritableUtils {
     return vertex;
   }
 
+  /**
+   * Create a copy of a vertex which shares no objects with it, e.g. to keep
+   * a vertex handed out by a {@link
+   * org.apache.giraph.partition.ReusesObjectsPartition}.
+   *
+   * @param vertex Vertex to copy
+   * @param conf Configuration
+   * @param <I> Vertex id
+   * @param <V> Vertex value
+   * @param <E> Edge value
+   * @return Copy of the vertex
+   */
+  public static <I extends WritableComparable, V extends Writable,
+  E extends Writable> Vertex<I, V, E> cloneVertex(
+      Vertex<I, V, E> vertex,
+      ImmutableClassesGiraphConfiguration<I, V, E> conf) {
+    ExtendedDataOutput output = conf.createExtendedDataOutput();
+    try {
+      writeVertexToDataOutput(output, vertex, conf);
+      return readVertexFromDataInput(conf.createExtendedDataInput(
+          output.getByteArray(), 0, output.getPos()), conf);
+    } catch (IOException e) {
+      throw new IllegalStateException("cloneVertex: IOException", e);
+    }
+  }
+
   /**
    * Writes Vertex data to output stream.
    *
@@ -30,9 +30,11 @@ import org.apache.giraph.comm.netty.NettyWorkerAggregatorRequestProcessor;
 import org.apache.giraph.comm.netty.NettyWorkerClient;
 import org.apache.giraph.comm.netty.NettyWorkerClientRequestProcessor;
 import org.apache.giraph.comm.netty.NettyWorkerServer;
+import org.apache.giraph.comm.requests.WorkerFinishedSuperstepRequest;
 import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.OutEdges;
 import org.apache.giraph.graph.AddressesAndPartitionsWritable;
 import org.apache.giraph.graph.FinishedSuperstepStats;
 import org.apache.giraph.graph.GlobalStats;
@@ -68,12 +70,15 @@ import org.apache.giraph.utils.ProgressableUtils;
 import org.apache.giraph.utils.WritableUtils;
 import org.apache.giraph.zk.BspEvent;
 import org.apache.giraph.zk.PredicateLock;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.zookeeper.CreateMode;
@@ -88,11 +93,11 @@ import org.json.JSONObject;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import net.iharder.Base64;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
-import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
@@ -108,6 +113,8 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -159,6 +166,12 @@ public class BspServiceWorker<I extends WritableComparable,
 
   /** array of observers to call back to */
   private final WorkerObserver[] observers;
+  /**
+   * Edges files of the partitions whose edges were already checkpointed
+   * (incremental checkpoints only)
+   */
+  private final ConcurrentMap<Integer, String> checkpointedEdgesFiles =
+      Maps.newConcurrentMap();
 
   // Per-Superstep Metrics
   /** Timer for WorkerContext#postSuperstep */
@@ -858,7 +871,8 @@ public class BspServiceWorker<I extends WritableComparable,
   }
 
   /**
-   * Write finished superstep info to ZooKeeper.
+   * Write finished superstep info to ZooKeeper, or send it to master if
+   * the superstep barrier is over netty.
    *
    * @param partitionStatsList List of partition stats from superstep.
    * @param workerSentMessages Number of messages sent in superstep.
@@ -892,12 +906,25 @@ public class BspServiceWorker<I extends WritableComparable,
       throw new RuntimeException(e);
     }
 
+    byte[] workerFinishedInfo =
+        workerFinishedInfoObj.toString().getBytes(Charset.defaultCharset());
+    if (GiraphConstants.NETTY_SUPERSTEP_BARRIER.get(getConfiguration())) {
+      // Requests with aggregated values have to be processed by master
+      // before it learns that this worker is done
+      workerClient.waitAllRequests();
+      workerClient.sendWritableRequest(getMasterInfo().getTaskId(),
+          new WorkerFinishedSuperstepRequest(
+              getWorkerFinishedPath(getApplicationAttempt(), getSuperstep()),
+              workerFinishedInfo, getWorkerInfo().getTaskId()));
+      workerClient.waitAllRequests();
+      return;
+    }
     String finishedWorkerPath =
         getWorkerFinishedPath(getApplicationAttempt(), getSuperstep()) +
         "/" + getHostnamePartitionId();
     try {
       getZkExt().createExt(finishedWorkerPath,
-          workerFinishedInfoObj.toString().getBytes(Charset.defaultCharset()),
+          workerFinishedInfo,
           Ids.OPEN_ACL_UNSAFE,
           CreateMode.PERSISTENT,
           true);
@@ -1207,19 +1234,14 @@ public class BspServiceWorker<I extends WritableComparable,
             ", Superstep=" + getSuperstep());
 
     // Algorithm:
-    // For each partition, dump vertices and messages
+    // Dump the vertices and messages of every partition to a separate file,
+    // with several threads.  The metadata file lists the partitions.
+    final String filesPrefix = getCheckpointBasePath(getSuperstep()) + "." +
+        getHostnamePartitionId();
     Path metadataFilePath =
-        new Path(getCheckpointBasePath(getSuperstep()) + "." +
-            getHostnamePartitionId() +
-            CHECKPOINT_METADATA_POSTFIX);
-    Path verticesFilePath =
-        new Path(getCheckpointBasePath(getSuperstep()) + "." +
-            getHostnamePartitionId() +
-            CHECKPOINT_VERTICES_POSTFIX);
+        new Path(filesPrefix + CHECKPOINT_METADATA_POSTFIX);
     Path validFilePath =
-        new Path(getCheckpointBasePath(getSuperstep()) + "." +
-            getHostnamePartitionId() +
-            CHECKPOINT_VALID_POSTFIX);
+        new Path(filesPrefix + CHECKPOINT_VALID_POSTFIX);
 
     // Remove these files if they already exist (shouldn't though, unless
     // of previous failure of this worker)
@@ -1231,49 +1253,63 @@ public class BspServiceWorker<I extends WritableComparable,
       LOG.warn("storeCheckpoint: Removed metadata file " +
           metadataFilePath);
     }
-    if (getFs().delete(verticesFilePath, false)) {
-      LOG.warn("storeCheckpoint: Removed file " + verticesFilePath);
-    }
 
-    FSDataOutputStream verticesOutputStream =
-        getFs().create(verticesFilePath);
-    ByteArrayOutputStream metadataByteStream = new ByteArrayOutputStream();
-    DataOutput metadataOutput = new DataOutputStream(metadataByteStream);
-    for (Integer partitionId : getPartitionStore().getPartitionIds()) {
-      Partition<I, V, E> partition =
-          getPartitionStore().getPartition(partitionId);
-      long startPos = verticesOutputStream.getPos();
-      partition.write(verticesOutputStream);
-      // write messages
-      getServerData().getCurrentMessageStore().writePartition(
-          verticesOutputStream, partition.getId());
-      // Write the metadata for this partition
-      // Format:
-      // <index count>
-      //   <index 0 start pos><partition id>
-      //   <index 1 start pos><partition id>
-      metadataOutput.writeLong(startPos);
-      metadataOutput.writeInt(partition.getId());
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("storeCheckpoint: Vertex file starting " +
-            "offset = " + startPos + ", length = " +
-            (verticesOutputStream.getPos() - startPos) +
-            ", partition = " + partition.toString());
-      }
-      getPartitionStore().putPartition(partition);
-      getContext().progress();
+    final boolean incremental = isIncrementalCheckpoint();
+    final CompressionCodec codec = createCheckpointCompressionCodec();
+    final Queue<Integer> partitionIdQueue = new ConcurrentLinkedQueue<Integer>(
+        Lists.newArrayList(getPartitionStore().getPartitionIds()));
+    // Edges file of every partition, empty if its edges are inline
+    final ConcurrentMap<Integer, String> partitionEdgesFiles =
+        Maps.newConcurrentMap();
+    if (!partitionIdQueue.isEmpty()) {
+      CallableFactory<Void> callableFactory = new CallableFactory<Void>() {
+        @Override
+        public Callable<Void> newCallable(int callableId) {
+          return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              while (true) {
+                Integer partitionId = partitionIdQueue.poll();
+                if (partitionId == null) {
+                  break;
+                }
+                String edgesFile = storePartitionCheckpoint(filesPrefix,
+                    partitionId, incremental, codec);
+                partitionEdgesFiles.put(partitionId,
+                    edgesFile == null ? "" : edgesFile);
+                getContext().progress();
+              }
+              return null;
+            }
+          };
+        }
+      };
+      ProgressableUtils.getResultsWithNCallables(callableFactory,
+          Math.min(GiraphConstants.NUM_CHECKPOINT_IO_THREADS.get(
+              getConfiguration()), partitionIdQueue.size()),
+          "checkpoint-io-%d", getContext());
     }
-    // Metadata is buffered and written at the end since it's small and
-    // needs to know how many partitions this worker owns
+
+    // Metadata is written at the end since it needs to know which
+    // partitions were written
+    // Format:
+    // <partition count>
+    //   <partition id><has edges file>[<edges file>]
     FSDataOutputStream metadataOutputStream =
         getFs().create(metadataFilePath);
-    metadataOutputStream.writeInt(getPartitionStore().getNumPartitions());
-    metadataOutputStream.write(metadataByteStream.toByteArray());
+    metadataOutputStream.writeInt(partitionEdgesFiles.size());
+    for (Entry<Integer, String> entry : partitionEdgesFiles.entrySet()) {
+      metadataOutputStream.writeInt(entry.getKey());
+      metadataOutputStream.writeBoolean(!entry.getValue().isEmpty());
+      if (!entry.getValue().isEmpty()) {
+        metadataOutputStream.writeUTF(entry.getValue());
+      }
+    }
     metadataOutputStream.close();
-    verticesOutputStream.close();
     if (LOG.isInfoEnabled()) {
       LOG.info("storeCheckpoint: Finished metadata (" +
-          metadataFilePath + ") and vertices (" + verticesFilePath + ").");
+          metadataFilePath + ") and " + partitionEdgesFiles.size() +
+          " partitions" + (incremental ? " (incremental)" : "") + ".");
     }
 
     getFs().createNewFile(validFilePath);
@@ -1301,6 +1337,221 @@ public class BspServiceWorker<I extends WritableComparable,
     }
   }
 
+  /**
+   * Whether checkpoints write the edges of a partition only once.
+   *
+   * @return True if checkpoints are incremental
+   */
+  private boolean isIncrementalCheckpoint() {
+    return GiraphConstants.CHECKPOINT_INCREMENTAL.get(getConfiguration()) &&
+        getConfiguration().isStaticGraph();
+  }
+
+  /**
+   * Create the codec which compresses the checkpointed partitions.
+   *
+   * @return Codec, or null if the partitions are not compressed
+   */
+  private CompressionCodec createCheckpointCompressionCodec() {
+    Class<? extends CompressionCodec> codecClass =
+        GiraphConstants.CHECKPOINT_COMPRESSION_CODEC.get(getConfiguration());
+    return codecClass == null ? null :
+        ReflectionUtils.newInstance(codecClass, getConfiguration());
+  }
+
+  /**
+   * Create a checkpoint file, compressed if a codec is given.
+   *
+   * @param path File path
+   * @param codec Compression codec (null if none)
+   * @return Output stream for the file
+   * @throws IOException
+   */
+  private DataOutputStream createCheckpointOutputStream(Path path,
+      CompressionCodec codec) throws IOException {
+    FSDataOutputStream fileStream = getFs().create(path);
+    if (codec == null) {
+      return fileStream;
+    }
+    return new DataOutputStream(codec.createOutputStream(fileStream));
+  }
+
+  /**
+   * Open a checkpoint file, decompressing it if a codec is given.
+   *
+   * @param path File path
+   * @param codec Compression codec (null if none)
+   * @return Input stream for the file
+   * @throws IOException
+   */
+  private DataInputStream openCheckpointInputStream(Path path,
+      CompressionCodec codec) throws IOException {
+    FSDataInputStream fileStream = getFs().open(path);
+    if (codec == null) {
+      return fileStream;
+    }
+    return new DataInputStream(new BufferedInputStream(
+        codec.createInputStream(fileStream)));
+  }
+
+  /**
+   * Write the vertices and messages of a partition to its own checkpoint
+   * file.  In incremental mode the edges are written to a separate file
+   * only if no earlier checkpoint has them, and the vertices file only has
+   * the vertex values.
+   *
+   * @param filesPrefix Checkpoint files prefix of this worker
+   * @param partitionId Partition id
+   * @param incremental Whether checkpoints are incremental
+   * @param codec Compression codec (null if none)
+   * @return Edges file of the partition, null if its edges are in the
+   *         vertices file
+   * @throws IOException
+   */
+  @SuppressWarnings("unchecked")
+  private String storePartitionCheckpoint(String filesPrefix,
+      int partitionId, boolean incremental, CompressionCodec codec)
+    throws IOException {
+    Partition<I, V, E> partition =
+        getPartitionStore().getPartition(partitionId);
+    try {
+      String edgesFile = null;
+      if (incremental) {
+        edgesFile = checkpointedEdgesFiles.get(partitionId);
+        if (edgesFile == null) {
+          edgesFile =
+              filesPrefix + "." + partitionId + CHECKPOINT_EDGES_POSTFIX;
+          DataOutputStream edgesOutput =
+              createCheckpointOutputStream(new Path(edgesFile), codec);
+          edgesOutput.writeLong(partition.getVertexCount());
+          for (Vertex<I, V, E> vertex : partition) {
+            vertex.getId().write(edgesOutput);
+            ((OutEdges<I, E>) vertex.getEdges()).write(edgesOutput);
+          }
+          edgesOutput.close();
+          checkpointedEdgesFiles.put(partitionId, edgesFile);
+        }
+      }
+
+      Path verticesFilePath = new Path(filesPrefix + "." + partitionId +
+          CHECKPOINT_VERTICES_POSTFIX);
+      DataOutputStream verticesOutput =
+          createCheckpointOutputStream(verticesFilePath, codec);
+      if (edgesFile == null) {
+        partition.write(verticesOutput);
+      } else {
+        verticesOutput.writeLong(partition.getVertexCount());
+        for (Vertex<I, V, E> vertex : partition) {
+          vertex.getId().write(verticesOutput);
+          vertex.getValue().write(verticesOutput);
+          verticesOutput.writeBoolean(vertex.isHalted());
+        }
+      }
+      getServerData().getCurrentMessageStore().writePartition(
+          verticesOutput, partitionId);
+      verticesOutput.close();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("storePartitionCheckpoint: Wrote partition " +
+            partitionId + " to " + verticesFilePath +
+            (edgesFile == null ? "" : " with edges in " + edgesFile));
+      }
+      return edgesFile;
+    } finally {
+      getPartitionStore().putPartition(partition);
+    }
+  }
+
+  /**
+   * Read the partitions and their edges files from a checkpoint metadata
+   * file.
+   *
+   * @param filesPrefix Checkpoint files prefix
+   * @param partitionEdgesFiles Filled with the edges files of the
+   *                            partitions which have them
+   * @throws IOException
+   */
+  private void readCheckpointMetadata(String filesPrefix,
+      Map<Integer, String> partitionEdgesFiles) throws IOException {
+    DataInputStream metadataStream =
+        getFs().open(new Path(filesPrefix + CHECKPOINT_METADATA_POSTFIX));
+    int partitions = metadataStream.readInt();
+    for (int i = 0; i < partitions; ++i) {
+      int partitionId = metadataStream.readInt();
+      if (metadataStream.readBoolean()) {
+        partitionEdgesFiles.put(partitionId, metadataStream.readUTF());
+      }
+    }
+    metadataStream.close();
+  }
+
+  /**
+   * Load a checkpointed partition and its messages, and add it to the
+   * partition store.
+   *
+   * @param filesPrefix Checkpoint files prefix of the partition
+   * @param partitionId Partition id
+   * @param edgesFile Edges file of the partition (null if its edges are in
+   *                  the vertices file)
+   * @param codec Compression codec (null if none)
+   * @throws IOException
+   */
+  private void loadPartitionCheckpoint(String filesPrefix, int partitionId,
+      String edgesFile, CompressionCodec codec) throws IOException {
+    ImmutableClassesGiraphConfiguration<I, V, E> conf = getConfiguration();
+    Partition<I, V, E> partition =
+        conf.createPartition(partitionId, getContext());
+    DataInputStream verticesInput = openCheckpointInputStream(
+        new Path(filesPrefix + "." + partitionId +
+            CHECKPOINT_VERTICES_POSTFIX), codec);
+    if (edgesFile == null) {
+      partition.readFields(verticesInput);
+    } else {
+      long vertexCount = verticesInput.readLong();
+      for (long i = 0; i < vertexCount; ++i) {
+        I id = conf.createVertexId();
+        id.readFields(verticesInput);
+        V value = conf.createVertexValue();
+        value.readFields(verticesInput);
+        Vertex<I, V, E> vertex = conf.createVertex();
+        vertex.initialize(id, value);
+        if (verticesInput.readBoolean()) {
+          vertex.voteToHalt();
+        }
+        partition.putVertex(vertex);
+      }
+      // Vertices removed since the edges were written are skipped
+      DataInputStream edgesInput =
+          openCheckpointInputStream(new Path(edgesFile), codec);
+      long edgesVertexCount = edgesInput.readLong();
+      I id = conf.createVertexId();
+      for (long i = 0; i < edgesVertexCount; ++i) {
+        id.readFields(edgesInput);
+        OutEdges<I, E> edges = conf.createOutEdges();
+        edges.readFields(edgesInput);
+        Vertex<I, V, E> vertex = partition.getVertex(id);
+        if (vertex != null) {
+          vertex.setEdges(edges);
+          partition.saveVertex(vertex);
+        }
+      }
+      edgesInput.close();
+      partition.getActiveVertexTracker().reset();
+    }
+    getServerData().getIncomingMessageStore().readFieldsForPartition(
+        verticesInput, partitionId);
+    verticesInput.close();
+    if (LOG.isInfoEnabled()) {
+      LOG.info("loadPartitionCheckpoint: Loaded partition " + partition);
+    }
+    synchronized (this) {
+      if (getPartitionStore().hasPartition(partitionId)) {
+        throw new IllegalStateException(
+            "loadPartitionCheckpoint: Already has partition " + partitionId);
+      }
+      getPartitionStore().addPartition(partition);
+    }
+  }
+
   @Override
   public VertexEdgeCount loadCheckpoint(long superstep) {
     try {
@@ -1315,70 +1566,65 @@ public class BspServiceWorker<I extends WritableComparable,
     // Algorithm:
     // Examine all the partition owners and load the ones
     // that match my hostname and id from the master designated checkpoint
-    // prefixes.
-    long startPos = 0;
-    int loadedPartitions = 0;
-    for (PartitionOwner partitionOwner :
-      workerGraphPartitioner.getPartitionOwners()) {
-      if (partitionOwner.getWorkerInfo().equals(getWorkerInfo())) {
-        String metadataFile =
-            partitionOwner.getCheckpointFilesPrefix() +
-            CHECKPOINT_METADATA_POSTFIX;
-        String partitionsFile =
-            partitionOwner.getCheckpointFilesPrefix() +
-            CHECKPOINT_VERTICES_POSTFIX;
-        try {
-          int partitionId = -1;
-          DataInputStream metadataStream =
-              getFs().open(new Path(metadataFile));
-          int partitions = metadataStream.readInt();
-          for (int i = 0; i < partitions; ++i) {
-            startPos = metadataStream.readLong();
-            partitionId = metadataStream.readInt();
-            if (partitionId == partitionOwner.getPartitionId()) {
-              break;
-            }
-          }
-          if (partitionId != partitionOwner.getPartitionId()) {
-            throw new IllegalStateException(
-                "loadCheckpoint: " + partitionOwner +
-                " not found!");
-          }
-          metadataStream.close();
-          Partition<I, V, E> partition =
-              getConfiguration().createPartition(partitionId, getContext());
-          DataInputStream partitionsStream =
-              getFs().open(new Path(partitionsFile));
-          if (partitionsStream.skip(startPos) != startPos) {
-            throw new IllegalStateException(
-                "loadCheckpoint: Failed to skip " + startPos +
-                " on " + partitionsFile);
-          }
-          partition.readFields(partitionsStream);
-          getServerData().getIncomingMessageStore().readFieldsForPartition(
-              partitionsStream, partitionId);
-          partitionsStream.close();
-          if (LOG.isInfoEnabled()) {
-            LOG.info("loadCheckpoint: Loaded partition " +
-                partition);
-          }
-          if (getPartitionStore().hasPartition(partitionId)) {
-            throw new IllegalStateException(
-                "loadCheckpoint: Already has partition owner " +
-                    partitionOwner);
+    // prefixes.  Partitions are separate files, so several threads load
+    // them.
+    final Map<Integer, String> partitionPrefixes = Maps.newHashMap();
+    final Map<Integer, String> partitionEdgesFiles = Maps.newHashMap();
+    Set<String> metadataPrefixes = new HashSet<String>();
+    try {
+      for (PartitionOwner partitionOwner :
+          workerGraphPartitioner.getPartitionOwners()) {
+        if (partitionOwner.getWorkerInfo().equals(getWorkerInfo())) {
+          partitionPrefixes.put(partitionOwner.getPartitionId(),
+              partitionOwner.getCheckpointFilesPrefix());
+          if (metadataPrefixes.add(
+              partitionOwner.getCheckpointFilesPrefix())) {
+            readCheckpointMetadata(partitionOwner.getCheckpointFilesPrefix(),
+                partitionEdgesFiles);
           }
-          getPartitionStore().addPartition(partition);
-          getContext().progress();
-          ++loadedPartitions;
-        } catch (IOException e) {
-          throw new RuntimeException(
-              "loadCheckpoint: Failed to get partition owner " +
-                  partitionOwner, e);
         }
       }
+    } catch (IOException e) {
+      throw new RuntimeException(
+          "loadCheckpoint: Failed to read the checkpoint metadata", e);
+    }
+
+    final boolean incremental = isIncrementalCheckpoint();
+    final CompressionCodec codec = createCheckpointCompressionCodec();
+    final Queue<Integer> partitionIdQueue =
+        new ConcurrentLinkedQueue<Integer>(partitionPrefixes.keySet());
+    if (!partitionIdQueue.isEmpty()) {
+      CallableFactory<Void> callableFactory = new CallableFactory<Void>() {
+        @Override
+        public Callable<Void> newCallable(int callableId) {
+          return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              while (true) {
+                Integer partitionId = partitionIdQueue.poll();
+                if (partitionId == null) {
+                  break;
+                }
+                String edgesFile = partitionEdgesFiles.get(partitionId);
+                loadPartitionCheckpoint(partitionPrefixes.get(partitionId),
+                    partitionId, edgesFile, codec);
+                if (incremental && edgesFile != null) {
+                  checkpointedEdgesFiles.put(partitionId, edgesFile);
+                }
+                getContext().progress();
+              }
+              return null;
+            }
+          };
+        }
+      };
+      ProgressableUtils.getResultsWithNCallables(callableFactory,
+          Math.min(GiraphConstants.NUM_CHECKPOINT_IO_THREADS.get(
+              getConfiguration()), partitionIdQueue.size()),
+          "checkpoint-io-%d", getContext());
     }
     if (LOG.isInfoEnabled()) {
-      LOG.info("loadCheckpoint: Loaded " + loadedPartitions +
+      LOG.info("loadCheckpoint: Loaded " + partitionPrefixes.size() +
           " partitions of out " +
           workerGraphPartitioner.getPartitionOwners().size() +
           " total.");
@@ -1414,7 +1660,10 @@ else[HADOOP_NON_SECURE]*/
   }
 
   /**
-   * Send the worker partitions to their destination workers
+   * Send the worker partitions to their destination workers.  Partitions
+   * are sent in chunks, one partition per destination worker at a time in
+   * round-robin order, so that all receivers add vertices to their stores
+   * concurrently instead of one worker receiving everything first.
    *
    * @param workerPartitionMap Map of worker info to the partitions stored
    *        on this worker to be sent
@@ -1428,9 +1677,19 @@ else[HADOOP_NON_SECURE]*/
     WorkerClientRequestProcessor<I, V, E> workerClientRequestProcessor =
         new NettyWorkerClientRequestProcessor<I, V, E>(getContext(),
             getConfiguration(), this);
+    int maxPartitionsPerWorker = 0;
     for (Entry<WorkerInfo, List<Integer>> workerPartitionList :
       randomEntryList) {
-      for (Integer partitionId : workerPartitionList.getValue()) {
+      maxPartitionsPerWorker = Math.max(maxPartitionsPerWorker,
+          workerPartitionList.getValue().size());
+    }
+    for (int i = 0; i < maxPartitionsPerWorker; ++i) {
+      for (Entry<WorkerInfo, List<Integer>> workerPartitionList :
+        randomEntryList) {
+        if (i >= workerPartitionList.getValue().size()) {
+          continue;
+        }
+        Integer partitionId = workerPartitionList.getValue().get(i);
         Partition<I, V, E> partition =
             getPartitionStore().removePartition(partitionId);
         if (partition == null) {
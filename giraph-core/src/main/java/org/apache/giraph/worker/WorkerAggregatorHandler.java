@@ -22,18 +22,24 @@ import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.comm.aggregators.WorkerAggregatorRequestProcessor;
 import org.apache.giraph.comm.aggregators.AggregatedValueOutputStream;
+import org.apache.giraph.comm.aggregators.AggregatorTree;
 import org.apache.giraph.comm.aggregators.AggregatorUtils;
 import org.apache.giraph.comm.aggregators.AllAggregatorServerData;
 import org.apache.giraph.comm.aggregators.OwnerAggregatorServerData;
 import org.apache.giraph.aggregators.Aggregator;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.util.Progressable;
 import org.apache.log4j.Logger;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -52,6 +58,12 @@ import java.util.Set;
  * Finally, at the end of the superstep, the worker calls finishSuperstep(),
  * which propagates non-owned partial aggregates to the owner workers,
  * and sends the final aggregate from the owner worker to the master.
+ *
+ * If an aggregator tree arity is set, values don't go directly between
+ * owners and all other workers.  Partial aggregates are reduced up, and
+ * final aggregates broadcast down, the {@link AggregatorTree} of their
+ * owner, so that no worker exchanges values with more than a few others
+ * per aggregator.
  */
 public class WorkerAggregatorHandler implements WorkerThreadAggregatorUsage {
   /** Class logger */
@@ -71,6 +83,8 @@ public class WorkerAggregatorHandler implements WorkerThreadAggregatorUsage {
   private final int maxBytesPerAggregatorRequest;
   /** Giraph configuration */
   private final ImmutableClassesGiraphConfiguration conf;
+  /** Number of children in aggregator trees, 0 if trees are not used */
+  private final int treeArity;
 
   /**
    * Constructor
@@ -89,6 +103,7 @@ public class WorkerAggregatorHandler implements WorkerThreadAggregatorUsage {
     maxBytesPerAggregatorRequest = conf.getInt(
         AggregatorUtils.MAX_BYTES_PER_AGGREGATOR_REQUEST,
         AggregatorUtils.MAX_BYTES_PER_AGGREGATOR_REQUEST_DEFAULT);
+    treeArity = GiraphConstants.AGGREGATOR_TREE_ARITY.get(conf);
   }
 
   @Override
@@ -134,8 +149,14 @@ public class WorkerAggregatorHandler implements WorkerThreadAggregatorUsage {
         allAggregatorData.getDataFromMasterWhenReady(
             serviceWorker.getMasterInfo());
     try {
-      // Distribute my aggregators
-      requestProcessor.distributeAggregators(dataToDistribute);
+      if (treeArity > 0) {
+        // Forward the aggregators of each owner to my children in its tree
+        forwardAggregators(requestProcessor, allAggregatorData,
+            dataToDistribute);
+      } else {
+        // Distribute my aggregators
+        requestProcessor.distributeAggregators(dataToDistribute);
+      }
     } catch (IOException e) {
       throw new IllegalStateException("prepareSuperstep: " +
           "IOException occurred while trying to distribute aggregators", e);
@@ -150,6 +171,34 @@ public class WorkerAggregatorHandler implements WorkerThreadAggregatorUsage {
     }
   }
 
+  /**
+   * Forward final aggregators down the aggregator trees: the ones this
+   * worker owns as they came from master, and the ones of other owners as
+   * they arrive from the parent of this worker in their tree.
+   *
+   * @param requestProcessor Request processor for aggregators
+   * @param allAggregatorData Received aggregator data
+   * @param myData Data of the aggregators this worker owns
+   * @throws IOException
+   */
+  private void forwardAggregators(
+      WorkerAggregatorRequestProcessor requestProcessor,
+      AllAggregatorServerData allAggregatorData, Iterable<byte[]> myData)
+    throws IOException {
+    AggregatorTree tree = createAggregatorTree();
+    // Shallowest first, since the data has to reach this worker first
+    for (WorkerInfo owner : tree.getRootsByDepth(false)) {
+      List<WorkerInfo> children = tree.getChildren(owner);
+      if (children.isEmpty()) {
+        continue;
+      }
+      Iterable<byte[]> ownerData = isThisWorker(owner) ? myData :
+          allAggregatorData.getDataFromWorkerWhenReady(owner.getTaskId());
+      requestProcessor.forwardAggregators(owner.getTaskId(), ownerData,
+          children);
+    }
+  }
+
   /**
    * Send aggregators to their owners and in the end to the master
    *
@@ -162,6 +211,10 @@ public class WorkerAggregatorHandler implements WorkerThreadAggregatorUsage {
           "workers will send their aggregated values " +
           "once they are done with superstep computation");
     }
+    if (treeArity > 0) {
+      finishSuperstepOverTrees(requestProcessor);
+      return;
+    }
     OwnerAggregatorServerData ownerAggregatorData =
         serviceWorker.getServerData().getOwnerAggregatorData();
     // First send partial aggregated values to their owners and determine
@@ -196,7 +249,98 @@ public class WorkerAggregatorHandler implements WorkerThreadAggregatorUsage {
         ownerAggregatorData.getMyAggregatorValuesWhenReady(
             getOtherWorkerIdsSet());
 
-    // Send final aggregated values to master
+    sendAggregatedValuesToMaster(requestProcessor, myAggregators);
+    // Wait for master to receive aggregated values before proceeding
+    serviceWorker.getWorkerClient().waitAllRequests();
+
+    ownerAggregatorData.reset();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("finishSuperstep: Aggregators finished");
+    }
+  }
+
+  /**
+   * Reduce aggregators up the aggregator trees.  For each owner, wait for
+   * the partial values of the children of this worker in its tree, add them
+   * to the values of this worker and send the result to the parent, or to
+   * master if this worker is the owner.
+   *
+   * @param requestProcessor Request processor for aggregators
+   */
+  private void finishSuperstepOverTrees(
+      WorkerAggregatorRequestProcessor requestProcessor) {
+    OwnerAggregatorServerData ownerAggregatorData =
+        serviceWorker.getServerData().getOwnerAggregatorData();
+    AggregatorTree tree = createAggregatorTree();
+    Map<Integer, List<String>> ownerAggregatorNames = Maps.newHashMap();
+    for (String name : currentAggregatorMap.keySet()) {
+      int ownerTaskId = AggregatorUtils.getOwner(name,
+          serviceWorker.getWorkerInfoList()).getTaskId();
+      List<String> names = ownerAggregatorNames.get(ownerTaskId);
+      if (names == null) {
+        names = Lists.newArrayList();
+        ownerAggregatorNames.put(ownerTaskId, names);
+      }
+      names.add(name);
+    }
+
+    // Deepest first, since the children have to be done first
+    for (WorkerInfo owner : tree.getRootsByDepth(true)) {
+      Set<Integer> childTaskIds = Sets.newHashSet();
+      for (WorkerInfo child : tree.getChildren(owner)) {
+        childTaskIds.add(child.getTaskId());
+      }
+      ownerAggregatorData.waitForChildren(owner.getTaskId(), childTaskIds);
+      List<String> names = ownerAggregatorNames.get(owner.getTaskId());
+      if (names == null) {
+        names = Collections.emptyList();
+      }
+      List<Map.Entry<String, Writable>> values =
+          Lists.newArrayListWithCapacity(names.size());
+      for (String name : names) {
+        Aggregator<Writable> aggregator = currentAggregatorMap.get(name);
+        Writable childrenValue =
+            ownerAggregatorData.getChildrenAggregatedValue(name);
+        if (childrenValue != null) {
+          aggregator.aggregate(childrenValue);
+        }
+        values.add(new AbstractMap.SimpleEntry<String, Writable>(name,
+            aggregator.getAggregatedValue()));
+      }
+      WorkerInfo parent = tree.getParent(owner);
+      if (parent == null) {
+        sendAggregatedValuesToMaster(requestProcessor, values);
+      } else {
+        try {
+          requestProcessor.sendAggregatedValuesToParent(owner.getTaskId(),
+              parent, values);
+        } catch (IOException e) {
+          throw new IllegalStateException("finishSuperstepOverTrees: " +
+              "IOException occurred while sending aggregators of " + owner +
+              " to " + parent, e);
+        }
+      }
+      progressable.progress();
+    }
+    // Wait for master to receive aggregated values before proceeding
+    serviceWorker.getWorkerClient().waitAllRequests();
+
+    ownerAggregatorData.reset();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("finishSuperstepOverTrees: Aggregators finished");
+    }
+  }
+
+  /**
+   * Send final aggregated values of the aggregators this worker owns to
+   * master.
+   *
+   * @param requestProcessor Request processor for aggregators
+   * @param myAggregators Names and final values of the aggregators
+   */
+  private void sendAggregatedValuesToMaster(
+      WorkerAggregatorRequestProcessor requestProcessor,
+      Iterable<Map.Entry<String, Writable>> myAggregators) {
     AggregatedValueOutputStream aggregatorOutput =
         new AggregatedValueOutputStream();
     for (Map.Entry<String, Writable> entry : myAggregators) {
@@ -220,13 +364,26 @@ public class WorkerAggregatorHandler implements WorkerThreadAggregatorUsage {
       throw new IllegalStateException("finishSuperstep: " +
           "IOException occured while sending aggregators to master", e);
     }
-    // Wait for master to receive aggregated values before proceeding
-    serviceWorker.getWorkerClient().waitAllRequests();
+  }
 
-    ownerAggregatorData.reset();
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("finishSuperstep: Aggregators finished");
-    }
+  /**
+   * Create the aggregator trees over the current workers.
+   *
+   * @return Aggregator trees
+   */
+  private AggregatorTree createAggregatorTree() {
+    return new AggregatorTree(treeArity, serviceWorker.getWorkerInfoList(),
+        serviceWorker.getWorkerInfo().getTaskId());
+  }
+
+  /**
+   * Check if workerInfo describes current worker.
+   *
+   * @param workerInfo Worker to check
+   * @return True iff workerInfo corresponds to current worker.
+   */
+  private boolean isThisWorker(WorkerInfo workerInfo) {
+    return serviceWorker.getWorkerInfo().getTaskId() == workerInfo.getTaskId();
   }
 
   /**
@@ -23,6 +23,11 @@ import static org.junit.Assert.assertEquals;
 import org.apache.giraph.utils.WritableUtils;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
 public class TestDoubleMatrix {
   private static double E = 0.0001f;
 
@@ -71,4 +76,51 @@ public class TestDoubleMatrix {
       assertEquals(from.get(i), to.get(i), E);
     }
   }
+
+  @Test
+  public void testVectorSerializeSkipsZeros() throws Exception {
+    DoubleVector from = new DoubleVector();
+    from.set(0, 1.0);
+    from.set(3, 0.0);
+    from.set(7, 2.5);
+    byte[] data = WritableUtils.writeToByteArray(from);
+    // Size followed by two (row, value) pairs
+    assertEquals(4 + 2 * (4 + 8), data.length);
+
+    DoubleVector to = new DoubleVector();
+    WritableUtils.readFieldsFromByteArray(data, to);
+    assertEquals(1.0, to.get(0), E);
+    assertEquals(0.0, to.get(3), E);
+    assertEquals(2.5, to.get(7), E);
+  }
+
+  @Test
+  public void testVectorDelta() throws Exception {
+    DoubleVector base = new DoubleVector();
+    base.set(0, 1.0);
+    base.set(1, 1.0);
+    base.set(2, 1.0);
+
+    DoubleVector next = new DoubleVector();
+    next.set(0, 1.0);
+    next.set(1, 2.5);
+    next.set(5, 2.5);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    next.writeDelta(new DataOutputStream(bytes), base);
+    // Changed entry 1, removed entry 2 and added entry 5
+    assertEquals(4 + 3 * (4 + 8), bytes.size());
+
+    DoubleVector to = new DoubleVector();
+    WritableUtils.readFieldsFromByteArray(
+        WritableUtils.writeToByteArray(base), to);
+    to.readDelta(new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())));
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(next.get(i), to.get(i), E);
+    }
+    // Entries set to zero are removed, so they aren't written again
+    assertEquals(WritableUtils.writeToByteArray(next).length,
+        WritableUtils.writeToByteArray(to).length);
+  }
 }
@@ -23,6 +23,11 @@ import static org.junit.Assert.assertEquals;
 import org.apache.giraph.utils.WritableUtils;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
 public class TestIntMatrix {
 
   @Test
@@ -70,4 +75,51 @@ public class TestIntMatrix {
       assertEquals(from.get(i), to.get(i));
     }
   }
+
+  @Test
+  public void testVectorSerializeSkipsZeros() throws Exception {
+    IntVector from = new IntVector();
+    from.set(0, 1);
+    from.set(3, 0);
+    from.set(7, 2);
+    byte[] data = WritableUtils.writeToByteArray(from);
+    // Size followed by two (row, value) pairs
+    assertEquals(4 + 2 * (4 + 4), data.length);
+
+    IntVector to = new IntVector();
+    WritableUtils.readFieldsFromByteArray(data, to);
+    assertEquals(1, to.get(0));
+    assertEquals(0, to.get(3));
+    assertEquals(2, to.get(7));
+  }
+
+  @Test
+  public void testVectorDelta() throws Exception {
+    IntVector base = new IntVector();
+    base.set(0, 1);
+    base.set(1, 1);
+    base.set(2, 1);
+
+    IntVector next = new IntVector();
+    next.set(0, 1);
+    next.set(1, 2);
+    next.set(5, 2);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    next.writeDelta(new DataOutputStream(bytes), base);
+    // Changed entry 1, removed entry 2 and added entry 5
+    assertEquals(4 + 3 * (4 + 4), bytes.size());
+
+    IntVector to = new IntVector();
+    WritableUtils.readFieldsFromByteArray(
+        WritableUtils.writeToByteArray(base), to);
+    to.readDelta(new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())));
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(next.get(i), to.get(i));
+    }
+    // Entries set to zero are removed, so they aren't written again
+    assertEquals(WritableUtils.writeToByteArray(next).length,
+        WritableUtils.writeToByteArray(to).length);
+  }
 }
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.aggregators.matrix;
+
+import org.apache.giraph.aggregators.Aggregator;
+import org.apache.giraph.aggregators.DeltaAggregatorValue;
+import org.apache.giraph.comm.MasterClient;
+import org.apache.giraph.comm.aggregators.AllAggregatorServerData;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.master.MasterAggregatorHandler;
+import org.apache.giraph.utils.WritableUtils;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.Progressable;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test broadcasting vector aggregators from master to workers as the
+ * difference to the previous value.
+ */
+public class TestVectorAggregatorDeltaEncoding {
+  /** Name of the aggregator */
+  private static final String NAME = "vector";
+  /** Number of entries of the vectors */
+  private static final int SIZE = 100;
+
+  private ImmutableClassesGiraphConfiguration conf;
+  private MasterAggregatorHandler masterHandler;
+  private MasterClient masterClient;
+  private AllAggregatorServerData workerData;
+
+  @Before
+  public void setUp() throws Exception {
+    GiraphConfiguration giraphConf = new GiraphConfiguration();
+    GiraphConstants.AGGREGATOR_DELTA_ENCODING.set(giraphConf, true);
+    conf = new ImmutableClassesGiraphConfiguration(giraphConf);
+    Progressable progressable = Mockito.mock(Progressable.class);
+    masterHandler = new MasterAggregatorHandler(conf, progressable);
+    masterHandler.registerAggregator(NAME, LongVectorSumAggregator.class);
+    masterClient = Mockito.mock(MasterClient.class);
+    workerData = new AllAggregatorServerData(progressable, conf);
+    registerOnWorker(LongVectorSumAggregator.class);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void registerOnWorker(Class<? extends Aggregator> aggregatorClass) {
+    workerData.registerAggregatorClass(NAME,
+        (Class<Aggregator<Writable>>) aggregatorClass);
+  }
+
+  /**
+   * Let master finish a superstep with a value of the aggregator, and get
+   * the bytes it sends to the owner of the aggregator.
+   *
+   * @param value Value master computation sets
+   * @return Bytes of the value sent
+   */
+  private byte[] sendFromMaster(Writable value) {
+    masterHandler.prepareSuperstep(masterClient);
+    masterHandler.setAggregatedValue(NAME, value);
+    masterHandler.finishSuperstep(masterClient);
+    ArgumentCaptor<Writable> sentValue =
+        ArgumentCaptor.forClass(Writable.class);
+    try {
+      Mockito.verify(masterClient, Mockito.atLeastOnce()).sendAggregator(
+          Mockito.eq(NAME), Mockito.any(Class.class), sentValue.capture());
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    assertTrue(sentValue.getValue() instanceof DeltaAggregatorValue);
+    return WritableUtils.writeToByteArray(sentValue.getValue());
+  }
+
+  /**
+   * Read the bytes sent by master like a worker does, and get the value
+   * the worker sees in the next superstep.
+   *
+   * @param data Bytes sent by master
+   * @return Value of the aggregator
+   */
+  private Writable receiveOnWorker(byte[] data) throws IOException {
+    workerData.readAggregatorValue(NAME,
+        new DataInputStream(new ByteArrayInputStream(data)));
+    Map<String, Writable> previousValues = Maps.newHashMap();
+    workerData.fillNextSuperstepMapsWhenReady(
+        Collections.<Integer>emptySet(), previousValues,
+        Maps.<String, Aggregator<Writable>>newHashMap());
+    workerData.reset();
+    return previousValues.get(NAME);
+  }
+
+  private static boolean isDelta(byte[] data) {
+    // DeltaAggregatorValue starts with whether it holds a difference
+    return data[0] != 0;
+  }
+
+  private static LongVector createLongVector(int changedEntries, long value) {
+    LongVector vector = new LongVector();
+    for (int i = 0; i < SIZE; ++i) {
+      vector.set(i, (i < changedEntries) ? value : i + 1);
+    }
+    return vector;
+  }
+
+  private static void assertVectorEquals(LongVector expected,
+      LongVector actual) {
+    for (int i = 0; i < SIZE; ++i) {
+      assertEquals(expected.get(i), actual.get(i));
+    }
+  }
+
+  private static void assertVectorEquals(DoubleVector expected,
+      DoubleVector actual) {
+    for (int i = 0; i < SIZE; ++i) {
+      assertEquals(expected.get(i), actual.get(i), 0);
+    }
+  }
+
+  @Test
+  public void testDeltaAgainstPreviousValue() throws IOException {
+    // Nothing was sent before, so the first value is sent whole
+    LongVector first = createLongVector(0, 0);
+    byte[] firstData = sendFromMaster(first);
+    assertFalse(isDelta(firstData));
+    LongVector received = (LongVector) receiveOnWorker(firstData);
+    assertVectorEquals(first, received);
+    // The computation may change the value it got
+    received.set(0, -1);
+
+    // Then only the changed entries are sent
+    LongVector second = createLongVector(3, 1000);
+    byte[] secondData = sendFromMaster(second);
+    assertTrue(isDelta(secondData));
+    assertTrue(secondData.length < firstData.length / 10);
+    assertVectorEquals(second, (LongVector) receiveOnWorker(secondData));
+
+    // The difference is to the last value sent, not to the first one
+    LongVector third = createLongVector(5, 2000);
+    third.set(SIZE - 1, 0);
+    byte[] thirdData = sendFromMaster(third);
+    assertTrue(isDelta(thirdData));
+    assertVectorEquals(third, (LongVector) receiveOnWorker(thirdData));
+  }
+
+  @Test
+  public void testFullResendAfterClassChange() throws IOException {
+    LongVector first = createLongVector(0, 0);
+    assertVectorEquals(first,
+        (LongVector) receiveOnWorker(sendFromMaster(first)));
+
+    // A value of another class can't be a difference to the last one
+    DoubleVector second = new DoubleVector();
+    for (int i = 0; i < SIZE; ++i) {
+      second.set(i, i / 2.0);
+    }
+    byte[] secondData = sendFromMaster(second);
+    assertFalse(isDelta(secondData));
+    registerOnWorker(DoubleVectorSumAggregator.class);
+    assertVectorEquals(second, (DoubleVector) receiveOnWorker(secondData));
+
+    // Differences are relative to the new value from then on
+    DoubleVector third = new DoubleVector();
+    for (int i = 0; i < SIZE; ++i) {
+      third.set(i, (i == 7) ? 70.5 : i / 2.0);
+    }
+    byte[] thirdData = sendFromMaster(third);
+    assertTrue(isDelta(thirdData));
+    assertVectorEquals(third, (DoubleVector) receiveOnWorker(thirdData));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testDeltaWithoutBase() throws IOException {
+    LongVector base = createLongVector(0, 0);
+    byte[] data = WritableUtils.writeToByteArray(
+        new DeltaAggregatorValue<LongVector>(base, createLongVector(1, 5)));
+    assertTrue(isDelta(data));
+    // A worker which didn't get the base can't apply the difference
+    new DeltaAggregatorValue<LongVector>(null, new LongVector())
+        .readFields(new DataInputStream(new ByteArrayInputStream(data)));
+  }
+}
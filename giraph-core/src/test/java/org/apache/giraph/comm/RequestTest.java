@@ -18,13 +18,17 @@
 
 package org.apache.giraph.comm;
 
+import org.apache.giraph.comm.netty.AsyncRequestSender;
 import org.apache.giraph.comm.netty.NettyClient;
 import org.apache.giraph.comm.netty.NettyServer;
+import org.apache.giraph.comm.netty.compression.Lz4CompressionCodec;
+import org.apache.giraph.comm.netty.handler.MasterRequestServerHandler;
 import org.apache.giraph.comm.netty.handler.WorkerRequestServerHandler;
 import org.apache.giraph.comm.requests.SendPartitionMutationsRequest;
 import org.apache.giraph.comm.requests.SendVertexRequest;
 import org.apache.giraph.comm.requests.SendWorkerMessagesRequest;
 import org.apache.giraph.comm.requests.SendWorkerOneToAllMessagesRequest;
+import org.apache.giraph.comm.requests.WorkerFinishedSuperstepRequest;
 import org.apache.giraph.conf.GiraphConfiguration;
 import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
@@ -34,6 +38,8 @@ import org.apache.giraph.factories.TestMessageValueFactory;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.graph.VertexMutations;
 import org.apache.giraph.metrics.GiraphMetrics;
+import org.apache.giraph.metrics.MetricNames;
+import org.apache.giraph.metrics.SuperstepMetricsRegistry;
 import org.apache.giraph.partition.Partition;
 import org.apache.giraph.partition.PartitionStore;
 import org.apache.giraph.utils.ByteArrayOneToAllMessages;
@@ -43,8 +49,11 @@ import org.apache.giraph.utils.IntNoOpComputation;
 import org.apache.giraph.utils.MockUtils;
 import org.apache.giraph.utils.PairList;
 import org.apache.giraph.worker.WorkerInfo;
+import org.apache.giraph.zk.BspEvent;
+import org.apache.giraph.zk.PredicateLock;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Mapper.Context;
+import org.apache.hadoop.util.Progressable;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -56,6 +65,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -101,6 +111,29 @@ public class RequestTest {
         Lists.<WorkerInfo>newArrayList(workerInfo));
   }
 
+  /**
+   * Replace the configuration, and start a new server and a client
+   * connected to it.
+   *
+   * @param tmpConf Configuration to use
+   */
+  private void restart(GiraphConfiguration tmpConf) {
+    conf = new ImmutableClassesGiraphConfiguration(tmpConf);
+    @SuppressWarnings("rawtypes")
+    Context context = mock(Context.class);
+    when(context.getConfiguration()).thenReturn(conf);
+    serverData = MockUtils.createNewServerData(conf, context);
+    serverData.prepareSuperstep();
+    workerInfo = new WorkerInfo();
+    server = new NettyServer(conf,
+        new WorkerRequestServerHandler.Factory(serverData), workerInfo,
+        context);
+    server.start();
+    workerInfo.setInetSocketAddress(server.getMyAddress());
+    client = new NettyClient(context, conf, new WorkerInfo());
+    client.connectAllAddresses(Lists.<WorkerInfo>newArrayList(workerInfo));
+  }
+
   @Test
   public void sendVertexPartition() throws IOException {
     // Data to send
@@ -138,6 +171,44 @@ public class RequestTest {
     partitionStore.shutdown();
   }
 
+  @Test
+  public void sendVertexPartitionInChunks() throws IOException {
+    // Send one partition as several requests
+    int partitionId = 13;
+    for (int chunk = 0; chunk < 4; ++chunk) {
+      Partition<IntWritable, IntWritable, IntWritable> partition =
+          conf.createPartition(partitionId, null);
+      for (int i = chunk * 5; i < (chunk + 1) * 5; ++i) {
+        Vertex vertex = conf.createVertex();
+        vertex.initialize(new IntWritable(i), new IntWritable(i));
+        partition.putVertex(vertex);
+      }
+      client.sendWritableRequest(workerInfo.getTaskId(),
+          new SendVertexRequest<IntWritable, IntWritable, IntWritable>(
+              partition));
+    }
+    client.waitAllRequests();
+
+    // Stop the service
+    client.stop();
+    server.stop();
+
+    // Check that all chunks were merged into one partition
+    PartitionStore<IntWritable, IntWritable, IntWritable> partitionStore =
+        serverData.getPartitionStore();
+    assertTrue(partitionStore.hasPartition(partitionId));
+    Partition<IntWritable, IntWritable, IntWritable> partition =
+        partitionStore.getPartition(partitionId);
+    assertEquals(20, partition.getVertexCount());
+    int total = 0;
+    for (Vertex<IntWritable, IntWritable, IntWritable> vertex : partition) {
+      total += vertex.getId().get();
+    }
+    partitionStore.putPartition(partition);
+    assertEquals(190, total);
+    partitionStore.shutdown();
+  }
+
   @Test
   public void sendWorkerMessagesRequest() throws IOException {
     // Data to send
@@ -191,6 +262,154 @@ public class RequestTest {
     assertEquals(35, messageSum);
   }
 
+  @Test
+  public void sendCompressedWorkerMessagesRequest() throws IOException {
+    client.stop();
+    server.stop();
+
+    // Restart the service with compression
+    GiraphConfiguration tmpConf = new GiraphConfiguration();
+    GiraphConstants.COMPUTATION_CLASS.set(tmpConf, IntNoOpComputation.class);
+    GiraphConstants.NETTY_COMPRESSION_CODEC.set(tmpConf,
+        Lz4CompressionCodec.class);
+    GiraphConstants.NETTY_COMPRESSION_THRESHOLD.set(tmpConf, 1024);
+    GiraphConstants.METRICS_ENABLE.set(tmpConf, true);
+    GiraphMetrics.init(new ImmutableClassesGiraphConfiguration(tmpConf));
+    restart(tmpConf);
+
+    // Send a small request, which isn't compressed, and a large one
+    int[] numVertices = new int[] {2, 1000};
+    for (int n : numVertices) {
+      PairList<Integer, ByteArrayVertexIdMessages<IntWritable, IntWritable>>
+          dataToSend = new PairList<Integer,
+          ByteArrayVertexIdMessages<IntWritable, IntWritable>>();
+      dataToSend.initialize();
+      ByteArrayVertexIdMessages<IntWritable, IntWritable> vertexIdMessages =
+          new ByteArrayVertexIdMessages<IntWritable, IntWritable>(
+              new TestMessageValueFactory<IntWritable>(IntWritable.class));
+      vertexIdMessages.setConf(conf);
+      vertexIdMessages.initialize();
+      dataToSend.add(0, vertexIdMessages);
+      for (int i = 0; i < n; ++i) {
+        for (int j = 0; j < 5; ++j) {
+          vertexIdMessages.add(new IntWritable(i), new IntWritable(1));
+        }
+      }
+      client.sendWritableRequest(workerInfo.getTaskId(),
+          new SendWorkerMessagesRequest<IntWritable, IntWritable>(
+              dataToSend));
+    }
+    client.waitAllRequests();
+    client.stop();
+    server.stop();
+
+    // Check the output and that the large request got smaller
+    int messageSum = 0;
+    for (IntWritable vertexId : serverData.getIncomingMessageStore()
+        .getPartitionDestinationVertices(0)) {
+      for (IntWritable message : serverData.<IntWritable>
+          getIncomingMessageStore().getVertexMessages(vertexId)) {
+        messageSum += message.get();
+      }
+    }
+    assertEquals(5 * 1000 + 5 * 2, messageSum);
+    SuperstepMetricsRegistry metrics = GiraphMetrics.get().perSuperstep();
+    long uncompressedBytes =
+        metrics.getCounter(MetricNames.UNCOMPRESSED_BYTES).count();
+    long compressedBytes =
+        metrics.getCounter(MetricNames.COMPRESSED_BYTES).count();
+    assertTrue(uncompressedBytes > 5 * 1000 * 8);
+    assertTrue(compressedBytes < uncompressedBytes / 2);
+  }
+
+  @Test
+  public void sendWorkerMessagesRequestsWithCredit() throws IOException {
+    client.stop();
+    server.stop();
+
+    // Restart the service with a credit which allows only one open request
+    GiraphConfiguration tmpConf = new GiraphConfiguration();
+    GiraphConstants.COMPUTATION_CLASS.set(tmpConf, IntNoOpComputation.class);
+    GiraphConstants.NETTY_CREDIT_FLOW_CONTROL.set(tmpConf, true);
+    GiraphConstants.NETTY_MAX_CREDIT_BYTES.set(tmpConf, 1);
+    restart(tmpConf);
+
+    int numRequests = 20;
+    for (int r = 0; r < numRequests; ++r) {
+      client.sendWritableRequest(workerInfo.getTaskId(),
+          createMessagesRequest(10));
+    }
+    client.waitAllRequests();
+    client.stop();
+    server.stop();
+
+    assertEquals(numRequests * 45, sumMessages());
+  }
+
+  @Test
+  public void sendWorkerMessagesRequestsAsync() throws IOException {
+    // Allow only two requests to be queued at a time
+    int requestBytes = createMessagesRequest(10).getSerializedSize();
+    AsyncRequestSender asyncRequestSender = new AsyncRequestSender(client, 2,
+        2 * requestBytes, mock(Progressable.class));
+    int numRequests = 50;
+    for (int r = 0; r < numRequests; ++r) {
+      asyncRequestSender.sendWritableRequest(workerInfo.getTaskId(),
+          createMessagesRequest(10));
+    }
+    asyncRequestSender.waitAllQueued();
+    client.waitAllRequests();
+    asyncRequestSender.shutdown();
+    client.stop();
+    server.stop();
+
+    assertEquals(numRequests * 45, sumMessages());
+  }
+
+  /**
+   * Create a request with messages to vertices 0, 1, ..., each with its
+   * vertex id as value.
+   *
+   * @param numMessages Number of messages
+   * @return Request
+   */
+  private SendWorkerMessagesRequest<IntWritable, IntWritable>
+  createMessagesRequest(int numMessages) {
+    PairList<Integer, ByteArrayVertexIdMessages<IntWritable, IntWritable>>
+        dataToSend = new PairList<Integer,
+        ByteArrayVertexIdMessages<IntWritable, IntWritable>>();
+    dataToSend.initialize();
+    ByteArrayVertexIdMessages<IntWritable, IntWritable> vertexIdMessages =
+        new ByteArrayVertexIdMessages<IntWritable, IntWritable>(
+            new TestMessageValueFactory<IntWritable>(IntWritable.class));
+    vertexIdMessages.setConf(conf);
+    vertexIdMessages.initialize();
+    dataToSend.add(0, vertexIdMessages);
+    for (int i = 0; i < numMessages; ++i) {
+      vertexIdMessages.add(new IntWritable(i), new IntWritable(i));
+    }
+    return new SendWorkerMessagesRequest<IntWritable, IntWritable>(
+        dataToSend);
+  }
+
+  /**
+   * Sum the messages the server received for partition 0.
+   *
+   * @return Sum of the messages
+   * @throws IOException
+   */
+  private int sumMessages() throws IOException {
+    int messageSum = 0;
+    for (IntWritable vertexId : serverData.getIncomingMessageStore()
+        .getPartitionDestinationVertices(0)) {
+      for (IntWritable message : serverData.<IntWritable>
+          getIncomingMessageStore().getVertexMessages(vertexId)) {
+        messageSum += message.get();
+      }
+    }
+    return messageSum;
+  }
+
   @Test
   public void sendWorkerOneToAllMessagesRequest() throws IOException {
     // Data to send
@@ -280,7 +499,7 @@ public class RequestTest {
     // Check the output
     ConcurrentHashMap<IntWritable, VertexMutations<IntWritable, IntWritable,
     IntWritable>> inVertexIdMutations =
-        serverData.getVertexMutations();
+        serverData.getPartitionMutations().get(partitionId);
     int keySum = 0;
     for (Entry<IntWritable, VertexMutations<IntWritable, IntWritable,
         IntWritable>> entry :
@@ -304,4 +523,48 @@ public class RequestTest {
     }
     assertEquals(55, keySum);
   }
+
+  @Test
+  public void workerFinishedSuperstepRequest() throws IOException {
+    @SuppressWarnings("rawtypes")
+    Context context = mock(Context.class);
+    when(context.getConfiguration()).thenReturn(conf);
+    BspEvent workerFinishedEvent = new PredicateLock(context);
+    MasterServerData masterServerData =
+        new MasterServerData(null, workerFinishedEvent);
+    WorkerInfo masterInfo = new WorkerInfo();
+    masterInfo.setTaskId(1);
+    NettyServer masterServer = new NettyServer(conf,
+        new MasterRequestServerHandler.Factory(masterServerData), masterInfo,
+        context);
+    masterServer.start();
+    masterInfo.setInetSocketAddress(masterServer.getMyAddress());
+    client.connectAllAddresses(Lists.<WorkerInfo>newArrayList(masterInfo));
+
+    // Send the request
+    byte[] finishedInfo = new byte[] {1, 2, 3};
+    client.sendWritableRequest(masterInfo.getTaskId(),
+        new WorkerFinishedSuperstepRequest("/finished/1", finishedInfo, 7));
+    client.waitAllRequests();
+
+    // Stop the service
+    client.stop();
+    masterServer.stop();
+    server.stop();
+
+    // Check the output
+    assertTrue(workerFinishedEvent.waitMsecs(0));
+    Map<Integer, byte[]> finishedWorkers =
+        masterServerData.getFinishedWorkers("/finished/1");
+    assertEquals(1, finishedWorkers.size());
+    assertArrayEquals(finishedInfo, finishedWorkers.get(7));
+    assertTrue(masterServerData.getFinishedWorkers("/finished/2").isEmpty());
+    masterServerData.removeFinishedWorkers("/finished/1");
+    assertTrue(masterServerData.getFinishedWorkers("/finished/1").isEmpty());
+    masterServerData.workerFinished("/finished/2", 7, finishedInfo);
+    masterServerData.workerFinished("/finished/3", 7, finishedInfo);
+    masterServerData.clearFinishedWorkers();
+    assertTrue(masterServerData.getFinishedWorkers("/finished/2").isEmpty());
+    assertTrue(masterServerData.getFinishedWorkers("/finished/3").isEmpty());
+  }
 }
@@ -24,10 +24,12 @@ import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import org.apache.commons.io.FileUtils;
 import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.MinimumIntCombiner;
 import org.apache.giraph.comm.messages.ByteArrayMessagesPerVertexStore;
 import org.apache.giraph.comm.messages.out_of_core.DiskBackedMessageStore;
 import org.apache.giraph.comm.messages.MessageStore;
 import org.apache.giraph.comm.messages.MessageStoreFactory;
+import org.apache.giraph.comm.messages.OneMessagePerVertexStore;
 import org.apache.giraph.comm.messages.out_of_core.PartitionDiskBackedMessageStore;
 import org.apache.giraph.comm.messages.out_of_core.SequentialFileMessageStore;
 import org.apache.giraph.conf.GiraphConfiguration;
@@ -36,7 +38,9 @@ import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.factories.TestMessageValueFactory;
 import org.apache.giraph.utils.ByteArrayVertexIdMessages;
 import org.apache.giraph.utils.CollectionUtils;
+import org.apache.giraph.utils.ExtendedDataOutput;
 import org.apache.giraph.utils.IntNoOpComputation;
+import org.apache.giraph.utils.MemoryController;
 import org.apache.giraph.utils.MockUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.IntWritable;
@@ -56,12 +60,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Map;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /** Test for different types of message stores */
@@ -278,4 +284,171 @@ public class TestMessageStores {
       e.printStackTrace();
     }
   }
+
+  @Test
+  public void testAdaptiveDiskBackedMessageStore() {
+    try {
+      MessageStoreFactory<IntWritable, IntWritable,
+          SequentialFileMessageStore<IntWritable, IntWritable>>
+          fileStoreFactory =
+          SequentialFileMessageStore.newFactory(config);
+      MessageStoreFactory<IntWritable, IntWritable,
+          PartitionDiskBackedMessageStore<IntWritable, IntWritable>>
+          partitionStoreFactory =
+          PartitionDiskBackedMessageStore.newFactory(config, fileStoreFactory);
+      // The heap always looks full, so partitions are flushed
+      testMessageStore(DiskBackedMessageStore.newFactory(service,
+          testData.maxMessagesInMemory, new MemoryController(0f, 0f),
+          partitionStoreFactory), testData);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private SequentialFileMessageStore<IntWritable, IntWritable> writeRun(
+      ImmutableClassesGiraphConfiguration<IntWritable, ?, ?> conf,
+      MessageStoreFactory<IntWritable, IntWritable,
+          SequentialFileMessageStore<IntWritable, IntWritable>> factory,
+      SortedMap<IntWritable, Collection<IntWritable>> messages)
+    throws IOException {
+    TreeMap<IntWritable, ExtendedDataOutput> messageMap =
+        new TreeMap<IntWritable, ExtendedDataOutput>();
+    for (Entry<IntWritable, Collection<IntWritable>> entry :
+        messages.entrySet()) {
+      ExtendedDataOutput out = conf.createExtendedDataOutput();
+      for (IntWritable message : entry.getValue()) {
+        message.write(out);
+      }
+      messageMap.put(entry.getKey(), out);
+    }
+    SequentialFileMessageStore<IntWritable, IntWritable> run =
+        factory.newStore(new TestMessageValueFactory<IntWritable>(
+            IntWritable.class));
+    run.addMessages(messageMap);
+    return run;
+  }
+
+  @Test
+  public void testSequentialFileMessageStoreSeeks() throws IOException {
+    GiraphConfiguration initConfig = new GiraphConfiguration(config);
+    GiraphConstants.MESSAGES_INDEX_INTERVAL.set(initConfig, 4);
+    ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+        IntWritable> conf = new ImmutableClassesGiraphConfiguration<
+        IntWritable, IntWritable, IntWritable>(initConfig);
+    SortedMap<IntWritable, Collection<IntWritable>> messages =
+        new TreeMap<IntWritable, Collection<IntWritable>>();
+    for (int id = 0; id < 100; id += 2) {
+      messages.put(new IntWritable(id), Lists.newArrayList(
+          new IntWritable(id), new IntWritable(id + 1)));
+    }
+    SequentialFileMessageStore<IntWritable, IntWritable> run = writeRun(
+        conf, SequentialFileMessageStore.<IntWritable, IntWritable>newFactory(
+            conf), messages);
+
+    // Far ahead, back, and vertices without messages
+    for (int id : new int[] {90, 10, 11, 12, 2, 99, 98, 0, -1, 50, 50}) {
+      Collection<IntWritable> expected = messages.get(new IntWritable(id));
+      Iterable<IntWritable> actual =
+          run.getVertexMessages(new IntWritable(id));
+      if (expected == null) {
+        assertTrue(Iterables.isEmpty(actual));
+      } else {
+        assertTrue(CollectionUtils.isEqual(expected, actual));
+      }
+    }
+    run.clearAll();
+  }
+
+  @Test
+  public void testOneMessagePerVertexStoreDirect() throws IOException {
+    GiraphConfiguration initConfig = new GiraphConfiguration(config);
+    initConfig.setCombinerClass(MinimumIntCombiner.class);
+    ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+        IntWritable> conf = new ImmutableClassesGiraphConfiguration<
+        IntWritable, IntWritable, IntWritable>(initConfig);
+    OneMessagePerVertexStore<IntWritable, IntWritable> messageStore =
+        (OneMessagePerVertexStore<IntWritable, IntWritable>)
+        OneMessagePerVertexStore.<IntWritable, IntWritable>newFactory(
+            service, conf).newStore(
+            new TestMessageValueFactory<IntWritable>(IntWritable.class));
+
+    // Reuse the vertex id and message, like computations can
+    SortedMap<IntWritable, Collection<IntWritable>> messages =
+        createRandomMessages(testData);
+    IntWritable vertexId = new IntWritable();
+    IntWritable message = new IntWritable();
+    for (Entry<IntWritable, Collection<IntWritable>> entry :
+        messages.entrySet()) {
+      for (IntWritable entryMessage : entry.getValue()) {
+        vertexId.set(entry.getKey().get());
+        message.set(entryMessage.get());
+        messageStore.addMessage(
+            service.getVertexPartitionOwner(vertexId).getPartitionId(),
+            vertexId, message);
+      }
+    }
+
+    for (Entry<IntWritable, Collection<IntWritable>> entry :
+        messages.entrySet()) {
+      Iterable<IntWritable> actual =
+          messageStore.getVertexMessages(entry.getKey());
+      if (entry.getValue().isEmpty()) {
+        assertTrue(Iterables.isEmpty(actual));
+        continue;
+      }
+      int minimum = Integer.MAX_VALUE;
+      for (IntWritable entryMessage : entry.getValue()) {
+        minimum = Math.min(minimum, entryMessage.get());
+      }
+      assertEquals(minimum, Iterables.getOnlyElement(actual).get());
+    }
+    messageStore.clearAll();
+  }
+
+  @Test
+  public void testMergeRunsWithCombiner() throws IOException {
+    GiraphConfiguration initConfig = new GiraphConfiguration(config);
+    initConfig.setCombinerClass(MinimumIntCombiner.class);
+    GiraphConstants.MESSAGES_INDEX_INTERVAL.set(initConfig, 3);
+    ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+        IntWritable> conf = new ImmutableClassesGiraphConfiguration<
+        IntWritable, IntWritable, IntWritable>(initConfig);
+    MessageStoreFactory<IntWritable, IntWritable,
+        SequentialFileMessageStore<IntWritable, IntWritable>> factory =
+        SequentialFileMessageStore.newFactory(conf);
+
+    SortedMap<IntWritable, Integer> minimums = new TreeMap<IntWritable,
+        Integer>();
+    List<SequentialFileMessageStore<IntWritable, IntWritable>> runs =
+        Lists.newArrayList();
+    for (int r = 0; r < 5; ++r) {
+      SortedMap<IntWritable, Collection<IntWritable>> messages =
+          createRandomMessages(testData);
+      for (Entry<IntWritable, Collection<IntWritable>> entry :
+          messages.entrySet()) {
+        for (IntWritable message : entry.getValue()) {
+          Integer minimum = minimums.get(entry.getKey());
+          if (minimum == null || message.get() < minimum) {
+            minimums.put(entry.getKey(), message.get());
+          }
+        }
+      }
+      runs.add(writeRun(conf, factory, messages));
+    }
+    SequentialFileMessageStore<IntWritable, IntWritable> merged =
+        factory.newStore(new TestMessageValueFactory<IntWritable>(
+            IntWritable.class));
+    merged.mergeRuns(runs);
+    for (SequentialFileMessageStore<IntWritable, IntWritable> run : runs) {
+      run.clearAll();
+    }
+
+    for (Entry<IntWritable, Integer> entry : minimums.entrySet()) {
+      Iterable<IntWritable> actual = merged.getVertexMessages(entry.getKey());
+      assertEquals(1, Iterables.size(actual));
+      assertEquals(entry.getValue().intValue(),
+          Iterables.getOnlyElement(actual).get());
+    }
+    merged.clearAll();
+  }
 }
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.MinimumIntCombiner;
+import org.apache.giraph.comm.messages.MessageStore;
+import org.apache.giraph.comm.netty.NettyWorkerClientRequestProcessor;
+import org.apache.giraph.comm.requests.SendWorkerMessagesRequest;
+import org.apache.giraph.comm.requests.WritableRequest;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.partition.BasicPartitionOwner;
+import org.apache.giraph.partition.PartitionOwner;
+import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.giraph.utils.IntNoOpComputation;
+import org.apache.giraph.worker.WorkerInfo;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import com.google.common.collect.Lists;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test {@link SendCombiningCache}
+ */
+public class TestSendCombiningCache {
+  private static ImmutableClassesGiraphConfiguration<IntWritable, ?, ?>
+  createConf(boolean useCombiner) {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(IntNoOpComputation.class);
+    if (useCombiner) {
+      conf.setCombinerClass(MinimumIntCombiner.class);
+      GiraphConstants.SEND_COMBINING_CACHE.set(conf, true);
+    }
+    return new ImmutableClassesGiraphConfiguration(conf);
+  }
+
+  @Test
+  public void testCanCombine() {
+    assertTrue(SendCombiningCache.canCombine(createConf(true)));
+    assertFalse(SendCombiningCache.canCombine(createConf(false)));
+  }
+
+  @Test
+  public void testCombinePerPartition() {
+    SendCombiningCache<IntWritable, IntWritable> cache =
+        new SendCombiningCache<IntWritable, IntWritable>(createConf(true), 3);
+    // Reuse the objects, like computations can
+    IntWritable vertexId = new IntWritable();
+    IntWritable message = new IntWritable();
+    for (int i = 0; i < 10; ++i) {
+      vertexId.set(i % 2);
+      message.set(10 - i);
+      assertFalse(cache.addMessage(0, vertexId, message));
+    }
+    vertexId.set(5);
+    message.set(7);
+    assertFalse(cache.addMessage(1, vertexId, message));
+
+    Long2ObjectOpenHashMap<IntWritable> messages =
+        cache.getPartitionMessages(0);
+    assertEquals(2, messages.size());
+    assertEquals(2, messages.get(0).get());
+    assertEquals(1, messages.get(1).get());
+    assertEquals(1, cache.getPartitionMessages(1).size());
+    assertEquals(5, cache.getVertexId(5).get());
+
+    // The partition is full once it has three vertices
+    vertexId.set(2);
+    assertTrue(cache.addMessage(0, vertexId, message));
+    cache.clearPartition(0);
+    assertNull(cache.getPartitionMessages(0));
+    assertEquals(7, cache.getPartitionMessages(1).get(5).get());
+  }
+
+  @Test
+  public void testCombineInSendMessageCache() throws IOException {
+    WorkerInfo localWorker = new WorkerInfo();
+    localWorker.setTaskId(0);
+    WorkerInfo remoteWorker = new WorkerInfo();
+    remoteWorker.setTaskId(1);
+    PartitionOwner localOwner = new BasicPartitionOwner(0, localWorker);
+    PartitionOwner remoteOwner = new BasicPartitionOwner(1, remoteWorker);
+    CentralizedServiceWorker<IntWritable, ?, ?> serviceWorker =
+        Mockito.mock(CentralizedServiceWorker.class);
+    Mockito.when(serviceWorker.getWorkerInfo()).thenReturn(localWorker);
+    Mockito.when(serviceWorker.getWorkerInfoList()).thenReturn(
+        Lists.newArrayList(localWorker, remoteWorker));
+    Mockito.when(serviceWorker.getPartitionOwners()).thenReturn(
+        Lists.newArrayList(localOwner, remoteOwner));
+    // All messages go to the other worker
+    Mockito.when(serviceWorker.getVertexPartitionOwner(
+        Mockito.any(IntWritable.class))).thenReturn(remoteOwner);
+    NettyWorkerClientRequestProcessor<IntWritable, ?, ?> processor =
+        Mockito.mock(NettyWorkerClientRequestProcessor.class);
+
+    SendMessageCache<IntWritable, IntWritable> cache =
+        new SendMessageCache<IntWritable, IntWritable>(createConf(true),
+            serviceWorker, processor, Integer.MAX_VALUE);
+    IntWritable vertexId = new IntWritable(7);
+    for (int i = 5; i > 0; --i) {
+      cache.sendMessageRequest(vertexId, new IntWritable(i * 3));
+    }
+    cache.flush();
+    assertEquals(5, cache.resetMessageCount());
+
+    ArgumentCaptor<WritableRequest> request =
+        ArgumentCaptor.forClass(WritableRequest.class);
+    Mockito.verify(processor).doRequest(Mockito.eq(remoteWorker),
+        request.capture());
+    // Let the request add its messages to a store, which sees them
+    ServerData<IntWritable, ?, ?> serverData = Mockito.mock(ServerData.class);
+    MessageStore<IntWritable, IntWritable> messageStore =
+        Mockito.mock(MessageStore.class);
+    Mockito.when(serverData.getIncomingMessageStore()).thenReturn(
+        (MessageStore) messageStore);
+    ((SendWorkerMessagesRequest<IntWritable, IntWritable>)
+        request.getValue()).doRequest(serverData);
+    ArgumentCaptor<ByteArrayVertexIdMessages> messages =
+        ArgumentCaptor.forClass(ByteArrayVertexIdMessages.class);
+    Mockito.verify(messageStore).addPartitionMessages(Mockito.eq(1),
+        messages.capture());
+
+    ByteArrayVertexIdMessages<IntWritable, IntWritable>.VertexIdMessageIterator
+        iterator = ((ByteArrayVertexIdMessages<IntWritable, IntWritable>)
+            messages.getValue()).getVertexIdMessageIterator();
+    assertTrue(iterator.hasNext());
+    iterator.next();
+    assertEquals(7, iterator.getCurrentVertexId().get());
+    assertEquals(3, iterator.getCurrentMessage().get());
+    assertFalse(iterator.hasNext());
+  }
+}
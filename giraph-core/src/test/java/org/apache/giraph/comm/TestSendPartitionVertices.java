@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import org.apache.giraph.bsp.BspService;
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.netty.NettyWorkerClientRequestProcessor;
+import org.apache.giraph.comm.requests.SendVertexRequest;
+import org.apache.giraph.comm.requests.WritableRequest;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.graph.GiraphTransferRegulator;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.partition.ByteArrayPartition;
+import org.apache.giraph.partition.OffHeapPartition;
+import org.apache.giraph.partition.Partition;
+import org.apache.giraph.partition.SimplePartition;
+import org.apache.giraph.partition.SimplePartitionStore;
+import org.apache.giraph.utils.ExtendedDataOutput;
+import org.apache.giraph.utils.IntIntNullNoOpComputation;
+import org.apache.giraph.worker.WorkerInfo;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Test sending the vertices of a migrating partition to another worker in
+ * chunks, with every partition class.
+ */
+public class TestSendPartitionVertices {
+  /** Number of vertices in the partition */
+  private static final int NUM_VERTICES = 10;
+
+  private void testSendPartition(Class<? extends Partition> partitionClass)
+      throws IOException {
+    GiraphConfiguration giraphConf = new GiraphConfiguration();
+    giraphConf.setComputationClass(IntIntNullNoOpComputation.class);
+    GiraphConstants.PARTITION_CLASS.set(giraphConf, partitionClass);
+    // Several vertices per chunk, and a last chunk which isn't full
+    giraphConf.setInt(GiraphTransferRegulator.MAX_VERTICES_PER_TRANSFER, 3);
+    ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+        NullWritable> conf = new ImmutableClassesGiraphConfiguration<
+        IntWritable, IntWritable, NullWritable>(giraphConf);
+    Mapper.Context context = Mockito.mock(Mapper.Context.class);
+
+    Partition<IntWritable, IntWritable, NullWritable> partition =
+        conf.createPartition(5, context);
+    for (int i = 0; i < NUM_VERTICES; ++i) {
+      Vertex<IntWritable, IntWritable, NullWritable> vertex =
+          conf.createVertex();
+      vertex.initialize(new IntWritable(i), new IntWritable(i * 10));
+      for (int j = 0; j < i; ++j) {
+        vertex.addEdge(EdgeFactory.create(new IntWritable(j)));
+      }
+      partition.putVertex(vertex);
+    }
+
+    WorkerInfo localWorker = new WorkerInfo();
+    localWorker.setTaskId(0);
+    WorkerInfo remoteWorker = new WorkerInfo();
+    remoteWorker.setTaskId(1);
+    WorkerClient<IntWritable, IntWritable, NullWritable> workerClient =
+        Mockito.mock(WorkerClient.class);
+    CentralizedServiceWorker<IntWritable, IntWritable, NullWritable>
+        serviceWorker = Mockito.mock(CentralizedServiceWorker.class);
+    Mockito.when(serviceWorker.getWorkerInfo()).thenReturn(localWorker);
+    Mockito.when(serviceWorker.getWorkerClient()).thenReturn(workerClient);
+    Mockito.when(serviceWorker.getSuperstep()).thenReturn(
+        BspService.INPUT_SUPERSTEP);
+    NettyWorkerClientRequestProcessor<IntWritable, IntWritable, NullWritable>
+        processor = new NettyWorkerClientRequestProcessor<IntWritable,
+        IntWritable, NullWritable>(context, conf, serviceWorker);
+    processor.sendPartitionRequest(remoteWorker, partition);
+
+    ArgumentCaptor<WritableRequest> requests =
+        ArgumentCaptor.forClass(WritableRequest.class);
+    Mockito.verify(workerClient, Mockito.times(4)).sendWritableRequest(
+        Mockito.eq(1), requests.capture());
+
+    // Receive the chunks like the other worker would
+    SimplePartitionStore<IntWritable, IntWritable, NullWritable> store =
+        new SimplePartitionStore<IntWritable, IntWritable, NullWritable>(
+            conf, context);
+    ServerData<IntWritable, IntWritable, NullWritable> serverData =
+        Mockito.mock(ServerData.class);
+    Mockito.when(serverData.getPartitionStore()).thenReturn(store);
+    List<WritableRequest> sentRequests = requests.getAllValues();
+    for (WritableRequest request : sentRequests) {
+      ExtendedDataOutput output = conf.createExtendedDataOutput();
+      request.write(output);
+      assertEquals(output.getPos(), request.getSerializedSize());
+      SendVertexRequest<IntWritable, IntWritable, NullWritable>
+          receivedRequest =
+          new SendVertexRequest<IntWritable, IntWritable, NullWritable>();
+      receivedRequest.setConf(conf);
+      receivedRequest.readFields(conf.createExtendedDataInput(
+          output.getByteArray(), 0, output.getPos()));
+      receivedRequest.doRequest(serverData);
+    }
+
+    Partition<IntWritable, IntWritable, NullWritable> received =
+        store.getPartition(5);
+    assertNotNull(received);
+    assertEquals(NUM_VERTICES, received.getVertexCount());
+    for (int i = 0; i < NUM_VERTICES; ++i) {
+      Vertex<IntWritable, IntWritable, NullWritable> vertex =
+          received.getVertex(new IntWritable(i));
+      assertNotNull(vertex);
+      assertEquals(i, vertex.getId().get());
+      assertEquals(i * 10, vertex.getValue().get());
+      assertEquals(i, vertex.getNumEdges());
+    }
+  }
+
+  @Test
+  public void testSimplePartition() throws IOException {
+    testSendPartition(SimplePartition.class);
+  }
+
+  @Test
+  public void testByteArrayPartition() throws IOException {
+    testSendPartition(ByteArrayPartition.class);
+  }
+
+  @Test
+  public void testOffHeapPartition() throws IOException {
+    testSendPartition(OffHeapPartition.class);
+  }
+}
@@ -0,0 +1,425 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.aggregators;
+
+import org.apache.giraph.aggregators.Aggregator;
+import org.apache.giraph.aggregators.LongMaxAggregator;
+import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.MasterClient;
+import org.apache.giraph.comm.MasterServerData;
+import org.apache.giraph.comm.ServerData;
+import org.apache.giraph.comm.WorkerClient;
+import org.apache.giraph.comm.netty.NettyWorkerAggregatorRequestProcessor;
+import org.apache.giraph.comm.requests.MasterRequest;
+import org.apache.giraph.comm.requests.SendAggregatorsToOwnerRequest;
+import org.apache.giraph.comm.requests.WorkerRequest;
+import org.apache.giraph.comm.requests.WritableRequest;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.master.MasterAggregatorHandler;
+import org.apache.giraph.master.MasterInfo;
+import org.apache.giraph.utils.ExtendedDataOutput;
+import org.apache.giraph.utils.IntNoOpComputation;
+import org.apache.giraph.utils.ReflectionUtils;
+import org.apache.giraph.worker.WorkerAggregatorHandler;
+import org.apache.giraph.worker.WorkerInfo;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.Progressable;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test {@link AggregatorTree}
+ */
+public class TestAggregatorTree {
+  /** Task id of master in the job test */
+  private static final int MASTER_TASK_ID = 0;
+  /** Number of sum aggregators in the job test */
+  private static final int NUM_SUM_AGGREGATORS = 5;
+  /** Number of supersteps in the job test */
+  private static final int NUM_SUPERSTEPS = 4;
+
+  private static List<WorkerInfo> createWorkers(int numWorkers) {
+    List<WorkerInfo> workers = Lists.newArrayList();
+    for (int i = 0; i < numWorkers; ++i) {
+      WorkerInfo workerInfo = new WorkerInfo();
+      // Task ids don't have to match the positions in the list
+      workerInfo.setTaskId(2 * i + 1);
+      workerInfo.setInetSocketAddress(
+          InetSocketAddress.createUnresolved("localhost", 30000 + i));
+      workers.add(workerInfo);
+    }
+    return workers;
+  }
+
+  @Test
+  public void testTreesAreConsistent() {
+    for (int numWorkers = 1; numWorkers <= 17; ++numWorkers) {
+      List<WorkerInfo> workers = createWorkers(numWorkers);
+      for (int arity = 1; arity <= 4; ++arity) {
+        List<AggregatorTree> trees = Lists.newArrayList();
+        for (WorkerInfo worker : workers) {
+          trees.add(new AggregatorTree(arity, workers, worker.getTaskId()));
+        }
+        for (WorkerInfo root : workers) {
+          int numChildren = 0;
+          for (int i = 0; i < numWorkers; ++i) {
+            AggregatorTree tree = trees.get(i);
+            WorkerInfo parent = tree.getParent(root);
+            if (workers.get(i) == root) {
+              assertNull(parent);
+              assertEquals(0, tree.getDepth(root));
+            } else {
+              // The parent lists this worker as a child, one level up
+              AggregatorTree parentTree = trees.get(workers.indexOf(parent));
+              assertTrue(parentTree.getChildren(root).contains(
+                  workers.get(i)));
+              assertEquals(parentTree.getDepth(root) + 1,
+                  tree.getDepth(root));
+            }
+            assertTrue(tree.getChildren(root).size() <= arity);
+            numChildren += tree.getChildren(root).size();
+          }
+          // Every worker but the root is the child of exactly one worker
+          assertEquals(numWorkers - 1, numChildren);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDepthAndOrder() {
+    List<WorkerInfo> workers = createWorkers(15);
+    AggregatorTree tree = new AggregatorTree(2, workers, 1);
+    // Positions 7 to 14 of a binary tree are at depth 3
+    assertEquals(0, tree.getDepth(workers.get(0)));
+    assertEquals(3, tree.getDepth(workers.get(1)));
+    assertEquals(1, tree.getDepth(workers.get(14)));
+
+    List<WorkerInfo> deepestFirst = tree.getRootsByDepth(true);
+    List<WorkerInfo> shallowestFirst = tree.getRootsByDepth(false);
+    assertEquals(workers.get(0), shallowestFirst.get(0));
+    assertEquals(workers.get(0), deepestFirst.get(14));
+    for (int i = 1; i < 15; ++i) {
+      assertTrue(tree.getDepth(deepestFirst.get(i - 1)) >=
+          tree.getDepth(deepestFirst.get(i)));
+      assertTrue(tree.getDepth(shallowestFirst.get(i - 1)) <=
+          tree.getDepth(shallowestFirst.get(i)));
+    }
+  }
+
+  @Test
+  public void testValuesFromChildren() {
+    OwnerAggregatorServerData aggregatorData = new OwnerAggregatorServerData(
+        Mockito.mock(Progressable.class),
+        new ImmutableClassesGiraphConfiguration(new GiraphConfiguration()));
+    Class<Aggregator<Writable>> aggregatorClass =
+        (Class<Aggregator<Writable>>) (Class) LongSumAggregator.class;
+    // Children 3 and 5 send values of an aggregator owned by worker 1,
+    // child 5 in two requests
+    aggregatorData.aggregateFromChild("sum", new LongWritable(2),
+        aggregatorClass);
+    aggregatorData.receivedRequestCountFromChild(1, 1, 3);
+    aggregatorData.receivedRequestFromChild(1);
+    aggregatorData.aggregateFromChild("sum", new LongWritable(3),
+        aggregatorClass);
+    aggregatorData.receivedRequestFromChild(1);
+    aggregatorData.aggregateFromChild("sum", new LongWritable(4),
+        aggregatorClass);
+    aggregatorData.receivedRequestCountFromChild(1, 2, 5);
+    aggregatorData.receivedRequestFromChild(1);
+
+    // Worker 7 has no children in its own tree
+    aggregatorData.waitForChildren(7, Sets.<Integer>newHashSet());
+    aggregatorData.waitForChildren(1, Sets.newHashSet(3, 5));
+    assertEquals(9,
+        ((LongWritable) aggregatorData.getChildrenAggregatedValue("sum"))
+            .get());
+    assertNull(aggregatorData.getChildrenAggregatedValue("max"));
+    aggregatorData.reset();
+    assertNull(aggregatorData.getChildrenAggregatedValue("sum"));
+  }
+
+  /**
+   * Delivers requests to the simulated workers and master, in the thread
+   * of the sender.  Requests are serialized and read back, like Netty would
+   * do, before being processed.
+   */
+  private static class RequestRouter {
+    /** Configuration */
+    private final ImmutableClassesGiraphConfiguration conf;
+    /** Server data of the workers, by task id */
+    private final Map<Integer, ServerData> workerServerData =
+        Maps.newHashMap();
+    /** Server data of master */
+    private final MasterServerData masterServerData;
+
+    RequestRouter(ImmutableClassesGiraphConfiguration conf,
+        MasterServerData masterServerData) {
+      this.conf = conf;
+      this.masterServerData = masterServerData;
+    }
+
+    void addWorker(int taskId, ServerData serverData) {
+      workerServerData.put(taskId, serverData);
+    }
+
+    void deliver(int taskId, WritableRequest request) throws IOException {
+      ExtendedDataOutput output = conf.createExtendedDataOutput();
+      request.write(output);
+      WritableRequest received =
+          ReflectionUtils.newInstance(request.getType().getRequestClass());
+      received.setConf(conf);
+      received.readFields(conf.createExtendedDataInput(
+          output.getByteArray(), 0, output.getPos()));
+      if (taskId == MASTER_TASK_ID) {
+        ((MasterRequest) received).doRequest(masterServerData);
+      } else {
+        ((WorkerRequest) received).doRequest(workerServerData.get(taskId));
+      }
+    }
+  }
+
+  /**
+   * Master client which sends aggregators to their owners through the
+   * {@link RequestRouter}, the same way as the Netty master client.
+   */
+  private static class RoutingMasterClient implements MasterClient {
+    /** Cache of aggregators to send, by owner */
+    private final SendAggregatorCache sendAggregatorCache =
+        new SendAggregatorCache();
+    /** Workers */
+    private final List<WorkerInfo> workers;
+    /** Router of requests */
+    private final RequestRouter router;
+
+    RoutingMasterClient(List<WorkerInfo> workers, RequestRouter router) {
+      this.workers = workers;
+      this.router = router;
+    }
+
+    @Override
+    public void openConnections() {
+      // Nothing to connect
+    }
+
+    @Override
+    public void sendAggregator(String aggregatorName,
+        Class<? extends Aggregator> aggregatorClass,
+        Writable aggregatedValue) throws IOException {
+      WorkerInfo owner = AggregatorUtils.getOwner(aggregatorName, workers);
+      sendAggregatorCache.addAggregator(owner.getTaskId(), aggregatorName,
+          aggregatorClass, aggregatedValue);
+    }
+
+    @Override
+    public void finishSendingAggregatedValues() throws IOException {
+      for (WorkerInfo worker : workers) {
+        sendAggregatorCache.addCountAggregator(worker.getTaskId());
+        router.deliver(worker.getTaskId(), new SendAggregatorsToOwnerRequest(
+            sendAggregatorCache.removeAggregators(worker.getTaskId()),
+            MASTER_TASK_ID));
+      }
+      sendAggregatorCache.reset();
+    }
+
+    @Override
+    public void flush() {
+      // Requests are delivered as they are sent
+    }
+
+    @Override
+    public void closeConnections() {
+      // Nothing to close
+    }
+  }
+
+  private static long getSumValue(int workerIndex, int superstep,
+      int aggregator) {
+    return (workerIndex + 1) * (aggregator + 1) + superstep;
+  }
+
+  private static long getExpectedSum(int numWorkers, int superstep,
+      int aggregator) {
+    return (aggregator + 1) * numWorkers * (numWorkers + 1) / 2 +
+        numWorkers * superstep;
+  }
+
+  private static void checkAggregatedValues(int numWorkers, int superstep,
+      Map<String, LongWritable> values) {
+    for (int k = 0; k < NUM_SUM_AGGREGATORS; ++k) {
+      assertEquals(getExpectedSum(numWorkers, superstep, k),
+          values.get("sum" + k).get());
+    }
+    assertEquals((numWorkers - 1) * (superstep + 1), values.get("max").get());
+  }
+
+  /**
+   * Run master and workers for a few supersteps, with each worker in its
+   * own thread, and check the aggregated values master and every worker
+   * see in each superstep.
+   *
+   * @param numWorkers Number of workers
+   * @param arity Arity of the aggregator trees
+   */
+  @SuppressWarnings("unchecked")
+  private void testJob(final int numWorkers, int arity) throws Exception {
+    GiraphConfiguration giraphConf = new GiraphConfiguration();
+    giraphConf.setComputationClass(IntNoOpComputation.class);
+    GiraphConstants.AGGREGATOR_TREE_ARITY.set(giraphConf, arity);
+    // Split the aggregators into several requests
+    giraphConf.setInt(AggregatorUtils.MAX_BYTES_PER_AGGREGATOR_REQUEST, 20);
+    ImmutableClassesGiraphConfiguration conf =
+        new ImmutableClassesGiraphConfiguration(giraphConf);
+    Progressable progressable = Mockito.mock(Progressable.class);
+
+    MasterAggregatorHandler masterHandler =
+        new MasterAggregatorHandler(conf, progressable);
+    for (int k = 0; k < NUM_SUM_AGGREGATORS; ++k) {
+      masterHandler.registerAggregator("sum" + k, LongSumAggregator.class);
+    }
+    masterHandler.registerAggregator("max", LongMaxAggregator.class);
+    final RequestRouter router = new RequestRouter(conf,
+        new MasterServerData(masterHandler, null));
+    List<WorkerInfo> workers = createWorkers(numWorkers);
+    MasterClient masterClient = new RoutingMasterClient(workers, router);
+    MasterInfo masterInfo = new MasterInfo();
+    masterInfo.setTaskId(MASTER_TASK_ID);
+
+    WorkerClient workerClient = Mockito.mock(WorkerClient.class);
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        router.deliver((Integer) invocation.getArguments()[0],
+            (WritableRequest) invocation.getArguments()[1]);
+        return null;
+      }
+    }).when(workerClient).sendWritableRequest(Mockito.anyInt(),
+        Mockito.any(WritableRequest.class));
+    final List<WorkerAggregatorHandler> workerHandlers = Lists.newArrayList();
+    final List<WorkerAggregatorRequestProcessor> requestProcessors =
+        Lists.newArrayList();
+    for (WorkerInfo worker : workers) {
+      ServerData serverData = Mockito.mock(ServerData.class);
+      Mockito.when(serverData.getAllAggregatorData()).thenReturn(
+          new AllAggregatorServerData(progressable, conf));
+      Mockito.when(serverData.getOwnerAggregatorData()).thenReturn(
+          new OwnerAggregatorServerData(progressable, conf));
+      router.addWorker(worker.getTaskId(), serverData);
+      CentralizedServiceWorker serviceWorker =
+          Mockito.mock(CentralizedServiceWorker.class);
+      Mockito.when(serviceWorker.getWorkerInfoList()).thenReturn(workers);
+      Mockito.when(serviceWorker.getWorkerInfo()).thenReturn(worker);
+      Mockito.when(serviceWorker.getMasterInfo()).thenReturn(masterInfo);
+      Mockito.when(serviceWorker.getServerData()).thenReturn(serverData);
+      Mockito.when(serviceWorker.getWorkerClient()).thenReturn(workerClient);
+      workerHandlers.add(
+          new WorkerAggregatorHandler(serviceWorker, conf, progressable));
+      requestProcessors.add(new NettyWorkerAggregatorRequestProcessor(
+          progressable, conf, serviceWorker));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+    try {
+      for (int superstep = 0; superstep < NUM_SUPERSTEPS; ++superstep) {
+        masterHandler.prepareSuperstep(masterClient);
+        if (superstep > 0) {
+          Map<String, LongWritable> values = Maps.newHashMap();
+          for (int k = 0; k < NUM_SUM_AGGREGATORS; ++k) {
+            values.put("sum" + k,
+                masterHandler.<LongWritable>getAggregatedValue("sum" + k));
+          }
+          values.put("max",
+              masterHandler.<LongWritable>getAggregatedValue("max"));
+          checkAggregatedValues(numWorkers, superstep - 1, values);
+        }
+        masterHandler.finishSuperstep(masterClient);
+
+        List<Future<Void>> futures = Lists.newArrayList();
+        for (int i = 0; i < numWorkers; ++i) {
+          final int workerIndex = i;
+          final int currentSuperstep = superstep;
+          futures.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              WorkerAggregatorHandler handler =
+                  workerHandlers.get(workerIndex);
+              WorkerAggregatorRequestProcessor requestProcessor =
+                  requestProcessors.get(workerIndex);
+              handler.prepareSuperstep(requestProcessor);
+              if (currentSuperstep > 0) {
+                Map<String, LongWritable> values = Maps.newHashMap();
+                for (int k = 0; k < NUM_SUM_AGGREGATORS; ++k) {
+                  values.put("sum" + k,
+                      handler.<LongWritable>getAggregatedValue("sum" + k));
+                }
+                values.put("max",
+                    handler.<LongWritable>getAggregatedValue("max"));
+                checkAggregatedValues(numWorkers, currentSuperstep - 1,
+                    values);
+              }
+              for (int k = 0; k < NUM_SUM_AGGREGATORS; ++k) {
+                handler.aggregate("sum" + k, new LongWritable(
+                    getSumValue(workerIndex, currentSuperstep, k)));
+              }
+              handler.aggregate("max", new LongWritable(
+                  workerIndex * (currentSuperstep + 1)));
+              handler.finishSuperstep(requestProcessor);
+              return null;
+            }
+          }));
+        }
+        for (Future<Void> future : futures) {
+          future.get();
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testJobOverTrees() throws Exception {
+    testJob(7, 2);
+    testJob(5, 1);
+    testJob(10, 3);
+  }
+}
@@ -122,7 +122,8 @@ public class TestIntFloatPrimitiveMessageStores {
   @Test
   public void testIntFloatMessageStore() throws IOException {
     IntFloatMessageStore messageStore =
-        new IntFloatMessageStore(service, new FloatSumCombiner());
+        new IntFloatMessageStore(service, new FloatSumCombiner(),
+            createIntFloatConf());
     insertIntFloatMessages(messageStore);
 
     Iterable<FloatWritable> m0 =
@@ -141,6 +142,28 @@ public class TestIntFloatPrimitiveMessageStores {
         Iterables.isEmpty(messageStore.getVertexMessages(new IntWritable(3))));
   }
 
+  @Test
+  public void testIntFloatMessageStoreDirect() throws IOException {
+    IntFloatMessageStore messageStore =
+        new IntFloatMessageStore(service, new FloatSumCombiner(),
+            createIntFloatConf());
+    insertIntFloatMessages(messageStore);
+    IntWritable vertexId = new IntWritable(0);
+    FloatWritable message = new FloatWritable(2);
+    messageStore.addMessage(0, vertexId, message);
+    vertexId.set(3);
+    messageStore.addMessage(1, vertexId, message);
+
+    Iterable<FloatWritable> m0 =
+        messageStore.getVertexMessages(new IntWritable(0));
+    Assert.assertEquals(1, Iterables.size(m0));
+    Assert.assertEquals((float) 12.0, m0.iterator().next().get());
+    Iterable<FloatWritable> m3 =
+        messageStore.getVertexMessages(new IntWritable(3));
+    Assert.assertEquals(1, Iterables.size(m3));
+    Assert.assertEquals((float) 2.0, m3.iterator().next().get());
+  }
+
   @Test
   public void testIntByteArrayMessageStore() throws IOException {
     IntByteArrayMessageStore<FloatWritable> messageStore =
@@ -19,7 +19,9 @@
 package org.apache.giraph.comm.messages;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.Combiner;
 import org.apache.giraph.combiner.DoubleSumCombiner;
+import org.apache.giraph.combiner.MinimumDoubleCombiner;
 import org.apache.giraph.comm.messages.primitives.LongByteArrayMessageStore;
 import org.apache.giraph.comm.messages.primitives.LongDoubleMessageStore;
 import org.apache.giraph.conf.GiraphConfiguration;
@@ -122,7 +124,8 @@ public class TestLongDoublePrimitiveMessageStores {
   @Test
   public void testLongDoubleMessageStore() throws IOException {
     LongDoubleMessageStore messageStore =
-        new LongDoubleMessageStore(service, new DoubleSumCombiner());
+        new LongDoubleMessageStore(service, new DoubleSumCombiner(),
+            createLongDoubleConf());
     insertLongDoubleMessages(messageStore);
 
     Iterable<DoubleWritable> m0 =
@@ -141,6 +144,51 @@ public class TestLongDoublePrimitiveMessageStores {
         Iterables.isEmpty(messageStore.getVertexMessages(new LongWritable(3))));
   }
 
+  @Test
+  public void testLongDoubleMessageStoreMinimum() throws IOException {
+    LongDoubleMessageStore messageStore =
+        new LongDoubleMessageStore(service, new MinimumDoubleCombiner(),
+            createLongDoubleConf());
+    insertLongDoubleMessages(messageStore);
+
+    Assert.assertEquals(1.0, messageStore.getVertexMessages(
+        new LongWritable(0)).iterator().next().get());
+    Assert.assertEquals(1.0, messageStore.getVertexMessages(
+        new LongWritable(1)).iterator().next().get());
+    Assert.assertEquals(3.0, messageStore.getVertexMessages(
+        new LongWritable(2)).iterator().next().get());
+    Assert.assertTrue(
+        Iterables.isEmpty(messageStore.getVertexMessages(new LongWritable(3))));
+  }
+
+  @Test
+  public void testLongDoubleMessageStoreWritableCombiner() throws IOException {
+    // Combiner without a primitive form
+    LongDoubleMessageStore messageStore = new LongDoubleMessageStore(service,
+        new Combiner<LongWritable, DoubleWritable>() {
+          @Override
+          public void combine(LongWritable vertexIndex,
+              DoubleWritable originalMessage,
+              DoubleWritable messageToCombine) {
+            originalMessage.set(
+                Math.max(originalMessage.get(), messageToCombine.get()));
+          }
+
+          @Override
+          public DoubleWritable createInitialMessage() {
+            return new DoubleWritable(-Double.MAX_VALUE);
+          }
+        }, createLongDoubleConf());
+    insertLongDoubleMessages(messageStore);
+
+    Assert.assertEquals(5.0, messageStore.getVertexMessages(
+        new LongWritable(0)).iterator().next().get());
+    Assert.assertEquals(4.0, messageStore.getVertexMessages(
+        new LongWritable(1)).iterator().next().get());
+    Assert.assertEquals(3.0, messageStore.getVertexMessages(
+        new LongWritable(2)).iterator().next().get());
+  }
+
   @Test
   public void testLongByteArrayMessageStore() throws IOException {
     LongByteArrayMessageStore<DoubleWritable> messageStore =
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.Combiner;
+import org.apache.giraph.combiner.DoubleSumCombiner;
+import org.apache.giraph.combiner.FloatSumCombiner;
+import org.apache.giraph.combiner.LongSumCombiner;
+import org.apache.giraph.combiner.SimpleSumCombiner;
+import org.apache.giraph.comm.messages.primitives.IntDoubleMessageStore;
+import org.apache.giraph.comm.messages.primitives.IntFloatMessageStore;
+import org.apache.giraph.comm.messages.primitives.IntIntMessageStore;
+import org.apache.giraph.comm.messages.primitives.IntLongMessageStore;
+import org.apache.giraph.comm.messages.primitives.LongDoubleMessageStore;
+import org.apache.giraph.comm.messages.primitives.LongFloatMessageStore;
+import org.apache.giraph.comm.messages.primitives.LongIntMessageStore;
+import org.apache.giraph.comm.messages.primitives.LongLongMessageStore;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.factories.TestMessageValueFactory;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.partition.Partition;
+import org.apache.giraph.partition.PartitionStore;
+import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import junit.framework.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Test that the message store factory picks the primitive stores for all
+ * specialized id/message pairs, and test one of the generated stores.
+ */
+public class TestPrimitiveMessageStores {
+  private static final int NUM_PARTITIONS = 2;
+  private static CentralizedServiceWorker<LongWritable, ?, ?> service;
+
+  @Before
+  public void prepare() throws IOException {
+    service = Mockito.mock(CentralizedServiceWorker.class);
+    Mockito.when(
+        service.getPartitionId(Mockito.any(LongWritable.class))).thenAnswer(
+        new Answer<Integer>() {
+          @Override
+          public Integer answer(InvocationOnMock invocation) {
+            LongWritable vertexId =
+                (LongWritable) invocation.getArguments()[0];
+            return (int) (vertexId.get() % NUM_PARTITIONS);
+          }
+        }
+    );
+    PartitionStore partitionStore = Mockito.mock(PartitionStore.class);
+    Mockito.when(service.getPartitionStore()).thenReturn(partitionStore);
+    Mockito.when(partitionStore.getPartitionIds()).thenReturn(
+        Lists.newArrayList(0, 1));
+    Partition partition = Mockito.mock(Partition.class);
+    Mockito.when(partition.getVertexCount()).thenReturn(Long.valueOf(1));
+    Mockito.when(partitionStore.getPartition(0)).thenReturn(partition);
+    Mockito.when(partitionStore.getPartition(1)).thenReturn(partition);
+  }
+
+  private static Class<?> storeClass(Class<? extends Writable> vertexIdClass,
+      Class<? extends Writable> messageClass, Combiner combiner) {
+    ImmutableClassesGiraphConfiguration conf =
+        Mockito.mock(ImmutableClassesGiraphConfiguration.class);
+    Mockito.when(conf.useCombiner()).thenReturn(true);
+    Mockito.when(conf.getVertexIdClass()).thenReturn(vertexIdClass);
+    Mockito.when(conf.createCombiner()).thenReturn(combiner);
+    InMemoryMessageStoreFactory factory =
+        new InMemoryMessageStoreFactory(service, conf);
+    return factory.newStore(
+        new TestMessageValueFactory(messageClass)).getClass();
+  }
+
+  @Test
+  public void testFactory() {
+    Assert.assertEquals(IntIntMessageStore.class,
+        storeClass(IntWritable.class, IntWritable.class,
+            new SimpleSumCombiner()));
+    Assert.assertEquals(IntLongMessageStore.class,
+        storeClass(IntWritable.class, LongWritable.class,
+            new LongSumCombiner()));
+    Assert.assertEquals(IntFloatMessageStore.class,
+        storeClass(IntWritable.class, FloatWritable.class,
+            new FloatSumCombiner()));
+    Assert.assertEquals(IntDoubleMessageStore.class,
+        storeClass(IntWritable.class, DoubleWritable.class,
+            new DoubleSumCombiner()));
+    Assert.assertEquals(LongIntMessageStore.class,
+        storeClass(LongWritable.class, IntWritable.class,
+            new SimpleSumCombiner()));
+    Assert.assertEquals(LongLongMessageStore.class,
+        storeClass(LongWritable.class, LongWritable.class,
+            new LongSumCombiner()));
+    Assert.assertEquals(LongFloatMessageStore.class,
+        storeClass(LongWritable.class, FloatWritable.class,
+            new FloatSumCombiner()));
+    Assert.assertEquals(LongDoubleMessageStore.class,
+        storeClass(LongWritable.class, DoubleWritable.class,
+            new DoubleSumCombiner()));
+  }
+
+  private static class LongIntNoOpComputation extends
+      BasicComputation<LongWritable, NullWritable, NullWritable,
+          IntWritable> {
+    @Override
+    public void compute(
+        Vertex<LongWritable, NullWritable, NullWritable> vertex,
+        Iterable<IntWritable> messages) throws IOException {
+    }
+  }
+
+  private static ImmutableClassesGiraphConfiguration<LongWritable, ?, ?>
+  createLongIntConf() {
+    GiraphConfiguration initConf = new GiraphConfiguration();
+    initConf.setComputationClass(LongIntNoOpComputation.class);
+    // Several stripes per partition even for a few vertices
+    GiraphConstants.MESSAGE_STORE_STRIPES.set(initConf, 3);
+    return new ImmutableClassesGiraphConfiguration(initConf);
+  }
+
+  private static ByteArrayVertexIdMessages<LongWritable, IntWritable>
+  createLongIntMessages() {
+    ByteArrayVertexIdMessages<LongWritable, IntWritable> messages =
+        new ByteArrayVertexIdMessages<LongWritable, IntWritable>(
+            new TestMessageValueFactory<IntWritable>(IntWritable.class));
+    messages.setConf(createLongIntConf());
+    messages.initialize();
+    return messages;
+  }
+
+  @Test
+  public void testLongIntMessageStore() throws IOException {
+    LongIntMessageStore messageStore =
+        new LongIntMessageStore(service, new SimpleSumCombiner(),
+            createLongIntConf());
+    ByteArrayVertexIdMessages<LongWritable, IntWritable> messages =
+        createLongIntMessages();
+    messages.add(new LongWritable(0), new IntWritable(1));
+    messages.add(new LongWritable(2), new IntWritable(3));
+    messages.add(new LongWritable(0), new IntWritable(4));
+    messageStore.addPartitionMessages(0, messages);
+    messages = createLongIntMessages();
+    messages.add(new LongWritable(1), new IntWritable(7));
+    messageStore.addPartitionMessages(1, messages);
+
+    Iterable<IntWritable> m0 =
+        messageStore.getVertexMessages(new LongWritable(0));
+    Assert.assertEquals(1, Iterables.size(m0));
+    Assert.assertEquals(5, m0.iterator().next().get());
+    Assert.assertEquals(2, Iterables.size(
+        messageStore.getPartitionDestinationVertices(0)));
+
+    // Write out partition 0 and read it back in place of partition 1
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    messageStore.writePartition(new DataOutputStream(bytes), 0);
+    messageStore.readFieldsForPartition(new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())), 1);
+    Assert.assertFalse(messageStore.hasMessagesForVertex(new LongWritable(1)));
+    Assert.assertEquals(2, Iterables.size(
+        messageStore.getPartitionDestinationVertices(1)));
+
+    messageStore.clearVertexMessages(new LongWritable(2));
+    Assert.assertTrue(Iterables.isEmpty(
+        messageStore.getVertexMessages(new LongWritable(2))));
+    Assert.assertTrue(messageStore.hasMessagesForVertex(new LongWritable(0)));
+  }
+
+  @Test
+  public void testConcurrentAdd() throws Exception {
+    final LongIntMessageStore messageStore =
+        new LongIntMessageStore(service, new SimpleSumCombiner(),
+            createLongIntConf());
+    final int numThreads = 4;
+    final int numRequests = 50;
+    List<Thread> threads = Lists.newArrayList();
+    for (int t = 0; t < numThreads; ++t) {
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int r = 0; r < numRequests; ++r) {
+              ByteArrayVertexIdMessages<LongWritable, IntWritable> messages =
+                  createLongIntMessages();
+              for (int v = 0; v < 100; v += NUM_PARTITIONS) {
+                messages.add(new LongWritable(v), new IntWritable(1));
+              }
+              messageStore.addPartitionMessages(0, messages);
+            }
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals(50, Iterables.size(
+        messageStore.getPartitionDestinationVertices(0)));
+    for (int v = 0; v < 100; v += NUM_PARTITIONS) {
+      Assert.assertEquals(numThreads * numRequests, messageStore
+          .getVertexMessages(new LongWritable(v)).iterator().next().get());
+    }
+  }
+}
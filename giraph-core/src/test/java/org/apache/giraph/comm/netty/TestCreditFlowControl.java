@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.netty;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the accounting of {@link CreditFlowControl}.
+ */
+public class TestCreditFlowControl {
+  /**
+   * Create flow control with the given initial credit.
+   *
+   * @param credit Initial credit in bytes
+   * @return Flow control
+   */
+  private static CreditFlowControl createFlowControl(int credit) {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    GiraphConstants.NETTY_MAX_CREDIT_BYTES.set(conf, credit);
+    return new CreditFlowControl(
+        new ImmutableClassesGiraphConfiguration(conf), 1);
+  }
+
+  @Test
+  public void testCreditPerTask() {
+    CreditFlowControl flowControl = createFlowControl(100);
+    assertTrue(flowControl.tryAcquire(1, 60));
+    assertFalse(flowControl.tryAcquire(1, 60));
+    // Other tasks are not held back
+    assertTrue(flowControl.tryAcquire(2, 60));
+    assertEquals(60, flowControl.getOpenBytes(1));
+
+    flowControl.responseReceived(1, 60, 100);
+    assertEquals(0, flowControl.getOpenBytes(1));
+    assertTrue(flowControl.tryAcquire(1, 60));
+    assertTrue(flowControl.tryAcquire(1, 40));
+    assertFalse(flowControl.tryAcquire(1, 1));
+  }
+
+  @Test
+  public void testAdvertisedCredit() {
+    CreditFlowControl flowControl = createFlowControl(1000);
+    assertTrue(flowControl.tryAcquire(1, 100));
+    // The server ran low on memory
+    flowControl.responseReceived(1, 0, 150);
+    assertEquals(150, flowControl.getCredit(1));
+    assertFalse(flowControl.tryAcquire(1, 100));
+    // A request bigger than the credit is allowed when nothing is open
+    flowControl.responseReceived(1, 100, 10);
+    assertTrue(flowControl.tryAcquire(1, 500));
+    assertFalse(flowControl.tryAcquire(1, 1));
+  }
+}
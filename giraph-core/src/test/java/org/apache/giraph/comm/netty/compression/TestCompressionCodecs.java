@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.netty.compression;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the codecs used to compress requests.
+ */
+public class TestCompressionCodecs {
+  /** Codecs to test */
+  private static final CompressionCodec[] CODECS = new CompressionCodec[] {
+      new Lz4CompressionCodec(), new DeflateCompressionCodec()};
+
+  /**
+   * Compress and decompress a block, at an offset in both arrays.
+   *
+   * @param codec Codec
+   * @param data Block to compress
+   * @return Length of the compressed block
+   * @throws IOException
+   */
+  private static int roundTrip(CompressionCodec codec, byte[] data)
+    throws IOException {
+    byte[] src = new byte[data.length + 3];
+    System.arraycopy(data, 0, src, 3, data.length);
+    byte[] compressed = new byte[codec.maxCompressedLength(data.length) + 7];
+    int compressedLength = codec.compress(src, 3, data.length, compressed, 7);
+    assertTrue(compressedLength <= codec.maxCompressedLength(data.length));
+    byte[] decompressed = new byte[data.length + 5];
+    codec.decompress(compressed, 7, compressedLength, decompressed, 5,
+        data.length);
+    assertArrayEquals(data,
+        Arrays.copyOfRange(decompressed, 5, decompressed.length));
+    return compressedLength;
+  }
+
+  @Test
+  public void testSmallAndRandomBlocks() throws IOException {
+    Random random = new Random(17);
+    for (CompressionCodec codec : CODECS) {
+      for (int length : new int[] {0, 1, 12, 13, 100, 70000}) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        roundTrip(codec, data);
+      }
+    }
+  }
+
+  @Test
+  public void testCompressibleBlocks() throws IOException {
+    // Sorted ids with repeated partition ids, as in message requests
+    ByteBuffer ids = ByteBuffer.allocate(16 * 10000);
+    for (int i = 0; i < 10000; ++i) {
+      ids.putInt(7).putLong(1000000L + i * 3).putInt(i % 5);
+    }
+    byte[] runs = new byte[100000];
+    Arrays.fill(runs, 10, 50000, (byte) 3);
+    for (CompressionCodec codec : CODECS) {
+      assertTrue(roundTrip(codec, ids.array()) < ids.capacity() / 2);
+      assertTrue(roundTrip(codec, runs) < runs.length / 50);
+    }
+  }
+
+  @Test
+  public void testCorruptBlock() {
+    byte[] data = new byte[1000];
+    Arrays.fill(data, (byte) 1);
+    for (CompressionCodec codec : CODECS) {
+      byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+      int compressedLength = codec.compress(data, 0, data.length,
+          compressed, 0);
+      try {
+        codec.decompress(compressed, 0, compressedLength - 1,
+            new byte[data.length], 0, data.length);
+        fail("Decompressed a truncated block with " + codec);
+      } catch (IOException e) {
+        // Expected
+      }
+    }
+  }
+}
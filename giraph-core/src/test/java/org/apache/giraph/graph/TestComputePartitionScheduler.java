@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.graph;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.partition.Partition;
+import org.apache.giraph.partition.PartitionStats;
+import org.apache.giraph.utils.IntIntNullNoOpComputation;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test the order in which partitions are handed out to compute threads and
+ * the sharing of partitions between threads.
+ */
+public class TestComputePartitionScheduler {
+  private GiraphConfiguration giraphConf;
+
+  @Before
+  public void setUp() {
+    giraphConf = new GiraphConfiguration();
+    giraphConf.setComputationClass(IntIntNullNoOpComputation.class);
+  }
+
+  private ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+      NullWritable> createConf() {
+    return new ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+        NullWritable>(giraphConf);
+  }
+
+  private static PartitionStats stats(int partitionId, long vertices,
+      long edges, long computeMs) {
+    PartitionStats stats =
+        new PartitionStats(partitionId, vertices, 0, edges, 0, 0);
+    stats.addComputeMs(computeMs);
+    return stats;
+  }
+
+  private static List<Integer> drain(
+      ComputePartitionScheduler<IntWritable, IntWritable, NullWritable>
+          scheduler) {
+    List<Integer> order = Lists.newArrayList();
+    ComputePartitionScheduler.Task<IntWritable, IntWritable, NullWritable>
+        task;
+    while ((task = scheduler.nextTask()) != null) {
+      order.add(task.getPartitionId());
+    }
+    return order;
+  }
+
+  @Test
+  public void testOrderByComputeTime() {
+    List<PartitionStats> previous = Lists.newArrayList(
+        stats(0, 100, 100, 5), stats(1, 10, 10, 50), stats(2, 50, 50, 20));
+    ComputePartitionScheduler<IntWritable, IntWritable, NullWritable>
+        scheduler = new ComputePartitionScheduler<IntWritable, IntWritable,
+            NullWritable>(createConf(), Lists.newArrayList(0, 1, 2),
+            previous);
+    assertEquals(Lists.newArrayList(1, 2, 0), drain(scheduler));
+  }
+
+  @Test
+  public void testOrderByCountsWithoutTime() {
+    List<PartitionStats> previous = Lists.newArrayList(
+        stats(0, 10, 10, 0), stats(1, 100, 1000, 0), stats(2, 50, 50, 0));
+    // Partition 3 has no history and gets the average cost
+    ComputePartitionScheduler<IntWritable, IntWritable, NullWritable>
+        scheduler = new ComputePartitionScheduler<IntWritable, IntWritable,
+            NullWritable>(createConf(), Lists.newArrayList(0, 1, 2, 3),
+            previous);
+    assertEquals(Lists.newArrayList(1, 3, 2, 0), drain(scheduler));
+  }
+
+  @Test
+  public void testNoOrdering() {
+    GiraphConstants.COMPUTE_LARGEST_PARTITIONS_FIRST.set(giraphConf, false);
+    List<PartitionStats> previous = Lists.newArrayList(
+        stats(0, 1, 1, 1), stats(1, 10, 10, 10));
+    ComputePartitionScheduler<IntWritable, IntWritable, NullWritable>
+        scheduler = new ComputePartitionScheduler<IntWritable, IntWritable,
+            NullWritable>(createConf(), Lists.newArrayList(0, 1), previous);
+    assertEquals(Lists.newArrayList(0, 1), drain(scheduler));
+  }
+
+  @Test
+  public void testStealing() {
+    GiraphConstants.COMPUTE_PARTITION_STEALING.set(giraphConf, true);
+    GiraphConstants.COMPUTE_STEALING_CHUNK_SIZE.set(giraphConf, 2);
+    ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+        NullWritable> conf = createConf();
+    Partition<IntWritable, IntWritable, NullWritable> partition =
+        conf.createPartition(7, mock(Mapper.Context.class));
+    for (int i = 0; i < 5; ++i) {
+      Vertex<IntWritable, IntWritable, NullWritable> vertex =
+          conf.createVertex();
+      vertex.initialize(new IntWritable(i), new IntWritable(i));
+      partition.putVertex(vertex);
+    }
+
+    ComputePartitionScheduler<IntWritable, IntWritable, NullWritable>
+        scheduler = new ComputePartitionScheduler<IntWritable, IntWritable,
+            NullWritable>(conf, Lists.newArrayList(7),
+            Collections.<PartitionStats>emptyList());
+    ComputePartitionScheduler.Task<IntWritable, IntWritable, NullWritable>
+        ownerTask = scheduler.nextTask();
+    assertNull(ownerTask.getSharedPartition());
+    ComputePartitionScheduler.SharedPartition<IntWritable, IntWritable,
+        NullWritable> shared =
+        scheduler.trySharePartition(partition, partition.iterator());
+    assertNotNull(shared);
+
+    List<Vertex<IntWritable, IntWritable, NullWritable>> chunk =
+        Lists.newArrayList();
+    assertTrue(shared.nextChunk(chunk));
+    assertEquals(2, chunk.size());
+
+    // An idle thread joins the partition
+    ComputePartitionScheduler.Task<IntWritable, IntWritable, NullWritable>
+        thiefTask = scheduler.nextTask();
+    assertSame(shared, thiefTask.getSharedPartition());
+    assertEquals(7, thiefTask.getPartitionId());
+    assertTrue(shared.nextChunk(chunk));
+    assertEquals(2, chunk.size());
+    assertTrue(shared.nextChunk(chunk));
+    assertEquals(1, chunk.size());
+    assertFalse(shared.nextChunk(chunk));
+
+    // All vertices were handed out, so nobody else can join
+    assertNull(scheduler.nextTask());
+
+    assertNull(shared.finish(stats(7, 3, 0, 1)));
+    PartitionStats merged = shared.finish(stats(7, 2, 0, 1));
+    assertEquals(5, merged.getVertexCount());
+    assertEquals(2, merged.getComputeMs());
+  }
+}
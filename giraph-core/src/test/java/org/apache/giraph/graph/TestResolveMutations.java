@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.graph;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.giraph.utils.TestGraph;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test resolving mutations and vertices which received messages but don't
+ * exist, with several partitions resolved by several threads.
+ */
+public class TestResolveMutations {
+  /** Number of vertices in the input graph */
+  private static final int NUM_VERTICES = 50;
+  /** Offset of the ids of the vertices added by requests */
+  private static final int ADDED_OFFSET = 1000;
+  /** Offset of the ids of the vertices which only receive messages */
+  private static final int MESSAGED_OFFSET = 2000;
+
+  /**
+   * In the first superstep, every vertex requests to add a vertex, sends a
+   * message to a vertex which doesn't exist, and either requests to remove
+   * itself or to add an edge to itself.  In the second superstep, the
+   * vertices created for messages take the value of their message.
+   */
+  public static class MutatingComputation extends BasicComputation<
+      IntWritable, IntWritable, NullWritable, IntWritable> {
+    @Override
+    public void compute(
+        Vertex<IntWritable, IntWritable, NullWritable> vertex,
+        Iterable<IntWritable> messages) throws IOException {
+      int id = vertex.getId().get();
+      if (getSuperstep() == 0) {
+        addVertexRequest(new IntWritable(id + ADDED_OFFSET),
+            new IntWritable(id));
+        sendMessage(new IntWritable(id + MESSAGED_OFFSET),
+            new IntWritable(id));
+        if (id % 5 == 0) {
+          removeVertexRequest(new IntWritable(id));
+        } else {
+          addEdgeRequest(new IntWritable(id),
+              EdgeFactory.create(new IntWritable(id + ADDED_OFFSET)));
+        }
+      } else {
+        for (IntWritable message : messages) {
+          vertex.setValue(message);
+        }
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Resolver which creates vertices which received messages even if
+   * creating them is disabled in the configuration.
+   */
+  public static class AlwaysCreateOnMessagesResolver extends
+      DefaultVertexResolver<IntWritable, IntWritable, NullWritable> {
+    @Override
+    protected Vertex<IntWritable, IntWritable, NullWritable>
+    addVertexIfDesired(IntWritable vertexId,
+        Vertex<IntWritable, IntWritable, NullWritable> vertex,
+        VertexChanges<IntWritable, IntWritable, NullWritable> vertexChanges,
+        boolean hasMessages) {
+      if (vertex == null && hasMessages &&
+          !hasVertexAdditions(vertexChanges)) {
+        vertex = getConf().createVertex();
+        vertex.initialize(vertexId, getConf().createVertexValue());
+        return vertex;
+      }
+      return super.addVertexIfDesired(vertexId, vertex, vertexChanges,
+          hasMessages);
+    }
+  }
+
+  /**
+   * Create the configuration, with more partitions than compute threads.
+   *
+   * @return Configuration
+   */
+  private static GiraphConfiguration createConf() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(MutatingComputation.class);
+    conf.setNumComputeThreads(4);
+    GiraphConstants.USER_PARTITION_COUNT.set(conf, 12);
+    return conf;
+  }
+
+  /**
+   * Run the computation.
+   *
+   * @param conf Configuration
+   * @return Output graph
+   * @throws Exception
+   */
+  private static TestGraph<IntWritable, IntWritable, NullWritable> run(
+      GiraphConfiguration conf) throws Exception {
+    TestGraph<IntWritable, IntWritable, NullWritable> graph =
+        new TestGraph<IntWritable, IntWritable, NullWritable>(conf);
+    for (int i = 0; i < NUM_VERTICES; ++i) {
+      graph.addVertex(new IntWritable(i), new IntWritable(-1));
+    }
+    return InternalVertexRunner.run(conf, graph);
+  }
+
+  /**
+   * Check the mutated vertices of the output graph.
+   *
+   * @param graph Output graph
+   */
+  private static void checkMutations(
+      TestGraph<IntWritable, IntWritable, NullWritable> graph) {
+    for (int i = 0; i < NUM_VERTICES; ++i) {
+      Vertex<IntWritable, IntWritable, NullWritable> vertex =
+          graph.getVertex(new IntWritable(i));
+      if (i % 5 == 0) {
+        assertNull(vertex);
+      } else {
+        assertNotNull(vertex);
+        assertEquals(1, vertex.getNumEdges());
+        assertEquals(i + ADDED_OFFSET,
+            vertex.getEdges().iterator().next().getTargetVertexId().get());
+      }
+      Vertex<IntWritable, IntWritable, NullWritable> added =
+          graph.getVertex(new IntWritable(i + ADDED_OFFSET));
+      assertNotNull(added);
+      assertEquals(i, added.getValue().get());
+    }
+  }
+
+  /**
+   * Check the vertices which only received messages.
+   *
+   * @param graph Output graph
+   * @param created Whether they should have been created
+   */
+  private static void checkMessaged(
+      TestGraph<IntWritable, IntWritable, NullWritable> graph,
+      boolean created) {
+    for (int i = 0; i < NUM_VERTICES; ++i) {
+      Vertex<IntWritable, IntWritable, NullWritable> vertex =
+          graph.getVertex(new IntWritable(i + MESSAGED_OFFSET));
+      if (created) {
+        assertNotNull(vertex);
+        assertEquals(i, vertex.getValue().get());
+      } else {
+        assertNull(vertex);
+      }
+    }
+  }
+
+  @Test
+  public void testCreateVerticesOnMessages() throws Exception {
+    TestGraph<IntWritable, IntWritable, NullWritable> graph =
+        run(createConf());
+    assertEquals(3 * NUM_VERTICES - NUM_VERTICES / 5,
+        graph.getVertices().size());
+    checkMutations(graph);
+    checkMessaged(graph, true);
+  }
+
+  @Test
+  public void testDontCreateVerticesOnMessages() throws Exception {
+    GiraphConfiguration conf = createConf();
+    conf.setResolverCreateVertexOnMessages(false);
+    TestGraph<IntWritable, IntWritable, NullWritable> graph = run(conf);
+    assertEquals(2 * NUM_VERTICES - NUM_VERTICES / 5,
+        graph.getVertices().size());
+    checkMutations(graph);
+    checkMessaged(graph, false);
+  }
+
+  @Test
+  public void testCustomResolverSeesMessagedVertices() throws Exception {
+    GiraphConfiguration conf = createConf();
+    conf.setResolverCreateVertexOnMessages(false);
+    conf.setVertexResolverClass(AlwaysCreateOnMessagesResolver.class);
+    TestGraph<IntWritable, IntWritable, NullWritable> graph = run(conf);
+    assertEquals(3 * NUM_VERTICES - NUM_VERTICES / 5,
+        graph.getVertices().size());
+    checkMutations(graph);
+    checkMessaged(graph, true);
+  }
+}
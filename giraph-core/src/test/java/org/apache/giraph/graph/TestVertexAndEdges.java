@@ -30,6 +30,7 @@ import org.apache.giraph.edge.HashMultimapEdges;
 import org.apache.giraph.edge.LongDoubleArrayEdges;
 import org.apache.giraph.edge.LongDoubleHashMapEdges;
 import org.apache.giraph.edge.MutableEdge;
+import org.apache.giraph.edge.OffHeapEdges;
 import org.apache.giraph.edge.OutEdges;
 import org.apache.giraph.time.SystemTime;
 import org.apache.giraph.time.Time;
@@ -157,6 +158,7 @@ public class TestVertexAndEdges {
     edgesClasses.add(HashMultimapEdges.class);
     edgesClasses.add(LongDoubleArrayEdges.class);
     edgesClasses.add(LongDoubleHashMapEdges.class);
+    edgesClasses.add(OffHeapEdges.class);
   }
 
   private Vertex<LongWritable, FloatWritable, DoubleWritable>
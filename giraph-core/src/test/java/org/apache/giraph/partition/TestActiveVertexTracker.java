@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.utils.IntIntNullNoOpComputation;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test tracking of the active vertices of a partition.
+ */
+public class TestActiveVertexTracker {
+  private ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+      NullWritable> conf;
+
+  @Before
+  public void setUp() {
+    GiraphConfiguration giraphConf = new GiraphConfiguration();
+    giraphConf.setComputationClass(IntIntNullNoOpComputation.class);
+    conf = new ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+        NullWritable>(giraphConf);
+  }
+
+  private Partition<IntWritable, IntWritable, NullWritable> createPartition(
+      Class<? extends Partition> partitionClass, int numVertices) {
+    GiraphConfiguration giraphConf = new GiraphConfiguration(conf);
+    GiraphConstants.PARTITION_CLASS.set(giraphConf, partitionClass);
+    conf = new ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+        NullWritable>(giraphConf);
+    Partition<IntWritable, IntWritable, NullWritable> partition =
+        conf.createPartition(0, mock(Mapper.Context.class));
+    for (int i = 0; i < numVertices; ++i) {
+      Vertex<IntWritable, IntWritable, NullWritable> vertex =
+          conf.createVertex();
+      vertex.initialize(new IntWritable(i), new IntWritable(i));
+      partition.putVertex(vertex);
+    }
+    return partition;
+  }
+
+  /**
+   * Visit the given vertices, halting all of them except the ones listed.
+   */
+  private static PartitionStats visit(
+      Partition<IntWritable, IntWritable, NullWritable> partition,
+      Iterator<Vertex<IntWritable, IntWritable, NullWritable>> iterator,
+      Set<Integer> keepActive) {
+    ActiveVertexTracker<IntWritable, IntWritable, NullWritable> tracker =
+        partition.getActiveVertexTracker();
+    PartitionStats stats = new PartitionStats(partition.getId(), 0, 0, 0, 0,
+        0);
+    while (iterator.hasNext()) {
+      Vertex<IntWritable, IntWritable, NullWritable> vertex = iterator.next();
+      if (keepActive.contains(vertex.getId().get())) {
+        vertex.wakeUp();
+      } else {
+        vertex.voteToHalt();
+      }
+      partition.saveVertex(vertex);
+      stats.incrVertexCount();
+      if (vertex.isHalted()) {
+        stats.incrFinishedVertexCount();
+      }
+      stats.addEdgeCount(vertex.getNumEdges());
+      tracker.vertexComputed(vertex, vertex.getNumEdges());
+    }
+    return tracker.finishSuperstep(stats);
+  }
+
+  private static Set<Integer> visitedIds(
+      Iterator<Vertex<IntWritable, IntWritable, NullWritable>> iterator) {
+    Set<Integer> ids = Sets.newHashSet();
+    while (iterator.hasNext()) {
+      ids.add(iterator.next().getId().get());
+    }
+    return ids;
+  }
+
+  private void testTracking(Class<? extends Partition> partitionClass) {
+    Partition<IntWritable, IntWritable, NullWritable> partition =
+        createPartition(partitionClass, 10);
+    ActiveVertexTracker<IntWritable, IntWritable, NullWritable> tracker =
+        partition.getActiveVertexTracker();
+
+    // The first pass visits everything and collects the active vertices
+    assertFalse(tracker.startSuperstep(0.5f));
+    PartitionStats stats =
+        visit(partition, partition.iterator(), Sets.newHashSet(1, 2));
+    assertEquals(10, stats.getVertexCount());
+    assertEquals(8, stats.getFinishedVertexCount());
+
+    // Then only active vertices and message destinations are visited
+    assertTrue(tracker.startSuperstep(0.5f));
+    assertEquals(Sets.newHashSet(1, 2, 7), visitedIds(
+        tracker.activeVertexIterator(Lists.newArrayList(
+            new IntWritable(2), new IntWritable(7), new IntWritable(42)))));
+    assertTrue(tracker.startSuperstep(0.5f));
+    stats = visit(partition, tracker.activeVertexIterator(
+        Lists.newArrayList(new IntWritable(7))), Sets.newHashSet(2, 7));
+    assertEquals(10, stats.getVertexCount());
+    assertEquals(8, stats.getFinishedVertexCount());
+
+    assertTrue(tracker.startSuperstep(0.5f));
+    assertEquals(Sets.newHashSet(2, 7), visitedIds(
+        tracker.activeVertexIterator(Collections.<IntWritable>emptyList())));
+
+    // Put vertices are tracked by a copy of their id, partitions which
+    // reuse objects may change the id object afterwards
+    Vertex<IntWritable, IntWritable, NullWritable> putVertex =
+        conf.createVertex();
+    IntWritable putId = new IntWritable(20);
+    putVertex.initialize(putId, new IntWritable(20));
+    partition.putVertex(putVertex);
+    if (partition instanceof ReusesObjectsPartition) {
+      putId.set(21);
+    }
+    assertTrue(tracker.startSuperstep(0.5f));
+    assertEquals(Sets.newHashSet(2, 7, 20), visitedIds(
+        tracker.activeVertexIterator(Collections.<IntWritable>emptyList())));
+    partition.removeVertex(new IntWritable(20));
+
+    // Removed vertices are not visited anymore
+    partition.removeVertex(new IntWritable(7));
+    assertTrue(tracker.startSuperstep(0.5f));
+    stats = visit(partition, tracker.activeVertexIterator(
+        Collections.<IntWritable>emptyList()), Sets.newHashSet(2));
+    assertEquals(9, stats.getVertexCount());
+    assertEquals(8, stats.getFinishedVertexCount());
+  }
+
+  @Test
+  public void testSimplePartition() {
+    testTracking(SimplePartition.class);
+  }
+
+  @Test
+  public void testByteArrayPartition() {
+    testTracking(ByteArrayPartition.class);
+  }
+
+  @Test
+  public void testOffHeapPartition() {
+    testTracking(OffHeapPartition.class);
+  }
+
+  @Test
+  public void testTooManyActive() {
+    Partition<IntWritable, IntWritable, NullWritable> partition =
+        createPartition(SimplePartition.class, 10);
+    ActiveVertexTracker<IntWritable, IntWritable, NullWritable> tracker =
+        partition.getActiveVertexTracker();
+    assertFalse(tracker.startSuperstep(0.2f));
+    visit(partition, partition.iterator(), Sets.newHashSet(1, 2, 3));
+    // Too many active vertices, so the whole partition is visited
+    assertFalse(tracker.startSuperstep(0.2f));
+    visit(partition, partition.iterator(), Sets.newHashSet(1));
+    assertFalse(tracker.startSuperstep(0.2f));
+    visit(partition, partition.iterator(), Sets.newHashSet(1));
+    assertTrue(tracker.startSuperstep(0.2f));
+  }
+}
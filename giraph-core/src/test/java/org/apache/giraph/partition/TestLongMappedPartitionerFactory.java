@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.worker.WorkerInfo;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test {@link LongMappedPartitionerFactory} and
+ * {@link LongMappedWorkerPartitioner}.
+ */
+public class TestLongMappedPartitionerFactory {
+  @Test
+  public void testMappedPartitionOwner() throws IOException {
+    File mappingDir = Files.createTempDir();
+    try {
+      Files.write("1\t3\n2\t0\n", new File(mappingDir, "part-m-00000"),
+          Charsets.UTF_8);
+      Files.write("5 2\n", new File(mappingDir, "part-m-00001"),
+          Charsets.UTF_8);
+      Files.write("", new File(mappingDir, "_SUCCESS"), Charsets.UTF_8);
+
+      Configuration conf = new Configuration();
+      GiraphConstants.PARTITION_MAPPING_PATH.set(conf,
+          mappingDir.getAbsolutePath());
+      Long2IntMap mapping =
+          LongMappedPartitionerFactory.loadPartitionMapping(conf);
+      assertEquals(3, mapping.size());
+
+      LongMappedWorkerPartitioner<LongWritable, LongWritable> partitioner =
+          new LongMappedWorkerPartitioner<LongWritable, LongWritable>(mapping);
+      WorkerInfo workerInfo = new WorkerInfo();
+      partitioner.updatePartitionOwners(workerInfo, Lists.newArrayList(
+          new BasicPartitionOwner(0, workerInfo),
+          new BasicPartitionOwner(1, workerInfo),
+          new BasicPartitionOwner(2, workerInfo),
+          new BasicPartitionOwner(3, workerInfo)), null);
+
+      assertEquals(3, partitioner.getPartitionOwner(
+          new LongWritable(1)).getPartitionId());
+      assertEquals(0, partitioner.getPartitionOwner(
+          new LongWritable(2)).getPartitionId());
+      assertEquals(2, partitioner.getPartitionOwner(
+          new LongWritable(5)).getPartitionId());
+      // Not in the mapping, hash partitioned
+      assertEquals(7 % 4, partitioner.getPartitionOwner(
+          new LongWritable(7)).getPartitionId());
+    } finally {
+      for (File file : mappingDir.listFiles()) {
+        file.delete();
+      }
+      mappingDir.delete();
+    }
+  }
+}
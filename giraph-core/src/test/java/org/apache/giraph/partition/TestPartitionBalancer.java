@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.worker.WorkerInfo;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test balancing partitions by cost with {@link PartitionBalancer}.
+ */
+public class TestPartitionBalancer {
+  /** Configuration */
+  private Configuration conf;
+  /** Workers */
+  private List<WorkerInfo> workerInfos;
+
+  @Before
+  public void setUp() {
+    conf = new Configuration();
+    conf.set(PartitionBalancer.PARTITION_BALANCE_ALGORITHM,
+        PartitionBalancer.COST_BALANCE_ALGORITHM);
+    workerInfos = Lists.newArrayList();
+    for (int i = 0; i < 3; ++i) {
+      WorkerInfo workerInfo = new WorkerInfo();
+      workerInfo.setInetSocketAddress(
+          InetSocketAddress.createUnresolved("worker", 30000 + i));
+      workerInfo.setTaskId(i);
+      workerInfos.add(workerInfo);
+    }
+  }
+
+  /**
+   * Create partition stats.
+   *
+   * @param partitionId Partition id
+   * @param edges Number of edges
+   * @param computeMs Compute time
+   * @return Partition stats
+   */
+  private static PartitionStats createStats(int partitionId, long edges,
+      long computeMs) {
+    PartitionStats stats =
+        new PartitionStats(partitionId, 100, 0, edges, 0, 0);
+    stats.addComputeMs(computeMs);
+    return stats;
+  }
+
+  @Test
+  public void testMoveHotPartition() {
+    // Worker 0 has a hot partition and two cheap ones, the others are idle
+    List<PartitionOwner> owners = Lists.newArrayList();
+    List<PartitionStats> stats = Lists.newArrayList();
+    for (int i = 0; i < 6; ++i) {
+      owners.add(new BasicPartitionOwner(i, workerInfos.get(i % 3)));
+      stats.add(createStats(i, 1000, (i == 0) ? 10000 : 100));
+    }
+    owners.get(1).setPreviousWorkerInfo(workerInfos.get(2));
+
+    PartitionBalancer.balancePartitionsAcrossWorkers(
+        conf, owners, stats, workerInfos);
+
+    // Only the cheap partition of worker 0 moves, the hot one can't be
+    // split and moving it elsewhere doesn't help
+    assertEquals(workerInfos.get(0), owners.get(0).getWorkerInfo());
+    assertNull(owners.get(0).getPreviousWorkerInfo());
+    assertEquals(workerInfos.get(0), owners.get(3).getPreviousWorkerInfo());
+    assertFalse(owners.get(3).getWorkerInfo().equals(workerInfos.get(0)));
+    for (int i = 1; i < 6; ++i) {
+      if (i != 3) {
+        assertEquals(workerInfos.get(i % 3), owners.get(i).getWorkerInfo());
+        assertNull(owners.get(i).getPreviousWorkerInfo());
+      }
+    }
+  }
+
+  @Test
+  public void testBalanceSkewedWorker() {
+    // Worker 0 has four expensive partitions, the others one cheap each
+    List<PartitionOwner> owners = Lists.newArrayList();
+    List<PartitionStats> stats = Lists.newArrayList();
+    for (int i = 0; i < 4; ++i) {
+      owners.add(new BasicPartitionOwner(i, workerInfos.get(0)));
+      stats.add(createStats(i, 1000, 1000));
+    }
+    owners.add(new BasicPartitionOwner(4, workerInfos.get(1)));
+    stats.add(createStats(4, 1000, 1000));
+    owners.add(new BasicPartitionOwner(5, workerInfos.get(2)));
+    stats.add(createStats(5, 1000, 1000));
+
+    PartitionBalancer.balancePartitionsAcrossWorkers(
+        conf, owners, stats, workerInfos);
+
+    int[] partitionsPerWorker = new int[3];
+    for (PartitionOwner owner : owners) {
+      partitionsPerWorker[owner.getWorkerInfo().getTaskId()]++;
+    }
+    assertEquals(2, partitionsPerWorker[0]);
+    assertEquals(2, partitionsPerWorker[1]);
+    assertEquals(2, partitionsPerWorker[2]);
+  }
+
+  @Test
+  public void testMigrationTooExpensive() {
+    // Moving would save 1 s per superstep, but migrating takes much longer
+    GiraphConstants.COST_BALANCE_MIGRATED_ELEMENTS_PER_MS.set(conf, 1);
+    List<PartitionOwner> owners = Lists.newArrayList();
+    List<PartitionStats> stats = Lists.newArrayList();
+    for (int i = 0; i < 3; ++i) {
+      owners.add(new BasicPartitionOwner(i, workerInfos.get(0)));
+      stats.add(createStats(i, 100000, 1000));
+    }
+
+    PartitionBalancer.balancePartitionsAcrossWorkers(
+        conf, owners, stats, workerInfos);
+
+    for (PartitionOwner owner : owners) {
+      assertEquals(workerInfos.get(0), owner.getWorkerInfo());
+      assertNull(owner.getPreviousWorkerInfo());
+    }
+  }
+
+  @Test
+  public void testLostWorker() {
+    // Partitions of a worker which is gone are always reassigned
+    List<PartitionOwner> owners = Lists.newArrayList();
+    List<PartitionStats> stats = Lists.newArrayList();
+    for (int i = 0; i < 3; ++i) {
+      owners.add(new BasicPartitionOwner(i, workerInfos.get(i)));
+      stats.add(createStats(i, 0, 0));
+    }
+
+    PartitionBalancer.balancePartitionsAcrossWorkers(
+        conf, owners, stats, workerInfos.subList(0, 2));
+
+    assertEquals(workerInfos.get(2), owners.get(2).getPreviousWorkerInfo());
+    assertFalse(owners.get(2).getWorkerInfo().equals(workerInfos.get(2)));
+  }
+}
@@ -24,6 +24,7 @@ import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.edge.EdgeFactory;
 import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.utils.MemoryController;
 import org.apache.giraph.utils.NoOpComputation;
 import org.apache.giraph.utils.UnsafeByteArrayInputStream;
 import org.apache.giraph.utils.UnsafeByteArrayOutputStream;
@@ -34,6 +35,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 
 import java.io.File;
@@ -163,6 +165,191 @@ public class TestPartitionStores {
     FileUtils.deleteDirectory(directory);
   }
 
+  @Test
+  public void testDiskBackedPartitionStoreWithByteLimit() throws IOException {
+    File directory = Files.createTempDir();
+    GiraphConstants.PARTITIONS_DIRECTORY.set(
+        conf, new File(directory, "giraph_partitions").toString());
+    GiraphConstants.USE_OUT_OF_CORE_GRAPH.set(conf, true);
+    // Only one partition fits
+    GiraphConstants.MAX_PARTITION_BYTES_IN_MEMORY.set(conf, 1);
+
+    PartitionStore<IntWritable, IntWritable, NullWritable> partitionStore =
+        new DiskBackedPartitionStore<IntWritable, IntWritable, NullWritable>(
+            conf, context);
+    testReadWrite(partitionStore, conf);
+    partitionStore.shutdown();
+
+    GiraphConstants.NUM_PARTITION_IO_THREADS.set(conf, 0);
+    partitionStore = new DiskBackedPartitionStore<IntWritable,
+        IntWritable, NullWritable>(conf, context);
+    testReadWrite(partitionStore, conf);
+    partitionStore.shutdown();
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test
+  public void testDiskBackedPartitionStoreAdaptive() throws IOException {
+    File directory = Files.createTempDir();
+    GiraphConstants.PARTITIONS_DIRECTORY.set(
+        conf, new File(directory, "giraph_partitions").toString());
+    GiraphConstants.USE_OUT_OF_CORE_GRAPH.set(conf, true);
+    GiraphConstants.ADAPTIVE_OUT_OF_CORE.set(conf, true);
+    // The heap always looks full, so partitions are swapped one by one
+    GiraphConstants.OUT_OF_CORE_HIGH_HEAP_FRACTION.set(conf, 0f);
+    GiraphConstants.OUT_OF_CORE_LOW_HEAP_FRACTION.set(conf, 0f);
+
+    MemoryController memoryController = MemoryController.create(conf);
+    PartitionStore<IntWritable, IntWritable, NullWritable> partitionStore =
+        new DiskBackedPartitionStore<IntWritable, IntWritable, NullWritable>(
+            conf, context, memoryController);
+    testReadWrite(partitionStore, conf);
+    partitionStore.shutdown();
+    memoryController.close();
+
+    // The heap always looks empty, so nothing is spilled
+    GiraphConstants.OUT_OF_CORE_HIGH_HEAP_FRACTION.set(conf, 2f);
+    GiraphConstants.OUT_OF_CORE_LOW_HEAP_FRACTION.set(conf, 2f);
+    memoryController = MemoryController.create(conf);
+    partitionStore = new DiskBackedPartitionStore<IntWritable,
+        IntWritable, NullWritable>(conf, context, memoryController);
+    testReadWrite(partitionStore, conf);
+    partitionStore.shutdown();
+    memoryController.close();
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test
+  public void testDiskBackedPartitionStorePrefetch() throws IOException {
+    testPrefetch(SimplePartition.class);
+  }
+
+  @Test
+  public void testDiskBackedPartitionStorePrefetchByteArrayPartition()
+      throws IOException {
+    testPrefetch(ByteArrayPartition.class);
+  }
+
+  @Test
+  public void testDiskBackedPartitionStorePrefetchOffHeapPartition()
+      throws IOException {
+    testPrefetch(OffHeapPartition.class);
+  }
+
+  @Test
+  public void testDiskBackedPartitionStorePrefetchStaticGraph()
+      throws IOException {
+    // Edges are kept on disk across spills, for every partition class
+    GiraphConstants.STATIC_GRAPH.set(conf, true);
+    testPrefetch(SimplePartition.class);
+    testPrefetch(ByteArrayPartition.class);
+    testPrefetch(OffHeapPartition.class);
+  }
+
+  @Test
+  public void testOffHeapPartitionCompaction() {
+    GiraphConfiguration giraphConf = new GiraphConfiguration(conf);
+    GiraphConstants.PARTITION_CLASS.set(giraphConf, OffHeapPartition.class);
+    GiraphConstants.OFF_HEAP_SLAB_SIZE.set(giraphConf, 256);
+    conf = new ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+        NullWritable>(giraphConf);
+    int numVertices = 10;
+    int numRounds = 20;
+    OffHeapPartition<IntWritable, IntWritable, NullWritable> partition =
+        (OffHeapPartition<IntWritable, IntWritable, NullWritable>)
+            conf.createPartition(0, context);
+    for (int i = 0; i < numVertices; ++i) {
+      Vertex<IntWritable, IntWritable, NullWritable> v = conf.createVertex();
+      v.initialize(new IntWritable(i), new IntWritable(i));
+      partition.putVertex(v);
+    }
+    // Vertices which grow move to new space every time
+    for (int round = 0; round < numRounds; ++round) {
+      for (int i = 0; i < numVertices; ++i) {
+        Vertex<IntWritable, IntWritable, NullWritable> v =
+            partition.getVertex(new IntWritable(i));
+        v.addEdge(EdgeFactory.create(new IntWritable(round)));
+        partition.saveVertex(v);
+      }
+    }
+    long wastefulBytes = partition.getOffHeapBytes();
+
+    // Iterating copies the vertices to a new arena
+    int visited = 0;
+    for (Vertex<IntWritable, IntWritable, NullWritable> v : partition) {
+      assertEquals(v.getId().get(), v.getValue().get());
+      assertEquals(numRounds, v.getNumEdges());
+      ++visited;
+    }
+    assertEquals(numVertices, visited);
+    assertTrue(partition.getOffHeapBytes() < wastefulBytes);
+    assertEquals(numVertices * numRounds, partition.getEdgeCount());
+  }
+
+  private void testPrefetch(Class<? extends Partition> partitionClass)
+      throws IOException {
+    File directory = Files.createTempDir();
+    GiraphConstants.PARTITIONS_DIRECTORY.set(
+        conf, new File(directory, "giraph_partitions").toString());
+    GiraphConstants.USE_OUT_OF_CORE_GRAPH.set(conf, true);
+    GiraphConstants.MAX_PARTITIONS_IN_MEMORY.set(conf, 3);
+    GiraphConstants.NUM_PARTITION_IO_THREADS.set(conf, 2);
+    GiraphConfiguration giraphConf = new GiraphConfiguration(conf);
+    GiraphConstants.PARTITION_CLASS.set(giraphConf, partitionClass);
+    conf = new ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+        NullWritable>(giraphConf);
+
+    PartitionStore<IntWritable, IntWritable, NullWritable> partitionStore =
+        new DiskBackedPartitionStore<IntWritable, IntWritable, NullWritable>(
+            conf, context);
+    int numPartitions = 10;
+    int numVertices = 20;
+    for (int p = 0; p < numPartitions; ++p) {
+      Partition<IntWritable, IntWritable, NullWritable> partition =
+          conf.createPartition(p, context);
+      for (int i = 0; i < numVertices; ++i) {
+        Vertex<IntWritable, IntWritable, NullWritable> v = conf.createVertex();
+        v.initialize(new IntWritable(p * numVertices + i), new IntWritable(0));
+        v.addEdge(EdgeFactory.create(new IntWritable(i)));
+        partition.putVertex(v);
+      }
+      partitionStore.addPartition(partition);
+    }
+
+    // Every pass prefetches the next partitions and writes behind the
+    // modified ones, which must not lose any update
+    int numPasses = 3;
+    for (int pass = 0; pass < numPasses; ++pass) {
+      for (int p = 0; p < numPartitions; ++p) {
+        Partition<IntWritable, IntWritable, NullWritable> partition =
+            partitionStore.getPartition(p);
+        partitionStore.prefetchPartitions(
+            Lists.newArrayList((p + 1) % numPartitions,
+                (p + 2) % numPartitions));
+        assertEquals(numVertices, partition.getVertexCount());
+        for (Vertex<IntWritable, IntWritable, NullWritable> v : partition) {
+          assertEquals(pass, v.getValue().get());
+          v.getValue().set(pass + 1);
+          partition.saveVertex(v);
+        }
+        partitionStore.putPartition(partition);
+      }
+    }
+    for (int p = 0; p < numPartitions; ++p) {
+      Partition<IntWritable, IntWritable, NullWritable> partition =
+          partitionStore.getPartition(p);
+      for (Vertex<IntWritable, IntWritable, NullWritable> v : partition) {
+        assertEquals(numPasses, v.getValue().get());
+        assertEquals(1, v.getNumEdges());
+        assertEquals(v.getId().get() % numVertices,
+            v.getEdges().iterator().next().getTargetVertexId().get());
+      }
+      partitionStore.putPartition(partition);
+    }
+    partitionStore.shutdown();
+    FileUtils.deleteDirectory(directory);
+  }
+
   /**
    * Test reading/writing to/from a partition store
    *
@@ -225,6 +412,9 @@ public class TestPartitionStores {
     assertTrue(partitionStore.hasPartition(2));
     assertFalse(partitionStore.hasPartition(3));
     assertTrue(partitionStore.hasPartition(4));
+    // The store lets go of a removed partition, without releasing it
+    assertEquals(1, partition3.getVertexCount());
+    assertEquals(5, partition3.getVertex(new IntWritable(5)).getValue().get());
     partition = partitionStore.getPartition(1);
     assertEquals(3, partition.getVertexCount());
     partitionStore.putPartition(partition);
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.edge.OffHeapEdges;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.utils.IntIntNullNoOpComputation;
+import org.apache.giraph.utils.OffHeapArena;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test keeping {@link OffHeapEdges} in the arena of a
+ * {@link SimplePartition}.
+ */
+public class TestSimplePartitionOffHeapEdges {
+  private ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+      NullWritable> conf;
+
+  @Before
+  public void setUp() {
+    GiraphConfiguration giraphConf = new GiraphConfiguration();
+    giraphConf.setComputationClass(IntIntNullNoOpComputation.class);
+    giraphConf.setOutEdgesClass(OffHeapEdges.class);
+    GiraphConstants.OFF_HEAP_SLAB_SIZE.set(giraphConf, 256);
+    conf = new ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+        NullWritable>(giraphConf);
+  }
+
+  private Vertex<IntWritable, IntWritable, NullWritable> createVertex(
+      int id, int numEdges) {
+    Vertex<IntWritable, IntWritable, NullWritable> vertex =
+        conf.createVertex();
+    vertex.initialize(new IntWritable(id), new IntWritable(id),
+        conf.createOutEdges());
+    for (int i = 0; i < numEdges; ++i) {
+      vertex.addEdge(EdgeFactory.create(new IntWritable(i)));
+    }
+    return vertex;
+  }
+
+  private static void checkEdges(
+      Vertex<IntWritable, IntWritable, NullWritable> vertex, int numEdges) {
+    assertEquals(numEdges, vertex.getNumEdges());
+    int target = 0;
+    for (Edge<IntWritable, NullWritable> edge : vertex.getEdges()) {
+      assertEquals(target++, edge.getTargetVertexId().get());
+    }
+    assertEquals(numEdges, target);
+  }
+
+  @Test
+  public void testEdgesFollowVertices() {
+    Partition<IntWritable, IntWritable, NullWritable> partition =
+        conf.createPartition(0, mock(Mapper.Context.class));
+    assertTrue(partition instanceof SimplePartition);
+    for (int i = 0; i < 20; ++i) {
+      partition.putVertex(createVertex(i, i));
+    }
+    // Edges added in the partition go to its arena too
+    Vertex<IntWritable, IntWritable, NullWritable> vertex =
+        partition.getVertex(new IntWritable(3));
+    vertex.addEdge(EdgeFactory.create(new IntWritable(3)));
+    for (int i = 0; i < 20; ++i) {
+      checkEdges(partition.getVertex(new IntWritable(i)), (i == 3) ? 4 : i);
+    }
+
+    // Removed and replaced vertices keep their edges
+    Vertex<IntWritable, IntWritable, NullWritable> removed =
+        partition.removeVertex(new IntWritable(10));
+    Vertex<IntWritable, IntWritable, NullWritable> replaced =
+        partition.putVertex(createVertex(11, 2));
+    ((BasicPartition<IntWritable, IntWritable, NullWritable>) partition)
+        .freeOffHeapMemory();
+    assertEquals(0, partition.getVertexCount());
+    checkEdges(removed, 10);
+    checkEdges(replaced, 11);
+    removed.addEdge(EdgeFactory.create(new IntWritable(10)));
+    checkEdges(removed, 11);
+
+    // The partition can be used again
+    partition.putVertex(createVertex(5, 5));
+    checkEdges(partition.getVertex(new IntWritable(5)), 5);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReleasedArena() {
+    OffHeapArena arena = new OffHeapArena(256);
+    long address = arena.allocateBlock(10);
+    arena.putInt(address, 42);
+    assertEquals(42, arena.getInt(address));
+    arena.release();
+    assertTrue(arena.isReleased());
+    assertEquals(0, arena.getAllocatedBytes());
+    // Freeing is ignored, allocating fails
+    arena.freeBlock(address, 10);
+    arena.allocateBlock(10);
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.utils.IntNoOpComputation;
+import org.apache.giraph.utils.LongNoOpComputation;
+import org.apache.giraph.utils.NoOpComputation;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Test {@link VertexAddressMap} with primitive and other vertex ids.
+ */
+public class TestVertexAddressMap {
+  /** Computation with text ids, which are kept in a map of objects */
+  public static class TextNoOpComputation extends
+      NoOpComputation<Text, NullWritable, NullWritable, NullWritable> {
+  }
+
+  /** Creates the ids of one type */
+  private interface IdFactory<I extends WritableComparable> {
+    I create(int i);
+  }
+
+  private <I extends WritableComparable> void testMap(
+      Class<? extends NoOpComputation> computationClass,
+      IdFactory<I> idFactory) {
+    GiraphConfiguration giraphConf = new GiraphConfiguration();
+    giraphConf.setComputationClass(computationClass);
+    ImmutableClassesGiraphConfiguration<I, ?, ?> conf =
+        new ImmutableClassesGiraphConfiguration(giraphConf);
+    VertexAddressMap<I> map = VertexAddressMap.create(conf, 4);
+
+    for (int i = 0; i < 100; ++i) {
+      assertEquals(VertexAddressMap.NO_ADDRESS,
+          map.put(idFactory.create(i), i * 10L));
+    }
+    assertEquals(100, map.size());
+    assertEquals(30, map.put(idFactory.create(3), 31));
+    assertEquals(31, map.get(idFactory.create(3)));
+    assertEquals(50, map.remove(idFactory.create(5)));
+    assertEquals(VertexAddressMap.NO_ADDRESS, map.get(idFactory.create(5)));
+    assertEquals(VertexAddressMap.NO_ADDRESS,
+        map.remove(idFactory.create(5)));
+
+    // Iterate, moving every vertex to a new address
+    Map<I, Long> seen = Maps.newHashMap();
+    VertexAddressMap.EntryIterator<I> iterator = map.entryIterator();
+    while (iterator.next()) {
+      seen.put(copy(iterator.getVertexId(), idFactory),
+          iterator.getAddress());
+      iterator.setAddress(iterator.getAddress() + 1);
+    }
+    assertEquals(99, seen.size());
+    assertFalse(seen.containsKey(idFactory.create(5)));
+    for (Map.Entry<I, Long> entry : seen.entrySet()) {
+      assertEquals(entry.getValue() + 1, map.get(entry.getKey()));
+    }
+
+    map.clear();
+    assertEquals(0, map.size());
+    assertFalse(map.entryIterator().next());
+  }
+
+  /**
+   * Copy an id the iterator may reuse, by looking up the equal new id.
+   */
+  private static <I extends WritableComparable> I copy(I vertexId,
+      IdFactory<I> idFactory) {
+    for (int i = 0; i < 100; ++i) {
+      I candidate = idFactory.create(i);
+      if (candidate.equals(vertexId)) {
+        return candidate;
+      }
+    }
+    throw new IllegalStateException("copy: Unknown id " + vertexId);
+  }
+
+  @Test
+  public void testIntIds() {
+    testMap(IntNoOpComputation.class, new IdFactory<IntWritable>() {
+      @Override
+      public IntWritable create(int i) {
+        return new IntWritable(i);
+      }
+    });
+  }
+
+  @Test
+  public void testLongIds() {
+    testMap(LongNoOpComputation.class, new IdFactory<LongWritable>() {
+      @Override
+      public LongWritable create(int i) {
+        return new LongWritable(i * 1000000007L);
+      }
+    });
+  }
+
+  @Test
+  public void testOtherIds() {
+    testMap(TextNoOpComputation.class, new IdFactory<Text>() {
+      @Override
+      public Text create(int i) {
+        return new Text("v" + i);
+      }
+    });
+  }
+}
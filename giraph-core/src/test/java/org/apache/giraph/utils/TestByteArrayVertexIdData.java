@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.utils;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.factories.TestMessageValueFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the serialization of vertex id and data pairs, with and without
+ * delta encoding of the vertex ids.
+ */
+public class TestByteArrayVertexIdData {
+  /**
+   * Create a configuration.
+   *
+   * @param computationClass Computation class
+   * @param deltaEncoding Whether to delta encode vertex ids
+   * @return Configuration
+   */
+  private static ImmutableClassesGiraphConfiguration createConf(
+      Class<? extends NoOpComputation> computationClass,
+      boolean deltaEncoding) {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(computationClass);
+    GiraphConstants.VERTEX_ID_DELTA_ENCODING.set(conf, deltaEncoding);
+    return new ImmutableClassesGiraphConfiguration(conf);
+  }
+
+  /**
+   * Create empty messages.
+   *
+   * @param conf Configuration
+   * @return Messages
+   */
+  private static ByteArrayVertexIdMessages<LongWritable, LongWritable>
+  createMessages(ImmutableClassesGiraphConfiguration conf) {
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> messages =
+        new ByteArrayVertexIdMessages<LongWritable, LongWritable>(
+            new TestMessageValueFactory<LongWritable>(LongWritable.class));
+    messages.setConf(conf);
+    messages.initialize();
+    return messages;
+  }
+
+  /**
+   * Serialize and deserialize messages.
+   *
+   * @param conf Configuration
+   * @param messages Messages to copy
+   * @return Copied messages
+   * @throws IOException
+   */
+  private static ByteArrayVertexIdMessages<LongWritable, LongWritable>
+  copyMessages(ImmutableClassesGiraphConfiguration conf,
+      ByteArrayVertexIdMessages<LongWritable, LongWritable> messages)
+    throws IOException {
+    byte[] bytes = WritableUtils.writeToByteArray(messages);
+    assertTrue(bytes.length <= messages.getSerializedSize());
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> copy =
+        createMessages(conf);
+    WritableUtils.readFieldsFromByteArray(bytes, copy);
+    return copy;
+  }
+
+  @Test
+  public void testDeltaEncodedMessages() throws IOException {
+    ImmutableClassesGiraphConfiguration conf =
+        createConf(LongNoOpComputation.class, true);
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> messages =
+        createMessages(conf);
+    Random random = new Random(42);
+    long[] sums = new long[1000];
+    for (int i = 0; i < 5000; ++i) {
+      int vertex = random.nextInt(sums.length);
+      messages.add(new LongWritable((1L << 40) + vertex), new LongWritable(i));
+      sums[vertex] += i;
+    }
+    messages.add(new LongWritable(-5), new LongWritable(1));
+    messages.add(new LongWritable(-5), new LongWritable(2));
+
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> copy =
+        copyMessages(conf, messages);
+    assertTrue(copy.getSize() < messages.getSize() * 3 / 4);
+    ByteArrayVertexIdMessages<LongWritable, LongWritable>
+        .VertexIdMessageIterator iterator = copy.getVertexIdMessageIterator();
+    iterator.next();
+    assertEquals(-5, iterator.getCurrentVertexId().get());
+    assertEquals(1, iterator.getCurrentMessage().get());
+    iterator.next();
+    assertEquals(-5, iterator.getCurrentVertexId().get());
+    assertEquals(2, iterator.getCurrentMessage().get());
+    long previousId = Long.MIN_VALUE;
+    int previousMessage = -1;
+    long[] copySums = new long[sums.length];
+    while (iterator.hasNext()) {
+      iterator.next();
+      long id = iterator.getCurrentVertexId().get();
+      int message = (int) iterator.getCurrentMessage().get();
+      assertTrue(previousId <= id);
+      // Messages to a vertex keep their order
+      assertTrue(previousId < id || previousMessage < message);
+      copySums[(int) (id - (1L << 40))] += message;
+      previousId = id;
+      previousMessage = message;
+    }
+    for (int i = 0; i < sums.length; ++i) {
+      assertEquals(sums[i], copySums[i]);
+    }
+  }
+
+  @Test
+  public void testPlainMessages() throws IOException {
+    ImmutableClassesGiraphConfiguration conf =
+        createConf(LongNoOpComputation.class, false);
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> messages =
+        createMessages(conf);
+    messages.add(new LongWritable(7), new LongWritable(1));
+    messages.add(new LongWritable(3), new LongWritable(2));
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> copy =
+        copyMessages(conf, messages);
+    assertEquals(messages.getSize(), copy.getSize());
+    ByteArrayVertexIdMessages<LongWritable, LongWritable>
+        .VertexIdMessageIterator iterator = copy.getVertexIdMessageIterator();
+    iterator.next();
+    assertEquals(7, iterator.getCurrentVertexId().get());
+    iterator.next();
+    assertEquals(3, iterator.getCurrentVertexId().get());
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void testReadWithoutCopy() throws IOException {
+    ImmutableClassesGiraphConfiguration conf =
+        createConf(LongNoOpComputation.class, false);
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> messages =
+        createMessages(conf);
+    for (int i = 0; i < 10; ++i) {
+      messages.add(new LongWritable(i), new LongWritable(i * 10));
+    }
+    byte[] serialized = WritableUtils.writeToByteArray(messages);
+    byte[] request = new byte[serialized.length + 3];
+    System.arraycopy(serialized, 0, request, 3, serialized.length);
+
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> copy =
+        createMessages(conf);
+    copy.readFields(
+        new ExtendedByteArrayDataInput(request, 3, serialized.length));
+    assertSame(request, copy.getByteArray());
+    assertEquals(messages.getSize(), copy.getSize());
+    ByteArrayVertexIdMessages<LongWritable, LongWritable>
+        .VertexIdMessageIterator iterator = copy.getVertexIdMessageIterator();
+    for (int i = 0; i < 10; ++i) {
+      iterator.next();
+      assertEquals(i, iterator.getCurrentVertexId().get());
+      assertEquals(i * 10, iterator.getCurrentMessage().get());
+    }
+    assertFalse(iterator.hasNext());
+
+    // Adding copies the pairs and leaves the request as it was
+    byte[] requestBefore = request.clone();
+    copy.add(new LongWritable(10), new LongWritable(100));
+    assertArrayEquals(requestBefore, request);
+    assertEquals(0, copy.getOffset());
+    iterator = copy.getVertexIdMessageIterator();
+    long sum = 0;
+    while (iterator.hasNext()) {
+      iterator.next();
+      sum += iterator.getCurrentMessage().get();
+    }
+    assertEquals(550, sum);
+  }
+
+  @Test
+  public void testDeltaEncodedEdges() throws IOException {
+    ImmutableClassesGiraphConfiguration conf =
+        createConf(IntNoOpComputation.class, true);
+    ByteArrayVertexIdEdges<IntWritable, IntWritable> edges =
+        new ByteArrayVertexIdEdges<IntWritable, IntWritable>();
+    edges.setConf(conf);
+    edges.initialize();
+    for (int i = 100; i > 0; --i) {
+      edges.add(new IntWritable(i * 2), EdgeFactory.create(
+          new IntWritable(i), new IntWritable(-i)));
+    }
+    ByteArrayVertexIdEdges<IntWritable, IntWritable> copy =
+        new ByteArrayVertexIdEdges<IntWritable, IntWritable>();
+    copy.setConf(conf);
+    WritableUtils.readFieldsFromByteArray(
+        WritableUtils.writeToByteArray(edges), copy);
+    assertTrue(copy.getSize() < edges.getSize());
+    ByteArrayVertexIdEdges<IntWritable, IntWritable>.VertexIdEdgeIterator
+        iterator = copy.getVertexIdEdgeIterator();
+    for (int i = 1; i <= 100; ++i) {
+      iterator.next();
+      assertEquals(i * 2, iterator.getCurrentVertexId().get());
+      assertEquals(i, iterator.getCurrentEdge().getTargetVertexId().get());
+      assertEquals(-i, iterator.getCurrentEdge().getValue().get());
+    }
+    assertFalse(iterator.hasNext());
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.utils;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the decisions of {@link MemoryController}.
+ */
+public class TestMemoryController {
+  @Test
+  public void testCreate() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(IntNoOpComputation.class);
+    assertNull(MemoryController.create(
+        new ImmutableClassesGiraphConfiguration(conf)));
+    GiraphConstants.ADAPTIVE_OUT_OF_CORE.set(conf, true);
+    assertNotNull(MemoryController.create(
+        new ImmutableClassesGiraphConfiguration(conf)));
+  }
+
+  @Test
+  public void testThresholds() {
+    MemoryController controller = new MemoryController(0.8f, 0.6f);
+    double usedFraction = controller.getUsedFraction();
+    assertTrue(usedFraction > 0 && usedFraction <= 1);
+    controller.close();
+
+    MemoryController full = new MemoryController(0f, 0f);
+    assertTrue(full.shouldSpill());
+    assertFalse(full.canLoadAhead());
+    full.close();
+
+    MemoryController empty = new MemoryController(1.1f, 1.1f);
+    assertFalse(empty.shouldSpill());
+    assertTrue(empty.canLoadAhead());
+    empty.close();
+  }
+}
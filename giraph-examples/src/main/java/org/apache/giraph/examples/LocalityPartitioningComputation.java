@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.examples;
+
+import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.conf.FloatConfOption;
+import org.apache.giraph.conf.IntConfOption;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.log4j.Logger;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.io.IOException;
+
+/**
+ * Computes a vertex to partition mapping which cuts few edges, with balanced
+ * label propagation (similar to Spinner, Martella et al. 2014).  The output
+ * of this job (with
+ * {@link org.apache.giraph.io.formats.IdWithValueTextOutputFormat}) can be
+ * given to {@link org.apache.giraph.partition.LongMappedPartitionerFactory}
+ * through giraph.partitionMappingPath, so that later jobs over the same
+ * graph keep neighbors in the same partition.
+ *
+ * Superstep 0 and 1 make the graph undirected and start from hash
+ * partitioning.  Afterwards every iteration takes two supersteps.  In the
+ * first one, every vertex picks the partition most of its neighbors are
+ * in, if that partition has room, and asks to move there.  In the second
+ * one, the vertices which asked to move do so with probability of the
+ * remaining capacity of their target divided by the load asking for it, so
+ * that partitions rarely fill up beyond their capacity.  The load of a
+ * partition is the number of edges of its vertices.
+ */
+@Algorithm(
+    name = "Locality partitioning",
+    description = "Assigns vertices to partitions so that few edges are cut"
+)
+public class LocalityPartitioningComputation extends BasicComputation<
+    LongWritable, LongWritable, NullWritable, LongWritable> {
+  /** Number of partitions to compute */
+  public static final IntConfOption PARTITION_COUNT =
+      new IntConfOption("giraph.localityPartitioning.partitionCount", 64,
+          "Number of partitions to compute, should match the partition " +
+          "count of the jobs using the mapping");
+  /** Maximum number of label propagation iterations */
+  public static final IntConfOption MAX_ITERATIONS =
+      new IntConfOption("giraph.localityPartitioning.maxIterations", 30,
+          "Maximum number of label propagation iterations");
+  /** How much larger than the average a partition may become */
+  public static final FloatConfOption ALLOWED_IMBALANCE =
+      new FloatConfOption("giraph.localityPartitioning.allowedImbalance",
+          0.05f, "How much larger than the average a partition may become");
+  /** Stop when fewer than this fraction of the vertices moved */
+  public static final FloatConfOption CONVERGENCE_THRESHOLD =
+      new FloatConfOption("giraph.localityPartitioning.convergenceThreshold",
+          0.001f, "Stop when fewer than this fraction of the vertices moved " +
+          "in an iteration");
+  /** Prefix of the persistent aggregators with the partition loads */
+  private static final String LOAD_AGG = "localityPartitioning.load.";
+  /** Prefix of the aggregators with the load asking to move to partitions */
+  private static final String DEMAND_AGG = "localityPartitioning.demand.";
+  /** Aggregator with the maximum load of a partition */
+  private static final String CAPACITY_AGG = "localityPartitioning.capacity";
+  /** Aggregator with the number of moved vertices */
+  private static final String MIGRATIONS_AGG =
+      "localityPartitioning.migrations";
+  /** Aggregator with the number of edges within a partition */
+  private static final String LOCAL_EDGES_AGG =
+      "localityPartitioning.localEdges";
+
+  /** Reused message with the partition of this vertex */
+  private final LongWritable partitionMessage = new LongWritable();
+
+  @Override
+  public void compute(
+      Vertex<LongWritable, LongWritable, NullWritable> vertex,
+      Iterable<LongWritable> messages) throws IOException {
+    int partitionCount = PARTITION_COUNT.get(getConf());
+    if (getSuperstep() == 0) {
+      // Tell the neighbors about this vertex, so they can add the reverse
+      // edges
+      sendMessageToAllEdges(vertex, vertex.getId());
+      return;
+    }
+
+    if (getSuperstep() == 1) {
+      LongOpenHashSet targets = new LongOpenHashSet(vertex.getNumEdges());
+      for (Edge<LongWritable, NullWritable> edge : vertex.getEdges()) {
+        targets.add(edge.getTargetVertexId().get());
+      }
+      for (LongWritable message : messages) {
+        if (targets.add(message.get())) {
+          vertex.addEdge(EdgeFactory.create(new LongWritable(message.get())));
+        }
+      }
+      // Start from hash partitioning
+      int partition =
+          Math.abs(vertex.getId().hashCode() % partitionCount);
+      vertex.setValue(new LongWritable(partition));
+      aggregate(LOAD_AGG + partition,
+          new LongWritable(vertex.getNumEdges()));
+    } else if (isCandidateSuperstep(getSuperstep())) {
+      int partition = (int) vertex.getValue().get();
+      Int2IntOpenHashMap neighborPartitions = new Int2IntOpenHashMap();
+      for (LongWritable message : messages) {
+        neighborPartitions.add((int) message.get(), 1);
+      }
+      aggregate(LOCAL_EDGES_AGG,
+          new LongWritable(neighborPartitions.get(partition)));
+
+      int degree = vertex.getNumEdges();
+      if (degree > 0) {
+        double capacity = getCapacity();
+        int bestPartition = partition;
+        double bestScore = score(neighborPartitions.get(partition), degree,
+            getLoad(partition), capacity);
+        for (Int2IntMap.Entry entry : neighborPartitions.int2IntEntrySet()) {
+          int candidate = entry.getIntKey();
+          long candidateLoad = getLoad(candidate);
+          double candidateScore = score(entry.getIntValue(), degree,
+              candidateLoad, capacity);
+          if (candidateScore > bestScore &&
+              candidateLoad + degree <= capacity) {
+            bestPartition = candidate;
+            bestScore = candidateScore;
+          }
+        }
+        if (bestPartition != partition) {
+          aggregate(DEMAND_AGG + bestPartition, new LongWritable(degree));
+          // Remember the candidate until the next superstep
+          sendMessage(vertex.getId(), new LongWritable(bestPartition));
+        }
+      }
+      // Neighbors only need the partition once the moves are decided
+      return;
+    } else {
+      int partition = (int) vertex.getValue().get();
+      for (LongWritable message : messages) {
+        int candidate = (int) message.get();
+        double remaining = getCapacity() - getLoad(candidate);
+        long demand = this.<LongWritable>getAggregatedValue(
+            DEMAND_AGG + candidate).get();
+        if (remaining > 0 &&
+            random(vertex.getId().get()) < remaining / demand) {
+          int degree = vertex.getNumEdges();
+          vertex.getValue().set(candidate);
+          aggregate(LOAD_AGG + partition, new LongWritable(-degree));
+          aggregate(LOAD_AGG + candidate, new LongWritable(degree));
+          aggregate(MIGRATIONS_AGG, new LongWritable(1));
+        }
+      }
+    }
+
+    partitionMessage.set(vertex.getValue().get());
+    sendMessageToAllEdges(vertex, partitionMessage);
+  }
+
+  /**
+   * Score of a partition for a vertex, higher is better.  Prefers the
+   * partitions most neighbors are in, and among those the less loaded ones.
+   * Loads are only compared once there is a capacity.
+   *
+   * @param neighbors Number of neighbors in the partition
+   * @param degree Number of neighbors
+   * @param load Load of the partition
+   * @param capacity Maximum load of a partition
+   * @return Score
+   */
+  private static double score(int neighbors, int degree, long load,
+      double capacity) {
+    double score = (double) neighbors / degree;
+    if (capacity > 0) {
+      score -= load / capacity;
+    }
+    return score;
+  }
+
+  /**
+   * Check whether vertices pick the partitions to move to in a superstep,
+   * rather than move.
+   *
+   * @param superstep Superstep, at least 2
+   * @return True iff vertices pick partitions in the superstep
+   */
+  private static boolean isCandidateSuperstep(long superstep) {
+    return superstep % 2 == 0;
+  }
+
+  /**
+   * Get the maximum load of a partition.
+   *
+   * @return Capacity
+   */
+  private double getCapacity() {
+    return this.<LongWritable>getAggregatedValue(CAPACITY_AGG).get();
+  }
+
+  /**
+   * Get the load of a partition at the end of the previous superstep.
+   *
+   * @param partition Partition
+   * @return Load
+   */
+  private long getLoad(int partition) {
+    return this.<LongWritable>getAggregatedValue(LOAD_AGG + partition).get();
+  }
+
+  /**
+   * Pseudo random number in [0, 1), deterministic for a vertex and
+   * superstep so that results are reproducible.
+   *
+   * @param vertexId Vertex id
+   * @return Random number
+   */
+  private double random(long vertexId) {
+    // Mix the bits, seeding java.util.Random with consecutive ids gives
+    // correlated first values
+    long hash = vertexId * 0x9E3779B97F4A7C15L + getSuperstep();
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB9FE1A85EC53L;
+    hash ^= hash >>> 33;
+    return (hash >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * Master compute which sets the capacity of the partitions and stops
+   * when few vertices move.
+   */
+  public static class LocalityPartitioningMasterCompute extends
+      DefaultMasterCompute {
+    /** Class logger */
+    private static final Logger LOG =
+        Logger.getLogger(LocalityPartitioningMasterCompute.class);
+    /** Number of edges within a partition before the last moves */
+    private long localEdges;
+
+    @Override
+    public void initialize() throws InstantiationException,
+        IllegalAccessException {
+      for (int i = 0; i < PARTITION_COUNT.get(getConf()); ++i) {
+        registerPersistentAggregator(LOAD_AGG + i, LongSumAggregator.class);
+        registerAggregator(DEMAND_AGG + i, LongSumAggregator.class);
+      }
+      registerAggregator(CAPACITY_AGG, LongSumAggregator.class);
+      registerAggregator(MIGRATIONS_AGG, LongSumAggregator.class);
+      registerAggregator(LOCAL_EDGES_AGG, LongSumAggregator.class);
+    }
+
+    @Override
+    public void compute() {
+      if (getSuperstep() < 2) {
+        return;
+      }
+      int partitionCount = PARTITION_COUNT.get(getConf());
+      long totalLoad = 0;
+      for (int i = 0; i < partitionCount; ++i) {
+        totalLoad +=
+            this.<LongWritable>getAggregatedValue(LOAD_AGG + i).get();
+      }
+      if (!isCandidateSuperstep(getSuperstep())) {
+        localEdges =
+            this.<LongWritable>getAggregatedValue(LOCAL_EDGES_AGG).get();
+      } else if (getSuperstep() > 2) {
+        long iterations = (getSuperstep() - 2) / 2;
+        long migrations =
+            this.<LongWritable>getAggregatedValue(MIGRATIONS_AGG).get();
+        if (LOG.isInfoEnabled()) {
+          LOG.info("compute: Iteration " + iterations + " moved " +
+              migrations + " vertices, " + localEdges + " of " + totalLoad +
+              " edges were within a partition before");
+        }
+        // Iterations end after vertices moved, so that the output has the
+        // partitions they moved to
+        if (iterations >= MAX_ITERATIONS.get(getConf()) ||
+            (iterations > 1 && migrations <
+                CONVERGENCE_THRESHOLD.get(getConf()) *
+                    getTotalNumVertices())) {
+          haltComputation();
+          return;
+        }
+      }
+      setAggregatedValue(CAPACITY_AGG, new LongWritable((long) Math.ceil(
+          (1.0 + ALLOWED_IMBALANCE.get(getConf())) * totalLoad /
+              partitionCount)));
+    }
+  }
+}
@@ -18,25 +18,75 @@
 
 package org.apache.giraph;
 
+import org.apache.giraph.bsp.BspService;
 import org.apache.giraph.conf.GiraphConfiguration;
 import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.examples.SimpleCheckpoint;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.examples.SimpleSuperstepComputation.SimpleSuperstepVertexInputFormat;
 import org.apache.giraph.examples.SimpleSuperstepComputation.SimpleSuperstepVertexOutputFormat;
 import org.apache.giraph.job.GiraphJob;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
  * Unit test for manual checkpoint restarting
  */
 public class TestManualCheckpoint extends BspCase {
+  /** Superstep in which the vertices of the static graph test halt */
+  private static final int STATIC_GRAPH_SUPERSTEPS = 10;
+  /** Superstep the static graph test restarts from */
+  private static final long STATIC_GRAPH_RESTART_SUPERSTEP = 6;
+
+  /**
+   * Computation which doesn't change the graph, so that it can be used
+   * with incremental checkpoints.  Every vertex adds the values it receives
+   * to its own and sends the result along its edges.
+   */
+  public static class StaticGraphComputation extends BasicComputation<
+      LongWritable, IntWritable, FloatWritable, IntWritable> {
+    @Override
+    public void compute(
+        Vertex<LongWritable, IntWritable, FloatWritable> vertex,
+        Iterable<IntWritable> messages) throws IOException {
+      int value = vertex.getValue().get();
+      for (IntWritable message : messages) {
+        value += message.get();
+      }
+      vertex.setValue(new IntWritable(value));
+      if (getSuperstep() < STATIC_GRAPH_SUPERSTEPS) {
+        sendMessageToAllEdges(vertex, vertex.getValue());
+      } else {
+        vertex.voteToHalt();
+      }
+    }
+  }
 
   public TestManualCheckpoint() {
     super(TestManualCheckpoint.class.getName());
@@ -51,8 +101,33 @@ public class TestManualCheckpoint extends BspCase {
   @Test
   public void testBspCheckpoint()
       throws IOException, InterruptedException, ClassNotFoundException {
-    Path checkpointsDir = getTempPath("checkPointsForTesting");
-    Path outputPath = getTempPath(getCallingMethodName());
+    runCheckpointTest(getCallingMethodName(), null);
+  }
+
+  /**
+   * Run a sample BSP job locally and test checkpointing with compressed
+   * checkpoint files.
+   * @throws IOException
+   * @throws ClassNotFoundException
+   * @throws InterruptedException
+   */
+  @Test
+  public void testBspCheckpointCompressed()
+      throws IOException, InterruptedException, ClassNotFoundException {
+    runCheckpointTest(getCallingMethodName(), DefaultCodec.class);
+  }
+
+  /**
+   * Run the job with checkpoints, and again restarted from a checkpoint.
+   *
+   * @param testName Name of the test
+   * @param codecClass Checkpoint compression codec (null for none)
+   */
+  private void runCheckpointTest(String testName,
+      Class<? extends CompressionCodec> codecClass)
+      throws IOException, InterruptedException, ClassNotFoundException {
+    Path checkpointsDir = getTempPath("checkPointsForTesting" + testName);
+    Path outputPath = getTempPath(testName);
     GiraphConfiguration conf = new GiraphConfiguration();
     conf.setComputationClass(
         SimpleCheckpoint.SimpleCheckpointComputation.class);
@@ -62,12 +137,16 @@ public class TestManualCheckpoint extends BspCase {
         SimpleCheckpoint.SimpleCheckpointVertexMasterCompute.class);
     conf.setVertexInputFormatClass(SimpleSuperstepVertexInputFormat.class);
     conf.setVertexOutputFormatClass(SimpleSuperstepVertexOutputFormat.class);
-    GiraphJob job = prepareJob(getCallingMethodName(), conf, outputPath);
+    GiraphJob job = prepareJob(testName, conf, outputPath);
 
     GiraphConfiguration configuration = job.getConfiguration();
     GiraphConstants.CHECKPOINT_DIRECTORY.set(configuration, checkpointsDir.toString());
     GiraphConstants.CLEANUP_CHECKPOINTS_AFTER_SUCCESS.set(configuration, false);
     configuration.setCheckpointFrequency(2);
+    if (codecClass != null) {
+      GiraphConstants.CHECKPOINT_COMPRESSION_CODEC.set(configuration,
+          codecClass);
+    }
 
     assertTrue(job.run(true));
 
@@ -84,7 +163,7 @@ public class TestManualCheckpoint extends BspCase {
     // Restart the test from superstep 2
     System.out.println("testBspCheckpoint: Restarting from superstep 2" +
         " with checkpoint path = " + checkpointsDir);
-    outputPath = getTempPath(getCallingMethodName() + "Restarted");
+    outputPath = getTempPath(testName + "Restarted");
     conf = new GiraphConfiguration();
     conf.setComputationClass(
         SimpleCheckpoint.SimpleCheckpointComputation.class);
@@ -94,12 +173,16 @@ public class TestManualCheckpoint extends BspCase {
         SimpleCheckpoint.SimpleCheckpointVertexMasterCompute.class);
     conf.setVertexInputFormatClass(SimpleSuperstepVertexInputFormat.class);
     conf.setVertexOutputFormatClass(SimpleSuperstepVertexOutputFormat.class);
-    GiraphJob restartedJob = prepareJob(getCallingMethodName() + "Restarted",
+    GiraphJob restartedJob = prepareJob(testName + "Restarted",
         conf, outputPath);
     configuration.setMasterComputeClass(
         SimpleCheckpoint.SimpleCheckpointVertexMasterCompute.class);
     GiraphConstants.CHECKPOINT_DIRECTORY.set(restartedJob.getConfiguration(),
         checkpointsDir.toString());
+    if (codecClass != null) {
+      GiraphConstants.CHECKPOINT_COMPRESSION_CODEC.set(
+          restartedJob.getConfiguration(), codecClass);
+    }
 
     assertTrue(restartedJob.run(true));
     if (!runningInDistributedMode()) {
@@ -111,4 +194,123 @@ public class TestManualCheckpoint extends BspCase {
       assertEquals(idSum, idSumRestarted);
     }
   }
+
+  /**
+   * Run a job over a static graph with incremental checkpoints, where only
+   * the first checkpoint has the edges, and restart it from a later one.
+   * @throws IOException
+   * @throws ClassNotFoundException
+   * @throws InterruptedException
+   */
+  @Test
+  public void testBspCheckpointIncremental()
+      throws IOException, InterruptedException, ClassNotFoundException {
+    String testName = getCallingMethodName();
+    Path checkpointsDir = getTempPath("checkPointsForTesting" + testName);
+    Path outputPath = getTempPath(testName);
+    GiraphJob job = prepareJob(testName, createStaticGraphConf(), outputPath);
+    GiraphConfiguration configuration = job.getConfiguration();
+    GiraphConstants.CHECKPOINT_DIRECTORY.set(configuration,
+        checkpointsDir.toString());
+    GiraphConstants.CLEANUP_CHECKPOINTS_AFTER_SUCCESS.set(configuration,
+        false);
+    configuration.setCheckpointFrequency(2);
+
+    assertTrue(job.run(true));
+    if (runningInDistributedMode()) {
+      return;
+    }
+    List<String> output = readOutput(configuration, outputPath);
+    assertFalse(output.isEmpty());
+
+    // Only the first checkpoint has the edges, the later ones use them
+    FileSystem fs = FileSystem.get(configuration);
+    Set<Long> edgesSupersteps = Sets.newHashSet();
+    Set<Long> verticesSupersteps = Sets.newHashSet();
+    for (FileStatus fileStatus : fs.listStatus(checkpointsDir)) {
+      String name = fileStatus.getPath().getName();
+      if (name.endsWith(BspService.CHECKPOINT_EDGES_POSTFIX)) {
+        edgesSupersteps.add(getCheckpointSuperstep(name));
+      } else if (name.endsWith(BspService.CHECKPOINT_VERTICES_POSTFIX)) {
+        verticesSupersteps.add(getCheckpointSuperstep(name));
+      }
+    }
+    assertEquals(Collections.singleton(0L), edgesSupersteps);
+    assertTrue(verticesSupersteps.contains(0L));
+    assertTrue(verticesSupersteps.contains(STATIC_GRAPH_RESTART_SUPERSTEP));
+
+    // Restart from the later checkpoint, which has to read the edges of the
+    // first one
+    System.out.println("testBspCheckpointIncremental: Restarting from " +
+        "superstep " + STATIC_GRAPH_RESTART_SUPERSTEP +
+        " with checkpoint path = " + checkpointsDir);
+    outputPath = getTempPath(testName + "Restarted");
+    GiraphJob restartedJob = prepareJob(testName + "Restarted",
+        createStaticGraphConf(), outputPath);
+    GiraphConfiguration restartedConfiguration =
+        restartedJob.getConfiguration();
+    GiraphConstants.CHECKPOINT_DIRECTORY.set(restartedConfiguration,
+        checkpointsDir.toString());
+    restartedConfiguration.setLong(GiraphConstants.RESTART_SUPERSTEP,
+        STATIC_GRAPH_RESTART_SUPERSTEP);
+
+    assertTrue(restartedJob.run(true));
+    assertEquals(output, readOutput(restartedConfiguration, outputPath));
+  }
+
+  /**
+   * Get the superstep of a checkpoint file.
+   *
+   * @param name Name of the file
+   * @return Superstep
+   */
+  private static long getCheckpointSuperstep(String name) {
+    return Long.parseLong(name.substring(0, name.indexOf('.')));
+  }
+
+  /**
+   * Create the configuration of the static graph test.
+   *
+   * @return Configuration
+   */
+  private static GiraphConfiguration createStaticGraphConf() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(StaticGraphComputation.class);
+    conf.setVertexInputFormatClass(SimpleSuperstepVertexInputFormat.class);
+    conf.setVertexOutputFormatClass(SimpleSuperstepVertexOutputFormat.class);
+    GiraphConstants.STATIC_GRAPH.set(conf, true);
+    GiraphConstants.CHECKPOINT_INCREMENTAL.set(conf, true);
+    return conf;
+  }
+
+  /**
+   * Read the lines of all part files of the output, sorted.
+   *
+   * @param conf Configuration
+   * @param outputPath Output path
+   * @return Sorted lines
+   * @throws IOException
+   */
+  private static List<String> readOutput(Configuration conf,
+      Path outputPath) throws IOException {
+    FileSystem fs = FileSystem.get(conf);
+    List<String> lines = Lists.newArrayList();
+    for (FileStatus status : fs.listStatus(outputPath, PARTS_FILTER)) {
+      FSDataInputStream in = null;
+      BufferedReader reader = null;
+      try {
+        in = fs.open(status.getPath());
+        reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lines.add(line);
+        }
+      } finally {
+        Closeables.closeQuietly(in);
+        Closeables.closeQuietly(reader);
+      }
+    }
+    Collections.sort(lines);
+    return lines;
+  }
 }
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.examples;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.edge.ByteArrayEdges;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.io.formats.LongLongNullTextInputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Test;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LocalityPartitioningComputation}
+ */
+public class LocalityPartitioningComputationTest {
+  /** Number of vertices in the ring */
+  private static final int RING_SIZE = 20;
+
+  /**
+   * A ring, which hash partitioning into odd and even ids cuts everywhere
+   */
+  @Test
+  public void testRing() throws Exception {
+    String[] graph = new String[RING_SIZE];
+    for (int i = 0; i < RING_SIZE; ++i) {
+      graph[i] = (i + 1) + " " + ((i + 1) % RING_SIZE + 1);
+    }
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    LocalityPartitioningComputation.PARTITION_COUNT.set(conf, 2);
+    LocalityPartitioningComputation.ALLOWED_IMBALANCE.set(conf, 0.1f);
+    conf.setComputationClass(LocalityPartitioningComputation.class);
+    conf.setMasterComputeClass(LocalityPartitioningComputation
+        .LocalityPartitioningMasterCompute.class);
+    conf.setOutEdgesClass(ByteArrayEdges.class);
+    conf.setVertexInputFormatClass(LongLongNullTextInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+
+    Iterable<String> results = InternalVertexRunner.run(conf, graph);
+
+    Map<Long, Integer> partitions = Maps.newHashMap();
+    int[] partitionSizes = new int[2];
+    for (String result : results) {
+      Iterable<String> parts = Splitter.on('\t').split(result);
+      int partition = Integer.parseInt(Iterables.get(parts, 1));
+      partitions.put(Long.parseLong(Iterables.get(parts, 0)), partition);
+      partitionSizes[partition]++;
+    }
+    assertEquals(RING_SIZE, partitions.size());
+
+    int cutEdges = 0;
+    for (long i = 1; i <= RING_SIZE; ++i) {
+      if (!partitions.get(i).equals(partitions.get(i % RING_SIZE + 1))) {
+        ++cutEdges;
+      }
+    }
+    // Hash partitioning cuts all of them
+    assertTrue("Cut " + cutEdges + " edges", cutEdges <= RING_SIZE / 2);
+    // Every vertex has two edges, capacity is 1.1 * 20 edges
+    assertTrue(partitionSizes[0] <= 11);
+    assertTrue(partitionSizes[1] <= 11);
+  }
+}